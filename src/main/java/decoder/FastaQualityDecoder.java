@@ -1,5 +1,7 @@
 package decoder;
 
+import io.SequenceRecord;
+import exception.QualityFormatException;
 
 public class FastaQualityDecoder implements QualityDecoder {
 	
@@ -16,4 +18,33 @@ public class FastaQualityDecoder implements QualityDecoder {
 		}
 		return qualityValues;
 	}
+
+	@Override
+	public int decodeQuality(byte[] quality, int offset, int length,
+			int[] values) throws QualityFormatException {
+		int count = 0;
+		int i = offset;
+		int end = offset + length;
+		while (i < end) {
+			byte c = quality[i];
+			if ((c == ' ') || (c == '\t') || (c == '\r') || (c == '\n')) {
+				i++;
+				continue;
+			}
+			boolean negative = (c == '-');
+			if (negative)
+				i++;
+			int start = i;
+			int q = 0;
+			while ((i < end) && (quality[i] >= '0') && (quality[i] <= '9'))
+				q = q * 10 + (quality[i++] - '0');
+			if ((i == start)
+					|| ((i < end) && (quality[i] != ' ') && (quality[i] != '\t')
+							&& (quality[i] != '\r') && (quality[i] != '\n')))
+				throw new QualityFormatException(new String(quality, offset,
+						length, SequenceRecord.ASCII));
+			values[count++] = negative ? -q : q;
+		}
+		return count;
+	}
 }
@@ -1,5 +1,11 @@
 package decoder;
 
+import io.SequenceRecord;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import utils.QualityKernel;
 import exception.QualityFormatException;
 
 /**
@@ -16,10 +22,39 @@ public class FastqQualityDecoder implements QualityDecoder {
 	 */
 	private QualityEncoding encoding = QualityEncoding.SANGER;
 
+	/**
+	 * Decoders shared by all files, one for each encoding
+	 */
+	private static final Map<QualityEncoding, FastqQualityDecoder> SHARED = new EnumMap<QualityEncoding, FastqQualityDecoder>(
+			QualityEncoding.class);
+
+	/**
+	 * The loops decoding the qualities
+	 */
+	private static final QualityKernel KERNEL = QualityKernel.getInstance();
+
+	static {
+		for (QualityEncoding e : QualityEncoding.values())
+			SHARED.put(e, new FastqQualityDecoder(e));
+	}
+
 	public FastqQualityDecoder(QualityEncoding offset) {
 		this.encoding = offset;
 	}
 
+	/**
+	 * Returns the decoder of an encoding shared by all the files processed.
+	 * Decoders keep no state, so the same decoder can be used by any number
+	 * of threads.
+	 * 
+	 * @param encoding
+	 *            the encoding
+	 * @return the shared decoder
+	 */
+	public static FastqQualityDecoder getShared(QualityEncoding encoding) {
+		return SHARED.get(encoding);
+	}
+
 	@Override
 	public int[] decodeQuality(String quality) throws QualityFormatException {
 		int[] qual = new int[quality.length()];
@@ -34,6 +69,17 @@ public class FastqQualityDecoder implements QualityDecoder {
 		return qual;
 	}
 
+	@Override
+	public int decodeQuality(byte[] quality, int offset, int length,
+			int[] values) throws QualityFormatException {
+		if (!KERNEL.decode(quality, offset, length, encoding.getOffset(),
+				encoding.lowerBound, encoding.upperBoud, values)) {
+			throw new QualityFormatException(new String(quality, offset,
+					length, SequenceRecord.ASCII));
+		}
+		return length;
+	}
+
 	/**
 	 * @return the encoding
 	 */
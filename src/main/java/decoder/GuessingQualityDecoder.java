@@ -0,0 +1,148 @@
+package decoder;
+
+import decoder.FastqQualityDecoder.QualityEncoding;
+import exception.QualityFormatException;
+
+/**
+ * Quality decoder for fastq files guessing the encoding from the qualities it
+ * decodes. Qualities are added to a {@link QualityHistogram} until the quality
+ * offset is certain, then the decoder binds to a {@link FastqQualityDecoder}
+ * and stops looking at the histogram. Since a sample of the file can not
+ * tell all the quality values the file holds, the decoder binds to the
+ * general Phred+33 or Phred+64 bounds rather than to the specific encoding,
+ * which is available through {@link #getEncoding()}.
+ * <p>
+ * A decoder built on the histogram of a sample of the file does not wait: if
+ * the sample does not tell the offset it binds to the most likely one (see
+ * {@link QualityHistogram#getLikelyOffset()}). A decoder starting from an
+ * empty histogram decodes each quality with the most likely offset according
+ * to the qualities seen so far, itself included, until the offset is certain.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public class GuessingQualityDecoder implements QualityDecoder {
+
+	/**
+	 * The histogram of the qualities seen so far
+	 */
+	private QualityHistogram histogram = null;
+
+	/**
+	 * The bound decoder or <code>null</code> if the offset is not certain yet
+	 */
+	private volatile FastqQualityDecoder decoder = null;
+
+	/**
+	 * Creates a decoder starting from an empty histogram
+	 */
+	public GuessingQualityDecoder() {
+		this(new QualityHistogram());
+	}
+
+	/**
+	 * Creates a decoder starting from the histogram of a sample of the file.
+	 * If the sample holds any quality the decoder is bound to the most likely
+	 * offset.
+	 * 
+	 * @param histogram
+	 *            the histogram
+	 */
+	public GuessingQualityDecoder(QualityHistogram histogram) {
+		this.histogram = histogram;
+		if (histogram.getRecords() > 0)
+			decoder = likely();
+		else
+			bind();
+	}
+
+	@Override
+	public int[] decodeQuality(String quality) throws QualityFormatException {
+		FastqQualityDecoder d = decoder;
+		if (d == null)
+			d = observe(quality);
+		return d.decodeQuality(quality);
+	}
+
+	@Override
+	public int decodeQuality(byte[] quality, int offset, int length,
+			int[] values) throws QualityFormatException {
+		FastqQualityDecoder d = decoder;
+		if (d == null)
+			d = observe(quality, offset, length);
+		return d.decodeQuality(quality, offset, length, values);
+	}
+
+	/**
+	 * Adds a quality to the histogram
+	 * 
+	 * @param quality
+	 *            the quality
+	 * @return the decoder to use for the quality
+	 */
+	private synchronized FastqQualityDecoder observe(String quality) {
+		if (decoder == null) {
+			histogram.add(quality);
+			bind();
+		}
+		return (decoder == null) ? likely() : decoder;
+	}
+
+	/**
+	 * Adds a quality to the histogram
+	 * 
+	 * @param quality
+	 *            the array holding the quality
+	 * @param offset
+	 *            start of the quality
+	 * @param length
+	 *            length of the quality
+	 * @return the decoder to use for the quality
+	 */
+	private synchronized FastqQualityDecoder observe(byte[] quality,
+			int offset, int length) {
+		if (decoder == null) {
+			histogram.add(quality, offset, length);
+			bind();
+		}
+		return (decoder == null) ? likely() : decoder;
+	}
+
+	/**
+	 * Binds the decoder if the offset is certain
+	 */
+	private void bind() {
+		int offset = histogram.getOffset();
+		if (offset == 33)
+			decoder = FastqQualityDecoder.getShared(QualityEncoding.PHRED33);
+		else if (offset == 64)
+			decoder = FastqQualityDecoder.getShared(QualityEncoding.PHRED64);
+	}
+
+	/**
+	 * @return the decoder of the most likely offset according to the
+	 *         qualities seen so far
+	 */
+	private FastqQualityDecoder likely() {
+		return FastqQualityDecoder
+				.getShared((histogram.getLikelyOffset() == 64) ? QualityEncoding.PHRED64
+						: QualityEncoding.PHRED33);
+	}
+
+	/**
+	 * @return <code>true</code> if the decoder is bound to an offset
+	 */
+	public boolean isBound() {
+		return decoder != null;
+	}
+
+	/**
+	 * @return the most likely encoding according to the qualities seen or
+	 *         <code>null</code> if no quality has been seen yet
+	 */
+	public synchronized QualityEncoding getEncoding() {
+		return histogram.guess();
+	}
+
+}
@@ -1,5 +1,7 @@
 package decoder;
 
+import java.nio.charset.StandardCharsets;
+
 import exception.QualityFormatException;
 
 /**
@@ -23,4 +25,31 @@ public interface QualityDecoder {
 	 *             encoding
 	 */
 	public int[] decodeQuality(String quality) throws QualityFormatException;
+
+	/**
+	 * Decode the quality of a sequence from bytes into an existing array of
+	 * quality values. By default the bytes are decoded as a string: decoders
+	 * should override this method to avoid building the string.
+	 * 
+	 * @param quality
+	 *            the array holding the quality
+	 * @param offset
+	 *            start of the quality
+	 * @param length
+	 *            length of the quality
+	 * @param values
+	 *            the array receiving the quality values, at least
+	 *            <code>length</code> long
+	 * @return the number of quality values
+	 * @throws QualityFormatException
+	 *             if the quality has an incorrect format according to the
+	 *             encoding
+	 */
+	public default int decodeQuality(byte[] quality, int offset, int length,
+			int[] values) throws QualityFormatException {
+		int[] q = decodeQuality(new String(quality, offset, length,
+				StandardCharsets.US_ASCII));
+		System.arraycopy(q, 0, values, 0, q.length);
+		return q.length;
+	}
 }
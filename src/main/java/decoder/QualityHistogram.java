@@ -0,0 +1,195 @@
+package decoder;
+
+import decoder.FastqQualityDecoder.QualityEncoding;
+
+/**
+ * Histogram of the quality characters of a fastq file used to guess its
+ * quality encoding. Qualities are added one at a time, either from a sample
+ * of the file or while the file is being processed, and the guess can be
+ * asked at any moment. The offset (Phred+33 or Phred+64) is certain as soon as
+ * a character which is valid in one encoding only has been seen; the
+ * specific encoding is refined as more characters are added. This guess can be
+ * not totally accurate.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public class QualityHistogram {
+
+	/**
+	 * Characters lower than this one can only be Phred+33 (quality lower than
+	 * -5 in Phred+64)
+	 */
+	private static final int PHRED33_ONLY = 64 - 5;
+
+	/**
+	 * Characters higher than this one can only be Phred+64 (quality higher
+	 * than 41 in Phred+33)
+	 */
+	private static final int PHRED64_ONLY = 33 + 41;
+
+	/**
+	 * Number of occurrences of each character
+	 */
+	private long[] counts = new long[256];
+
+	/**
+	 * Lowest character seen
+	 */
+	private int min = 256;
+
+	/**
+	 * Highest character seen
+	 */
+	private int max = -1;
+
+	/**
+	 * Number of qualities ending with a B tail (typical of Illumina 1.5
+	 * encoding)
+	 */
+	private long btails = 0;
+
+	/**
+	 * Number of qualities added
+	 */
+	private long records = 0;
+
+	/**
+	 * Adds a quality to the histogram
+	 * 
+	 * @param quality
+	 *            the array holding the quality
+	 * @param offset
+	 *            start of the quality
+	 * @param length
+	 *            length of the quality
+	 */
+	public void add(byte[] quality, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++)
+			count(quality[i] & 0xFF);
+		if ((length > 0) && (quality[end - 1] == 'B'))
+			btails++;
+		records++;
+	}
+
+	/**
+	 * Adds a quality to the histogram
+	 * 
+	 * @param quality
+	 *            the quality
+	 */
+	public void add(String quality) {
+		int length = quality.length();
+		for (int i = 0; i < length; i++)
+			count(quality.charAt(i) & 0xFF);
+		if ((length > 0) && (quality.charAt(length - 1) == 'B'))
+			btails++;
+		records++;
+	}
+
+	/**
+	 * Counts a character
+	 * 
+	 * @param c
+	 *            the character
+	 */
+	private void count(int c) {
+		counts[c]++;
+		if (c < min)
+			min = c;
+		if (c > max)
+			max = c;
+	}
+
+	/**
+	 * @return the quality offset (33 or 64) or -1 if it cannot be told yet
+	 */
+	public int getOffset() {
+		if (min < PHRED33_ONLY)
+			return 33;
+		if (max > PHRED64_ONLY)
+			return 64;
+		return -1;
+	}
+
+	/**
+	 * @return the quality offset if it is certain, otherwise the most likely
+	 *         one, or -1 if no quality has been added
+	 */
+	public int getLikelyOffset() {
+		int offset = getOffset();
+		if (offset > 0)
+			return offset;
+		if (records == 0)
+			return -1;
+		// All the characters would be Phred+64 qualities not higher than 10:
+		// likely only with the B tails of Illumina 1.5
+		return ((min == 'B') && (btails > 0)) ? 64 : 33;
+	}
+
+	/**
+	 * @return <code>true</code> if the quality offset is certain
+	 */
+	public boolean isCertain() {
+		return getOffset() > 0;
+	}
+
+	/**
+	 * @return the number of qualities added
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @param c
+	 *            a character
+	 * @return the number of times the character has been seen
+	 */
+	public long getCount(int c) {
+		return counts[c & 0xFF];
+	}
+
+	/**
+	 * Guesses the encoding from the characters seen so far. If the offset is
+	 * not certain the guess relies on the most likely one.
+	 * 
+	 * @return the most likely encoding or <code>null</code> if no quality has
+	 *         been added
+	 * @see #getLikelyOffset()
+	 */
+	public QualityEncoding guess() {
+		int offset = getLikelyOffset();
+		if (offset < 0)
+			return null;
+		int lowerBound = min - offset;
+		int upperBound = max - offset;
+
+		// Testing Solexa encoding
+		if ((lowerBound < 0) && (offset == 64))
+			return QualityEncoding.SOLEXA;
+
+		// Testing Sanger encoding
+		if ((lowerBound == 0) && (upperBound == 40) && (offset == 33))
+			return QualityEncoding.SANGER;
+
+		// Testing Illumina 1.3 encoding
+		if ((lowerBound == 0) && (upperBound == 40) && (offset == 64))
+			return QualityEncoding.ILLUMINA13;
+
+		// Testing Illumina 1.5 encoding
+		if ((lowerBound == 2) && (btails > 0) && (offset == 64))
+			return QualityEncoding.ILLUMINA15;
+
+		// Testing Illumina 1.8 encoding
+		if ((upperBound > 40) && (offset == 33))
+			return QualityEncoding.ILLUMINA18;
+
+		// Undefined encoding
+		return (offset == 33) ? QualityEncoding.PHRED33
+				: QualityEncoding.PHRED64;
+	}
+
+}
@@ -0,0 +1,59 @@
+package exception;
+
+/**
+ * Exception thrown when the memory budget of a process can not be met,
+ * either because the buffers of the process need more memory than the budget
+ * or because an analyzer table has grown beyond its share of the budget.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public class MemoryBudgetException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4310279214651021867L;
+
+	/**
+	 * Memory needed in bytes
+	 */
+	private long needed = -1;
+
+	/**
+	 * Memory available in bytes
+	 */
+	private long available = -1;
+
+	/**
+	 * Creates the exception
+	 * 
+	 * @param message
+	 *            the message
+	 * @param needed
+	 *            the memory needed in bytes
+	 * @param available
+	 *            the memory available in bytes
+	 */
+	public MemoryBudgetException(String message, long needed, long available) {
+		super(message);
+		this.needed = needed;
+		this.available = available;
+	}
+
+	/**
+	 * @return the memory needed in bytes
+	 */
+	public long getNeeded() {
+		return needed;
+	}
+
+	/**
+	 * @return the memory available in bytes
+	 */
+	public long getAvailable() {
+		return available;
+	}
+
+}
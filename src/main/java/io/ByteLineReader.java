@@ -0,0 +1,265 @@
+package io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Line oriented reader working on raw bytes. Lines are never decoded into
+ * characters: each call to {@link #nextLine()} only moves two indices over the
+ * current byte window, so that callers can inspect the line with
+ * {@link #byteAt(int)} or copy it with {@link #copyLine(byte[], int)} without
+ * any intermediate allocation. Line terminators (<code>\n</code> or
+ * <code>\r\n</code>) are not part of the line.
+ * <p>
+ * Subclasses provide the byte window and the way it is refilled when a line
+ * crosses its end.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public abstract class ByteLineReader implements Closeable {
+
+	/**
+	 * Eight new line characters packed in a long
+	 */
+	private static final long NEW_LINES = 0x0A0A0A0A0A0A0A0AL;
+
+	/**
+	 * Lowest bit of each byte of a long
+	 */
+	private static final long LOW_BITS = 0x0101010101010101L;
+
+	/**
+	 * Highest bit of each byte of a long
+	 */
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	/**
+	 * The current byte window. Valid bytes go from index 0 to the limit of the
+	 * buffer; the position of the buffer is not used.
+	 */
+	private ByteBuffer buffer = null;
+
+	/**
+	 * View of the window used for bulk copies
+	 */
+	private ByteBuffer view = null;
+
+	/**
+	 * Array used to decode lines of windows not backed by an array
+	 */
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * Next index to be read in the window
+	 */
+	private int pos = 0;
+
+	/**
+	 * Start of the current line in the window
+	 */
+	private int lineStart = 0;
+
+	/**
+	 * End of the current line in the window (exclusive)
+	 */
+	private int lineEnd = 0;
+
+	/**
+	 * Number of lines read
+	 */
+	private long lineNumber = 0;
+
+	/**
+	 * Number of bytes discarded from the window
+	 */
+	private long discarded = 0;
+
+	/**
+	 * Advances to the next line.
+	 *
+	 * @return <code>false</code> if the end of the input has been reached
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public boolean nextLine() throws IOException {
+		int from = pos;
+		while (true) {
+			int limit = buffer.limit();
+			int i = indexOfNewLine(from, limit);
+			if (i >= 0) {
+				setLine(pos, i);
+				pos = i + 1;
+				return true;
+			}
+			// The line crosses the end of the window
+			int scanned = limit - pos;
+			boolean more = fill(pos);
+			discarded += pos;
+			pos = 0;
+			if (!more) {
+				limit = buffer.limit();
+				if (limit == 0)
+					return false;
+				// Last line without terminator
+				setLine(0, limit);
+				pos = limit;
+				return true;
+			}
+			from = scanned;
+		}
+	}
+
+	/**
+	 * Searches the next new line character in the window. Eight bytes are
+	 * tested at a time reading the window as a sequence of longs.
+	 * 
+	 * @param from
+	 *            first index to test
+	 * @param limit
+	 *            last index to test (exclusive)
+	 * @return the index of the new line character or -1 if no new line has
+	 *         been found
+	 */
+	private int indexOfNewLine(int from, int limit) {
+		int i = from;
+		for (; i + 8 <= limit; i += 8) {
+			long word = buffer.getLong(i) ^ NEW_LINES;
+			long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+			if (found != 0)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		for (; i < limit; i++) {
+			if (buffer.get(i) == '\n')
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the boundaries of the current line removing the carriage return if
+	 * present
+	 *
+	 * @param start
+	 *            the line start
+	 * @param end
+	 *            the line end (exclusive)
+	 */
+	private void setLine(int start, int end) {
+		if ((end > start) && (buffer.get(end - 1) == '\r'))
+			end--;
+		lineStart = start;
+		lineEnd = end;
+		lineNumber++;
+	}
+
+	/**
+	 * Discards all bytes before <code>keep</code>, moves the remaining ones at
+	 * the beginning of the window and appends new bytes after them.
+	 *
+	 * @param keep
+	 *            first index of the window that must be preserved
+	 * @return <code>false</code> if no more bytes are available
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	protected abstract boolean fill(int keep) throws IOException;
+
+	/**
+	 * Sets a new byte window. This method is meant to be called by
+	 * {@link #fill(int)} when the window is replaced instead of being refilled
+	 * in place.
+	 *
+	 * @param buffer
+	 *            the new window
+	 */
+	protected void setWindow(ByteBuffer buffer) {
+		// Words are scanned from the lowest byte
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.buffer = buffer;
+		this.view = buffer.duplicate();
+	}
+
+	/**
+	 * @return the current byte window
+	 */
+	protected ByteBuffer getWindow() {
+		return buffer;
+	}
+
+	/**
+	 * @return the index in the current window of the first byte of the current
+	 *         line
+	 */
+	protected int getLineStart() {
+		return lineStart;
+	}
+
+	/**
+	 * @return the length of the current line
+	 */
+	public int lineLength() {
+		return lineEnd - lineStart;
+	}
+
+	/**
+	 * @param index
+	 *            index in the current line
+	 * @return the byte at the specified index of the current line
+	 */
+	public byte byteAt(int index) {
+		return buffer.get(lineStart + index);
+	}
+
+	/**
+	 * Copies the current line in the specified array
+	 *
+	 * @param dst
+	 *            the destination array
+	 * @param offset
+	 *            the offset in the destination array
+	 */
+	public void copyLine(byte[] dst, int offset) {
+		view.limit(lineEnd);
+		view.position(lineStart);
+		view.get(dst, offset, lineEnd - lineStart);
+	}
+
+	/**
+	 * Decodes the current line
+	 *
+	 * @param charset
+	 *            the charset used to decode the line
+	 * @return the current line as a string
+	 */
+	public String lineToString(Charset charset) {
+		int length = lineEnd - lineStart;
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + lineStart,
+					length, charset);
+		if (scratch.length < length)
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		copyLine(scratch, 0);
+		return new String(scratch, 0, length, charset);
+	}
+
+	/**
+	 * @return the number of lines read so far
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the number of bytes read so far, line terminators included,
+	 *         counted from the point where the reader started
+	 */
+	public long getPosition() {
+		return discarded + pos;
+	}
+
+}
@@ -1,18 +1,20 @@
 package io;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
+import listeners.BatchListener;
+import listeners.RecordListener;
+import listeners.RecordListenerSupport;
 import listeners.SequenceListener;
 import exception.FileFormatException;
 
 /**
  * {@link FileSequenceReader} implementation for reading fasta + quality files.
+ * Both files are parsed byte by byte in a single pass: quality values are
+ * converted to integers while reading and are carried by the notified
+ * {@link SequenceRecord}, so that they never have to be parsed again.
  * 
  * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
  *         Bacci</a>
@@ -21,34 +23,47 @@ import exception.FileFormatException;
 public class FastaQualitySequenceReader implements FileSequenceReader {
 
 	/**
-	 * The list of listeners
+	 * Lookup table for valid sequence characters (<code>[a-zA-Z]</code>)
 	 */
-	private ArrayList<SequenceListener> listeners;
+	private static final boolean[] SEQ_CHARS = new boolean[256];
 
 	/**
-	 * FASTA sequence reader
+	 * Lookup table for white space characters (<code>\s</code>)
 	 */
-	private FastaLikeReader seqReader;
+	private static final boolean[] BLANK_CHARS = new boolean[256];
+
+	static {
+		for (int c = 'a'; c <= 'z'; c++)
+			SEQ_CHARS[c] = true;
+		for (int c = 'A'; c <= 'Z'; c++)
+			SEQ_CHARS[c] = true;
+		BLANK_CHARS[' '] = true;
+		BLANK_CHARS['\t'] = true;
+		BLANK_CHARS['\n'] = true;
+		BLANK_CHARS[0x0B] = true;
+		BLANK_CHARS['\f'] = true;
+		BLANK_CHARS['\r'] = true;
+	}
 
 	/**
-	 * Quality sequence reader
+	 * The list of listeners
 	 */
-	private FastaLikeReader qualReader;
+	private RecordListenerSupport listeners = null;
 
 	/**
-	 * Regular expression matching FASTA IDs
+	 * FASTA sequence reader
 	 */
-	private static final String FASTA_ID = "^>.+$";
+	private FastaSequenceReader seqReader;
 
 	/**
-	 * Position of the id in the sequence and quality array
+	 * Quality sequence reader
 	 */
-	private static final int ID = 0;
+	private FastaQualityReader qualReader;
 
 	/**
-	 * Position of the sequence in the sequence and quality array
+	 * The record notified to the listeners
 	 */
-	private static final int SEQ = 1;
+	private SequenceRecord record = new SequenceRecord();
 
 	/**
 	 * Constructor
@@ -59,75 +74,94 @@ public class FastaQualitySequenceReader implements FileSequenceReader {
 	 *            the quality file (QUAL format)
 	 */
 	protected FastaQualitySequenceReader(InputStream seq, InputStream qual) {
+		this(new StreamLineReader(seq), new StreamLineReader(qual));
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param seq
+	 *            line reader for the sequence file (FASTA format)
+	 * @param qual
+	 *            line reader for the quality file (QUAL format)
+	 */
+	protected FastaQualitySequenceReader(ByteLineReader seq, ByteLineReader qual) {
 		this.seqReader = new FastaSequenceReader(seq);
 		this.qualReader = new FastaQualityReader(qual);
-		this.listeners = new ArrayList<SequenceListener>();
+		this.listeners = new RecordListenerSupport();
 	}
 
 	@Override
 	public void readAllSequence() throws IOException, FileFormatException {
-		String[] s;
-		String[] q;
-		while ((s = seqReader.read()) != null) {
-			q = qualReader.read();
-			if (q == null)
+		while (seqReader.read()) {
+			if (!qualReader.read())
 				throw new FileFormatException("Quality file is too short");
-			if (!s[ID].equals(q[ID])) {
+			if (!seqReader.sameId(qualReader)) {
 				String error = String.format(
 						"Sequence id and quality id are not matched: %s - %s",
-						s[ID], q[ID]);
+						seqReader.idToString(), qualReader.idToString());
 				throw new FileFormatException(error);
 			}
-			if (s[SEQ].length() != getQualityLength(q[SEQ])) {
+			if (seqReader.length != qualReader.values) {
 				String error = String
 						.format("Sequence length and quality length are different: %d - %d",
-								s[SEQ].length(), getQualityLength(q[SEQ]));
+								seqReader.length, qualReader.values);
 				throw new FileFormatException(error);
 			}
-			notifyListeners(s[ID], s[SEQ], q[SEQ]);
+			record.setId(seqReader.id, 0, seqReader.idLength);
+			record.setSequence(seqReader.data, 0, seqReader.length);
+			record.setQuality(qualReader.data, 0, qualReader.length);
+			record.setQualityValues(qualReader.qual, qualReader.values);
+			notifyListeners(record);
 		}
-		if (qualReader.read() != null)
+		if (qualReader.read())
 			throw new FileFormatException("Sequence file is too short");
+		listeners.flush();
 	}
 
-	/**
-	 * Returns the number of quality values in a quality string
-	 * 
-	 * @param quality
-	 *            the quality string
-	 * @return the number of quality values
-	 */
-	private int getQualityLength(String quality) {
-		Pattern pattern = Pattern.compile("\\b(\\d+)\\b");
-		Matcher m = pattern.matcher(quality);
-		int count = 0;
-		while (m.find())
-			count++;
-		return count;
+	@Override
+	public void addListener(SequenceListener listener) {
+		listeners.addListener(listener);
 	}
 
 	@Override
-	public void addListener(SequenceListener listener) {
-		int index = listeners.indexOf(listener);
-		if (index < 0) {
-			listeners.add(listener);
-		}
+	public void removeListener(SequenceListener listener) {
+		listeners.removeListener(listener);
+	}
 
+	@Override
+	public void addRecordListener(RecordListener listener) {
+		listeners.addRecordListener(listener);
 	}
 
 	@Override
-	public void removeListener(SequenceListener listener) {
-		int index = listeners.indexOf(listener);
-		if (index >= 0) {
-			listeners.remove(index);
-		}
+	public void removeRecordListener(RecordListener listener) {
+		listeners.removeRecordListener(listener);
+	}
+
+	@Override
+	public void addBatchListener(BatchListener listener) {
+		listeners.addBatchListener(listener);
+	}
+
+	@Override
+	public void removeBatchListener(BatchListener listener) {
+		listeners.removeBatchListener(listener);
 	}
 
 	@Override
 	public void notifyListeners(String id, String sequence, String quality) {
-		for (int i = 0; i < listeners.size(); i++) {
-			listeners.get(i).sequence(id, sequence, quality);
-		}
+		listeners.notifyListeners(id, sequence, quality);
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord record) {
+		listeners.notifyListeners(record);
+	}
+
+	@Override
+	public void notifyListeners(RecordBatch batch) {
+		listeners.notifyListeners(batch);
 	}
 
 	@Override
@@ -148,112 +182,154 @@ public class FastaQualitySequenceReader implements FileSequenceReader {
 		/**
 		 * The main reader
 		 */
-		private BufferedReader reader;
-		
+		ByteLineReader reader;
+
 		/**
-		 * if <code>true</code> this class will read from the line buffer
+		 * if <code>true</code> the current line of the reader is an id not
+		 * consumed yet
 		 */
 		private boolean buffer = false;
 
 		/**
-		 * A line buffer
+		 * Id of the last sequence (with the leading '&gt;')
+		 */
+		protected byte[] id = new byte[256];
+
+		/**
+		 * Length of the id
 		 */
-		private String bufferLine = null;
+		protected int idLength = 0;
 
 		/**
-		 * Number of lines read from the buffer
+		 * Data of the last sequence
 		 */
-		private long numLine = 0;
+		protected byte[] data = new byte[1024];
+
+		/**
+		 * Length of the data
+		 */
+		protected int length = 0;
 
 		/**
 		 * Constructor
 		 * 
 		 * @param reader
-		 *            an input Stream
+		 *            the line reader
 		 */
-		private FastaLikeReader(InputStream reader) {
-			this.reader = new BufferedReader(new InputStreamReader(reader));
+		private FastaLikeReader(ByteLineReader reader) {
+			this.reader = reader;
 		}
 
 		/**
-		 * Method for reading FASTA like sequences. This method returns an array
-		 * of string with length 2. At index 0 is reported the id of the
-		 * sequence whereas at index 1 is reported the sequence itself
+		 * Method for reading FASTA like sequences. Id and data of the sequence
+		 * are stored in this object.
 		 * 
-		 * @return an array of string
+		 * @return <code>false</code> if there are no more sequences
 		 * @throws IOException
 		 *             if an I/O error occurs
 		 * @throws FileFormatException
 		 *             if the file is not in the correct format
 		 */
-		private String[] read() throws IOException, FileFormatException {
-			String line;
-			String id = null;
-			StringBuffer s = new StringBuffer();
-			while ((line = readLine(buffer)) != null) {
-				if (line.isEmpty())
+		boolean read() throws IOException, FileFormatException {
+			boolean hasId = false;
+			idLength = 0;
+			length = 0;
+			clear();
+			while (buffer || reader.nextLine()) {
+				buffer = false;
+				int lineLength = reader.lineLength();
+				if (lineLength == 0)
 					// if line is empty continue
 					continue;
-				if (Pattern.matches(FASTA_ID, line) && id != null) {
-					// if line is an id but the id is not null break and read
-					// from buffer
-					buffer = true;
-					break;
-				}
-				if (Pattern.matches(FASTA_ID, line) && id == null) {
-					// if line is an id and the id is null store the id and
-					// continue without reading from buffer
-					buffer = false;
-					id = line;
+				if ((reader.byteAt(0) == '>') && (lineLength > 1)) {
+					if (hasId) {
+						// if line is an id but the id has been already read
+						// stop and keep the line for the next sequence
+						buffer = true;
+						break;
+					}
+					hasId = true;
+					id = ensureCapacity(id, 0, lineLength);
+					reader.copyLine(id, 0);
+					idLength = lineLength;
 					continue;
 				}
-				if (Pattern.matches(getRegex(), line)) {
-					// if line is a sequence append it to the sequence buffer
-					s.append(format(line));
-				} else {
-					// if the line doesn't match any specified regular
-					// expression a FileFormatException will be thrown
-					throw new FileFormatException(formatError());
+				if (!append(reader)) {
+					// if the line is not valid a FileFormatException will be
+					// thrown
+					throw new FileFormatException(formatError(reader
+							.getLineNumber()));
 				}
 			}
-			// If everithing is null return null
-			if (id == null && s.length() == 0)
-				return null;
-			return new String[] { id, s.toString() };
+			return hasId || (length > 0);
 		}
-		
-		private String readLine(boolean buffer) throws IOException {
-			if (buffer)
-				return bufferLine;
-			bufferLine = reader.readLine();
-			numLine++;
-			return bufferLine;
+
+		/**
+		 * @param other
+		 *            another reader
+		 * @return <code>true</code> if the last ids read by the two readers
+		 *         are equal
+		 */
+		boolean sameId(FastaLikeReader other) {
+			if (idLength != other.idLength)
+				return false;
+			for (int i = 0; i < idLength; i++) {
+				if (id[i] != other.id[i])
+					return false;
+			}
+			return true;
 		}
 
 		/**
-		 * Sequence regex. It is different for each type of sequence (quality
-		 * and DNA sequence in this case)
-		 * 
-		 * @return the regular expression for this sequence format
+		 * @return the last id read
+		 */
+		String idToString() {
+			return (idLength == 0) ? null : new String(id, 0, idLength,
+					SequenceRecord.ID_CHARSET);
+		}
+
+		/**
+		 * Resets the data of the sequence
 		 */
-		protected abstract String getRegex();
+		protected void clear() {
+		}
 
 		/**
-		 * Format a sequence string based on the FASTA file format
+		 * Validates a data line and appends it to the sequence
 		 * 
-		 * @param input
-		 *            the input sequence
-		 * @return a string formatted following the FASTA standard
+		 * @param line
+		 *            the reader positioned on the line
+		 * @return <code>false</code> if the line is not valid
 		 */
-		protected abstract String format(String input);
+		protected abstract boolean append(ByteLineReader line);
 
 		/**
+		 * @param line
+		 *            the line number
 		 * @return an error message for {@link FileFormatException}
 		 */
-		protected abstract String formatError();
+		protected abstract String formatError(long line);
 
 	}
 
+	/**
+	 * Grows a buffer if it cannot store the specified number of additional
+	 * bytes
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param used
+	 *            number of bytes already stored in the buffer
+	 * @param length
+	 *            number of bytes to add
+	 * @return the buffer itself or a bigger copy of it
+	 */
+	private static byte[] ensureCapacity(byte[] buffer, int used, int length) {
+		int needed = used + length;
+		if (needed <= buffer.length)
+			return buffer;
+		return Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+	}
 
 	/**
 	 * {@link FastaLikeReader} implementation for reading in fasta sequence
@@ -265,41 +341,40 @@ public class FastaQualitySequenceReader implements FileSequenceReader {
 	 */
 	private class FastaSequenceReader extends FastaLikeReader {
 
-		/**
-		 * Regular expression for sequence data
-		 */
-		private static final String SEQ_RGX = "^[a-zA-Z]+$";
-
 		/**
 		 * Constructor
 		 * 
 		 * @param reader
 		 *            the main reader
 		 */
-		private FastaSequenceReader(InputStream reader) {
+		private FastaSequenceReader(ByteLineReader reader) {
 			super(reader);
 		}
 
 		@Override
-		protected String getRegex() {
-			return SEQ_RGX;
-		}
-
-		@Override
-		protected String format(String input) {
-			return input.trim();
+		protected boolean append(ByteLineReader line) {
+			int lineLength = line.lineLength();
+			data = ensureCapacity(data, length, lineLength);
+			line.copyLine(data, length);
+			for (int i = length; i < length + lineLength; i++) {
+				if (!SEQ_CHARS[data[i] & 0xFF])
+					return false;
+			}
+			length += lineLength;
+			return true;
 		}
 
 		@Override
-		protected String formatError() {
-			return String.format("Wrong sequence format at line: %d",
-					super.numLine);
+		protected String formatError(long line) {
+			return String.format("Wrong sequence format at line: %d", line);
 		}
 
 	}
 
 	/**
-	 * {@link FastaLikeReader} implementation for reading in qual sequence files
+	 * {@link FastaLikeReader} implementation for reading in qual sequence
+	 * files. Each line is stored trimmed and followed by a space, as the
+	 * string form of the quality, and its values are parsed at the same time.
 	 * 
 	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
 	 *         Bacci</a>
@@ -308,9 +383,14 @@ public class FastaQualitySequenceReader implements FileSequenceReader {
 	private class FastaQualityReader extends FastaLikeReader {
 
 		/**
-		 * Regular expression for quality data
+		 * Quality values
 		 */
-		private static final String SEQ_RGX = "^[0-9\\s]+$";
+		private int[] qual = new int[1024];
+
+		/**
+		 * Number of quality values
+		 */
+		private int values = 0;
 
 		/**
 		 * Constructor
@@ -318,24 +398,55 @@ public class FastaQualitySequenceReader implements FileSequenceReader {
 		 * @param reader
 		 *            the main reader
 		 */
-		private FastaQualityReader(InputStream reader) {
+		private FastaQualityReader(ByteLineReader reader) {
 			super(reader);
 		}
 
 		@Override
-		protected String getRegex() {
-			return SEQ_RGX;
+		protected void clear() {
+			values = 0;
 		}
 
 		@Override
-		protected String format(String input) {
-			return String.format("%s ", input.trim());
+		protected boolean append(ByteLineReader line) {
+			int lineLength = line.lineLength();
+			data = ensureCapacity(data, length, lineLength + 1);
+			line.copyLine(data, length);
+			int start = length;
+			int end = length + lineLength;
+			while ((start < end) && BLANK_CHARS[data[start] & 0xFF])
+				start++;
+			while ((end > start) && BLANK_CHARS[data[end - 1] & 0xFF])
+				end--;
+			// Every value takes at least two bytes but the last one
+			if (qual.length < values + (end - start) / 2 + 1)
+				qual = Arrays.copyOf(qual, Math.max(qual.length * 2, values
+						+ (end - start) / 2 + 1));
+			int value = -1;
+			for (int i = start; i < end; i++) {
+				int c = data[i];
+				if ((c >= '0') && (c <= '9')) {
+					value = (value < 0) ? (c - '0') : (value * 10 + c - '0');
+				} else if (BLANK_CHARS[c & 0xFF]) {
+					if (value >= 0)
+						qual[values++] = value;
+					value = -1;
+				} else {
+					return false;
+				}
+			}
+			if (value >= 0)
+				qual[values++] = value;
+			// Trimmed line followed by a space
+			System.arraycopy(data, start, data, length, end - start);
+			length += end - start;
+			data[length++] = ' ';
+			return true;
 		}
 
 		@Override
-		protected String formatError() {
-			return String.format("Wrong quality format at line: %d",
-					super.numLine);
+		protected String formatError(long line) {
+			return String.format("Wrong quality format at line: %d", line);
 		}
 
 	}
@@ -76,6 +76,15 @@ public class FastaQualitySequenceWriter implements FileSequenceWriter {
 		return res.substring(0, res.length() - 1);
 	}
 
+	/**
+	 * @see FileSequenceWriter#writeRecord(SequenceRecord)
+	 */
+	@Override
+	public void writeRecord(SequenceRecord record) throws IOException {
+		writeSequence(record.getIdString(), record.getSequenceString(),
+				record.getQualityString());
+	}
+
 	@Override
 	public void close() throws IOException {
 		this.seqOut.close();
@@ -55,6 +55,15 @@ public class FastaSequenceWriter implements FileSequenceWriter {
 		return res.trim();
 	}
 
+	/**
+	 * @see FileSequenceWriter#writeRecord(SequenceRecord)
+	 */
+	@Override
+	public void writeRecord(SequenceRecord record) throws IOException {
+		writeSequence(record.getIdString(), record.getSequenceString(),
+				record.getQualityString());
+	}
+
 	@Override
 	public void close() throws IOException {
 		this.out.close();
@@ -0,0 +1,409 @@
+package io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import listeners.BatchListener;
+import listeners.RecordListener;
+import listeners.RecordListenerSupport;
+import listeners.SequenceListener;
+import utils.Blocking;
+import exception.FileFormatException;
+
+/**
+ * {@link FileSequenceReader} implementation for reading fastq files. This
+ * reader works directly on the bytes of the file: lines are classified by a
+ * small state machine and validated with lookup tables, so no regular
+ * expression and no character decoding is involved. Records are notified as
+ * {@link SequenceRecord} views of the reader buffers and are decoded into
+ * strings only for {@link SequenceListener} objects. Errors are reported with the same messages and line
+ * numbers of {@link FastqSequenceReader}.
+ * <p>
+ * If the input stream keeps the reader waiting for data (as a
+ * {@link utils.PrefetchInputStream} does), the reader reports the waits of
+ * the stream as its own.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class FastqByteSequenceReader implements ResumableReader, Blocking {
+
+	/**
+	 * Expecting the id line of a new record
+	 */
+	private static final int HEADER = 0;
+
+	/**
+	 * Reading sequence lines
+	 */
+	private static final int SEQUENCE = 1;
+
+	/**
+	 * Reading quality lines
+	 */
+	private static final int QUALITY = 2;
+
+	/**
+	 * Lookup table for valid sequence characters (<code>[a-zA-Z]</code>)
+	 */
+	private static final boolean[] SEQ_CHARS = new boolean[256];
+
+	/**
+	 * Lookup table for characters removed when trimming the quality
+	 */
+	private static final boolean[] BLANK_CHARS = new boolean[256];
+
+	static {
+		for (int c = 'a'; c <= 'z'; c++)
+			SEQ_CHARS[c] = true;
+		for (int c = 'A'; c <= 'Z'; c++)
+			SEQ_CHARS[c] = true;
+		for (int c = 0; c <= ' '; c++)
+			BLANK_CHARS[c] = true;
+	}
+
+	/**
+	 * The line reader
+	 */
+	private ByteLineReader reader = null;
+
+	/**
+	 * The input stream, if it keeps the reader waiting, or <code>null</code>
+	 */
+	private Blocking source = null;
+
+	/**
+	 * Last sequence starts here
+	 */
+	private long seqLine = 0;
+
+	/**
+	 * Number of lines preceding the first line of the line reader
+	 */
+	private long lineOffset = 0;
+
+	/**
+	 * Number of bytes preceding the first byte of the line reader
+	 */
+	private long positionOffset = 0;
+
+	/**
+	 * The list of listeners
+	 */
+	private RecordListenerSupport listeners = null;
+
+	/**
+	 * The record notified to the listeners
+	 */
+	private SequenceRecord record = new SequenceRecord();
+
+	/**
+	 * Id buffer
+	 */
+	private byte[] id = new byte[256];
+
+	/**
+	 * Sequence buffer
+	 */
+	private byte[] seq = new byte[1024];
+
+	/**
+	 * Quality buffer
+	 */
+	private byte[] qual = new byte[1024];
+
+	/**
+	 * Length of the id
+	 */
+	private int idLength = 0;
+
+	/**
+	 * Length of the sequence
+	 */
+	private int seqLength = 0;
+
+	/**
+	 * Length of the quality
+	 */
+	private int qualLength = 0;
+
+	/**
+	 * Creates the sequence reader
+	 *
+	 * @param in
+	 *            input sequence file
+	 */
+	public FastqByteSequenceReader(InputStream in) {
+		this(new StreamLineReader(in));
+		if (in instanceof Blocking)
+			this.source = (Blocking) in;
+	}
+
+	/**
+	 * Creates the sequence reader on top of a line reader
+	 *
+	 * @param reader
+	 *            the line reader
+	 */
+	public FastqByteSequenceReader(ByteLineReader reader) {
+		this.reader = reader;
+		this.listeners = new RecordListenerSupport();
+	}
+
+	/**
+	 * Sets the stream this reader waits for, when it is wrapped by the input
+	 * stream given to the constructor
+	 *
+	 * @param source
+	 *            the stream or <code>null</code>
+	 */
+	void setSource(Blocking source) {
+		this.source = source;
+	}
+
+	@Override
+	public long getBlockedNanos() {
+		return (source == null) ? 0 : source.getBlockedNanos();
+	}
+
+	@Override
+	public long getBlockedCount() {
+		return (source == null) ? 0 : source.getBlockedCount();
+	}
+
+	/**
+	 * Sets the number of lines preceding the first line of the line reader.
+	 * This is needed for reporting correct line numbers when only a region of
+	 * a file is parsed.
+	 *
+	 * @param lineOffset
+	 *            the number of lines preceding the region
+	 */
+	void setLineOffset(long lineOffset) {
+		this.lineOffset = lineOffset;
+	}
+
+	@Override
+	public void setOrigin(long position, long lines) {
+		this.positionOffset = position;
+		this.lineOffset = lines;
+	}
+
+	/**
+	 * Records are read without looking ahead, so the position is the end of
+	 * the last record returned
+	 */
+	@Override
+	public long getPosition() {
+		return positionOffset + reader.getPosition();
+	}
+
+	@Override
+	public long getLineNumber() {
+		return lineOffset + reader.getLineNumber();
+	}
+
+	/**
+	 * @see FileSequenceReader#readAllSequence()
+	 * @throws IOException
+	 *             if an I/O error occurs reading from the file
+	 * @throws FileFormatException
+	 *             if the fastq file is not formatted correctly
+	 */
+	@Override
+	public void readAllSequence() throws IOException, FileFormatException {
+		SequenceRecord next;
+		while ((next = nextRecord()) != null)
+			notifyListeners(next);
+		listeners.flush();
+	}
+
+	/**
+	 * Reads the next record without notifying it. The returned record is
+	 * reused by the next call.
+	 *
+	 * @return the next record or <code>null</code> if the end of the file has
+	 *         been reached
+	 * @throws IOException
+	 *             if an I/O error occurs reading from the file
+	 * @throws FileFormatException
+	 *             if the fastq file is not formatted correctly
+	 */
+	public SequenceRecord nextRecord() throws IOException, FileFormatException {
+		int state = HEADER;
+		while (reader.nextLine()) {
+			int length = reader.lineLength();
+			switch (state) {
+			case HEADER:
+				if (length == 0)
+					continue;
+				if ((reader.byteAt(0) == '@') && (length > 1)) {
+					id = ensureCapacity(id, 0, length);
+					reader.copyLine(id, 0);
+					idLength = length;
+					seqLength = 0;
+					seqLine = lineOffset + reader.getLineNumber();
+					state = SEQUENCE;
+					continue;
+				}
+				throw wrongLine(lineOffset + reader.getLineNumber());
+			case SEQUENCE:
+				if (length == 0)
+					continue;
+				if (reader.byteAt(0) == '+') {
+					qualLength = 0;
+					state = QUALITY;
+					continue;
+				}
+				seq = ensureCapacity(seq, seqLength, length);
+				reader.copyLine(seq, seqLength);
+				if (isSequence(seq, seqLength, length)) {
+					seqLength += length;
+					continue;
+				}
+				throw wrongLine(lineOffset + reader.getLineNumber());
+			case QUALITY:
+				qual = ensureCapacity(qual, qualLength, length);
+				reader.copyLine(qual, qualLength);
+				qualLength += length;
+				if (qualLength >= seqLength)
+					return buildRecord();
+				continue;
+			}
+		}
+		if (state == QUALITY)
+			return buildRecord();
+		return null;
+	}
+
+	/**
+	 * Checks the quality and sets the current record
+	 *
+	 * @return the current record
+	 * @throws FileFormatException
+	 *             if sequence and quality have different lengths
+	 */
+	private SequenceRecord buildRecord() throws FileFormatException {
+		int start = 0;
+		int end = qualLength;
+		while ((start < end) && BLANK_CHARS[qual[start] & 0xFF])
+			start++;
+		while ((end > start) && BLANK_CHARS[qual[end - 1] & 0xFF])
+			end--;
+		if ((end - start) != seqLength)
+			throw new FileFormatException(String.format(
+					"Sequence and quality lengths differ at line: %d",
+					seqLine), seqLine);
+		record.setId(id, 0, idLength);
+		record.setSequence(seq, 0, seqLength);
+		record.setQuality(qual, start, end - start);
+		return record;
+	}
+
+	/**
+	 * @return the line number of the last record read
+	 */
+	public long getRecordLine() {
+		return seqLine;
+	}
+
+	/**
+	 * @param buffer
+	 *            the buffer holding a sequence line
+	 * @param offset
+	 *            start of the line in the buffer
+	 * @param length
+	 *            the length of the line
+	 * @return <code>true</code> if the line contains only sequence characters
+	 */
+	private static boolean isSequence(byte[] buffer, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (!SEQ_CHARS[buffer[i] & 0xFF])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Grows a record buffer if it cannot store the specified number of
+	 * additional bytes
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param used
+	 *            number of bytes already stored in the buffer
+	 * @param length
+	 *            number of bytes to add
+	 * @return the buffer itself or a bigger copy of it
+	 */
+	private static byte[] ensureCapacity(byte[] buffer, int used, int length) {
+		int needed = used + length;
+		if (needed <= buffer.length)
+			return buffer;
+		byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+		System.arraycopy(buffer, 0, grown, 0, used);
+		return grown;
+	}
+
+	/**
+	 * @param line
+	 *            the line number
+	 * @return a {@link FileFormatException} for a wrong formatted line
+	 */
+	private FileFormatException wrongLine(long line) {
+		return new FileFormatException(String.format(
+				"Wrong formatted sequence at line: %d", line), line);
+	}
+
+	@Override
+	public void addListener(SequenceListener listener) {
+		listeners.addListener(listener);
+	}
+
+	@Override
+	public void removeListener(SequenceListener listener) {
+		listeners.removeListener(listener);
+	}
+
+	@Override
+	public void addRecordListener(RecordListener listener) {
+		listeners.addRecordListener(listener);
+	}
+
+	@Override
+	public void removeRecordListener(RecordListener listener) {
+		listeners.removeRecordListener(listener);
+	}
+
+	@Override
+	public void addBatchListener(BatchListener listener) {
+		listeners.addBatchListener(listener);
+	}
+
+	@Override
+	public void removeBatchListener(BatchListener listener) {
+		listeners.removeBatchListener(listener);
+	}
+
+	@Override
+	public void notifyListeners(String id, String sequence, String quality) {
+		listeners.notifyListeners(id, sequence, quality);
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord record) {
+		listeners.notifyListeners(record);
+	}
+
+	@Override
+	public void notifyListeners(RecordBatch batch) {
+		listeners.notifyListeners(batch);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+}
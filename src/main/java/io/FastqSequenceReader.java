@@ -4,9 +4,11 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.regex.Pattern;
 
+import listeners.BatchListener;
+import listeners.RecordListener;
+import listeners.RecordListenerSupport;
 import listeners.SequenceListener;
 import exception.FileFormatException;
 
@@ -37,7 +39,7 @@ public class FastqSequenceReader implements FileSequenceReader {
 	/**
 	 * The list of listeners
 	 */
-	private ArrayList<SequenceListener> listeners = null;
+	private RecordListenerSupport listeners = null;
 
 	/**
 	 * Regular expression for FASTQ ids
@@ -63,7 +65,7 @@ public class FastqSequenceReader implements FileSequenceReader {
 	 */
 	public FastqSequenceReader(InputStream in) {
 		this.reader = new BufferedReader(new InputStreamReader(in));
-		this.listeners = new ArrayList<SequenceListener>();
+		this.listeners = new RecordListenerSupport();
 	}
 
 	/**
@@ -111,6 +113,7 @@ public class FastqSequenceReader implements FileSequenceReader {
 			throw new FileFormatException(String.format(
 					"Wrong formatted sequence at line: %d", lineRead));
 		}
+		listeners.flush();
 	}
 
 	/**
@@ -136,26 +139,47 @@ public class FastqSequenceReader implements FileSequenceReader {
 
 	@Override
 	public void addListener(SequenceListener listener) {
-		int index = listeners.indexOf(listener);
-		if (index < 0) {
-			listeners.add(listener);
-		}
-
+		listeners.addListener(listener);
 	}
 
 	@Override
 	public void removeListener(SequenceListener listener) {
-		int index = listeners.indexOf(listener);
-		if (index >= 0) {
-			listeners.remove(index);
-		}
+		listeners.removeListener(listener);
+	}
+
+	@Override
+	public void addRecordListener(RecordListener listener) {
+		listeners.addRecordListener(listener);
+	}
+
+	@Override
+	public void removeRecordListener(RecordListener listener) {
+		listeners.removeRecordListener(listener);
+	}
+
+	@Override
+	public void addBatchListener(BatchListener listener) {
+		listeners.addBatchListener(listener);
+	}
+
+	@Override
+	public void removeBatchListener(BatchListener listener) {
+		listeners.removeBatchListener(listener);
 	}
 
 	@Override
 	public void notifyListeners(String id, String sequence, String quality) {
-		for (int i = 0; i < listeners.size(); i++) {
-			listeners.get(i).sequence(id, sequence, quality);
-		}
+		listeners.notifyListeners(id, sequence, quality);
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord record) {
+		listeners.notifyListeners(record);
+	}
+
+	@Override
+	public void notifyListeners(RecordBatch batch) {
+		listeners.notifyListeners(batch);
 	}
 
 	@Override
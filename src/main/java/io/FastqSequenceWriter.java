@@ -1,31 +1,47 @@
 package io;
 
+import java.io.BufferedOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.nio.charset.Charset;
 
 /**
  * {@link FileSequenceWriter} implementation for writing sequence in fastq
- * format
+ * format. Records are written as raw bytes through a buffer.
  * 
  * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
  *         Bacci</a>
  * 
  */
-public class FastqSequenceWriter implements FileSequenceWriter {
-	
+public class FastqSequenceWriter implements FileSequenceWriter, Flushable {
+
+	/**
+	 * Size of the output buffer
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Line separator
+	 */
+	private static final byte[] NEW_LINE = System.lineSeparator().getBytes();
+
+	/**
+	 * Separator between sequence and quality
+	 */
+	private static final byte[] PLUS_LINE = String.format("%n+%n").getBytes();
+
 	/**
-	 * The writer
+	 * The output stream
 	 */
-	private Writer out = null;
+	private OutputStream out = null;
 
 	/**
 	 * Creates a fastq writer 
 	 * @param out the output file
 	 */
 	protected FastqSequenceWriter(OutputStream out) {
-		this.out =  new OutputStreamWriter(out);
+		this.out = new BufferedOutputStream(out, BUFFER_SIZE);
 	}
 
 	/**
@@ -36,8 +52,30 @@ public class FastqSequenceWriter implements FileSequenceWriter {
 			throws IOException {
 		String fmt = String.format("%1$s%n%2$s%n+%n%3$s%n", id, sequence,
 				quality);
-		out.write(fmt);
-		out.flush();
+		out.write(fmt.getBytes(Charset.defaultCharset()));
+	}
+
+	/**
+	 * @see FileSequenceWriter#writeRecord(SequenceRecord)
+	 */
+	@Override
+	public void writeRecord(SequenceRecord record) throws IOException {
+		out.write(record.getId(), record.getIdOffset(), record.getIdLength());
+		out.write(NEW_LINE);
+		out.write(record.getSequence(), record.getSequenceOffset(),
+				record.getSequenceLength());
+		out.write(PLUS_LINE);
+		out.write(record.getQuality(), record.getQualityOffset(),
+				record.getQualityLength());
+		out.write(NEW_LINE);
+	}
+
+	/**
+	 * Writes the records still in the buffer
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.out.flush();
 	}
 
 	@Override
@@ -1,7 +1,10 @@
 package io;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import decoder.QualityDecoder;
 
@@ -49,6 +52,33 @@ public abstract class FileSequenceIOFactory {
 		return new FileSequenceIOFastaQualityFactory(in, inq);
 	}
 
+	/**
+	 * Returns a {@link ByteLineReader} for the given stream. If the stream
+	 * reads from a plain file, a {@link MappedLineReader} mapping the file from
+	 * the current position of the stream is returned; otherwise this method
+	 * returns <code>null</code> and the stream has to be read as it is.
+	 * 
+	 * @param in
+	 *            the input stream
+	 * @return a memory mapped line reader or <code>null</code> if the stream
+	 *         cannot be mapped
+	 */
+	protected static MappedLineReader mappedReader(InputStream in) {
+		if (!(in instanceof FileInputStream))
+			return null;
+		FileChannel channel = ((FileInputStream) in).getChannel();
+		try {
+			long start = channel.position();
+			long size = channel.size();
+			// Pipes and special files have no meaningful size
+			if (size <= start)
+				return null;
+			return new MappedLineReader(channel, start, size);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Creates an instance of {@link FileSequenceReader}
 	 * 
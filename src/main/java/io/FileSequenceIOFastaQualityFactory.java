@@ -40,9 +40,19 @@ public class FileSequenceIOFastaQualityFactory extends FileSequenceIOFactory {
 		this.inq = inq;
 	}
 
+	/**
+	 * Creates a reader for the fasta + qual files. Streams reading from plain
+	 * files are parsed directly from the memory mapped files.
+	 */
 	@Override
 	public FileSequenceReader createReader() {
-		return new FastaQualitySequenceReader(in, inq);
+		ByteLineReader seq = mappedReader(in);
+		ByteLineReader qual = mappedReader(inq);
+		if (seq == null)
+			seq = new StreamLineReader(in);
+		if (qual == null)
+			qual = new StreamLineReader(inq);
+		return new FastaQualitySequenceReader(seq, qual);
 	}
 
 	@Override
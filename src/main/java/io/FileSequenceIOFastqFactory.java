@@ -6,13 +6,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import listeners.SequenceListener;
+import utils.Blocking;
+import utils.BufferPool;
 import decoder.FastqQualityDecoder;
 import decoder.FastqQualityDecoder.QualityEncoding;
+import decoder.GuessingQualityDecoder;
 import decoder.QualityDecoder;
+import decoder.QualityHistogram;
 import exception.FileFormatException;
 
 /**
@@ -24,20 +25,134 @@ import exception.FileFormatException;
  */
 public class FileSequenceIOFastqFactory extends FileSequenceIOFactory {
 
-	private static final int BYTE_TO_READ = 10000000;
-	
+	/**
+	 * Number of bytes sampled to guess the quality encoding
+	 */
+	private static final int SAMPLE_SIZE = 256 * 1024;
+
+	/**
+	 * Sample buffers shared by the factories of all the files
+	 */
+	private static final BufferPool SAMPLES = new BufferPool(SAMPLE_SIZE, 16);
+
+	/**
+	 * Number of records checked before parsing a file on several threads
+	 */
+	private static final int LAYOUT_RECORDS = 64;
+
+	/**
+	 * Size of the window used for checking the records layout
+	 */
+	private static final int LAYOUT_WINDOW = 64 * 1024;
+
 	private BufferedInputStream in;
 
+	/**
+	 * The input stream, if it keeps the readers waiting, or <code>null</code>
+	 */
+	private Blocking source;
+
+	/**
+	 * Memory mapped reader used if the input is a plain file
+	 */
+	private MappedLineReader mapped;
+
 	/**
 	 * @see FileSequenceIOFactory#FileSequenceIOFactory(InputStream, Writer)
 	 */
 	protected FileSequenceIOFastqFactory(InputStream in) {
+		this.mapped = mappedReader(in);
 		this.in = new BufferedInputStream(in);
+		this.source = (in instanceof Blocking) ? (Blocking) in : null;
 	}
 
+	/**
+	 * Creates a reader for the fastq file. If the input stream reads from a
+	 * plain file the reader will parse records directly from the memory
+	 * mapped file.
+	 */
 	@Override
 	public FileSequenceReader createReader() {
-		return new FastqSequenceReader(in);
+		return createByteReader();
+	}
+
+	/**
+	 * Creates a reader parsing the fastq file on the specified number of
+	 * threads. Parallel parsing needs random access to the file, so if the
+	 * input stream does not read from a plain file this method returns the
+	 * same reader returned by {@link #createReader()}. The same happens if the
+	 * first {@value #LAYOUT_RECORDS} records are not laid out on four lines,
+	 * since wrapped records can't be split in ranges.
+	 * 
+	 * @param threads
+	 *            the number of parsing threads
+	 * @return a {@link ParallelFastqSequenceReader} or a sequential reader if
+	 *         the input is not a plain file or its records are wrapped
+	 * @see ParallelFastqSequenceReader
+	 */
+	public FileSequenceReader createReader(int threads) {
+		if ((mapped == null) || (threads < 2) || !fourLinesRecords())
+			return createReader();
+		return new ParallelFastqSequenceReader(mapped.getChannel(),
+				mapped.getStart(), mapped.getEnd(), threads);
+	}
+
+	/**
+	 * Checks that the first {@value #LAYOUT_RECORDS} records of the mapped file
+	 * are laid out on four lines (id, sequence, '+', quality)
+	 * 
+	 * @return <code>true</code> if the records can be parsed by a
+	 *         {@link ParallelFastqSequenceReader}
+	 */
+	private boolean fourLinesRecords() {
+		// Not closing the reader: it would close the channel shared with the
+		// mapped reader
+		MappedLineReader reader = new MappedLineReader(mapped.getChannel(),
+				mapped.getStart(), mapped.getEnd(), LAYOUT_WINDOW);
+		try {
+			for (int i = 0; i < LAYOUT_RECORDS; i++) {
+				if (!reader.nextLine())
+					return true;
+				if ((reader.lineLength() < 2) || (reader.byteAt(0) != '@')
+						|| !reader.nextLine())
+					return false;
+				int length = reader.lineLength();
+				if (!reader.nextLine() || (reader.lineLength() == 0)
+						|| (reader.byteAt(0) != '+') || !reader.nextLine()
+						|| (reader.lineLength() != length))
+					return false;
+			}
+			return true;
+		} catch (IOException e) {
+			// The sequential reader will report the error
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a reader for a paired-end run reading this fastq file and the
+	 * file of the mates in lockstep.
+	 * 
+	 * @param mate
+	 *            the factory of the second mates file
+	 * @return a {@link PairedSequenceReader}
+	 * @see PairedSequenceReader
+	 */
+	public PairedSequenceReader createPairedReader(
+			FileSequenceIOFastqFactory mate) {
+		return new PairedSequenceReader(createByteReader(),
+				mate.createByteReader());
+	}
+
+	/**
+	 * @return a sequential reader for the fastq file
+	 */
+	private FastqByteSequenceReader createByteReader() {
+		if (mapped != null)
+			return new FastqByteSequenceReader(mapped);
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(in);
+		reader.setSource(source);
+		return reader;
 	}
 
 	@Override
@@ -49,151 +164,60 @@ public class FileSequenceIOFastqFactory extends FileSequenceIOFactory {
 
 	/**
 	 * Creates a quality decoder for fastq file. The type of encoding is
-	 * auto-guessed reading the first 10'000'000 bytes from the input stream. If
-	 * the auto-guess is not needed it is recommended to initialize a
+	 * auto-guessed from the histogram of the qualities in the first
+	 * {@value #SAMPLE_SIZE} bytes of the input stream. If the sample is not
+	 * enough to tell the quality offset the decoder binds to the most likely
+	 * one; if it holds no quality the decoder keeps guessing from the
+	 * qualities it decodes and binds as soon as the offset is certain. If the
+	 * auto-guess is not needed it is recommended to initialize a
 	 * {@link FastqQualityDecoder} with the specified encoding without launching
 	 * this method
 	 * 
 	 * @see FastqQualityDecoder#FastqQualityDecoder(QualityEncoding)
-	 * @return a {@link FastqQualityDecoder} or <code>null</code> if an I/O
-	 *         error occurs or if it cannot correctly guess the encoding
+	 * @see GuessingQualityDecoder
+	 * @return a {@link GuessingQualityDecoder} or <code>null</code> if an I/O
+	 *         error occurs reading the sample
 	 */
 	@Override
 	public QualityDecoder createQualityDecoder() {
 		if (in == null)
 			return null;
-		
-		// Mark Buffered input stream
-		in.mark(BYTE_TO_READ);
-
-		// Initialize new byte buffer
-		byte head[] = new byte[BYTE_TO_READ];
 
+		QualityHistogram histogram = new QualityHistogram();
+		byte head[] = SAMPLES.acquire();
+		int length = 0;
 		try {
-			// Reading bytes into the new buffer
-			in.read(head);
-			// Reset the buffer
+			// Reading the sample and resetting the buffer
+			in.mark(SAMPLE_SIZE);
+			int read = 0;
+			while ((length < head.length)
+					&& ((read = in.read(head, length, head.length - length)) >= 0))
+				length += read;
 			in.reset();
 		} catch (IOException e) {
 			System.err.println("I/O error/s occurs reading sequence file.");
-			System.exit(-1);
+			SAMPLES.release(head);
+			return null;
 		}
 
-		// Generate an input stream from the buffer and pass it to a sequence
-		// reader
-		ByteArrayInputStream byteIn = new ByteArrayInputStream(head);
-		@SuppressWarnings("resource")
-		FastqSequenceReader reader = new FastqSequenceReader(byteIn);
-
-		// Guessing quality
-		QualityEncodingGuess guess = new QualityEncodingGuess();
-		reader.addListener(guess);
-
+		// The window of the reader is as large as the sample, which for small
+		// files is the whole file
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new StreamLineReader(new ByteArrayInputStream(head, 0, length),
+						Math.max(1, length)));
 		try {
-			reader.readAllSequence();
+			SequenceRecord record;
+			while ((record = reader.nextRecord()) != null)
+				histogram.add(record.getQuality(), record.getQualityOffset(),
+						record.getQualityLength());
 		} catch (IOException e) {
-			System.err.println("I/O error/s occurs reading sequence file.");
-			System.exit(-1);
+			// Not possible reading from memory
 		} catch (FileFormatException e) {
-			String error = String.format(
-					"Sequence at line %d is not well formatted", e.getLine());
-			System.err.println(error);
-			System.exit(-1);
+			// The last record of the sample is truncated, or the file is not
+			// well formatted and the error will be reported by the reader
 		} finally {
-			try {
-				byteIn.close();
-			} catch (IOException e) {
-				// Nothing we can do
-			}
-		}
-
-		// If the guessing class has recognized the encoding it will return a
-		// quality decoder otherwise it will return null
-		if (guess.encoding != null) {
-			return new FastqQualityDecoder(guess.encoding);
+			SAMPLES.release(head);
 		}
-		return null;
-	}
-
-	/**
-	 * Guessing quality class. This guess can be not totally accurate.
-	 * 
-	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
-	 *         Bacci</a>
-	 * 
-	 */
-	private class QualityEncodingGuess implements SequenceListener {
-
-		private QualityEncoding encoding = null;
-		private int offset = -1;
-		private int lowerBound = 41;
-		private int upperBound = -5;
-
-		@Override
-		public void sequence(String id, String sequence, String quality) {
-
-			// Testing B tail typical of Illumina 1.5 encoding
-			Pattern btail = Pattern.compile("B+$");
-			Matcher m = btail.matcher(quality);
-
-			boolean qCtrl = m.find();
-
-			for (int i = 0; i < quality.length(); i++) {
-				int q = (int) quality.charAt(i);
-
-				// Searching for correct offset
-				if ((offset != 33) && (offset != 64)) {
-					if ((q - 64) < -5) {
-						offset = 33;
-					} else if ((q - 33) > 41) {
-						offset = 64;
-					}
-				}
-
-				// Searching for lower and upper bounds
-				if ((offset == 33) || (offset == 64)) {
-					lowerBound = Math.min(q - offset, lowerBound);
-					upperBound = Math.max(q - offset, upperBound);
-				}
-			}
-
-			// Testing Solexa encoding
-			if ((lowerBound < 0) && (offset == 64)) {
-				this.encoding = QualityEncoding.SOLEXA;
-				return;
-
-				// Testing Sanger encoding
-			} else if ((lowerBound == 0) && (upperBound == 40)
-					&& (offset == 33)) {
-				this.encoding = QualityEncoding.SANGER;
-				return;
-
-				// Testing Illumina 1.3 encoding
-			} else if ((lowerBound == 0) && (upperBound == 40)
-					&& (offset == 64)) {
-				this.encoding = QualityEncoding.ILLUMINA13;
-				return;
-
-				// Testing Illumina 1.5 encoding
-			} else if ((lowerBound == 2) && qCtrl && (offset == 64)) {
-				this.encoding = QualityEncoding.ILLUMINA15;
-				return;
-
-				// Testing Illumina 1.8 encoding
-			} else if ((upperBound > 40) && (offset == 33)) {
-				this.encoding = QualityEncoding.ILLUMINA18;
-				return;
-
-				// Testing Undefined encoding Phred+33
-			} else if (offset == 33) {
-				this.encoding = QualityEncoding.PHRED33;
-
-				// Testing Undefined encoding Phred+64
-			} else if (offset == 64) {
-				this.encoding = QualityEncoding.PHRED64;
-			}
-
-		}
-
+		return new GuessingQualityDecoder(histogram);
 	}
 }
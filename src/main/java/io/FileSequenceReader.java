@@ -3,7 +3,7 @@ package io;
 import java.io.Closeable;
 import java.io.IOException;
 
-import listeners.SequenceGenerator;
+import listeners.BatchGenerator;
 import exception.FileFormatException;
 
 /**
@@ -13,7 +13,7 @@ import exception.FileFormatException;
  *         Bacci</a>
  * 
  */
-public interface FileSequenceReader extends SequenceGenerator, Closeable {
+public interface FileSequenceReader extends BatchGenerator, Closeable {
 
 	/**
 	 * Reads all sequences in a file
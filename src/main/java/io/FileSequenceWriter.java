@@ -17,4 +17,16 @@ public interface FileSequenceWriter extends Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public void writeSequence(String id, String sequence, String quality) throws IOException;
+
+	/**
+	 * Write a record in a file following the file format specifications. By
+	 * default the record is written as strings by
+	 * {@link #writeSequence(String, String, String)}.
+	 * @param record the record
+	 * @throws IOException if an I/O error occurs
+	 */
+	public default void writeRecord(SequenceRecord record) throws IOException {
+		writeSequence(record.getIdString(), record.getSequenceString(),
+				record.getQualityString());
+	}
 }
@@ -0,0 +1,154 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * {@link ByteLineReader} implementation reading lines straight from a memory
+ * mapped file. The file is mapped in windows of fixed size which slide over
+ * the file, so there is no limit to the size of the file that can be read.
+ * Bytes are never copied before being handed to the caller.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class MappedLineReader extends ByteLineReader {
+
+	/**
+	 * Default size of the mapped windows
+	 */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The file channel
+	 */
+	private FileChannel channel = null;
+
+	/**
+	 * Offset in the file of the current window
+	 */
+	private long windowStart = 0;
+
+	/**
+	 * Offset in the file where reading starts
+	 */
+	private long start = 0;
+
+	/**
+	 * Offset in the file where reading stops (exclusive)
+	 */
+	private long end = 0;
+
+	/**
+	 * Size of the mapped windows
+	 */
+	private int windowSize = WINDOW_SIZE;
+
+	/**
+	 * Creates a line reader mapping the whole file from the current position
+	 * of the channel
+	 *
+	 * @param channel
+	 *            the file channel
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public MappedLineReader(FileChannel channel) throws IOException {
+		this(channel, channel.position(), channel.size());
+	}
+
+	/**
+	 * Creates a line reader mapping only the specified region of the file
+	 *
+	 * @param channel
+	 *            the file channel
+	 * @param start
+	 *            offset of the first byte to read
+	 * @param end
+	 *            offset of the last byte to read (exclusive)
+	 */
+	public MappedLineReader(FileChannel channel, long start, long end) {
+		this(channel, start, end, WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates a line reader mapping only the specified region of the file with
+	 * windows of the specified size
+	 *
+	 * @param channel
+	 *            the file channel
+	 * @param start
+	 *            offset of the first byte to read
+	 * @param end
+	 *            offset of the last byte to read (exclusive)
+	 * @param windowSize
+	 *            size of the mapped windows
+	 */
+	public MappedLineReader(FileChannel channel, long start, long end,
+			int windowSize) {
+		this.channel = channel;
+		this.windowSize = windowSize;
+		this.start = start;
+		this.windowStart = start;
+		this.end = end;
+		ByteBuffer empty = ByteBuffer.allocate(0);
+		setWindow(empty);
+	}
+
+	@Override
+	protected boolean fill(int keep) throws IOException {
+		ByteBuffer window = getWindow();
+		int remaining = window.limit() - keep;
+		windowStart += keep;
+		long available = end - windowStart;
+		if (available <= remaining) {
+			// Nothing left to map: just drop the consumed bytes
+			window.position(keep);
+			setWindow(window.slice());
+			return false;
+		}
+		if ((remaining == windowSize) && (windowSize < Integer.MAX_VALUE / 2))
+			// A single line fills the whole window
+			windowSize *= 2;
+		long size = Math.min(windowSize, available);
+		setWindow(channel.map(MapMode.READ_ONLY, windowStart, size));
+		return true;
+	}
+
+	/**
+	 * @return the offset in the file of the first byte of the current line
+	 */
+	public long getLineOffset() {
+		return windowStart + getLineStart();
+	}
+
+	/**
+	 * @return the file channel
+	 */
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return the offset in the file where reading starts
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the offset in the file where reading stops (exclusive)
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,301 @@
+package io;
+
+import idparser.IdAttributes;
+import idparser.IdParser;
+import idparser.IdParserFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import listeners.BatchListener;
+import listeners.PairGenerator;
+import listeners.PairListener;
+import listeners.RecordListener;
+import listeners.RecordListenerSupport;
+import listeners.SequenceListener;
+import exception.FileFormatException;
+
+/**
+ * {@link FileSequenceReader} implementation reading the two fastq files of a
+ * paired-end run in lockstep. Each record of the first file is checked against
+ * the record at the same position in the second file and the two mates are
+ * notified together to the {@link PairListener} objects. Sequence and record
+ * listeners receive the two mates one after the other.
+ * <p>
+ * Mates are recognized comparing their ids up to the first white space and
+ * without the trailing <code>/1</code> or <code>/2</code>; when both ids
+ * specify the pair member, the members must differ. Ids differing in
+ * any other way are parsed with {@link IdParserFactory}: they are accepted as
+ * mates only if all their attributes but {@link IdAttributes#PAIR_MEMBER} are
+ * equal.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class PairedSequenceReader implements FileSequenceReader, PairGenerator {
+
+	/**
+	 * Reader of the first mates
+	 */
+	private FastqByteSequenceReader first = null;
+
+	/**
+	 * Reader of the second mates
+	 */
+	private FastqByteSequenceReader second = null;
+
+	/**
+	 * The list of listeners
+	 */
+	private RecordListenerSupport listeners = null;
+
+	/**
+	 * The list of pair listeners
+	 */
+	private ArrayList<PairListener> pairListeners = null;
+
+	/**
+	 * Creates a paired reader
+	 *
+	 * @param first
+	 *            reader of the first mates
+	 * @param second
+	 *            reader of the second mates
+	 */
+	public PairedSequenceReader(FastqByteSequenceReader first,
+			FastqByteSequenceReader second) {
+		this.first = first;
+		this.second = second;
+		this.listeners = new RecordListenerSupport();
+		this.pairListeners = new ArrayList<PairListener>();
+	}
+
+	/**
+	 * @see FileSequenceReader#readAllSequence()
+	 * @throws IOException
+	 *             if an I/O error occurs reading from the files
+	 * @throws FileFormatException
+	 *             if a file is not formatted correctly or the two files are
+	 *             not paired
+	 */
+	@Override
+	public void readAllSequence() throws IOException, FileFormatException {
+		SequenceRecord r1;
+		SequenceRecord r2;
+		while (true) {
+			r1 = first.nextRecord();
+			r2 = second.nextRecord();
+			if ((r1 == null) && (r2 == null)) {
+				listeners.flush();
+				return;
+			}
+			if (r1 == null)
+				throw new FileFormatException(
+						"First mate file is shorter than second mate file");
+			if (r2 == null)
+				throw new FileFormatException(
+						"Second mate file is shorter than first mate file");
+			if (!areMates(r1, r2)) {
+				String error = String.format(
+						"Mates are not paired at line %d: %s - %s",
+						first.getRecordLine(), r1.getIdString(),
+						r2.getIdString());
+				throw new FileFormatException(error, first.getRecordLine());
+			}
+			notifyListeners(r1, r2);
+		}
+	}
+
+	/**
+	 * Checks if two records are mates
+	 *
+	 * @param r1
+	 *            the first record
+	 * @param r2
+	 *            the second record
+	 * @return <code>true</code> if the records are mates
+	 */
+	private static boolean areMates(SequenceRecord r1, SequenceRecord r2) {
+		byte[] id1 = r1.getId();
+		byte[] id2 = r2.getId();
+		int off1 = r1.getIdOffset();
+		int off2 = r2.getIdOffset();
+		int len1 = nameLength(id1, off1, r1.getIdLength());
+		int len2 = nameLength(id2, off2, r2.getIdLength());
+		if (len1 == len2) {
+			int i = 0;
+			while ((i < len1) && (id1[off1 + i] == id2[off2 + i]))
+				i++;
+			if (i == len1) {
+				int m1 = pairMember(id1, off1, r1.getIdLength());
+				int m2 = pairMember(id2, off2, r2.getIdLength());
+				return (m1 == 0) || (m1 != m2);
+			}
+		}
+		return sameAttributes(r1.getIdString(), r2.getIdString());
+	}
+
+	/**
+	 * Computes the length of the read name: the id up to the first white
+	 * space, without the trailing <code>/1</code> or <code>/2</code>
+	 *
+	 * @param id
+	 *            the id bytes
+	 * @param offset
+	 *            start of the id
+	 * @param length
+	 *            length of the id
+	 * @return the length of the name
+	 */
+	private static int nameLength(byte[] id, int offset, int length) {
+		int end = 0;
+		while ((end < length) && (id[offset + end] != ' ')
+				&& (id[offset + end] != '\t'))
+			end++;
+		if ((end > 2) && (id[offset + end - 2] == '/')
+				&& ((id[offset + end - 1] == '1') || (id[offset + end - 1] == '2')))
+			end -= 2;
+		return end;
+	}
+
+	/**
+	 * Finds the pair member written in an id, either as a trailing
+	 * <code>/1</code> or <code>/2</code> of the read name (Illumina/Solexa
+	 * ids) or at the beginning of the comment (Illumina/Casava ids)
+	 *
+	 * @param id
+	 *            the id bytes
+	 * @param offset
+	 *            start of the id
+	 * @param length
+	 *            length of the id
+	 * @return <code>'1'</code>, <code>'2'</code> or 0 if the id does not
+	 *         specify the pair member
+	 */
+	private static int pairMember(byte[] id, int offset, int length) {
+		int end = 0;
+		while ((end < length) && (id[offset + end] != ' ')
+				&& (id[offset + end] != '\t'))
+			end++;
+		if ((end > 2) && (id[offset + end - 2] == '/'))
+			return member(id[offset + end - 1]);
+		if ((end + 2 < length) && (id[offset + end + 2] == ':'))
+			return member(id[offset + end + 1]);
+		return 0;
+	}
+
+	/**
+	 * @param c
+	 *            a character
+	 * @return the character if it is a valid pair member, 0 otherwise
+	 */
+	private static int member(byte c) {
+		return ((c == '1') || (c == '2')) ? c : 0;
+	}
+
+	/**
+	 * Checks if two ids have the same attributes but the pair member
+	 *
+	 * @param id1
+	 *            the first id
+	 * @param id2
+	 *            the second id
+	 * @return <code>true</code> if the ids belong to the same pair
+	 */
+	private static boolean sameAttributes(String id1, String id2) {
+		IdParser p1 = IdParserFactory.createParser(id1);
+		IdParser p2 = IdParserFactory.createParser(id2);
+		if ((p1 == null) || (p2 == null))
+			return false;
+		if (!p1.getAllAttributes().equals(p2.getAllAttributes()))
+			return false;
+		for (IdAttributes a : p1.getAllAttributes()) {
+			String v1 = p1.getAttribute(a);
+			String v2 = p2.getAttribute(a);
+			boolean equal = (v1 == null) ? (v2 == null) : v1.equals(v2);
+			if ((a == IdAttributes.PAIR_MEMBER) == equal)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void addPairListener(PairListener listener) {
+		int index = pairListeners.indexOf(listener);
+		if (index < 0) {
+			pairListeners.add(listener);
+		}
+	}
+
+	@Override
+	public void removePairListener(PairListener listener) {
+		int index = pairListeners.indexOf(listener);
+		if (index >= 0) {
+			pairListeners.remove(index);
+		}
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord first, SequenceRecord second) {
+		for (int i = 0; i < pairListeners.size(); i++) {
+			pairListeners.get(i).pair(first, second);
+		}
+		if (!listeners.isEmpty()) {
+			listeners.notifyListeners(first);
+			listeners.notifyListeners(second);
+		}
+	}
+
+	@Override
+	public void addListener(SequenceListener listener) {
+		listeners.addListener(listener);
+	}
+
+	@Override
+	public void removeListener(SequenceListener listener) {
+		listeners.removeListener(listener);
+	}
+
+	@Override
+	public void addRecordListener(RecordListener listener) {
+		listeners.addRecordListener(listener);
+	}
+
+	@Override
+	public void removeRecordListener(RecordListener listener) {
+		listeners.removeRecordListener(listener);
+	}
+
+	@Override
+	public void addBatchListener(BatchListener listener) {
+		listeners.addBatchListener(listener);
+	}
+
+	@Override
+	public void removeBatchListener(BatchListener listener) {
+		listeners.removeBatchListener(listener);
+	}
+
+	@Override
+	public void notifyListeners(String id, String sequence, String quality) {
+		listeners.notifyListeners(id, sequence, quality);
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord record) {
+		listeners.notifyListeners(record);
+	}
+
+	@Override
+	public void notifyListeners(RecordBatch batch) {
+		listeners.notifyListeners(batch);
+	}
+
+	@Override
+	public void close() throws IOException {
+		first.close();
+		second.close();
+	}
+
+}
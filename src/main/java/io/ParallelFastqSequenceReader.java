@@ -0,0 +1,524 @@
+package io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import listeners.BatchListener;
+import listeners.RecordListener;
+import listeners.RecordListenerSupport;
+import listeners.SequenceListener;
+import utils.Blocking;
+import utils.MemoryConsumer;
+import exception.FileFormatException;
+
+/**
+ * {@link FileSequenceReader} implementation parsing a single uncompressed
+ * fastq file on several threads. The file is split in byte ranges; each range
+ * is moved forward to the first real record boundary and parsed on a worker
+ * pool by a {@link FastqByteSequenceReader}. Records are handed to the
+ * listeners on the calling thread, in the same order they have in the file.
+ * <p>
+ * Record boundaries are recognized assuming the standard four lines layout
+ * (id, sequence, '+', quality); quality lines starting with '@' are told
+ * apart from ids checking the three lines that follow them. Files with
+ * sequences or qualities wrapped on several lines must be read with
+ * {@link FastqByteSequenceReader}.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class ParallelFastqSequenceReader implements FileSequenceReader,
+		MemoryConsumer, Blocking {
+
+	/**
+	 * Default size of a byte range
+	 */
+	private static final int RANGE_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Size of the window used for finding record boundaries
+	 */
+	private static final int SYNC_WINDOW = 64 * 1024;
+
+	/**
+	 * Number of lines checked for recognizing a record boundary
+	 */
+	private static final int SYNC_LINES = 4;
+
+	/**
+	 * Lookup table for valid sequence characters (<code>[a-zA-Z]</code>)
+	 */
+	private static final boolean[] SEQ_CHARS = new boolean[256];
+
+	static {
+		for (int c = 'a'; c <= 'z'; c++)
+			SEQ_CHARS[c] = true;
+		for (int c = 'A'; c <= 'Z'; c++)
+			SEQ_CHARS[c] = true;
+	}
+
+	/**
+	 * The file channel
+	 */
+	private FileChannel channel = null;
+
+	/**
+	 * Offset of the first byte to read
+	 */
+	private long start = 0;
+
+	/**
+	 * Offset of the last byte to read (exclusive)
+	 */
+	private long end = 0;
+
+	/**
+	 * Number of worker threads
+	 */
+	private int threads = 1;
+
+	/**
+	 * Size of each byte range
+	 */
+	private long rangeSize = RANGE_SIZE;
+
+	/**
+	 * Maximum number of ranges parsed in advance
+	 */
+	private int maxPending;
+
+	/**
+	 * Time spent waiting for the workers
+	 */
+	private long blockedNanos = 0;
+
+	/**
+	 * The list of listeners
+	 */
+	private RecordListenerSupport listeners = null;
+
+	/**
+	 * Creates a parallel reader for the whole file
+	 *
+	 * @param channel
+	 *            the file channel
+	 * @param threads
+	 *            number of worker threads
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public ParallelFastqSequenceReader(FileChannel channel, int threads)
+			throws IOException {
+		this(channel, channel.position(), channel.size(), threads);
+	}
+
+	/**
+	 * Creates a parallel reader for a region of a file
+	 *
+	 * @param channel
+	 *            the file channel
+	 * @param start
+	 *            offset of the first byte to read
+	 * @param end
+	 *            offset of the last byte to read (exclusive)
+	 * @param threads
+	 *            number of worker threads
+	 */
+	public ParallelFastqSequenceReader(FileChannel channel, long start,
+			long end, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+					"Number of threads must be positive");
+		this.channel = channel;
+		this.start = start;
+		this.end = end;
+		this.threads = threads;
+		this.maxPending = threads * 2;
+		this.listeners = new RecordListenerSupport();
+	}
+
+	/**
+	 * @param rangeSize
+	 *            the size in bytes of the ranges parsed by each task
+	 */
+	public void setRangeSize(long rangeSize) {
+		if (rangeSize < 1)
+			throw new IllegalArgumentException("Range size must be positive");
+		this.rangeSize = rangeSize;
+	}
+
+	/**
+	 * @see FileSequenceReader#readAllSequence()
+	 * @throws IOException
+	 *             if an I/O error occurs reading from the file
+	 * @throws FileFormatException
+	 *             if the fastq file is not formatted correctly
+	 */
+	@Override
+	public void readAllSequence() throws IOException, FileFormatException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Range>> pending = new ArrayDeque<Future<Range>>();
+		long next = start;
+		long lines = 0;
+		SequenceRecord record = new SequenceRecord();
+		try {
+			while ((next < end) || !pending.isEmpty()) {
+				// Keeping every worker busy with one range in advance
+				while ((next < end) && (pending.size() < maxPending)) {
+					long rangeEnd = Math.min(next + rangeSize, end);
+					pending.add(pool.submit(new RangeTask(next, rangeEnd)));
+					next = rangeEnd;
+				}
+				Range range = waitFor(pending.poll());
+				int offset = 0;
+				for (int i = 0; i < range.size; i++) {
+					offset = range.view(i, offset, record);
+					notifyListeners(record);
+				}
+				if (range.failed) {
+					// Parsing the range again knowing its first line number
+					FastqByteSequenceReader reader = new FastqByteSequenceReader(
+							new MappedLineReader(channel, range.from, range.to));
+					reader.setLineOffset(lines);
+					reader.readAllSequence();
+				}
+				lines += range.lines;
+			}
+			listeners.flush();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Override
+	public long getBlockedNanos() {
+		return blockedNanos;
+	}
+
+	/**
+	 * A parsed range takes about as much memory as its size
+	 */
+	@Override
+	public long getMinimumMemory() {
+		return rangeSize;
+	}
+
+	/**
+	 * Limits the number of ranges parsed in advance, each taking about as much
+	 * memory as its size
+	 */
+	@Override
+	public void setMemoryLimit(long bytes) {
+		maxPending = (int) Math.max(1, Math.min(threads * 2, bytes / rangeSize));
+	}
+
+	/**
+	 * Waits for a range to be parsed
+	 *
+	 * @param future
+	 *            the pending range
+	 * @return the parsed range
+	 * @throws IOException
+	 *             if an I/O error occurs parsing the range
+	 */
+	private Range waitFor(Future<Range> future) throws IOException {
+		long start = future.isDone() ? 0 : System.nanoTime();
+		try {
+			Range range = future.get();
+			if (start != 0)
+				blockedNanos += System.nanoTime() - start;
+			return range;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing the file", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Finds the first record starting at or after the specified offset
+	 *
+	 * @param offset
+	 *            the offset
+	 * @return the offset of the first record boundary or the end of the region
+	 *         if no boundary has been found
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private long synchronize(long offset) throws IOException {
+		if (offset <= start)
+			return start;
+		if (offset >= end)
+			return end;
+		// Starting one byte before so that a line beginning exactly at the
+		// offset is not skipped
+		MappedLineReader reader = new MappedLineReader(channel, offset - 1,
+				end, SYNC_WINDOW);
+		// Skipping the (partial) line containing offset - 1
+		reader.nextLine();
+
+		long[] offsets = new long[SYNC_LINES];
+		int[] lengths = new int[SYNC_LINES];
+		byte[] first = new byte[SYNC_LINES];
+		boolean[] sequence = new boolean[SYNC_LINES];
+		int read = 0;
+		while (reader.nextLine()) {
+			int slot = read % SYNC_LINES;
+			offsets[slot] = reader.getLineOffset();
+			lengths[slot] = reader.lineLength();
+			first[slot] = (lengths[slot] > 0) ? reader.byteAt(0) : 0;
+			sequence[slot] = isSequence(reader);
+			read++;
+			if (read < SYNC_LINES)
+				continue;
+			int id = read % SYNC_LINES;
+			int seq = (id + 1) % SYNC_LINES;
+			int plus = (id + 2) % SYNC_LINES;
+			int qual = (id + 3) % SYNC_LINES;
+			if ((first[id] == '@') && (lengths[id] > 1) && sequence[seq]
+					&& (first[plus] == '+')
+					&& (lengths[qual] == lengths[seq]))
+				return offsets[id];
+		}
+		return end;
+	}
+
+	/**
+	 * @param reader
+	 *            a line reader
+	 * @return <code>true</code> if the current line is a non empty sequence
+	 */
+	private static boolean isSequence(ByteLineReader reader) {
+		int length = reader.lineLength();
+		if (length == 0)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (!SEQ_CHARS[reader.byteAt(i) & 0xFF])
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void addListener(SequenceListener listener) {
+		listeners.addListener(listener);
+	}
+
+	@Override
+	public void removeListener(SequenceListener listener) {
+		listeners.removeListener(listener);
+	}
+
+	@Override
+	public void addRecordListener(RecordListener listener) {
+		listeners.addRecordListener(listener);
+	}
+
+	@Override
+	public void removeRecordListener(RecordListener listener) {
+		listeners.removeRecordListener(listener);
+	}
+
+	@Override
+	public void addBatchListener(BatchListener listener) {
+		listeners.addBatchListener(listener);
+	}
+
+	@Override
+	public void removeBatchListener(BatchListener listener) {
+		listeners.removeBatchListener(listener);
+	}
+
+	@Override
+	public void notifyListeners(String id, String sequence, String quality) {
+		listeners.notifyListeners(id, sequence, quality);
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord record) {
+		listeners.notifyListeners(record);
+	}
+
+	@Override
+	public void notifyListeners(RecordBatch batch) {
+		listeners.notifyListeners(batch);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Records parsed from a byte range. Records are packed in a single byte
+	 * array, so that the whole range takes a few allocations.
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Range implements RecordListener {
+
+		/**
+		 * First byte of the range (a record boundary)
+		 */
+		private long from;
+
+		/**
+		 * Last byte of the range (exclusive, a record boundary)
+		 */
+		private long to;
+
+		/**
+		 * Number of lines in the range
+		 */
+		private long lines = 0;
+
+		/**
+		 * <code>true</code> if the range is not well formatted
+		 */
+		private boolean failed = false;
+
+		/**
+		 * Number of records in the range
+		 */
+		private int size = 0;
+
+		/**
+		 * Bytes of ids, sequences and qualities, one after the other
+		 */
+		private byte[] data = new byte[64 * 1024];
+
+		/**
+		 * Number of bytes used in the data array
+		 */
+		private int used = 0;
+
+		/**
+		 * Lengths of ids, sequences and qualities, one after the other
+		 */
+		private int[] lengths = new int[3 * 1024];
+
+		@Override
+		public void record(SequenceRecord record) {
+			if (3 * size == lengths.length)
+				lengths = Arrays.copyOf(lengths, lengths.length * 2);
+			int needed = used + record.getIdLength()
+					+ record.getSequenceLength() + record.getQualityLength();
+			if (needed > data.length)
+				data = Arrays.copyOf(data, Math.max(needed, data.length * 2));
+			lengths[3 * size] = append(record.getId(), record.getIdOffset(),
+					record.getIdLength());
+			lengths[3 * size + 1] = append(record.getSequence(),
+					record.getSequenceOffset(), record.getSequenceLength());
+			lengths[3 * size + 2] = append(record.getQuality(),
+					record.getQualityOffset(), record.getQualityLength());
+			size++;
+		}
+
+		/**
+		 * Appends bytes to the data array
+		 *
+		 * @param bytes
+		 *            the bytes
+		 * @param offset
+		 *            start of the bytes
+		 * @param length
+		 *            number of bytes
+		 * @return the number of bytes appended
+		 */
+		private int append(byte[] bytes, int offset, int length) {
+			System.arraycopy(bytes, offset, data, used, length);
+			used += length;
+			return length;
+		}
+
+		/**
+		 * Sets a record as a view of a parsed record
+		 *
+		 * @param index
+		 *            index of the parsed record
+		 * @param offset
+		 *            start of the parsed record in the data array
+		 * @param record
+		 *            the record to set
+		 * @return the start of the next record in the data array
+		 */
+		private int view(int index, int offset, SequenceRecord record) {
+			int idLength = lengths[3 * index];
+			int seqLength = lengths[3 * index + 1];
+			int qualLength = lengths[3 * index + 2];
+			record.setId(data, offset, idLength);
+			offset += idLength;
+			record.setSequence(data, offset, seqLength);
+			offset += seqLength;
+			record.setQuality(data, offset, qualLength);
+			return offset + qualLength;
+		}
+	}
+
+	/**
+	 * Task parsing a single byte range
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private class RangeTask implements Callable<Range> {
+
+		/**
+		 * Range start
+		 */
+		private long from;
+
+		/**
+		 * Range end
+		 */
+		private long to;
+
+		/**
+		 * @param from
+		 *            range start
+		 * @param to
+		 *            range end
+		 */
+		private RangeTask(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public Range call() throws IOException {
+			Range range = new Range();
+			range.from = synchronize(from);
+			range.to = synchronize(to);
+			if (range.from >= range.to)
+				return range;
+			MappedLineReader lines = new MappedLineReader(channel,
+					range.from, range.to);
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(lines);
+			reader.addRecordListener(range);
+			try {
+				reader.readAllSequence();
+			} catch (FileFormatException e) {
+				range.failed = true;
+			}
+			range.lines = lines.getLineNumber();
+			return range;
+		}
+	}
+
+}
@@ -0,0 +1,484 @@
+package io;
+
+/**
+ * Batch of records copied in a single array. Batches are used to hand records
+ * over to other threads and to notify blocks of records to
+ * {@link listeners.BatchListener} objects, which can read the bytes of all the
+ * records with tight loops over the arrays of the batch. Records are added by
+ * a single thread; once the batch has been passed to other threads it must
+ * not be changed until all of them are done with it.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class RecordBatch {
+
+	/**
+	 * Ids, sequences and qualities of the records
+	 */
+	private byte[] data;
+
+	/**
+	 * Data array owned by this batch (data is shared when this batch is a
+	 * view of another batch)
+	 */
+	private byte[] ownData = new byte[64 * 1024];
+
+	/**
+	 * Bytes used in data
+	 */
+	private int used = 0;
+
+	/**
+	 * Number of records
+	 */
+	private int count = 0;
+
+	/**
+	 * <code>true</code> if this batch is a view of another batch
+	 */
+	private boolean shared = false;
+
+	/**
+	 * Start of each record (and of its id) in data
+	 */
+	private int[] starts;
+
+	/**
+	 * Length of the ids
+	 */
+	private int[] idLengths;
+
+	/**
+	 * Start of the sequences in data
+	 */
+	private int[] sequenceStarts;
+
+	/**
+	 * Length of the sequences
+	 */
+	private int[] sequenceLengths;
+
+	/**
+	 * Start of the qualities in data
+	 */
+	private int[] qualityStarts;
+
+	/**
+	 * Length of the qualities
+	 */
+	private int[] qualityLengths;
+
+	/**
+	 * Decoded quality values of each record or <code>null</code>
+	 */
+	private int[][] values;
+
+	/**
+	 * Quality values arrays owned by this batch
+	 */
+	private int[][] ownValues;
+
+	/**
+	 * Quality values arrays of the records of another batch viewed by this
+	 * batch
+	 */
+	private int[][] selectedValues = null;
+
+	/**
+	 * Quality values arrays owned by this batch for the records of another
+	 * batch whose first bases have been removed
+	 */
+	private int[][] clippedValues = null;
+
+	/**
+	 * Number of decoded quality values or -1 if the record has not decoded
+	 * quality values
+	 */
+	private int[] valuesLengths;
+
+	/**
+	 * Tag of each record
+	 */
+	private int[] tags;
+
+	/**
+	 * Record used for truncating records
+	 */
+	private SequenceRecord scratch = new SequenceRecord();
+
+	/**
+	 * @param size
+	 *            the maximum number of records
+	 */
+	public RecordBatch(int size) {
+		this.data = ownData;
+		this.starts = new int[size];
+		this.idLengths = new int[size];
+		this.sequenceStarts = new int[size];
+		this.sequenceLengths = new int[size];
+		this.qualityStarts = new int[size];
+		this.qualityLengths = new int[size];
+		this.ownValues = new int[size][];
+		this.values = ownValues;
+		this.valuesLengths = new int[size];
+		this.tags = new int[size];
+	}
+
+	/**
+	 * @return the number of records
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the maximum number of records
+	 */
+	public int capacity() {
+		return starts.length;
+	}
+
+	/**
+	 * @return <code>true</code> if no other record can be added
+	 */
+	public boolean isFull() {
+		return count == starts.length;
+	}
+
+	/**
+	 * Copies a record in this batch
+	 *
+	 * @param r
+	 *            the record
+	 * @throws IllegalStateException
+	 *             if this batch is a view of another batch
+	 */
+	public void add(SequenceRecord r) {
+		if (shared)
+			throw new IllegalStateException(
+					"Records can not be added to a view of another batch");
+		int idLength = r.getIdLength();
+		int sequenceLength = r.getSequenceLength();
+		int qualityLength = r.getQualityLength();
+		int needed = used + idLength + sequenceLength + qualityLength;
+		if (needed > data.length) {
+			byte[] bigger = new byte[Math.max(needed, data.length * 2)];
+			System.arraycopy(data, 0, bigger, 0, used);
+			data = bigger;
+			ownData = bigger;
+		}
+		starts[count] = used;
+		System.arraycopy(r.getId(), r.getIdOffset(), data, used, idLength);
+		used += idLength;
+		sequenceStarts[count] = used;
+		System.arraycopy(r.getSequence(), r.getSequenceOffset(), data, used,
+				sequenceLength);
+		used += sequenceLength;
+		qualityStarts[count] = used;
+		System.arraycopy(r.getQuality(), r.getQualityOffset(), data, used,
+				qualityLength);
+		used += qualityLength;
+		idLengths[count] = idLength;
+		sequenceLengths[count] = sequenceLength;
+		qualityLengths[count] = qualityLength;
+		tags[count] = r.getTag();
+		if (r.hasQualityValues()) {
+			int n = r.getQualityValuesLength();
+			if ((values[count] == null) || (values[count].length < n))
+				values[count] = new int[n];
+			System.arraycopy(r.getQualityValues(), 0, values[count], 0, n);
+			valuesLengths[count] = n;
+		} else {
+			valuesLengths[count] = -1;
+		}
+		count++;
+	}
+
+	/**
+	 * Makes this batch a view of another batch: records share the bytes of
+	 * the other batch, which must not change while this view is used, but
+	 * they can be truncated without changing the other batch
+	 *
+	 * @param other
+	 *            the batch
+	 * @throws IllegalArgumentException
+	 *             if the other batch has more records than the capacity of
+	 *             this batch
+	 */
+	public void viewOf(RecordBatch other) {
+		if (other.count > capacity())
+			throw new IllegalArgumentException(
+					"The batch is bigger than this batch");
+		int n = other.count;
+		if (selectedValues == null)
+			selectedValues = new int[capacity()][];
+		data = other.data;
+		values = selectedValues;
+		used = other.used;
+		count = n;
+		shared = true;
+		System.arraycopy(other.values, 0, values, 0, n);
+		System.arraycopy(other.starts, 0, starts, 0, n);
+		System.arraycopy(other.idLengths, 0, idLengths, 0, n);
+		System.arraycopy(other.sequenceStarts, 0, sequenceStarts, 0, n);
+		System.arraycopy(other.sequenceLengths, 0, sequenceLengths, 0, n);
+		System.arraycopy(other.qualityStarts, 0, qualityStarts, 0, n);
+		System.arraycopy(other.qualityLengths, 0, qualityLengths, 0, n);
+		System.arraycopy(other.valuesLengths, 0, valuesLengths, 0, n);
+		System.arraycopy(other.tags, 0, tags, 0, n);
+	}
+
+	/**
+	 * Makes this batch a view of some records of another batch, as
+	 * {@link #viewOf(RecordBatch)} does
+	 *
+	 * @param other
+	 *            the batch
+	 * @param indices
+	 *            the indices of the records in the other batch, in the order
+	 *            they will have in this batch
+	 * @param n
+	 *            the number of records
+	 * @throws IllegalArgumentException
+	 *             if the number of records is greater than the capacity of
+	 *             this batch
+	 */
+	public void viewOf(RecordBatch other, int[] indices, int n) {
+		if (n > capacity())
+			throw new IllegalArgumentException(
+					"The records do not fit in this batch");
+		if (selectedValues == null)
+			selectedValues = new int[capacity()][];
+		data = other.data;
+		values = selectedValues;
+		used = other.used;
+		count = n;
+		shared = true;
+		for (int j = 0; j < n; j++) {
+			int i = indices[j];
+			starts[j] = other.starts[i];
+			idLengths[j] = other.idLengths[i];
+			sequenceStarts[j] = other.sequenceStarts[i];
+			sequenceLengths[j] = other.sequenceLengths[i];
+			qualityStarts[j] = other.qualityStarts[i];
+			qualityLengths[j] = other.qualityLengths[i];
+			valuesLengths[j] = other.valuesLengths[i];
+			values[j] = other.values[i];
+			tags[j] = other.tags[i];
+		}
+	}
+
+	/**
+	 * Makes a record a view of a record in this batch
+	 *
+	 * @param i
+	 *            index of the record
+	 * @param r
+	 *            the record
+	 */
+	public void view(int i, SequenceRecord r) {
+		int start = starts[i];
+		r.setId(data, start, idLengths[i]);
+		r.setSequence(data, sequenceStarts[i], sequenceLengths[i]);
+		r.setQuality(data, qualityStarts[i], qualityLengths[i]);
+		if (valuesLengths[i] >= 0)
+			r.setQualityValues(values[i], valuesLengths[i]);
+		r.setTag(tags[i]);
+	}
+
+	/**
+	 * Tags a record, as {@link SequenceRecord#setTag(int)} does
+	 *
+	 * @param i
+	 *            index of the record
+	 * @param tag
+	 *            the tag
+	 */
+	public void setTag(int i, int tag) {
+		tags[i] = tag;
+	}
+
+	/**
+	 * @param i
+	 *            index of the record
+	 * @return the tag of the record
+	 */
+	public int getTag(int i) {
+		return tags[i];
+	}
+
+	/**
+	 * Cuts a record to the specified length, as
+	 * {@link SequenceRecord#truncate(int)} does. The bytes are not changed.
+	 *
+	 * @param i
+	 *            index of the record
+	 * @param length
+	 *            the new length
+	 */
+	public void truncate(int i, int length) {
+		view(i, scratch);
+		scratch.truncate(length);
+		sequenceLengths[i] = scratch.getSequenceLength();
+		qualityLengths[i] = scratch.getQualityLength();
+		if (valuesLengths[i] >= 0)
+			valuesLengths[i] = scratch.getQualityValuesLength();
+	}
+
+	/**
+	 * Keeps only the bases of a record from <code>start</code> to
+	 * <code>end</code>, as {@link SequenceRecord#clip(int, int)} does. The
+	 * bytes are not changed.
+	 *
+	 * @param i
+	 *            index of the record
+	 * @param start
+	 *            the first base kept
+	 * @param end
+	 *            the new length before removing the first bases
+	 */
+	public void clip(int i, int start, int end) {
+		if (start <= 0) {
+			truncate(i, end);
+			return;
+		}
+		view(i, scratch);
+		scratch.clip(start, end);
+		sequenceStarts[i] = scratch.getSequenceOffset();
+		sequenceLengths[i] = scratch.getSequenceLength();
+		qualityStarts[i] = scratch.getQualityOffset();
+		qualityLengths[i] = scratch.getQualityLength();
+		if (valuesLengths[i] < 0)
+			return;
+		int n = scratch.getQualityValuesLength();
+		if (shared) {
+			// The values of the other batch must not change
+			if (clippedValues == null)
+				clippedValues = new int[capacity()][];
+			if ((clippedValues[i] == null) || (clippedValues[i].length < n))
+				clippedValues[i] = new int[Math.max(n, 256)];
+			values[i] = clippedValues[i];
+		}
+		System.arraycopy(scratch.getQualityValues(), 0, values[i], 0, n);
+		valuesLengths[i] = n;
+	}
+
+	/**
+	 * @return the array holding the bytes of all the records
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the start of the id in the data array
+	 */
+	public int getIdOffset(int i) {
+		return starts[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the length of the id
+	 */
+	public int getIdLength(int i) {
+		return idLengths[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the start of the sequence in the data array
+	 */
+	public int getSequenceOffset(int i) {
+		return sequenceStarts[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the length of the sequence
+	 */
+	public int getSequenceLength(int i) {
+		return sequenceLengths[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the start of the quality in the data array
+	 */
+	public int getQualityOffset(int i) {
+		return qualityStarts[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the length of the quality
+	 */
+	public int getQualityLength(int i) {
+		return qualityLengths[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return <code>true</code> if the record has decoded quality values
+	 */
+	public boolean hasQualityValues(int i) {
+		return valuesLengths[i] >= 0;
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the decoded quality values of the record
+	 */
+	public int[] getQualityValues(int i) {
+		return values[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of a record
+	 * @return the number of decoded quality values
+	 */
+	public int getQualityValuesLength(int i) {
+		return valuesLengths[i];
+	}
+
+	/**
+	 * @return an estimate of the memory in bytes taken by the arrays owned by
+	 *         this batch
+	 */
+	public long getMemory() {
+		long memory = ownData.length + 32L * starts.length;
+		for (int i = 0; i < ownValues.length; i++) {
+			if (ownValues[i] != null)
+				memory += 4L * ownValues[i].length;
+			if ((clippedValues != null) && (clippedValues[i] != null))
+				memory += 4L * clippedValues[i].length;
+		}
+		return memory;
+	}
+
+	/**
+	 * Empties this batch. A view of another batch goes back to its own arrays.
+	 */
+	public void clear() {
+		if (shared) {
+			data = ownData;
+			values = ownValues;
+			shared = false;
+		}
+		used = 0;
+		count = 0;
+	}
+
+}
@@ -0,0 +1,38 @@
+package io;
+
+/**
+ * Sequence reader which can be started in the middle of a file, after the
+ * records processed by a previous run, reporting positions and line numbers
+ * as if it had read the file from its start
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ * @see processes.Checkpointer
+ */
+public interface ResumableReader extends FileSequenceReader {
+
+	/**
+	 * Sets the position and the line number of the first byte read. This
+	 * method must be called before reading.
+	 *
+	 * @param position
+	 *            the number of bytes preceding the input of the reader
+	 * @param lines
+	 *            the number of lines preceding the input of the reader
+	 */
+	public void setOrigin(long position, long lines);
+
+	/**
+	 * @return the number of bytes read, up to the end of the last record
+	 *         returned
+	 */
+	public long getPosition();
+
+	/**
+	 * @return the number of lines read, up to the end of the last record
+	 *         returned
+	 */
+	public long getLineNumber();
+
+}
@@ -0,0 +1,623 @@
+package io;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Mutable sequence record. A record holds id, sequence and quality as regions
+ * of byte arrays, so that readers can hand their own buffers to the listeners
+ * and trimmers can cut a sequence just changing its length. Records are
+ * reused: a listener must not keep a reference to a record after the call
+ * that passed it and must not modify it (use {@link #copy()} or
+ * {@link #set(SequenceRecord)} on a record of its own).
+ * <p>
+ * String views of the record are created only when requested and cached until
+ * the record changes, so that several listeners working on strings share the
+ * same objects. Readers parsing numeric qualities (QUAL files) also set the
+ * decoded quality values, which are then used instead of decoding the quality
+ * again.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class SequenceRecord {
+
+	/**
+	 * Charset used for ids
+	 */
+	public static final Charset ID_CHARSET = Charset.defaultCharset();
+
+	/**
+	 * Charset used for sequences and qualities (plain ASCII)
+	 */
+	public static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Tag of the records not tagged
+	 */
+	public static final int NO_TAG = -1;
+
+	/**
+	 * Empty array
+	 */
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * Id bytes
+	 */
+	private byte[] id = EMPTY;
+
+	/**
+	 * Start of the id
+	 */
+	private int idOffset = 0;
+
+	/**
+	 * Length of the id
+	 */
+	private int idLength = 0;
+
+	/**
+	 * Sequence bytes
+	 */
+	private byte[] sequence = EMPTY;
+
+	/**
+	 * Start of the sequence
+	 */
+	private int sequenceOffset = 0;
+
+	/**
+	 * Length of the sequence
+	 */
+	private int sequenceLength = 0;
+
+	/**
+	 * Quality bytes
+	 */
+	private byte[] quality = EMPTY;
+
+	/**
+	 * Start of the quality
+	 */
+	private int qualityOffset = 0;
+
+	/**
+	 * Length of the quality
+	 */
+	private int qualityLength = 0;
+
+	/**
+	 * Decoded quality values or <code>null</code> if the quality has not
+	 * been decoded by the reader
+	 */
+	private int[] qualityValues = null;
+
+	/**
+	 * Number of decoded quality values
+	 */
+	private int qualityValuesLength = 0;
+
+	/**
+	 * Cached id string
+	 */
+	private String idString = null;
+
+	/**
+	 * Cached sequence string
+	 */
+	private String sequenceString = null;
+
+	/**
+	 * Cached quality string
+	 */
+	private String qualityString = null;
+
+	/**
+	 * <code>false</code> if the record has been set from strings that have not
+	 * been encoded yet
+	 */
+	private boolean encoded = true;
+
+	/**
+	 * Tag given to the record by a stage, {@link #NO_TAG} if none
+	 */
+	private int tag = NO_TAG;
+
+	/**
+	 * Buffers owned by this record, used when the record is set from strings
+	 */
+	private byte[][] owned = new byte[3][];
+
+	/**
+	 * Quality values buffer owned by this record, used by
+	 * {@link #copyOf(SequenceRecord)}
+	 */
+	private int[] ownedValues = null;
+
+	/**
+	 * Sets the id. The tag is cleared, as a new id starts a new record.
+	 *
+	 * @param id
+	 *            the array holding the id
+	 * @param offset
+	 *            start of the id
+	 * @param length
+	 *            length of the id
+	 */
+	public void setId(byte[] id, int offset, int length) {
+		encode();
+		this.id = id;
+		this.idOffset = offset;
+		this.idLength = length;
+		this.idString = null;
+		this.tag = NO_TAG;
+	}
+
+	/**
+	 * Sets the sequence
+	 *
+	 * @param sequence
+	 *            the array holding the sequence
+	 * @param offset
+	 *            start of the sequence
+	 * @param length
+	 *            length of the sequence
+	 */
+	public void setSequence(byte[] sequence, int offset, int length) {
+		encode();
+		this.sequence = sequence;
+		this.sequenceOffset = offset;
+		this.sequenceLength = length;
+		this.sequenceString = null;
+	}
+
+	/**
+	 * Sets the quality
+	 *
+	 * @param quality
+	 *            the array holding the quality
+	 * @param offset
+	 *            start of the quality
+	 * @param length
+	 *            length of the quality
+	 */
+	public void setQuality(byte[] quality, int offset, int length) {
+		encode();
+		this.quality = quality;
+		this.qualityOffset = offset;
+		this.qualityLength = length;
+		this.qualityString = null;
+		this.qualityValues = null;
+	}
+
+	/**
+	 * Sets the decoded quality values. This method must be called after
+	 * {@link #setQuality(byte[], int, int)}, which discards them.
+	 *
+	 * @param values
+	 *            the array holding the values
+	 * @param length
+	 *            number of values
+	 */
+	public void setQualityValues(int[] values, int length) {
+		encode();
+		this.qualityValues = values;
+		this.qualityValuesLength = length;
+	}
+
+	/**
+	 * Makes this record a view of another record. Arrays are shared, not
+	 * copied.
+	 *
+	 * @param other
+	 *            the record
+	 */
+	public void set(SequenceRecord other) {
+		if (!other.encoded) {
+			set(other.idString, other.sequenceString, other.qualityString);
+			this.tag = other.tag;
+			return;
+		}
+		this.id = other.id;
+		this.idOffset = other.idOffset;
+		this.idLength = other.idLength;
+		this.sequence = other.sequence;
+		this.sequenceOffset = other.sequenceOffset;
+		this.sequenceLength = other.sequenceLength;
+		this.quality = other.quality;
+		this.qualityOffset = other.qualityOffset;
+		this.qualityLength = other.qualityLength;
+		this.idString = other.idString;
+		this.sequenceString = other.sequenceString;
+		this.qualityString = other.qualityString;
+		this.qualityValues = other.qualityValues;
+		this.qualityValuesLength = other.qualityValuesLength;
+		this.tag = other.tag;
+		this.encoded = true;
+	}
+
+	/**
+	 * Sets the record from strings. Strings are encoded only if bytes are
+	 * requested.
+	 *
+	 * @param id
+	 *            the id
+	 * @param sequence
+	 *            the sequence
+	 * @param quality
+	 *            the quality
+	 */
+	public void set(String id, String sequence, String quality) {
+		this.idString = id;
+		this.sequenceString = sequence;
+		this.qualityString = quality;
+		this.qualityValues = null;
+		this.tag = NO_TAG;
+		this.encoded = false;
+	}
+
+	/**
+	 * Cuts sequence and quality to the specified length. If the record has
+	 * decoded quality values, the quality is cut after the value at the same
+	 * position.
+	 *
+	 * @param length
+	 *            the new length
+	 */
+	public void truncate(int length) {
+		encode();
+		if (length < sequenceLength) {
+			sequenceLength = length;
+			sequenceString = null;
+		}
+		if (qualityValues != null) {
+			if (length < qualityValuesLength) {
+				qualityValuesLength = length;
+				qualityLength = numericPrefix(length);
+				qualityString = null;
+			}
+		} else if (length < qualityLength) {
+			qualityLength = length;
+			qualityString = null;
+		}
+	}
+
+	/**
+	 * Keeps only the bases from <code>start</code> (included) to
+	 * <code>end</code> (excluded), as {@link #truncate(int)} does for the end.
+	 * Sequence and quality are not copied, but decoded quality values are
+	 * moved to a buffer owned by this record when bases are removed from the
+	 * start.
+	 *
+	 * @param start
+	 *            the first base kept
+	 * @param end
+	 *            the new length before removing the first bases
+	 */
+	public void clip(int start, int end) {
+		truncate(end);
+		if (start <= 0)
+			return;
+		start = Math.min(start, sequenceLength);
+		sequenceOffset += start;
+		sequenceLength -= start;
+		sequenceString = null;
+		if (qualityValues != null) {
+			start = Math.min(start, qualityValuesLength);
+			int prefix = numericPrefix(start);
+			qualityOffset += prefix;
+			qualityLength -= prefix;
+			int n = qualityValuesLength - start;
+			if (qualityValues != ownedValues) {
+				if ((ownedValues == null) || (ownedValues.length < n))
+					ownedValues = new int[Math.max(n, 256)];
+			}
+			System.arraycopy(qualityValues, start, ownedValues, 0, n);
+			qualityValues = ownedValues;
+			qualityValuesLength = n;
+		} else {
+			start = Math.min(start, qualityLength);
+			qualityOffset += start;
+			qualityLength -= start;
+		}
+		qualityString = null;
+	}
+
+	/**
+	 * Finds the end of the first values of a numeric quality
+	 *
+	 * @param values
+	 *            number of values
+	 * @return the length of the quality holding only the specified number of
+	 *         values (and the space following the last one)
+	 */
+	private int numericPrefix(int values) {
+		if (values == 0)
+			return 0;
+		int found = 0;
+		boolean digit = false;
+		int end = qualityOffset + qualityLength;
+		for (int i = qualityOffset; i < end; i++) {
+			boolean d = (quality[i] >= '0') && (quality[i] <= '9');
+			if (digit && !d && (++found == values))
+				return i + 1 - qualityOffset;
+			digit = d;
+		}
+		return qualityLength;
+	}
+
+	/**
+	 * Makes this record a copy of another record. Bytes are copied in buffers
+	 * owned by this record, which are reused by the next copy, so that a
+	 * record can be recycled as a container without allocating.
+	 *
+	 * @param other
+	 *            the record
+	 */
+	public void copyOf(SequenceRecord other) {
+		other.encode();
+		encoded = true;
+		id = copyTo(0, other.id, other.idOffset, other.idLength);
+		idOffset = 0;
+		idLength = other.idLength;
+		sequence = copyTo(1, other.sequence, other.sequenceOffset,
+				other.sequenceLength);
+		sequenceOffset = 0;
+		sequenceLength = other.sequenceLength;
+		quality = copyTo(2, other.quality, other.qualityOffset,
+				other.qualityLength);
+		qualityOffset = 0;
+		qualityLength = other.qualityLength;
+		idString = other.idString;
+		sequenceString = other.sequenceString;
+		qualityString = other.qualityString;
+		tag = other.tag;
+		if (other.qualityValues != null) {
+			int n = other.qualityValuesLength;
+			if ((ownedValues == null) || (ownedValues.length < n))
+				ownedValues = new int[Math.max(n, 256)];
+			System.arraycopy(other.qualityValues, 0, ownedValues, 0, n);
+			qualityValues = ownedValues;
+			qualityValuesLength = n;
+		} else {
+			qualityValues = null;
+		}
+	}
+
+	/**
+	 * Copies bytes in one of the buffers owned by this record
+	 *
+	 * @param slot
+	 *            index of the buffer
+	 * @param src
+	 *            the array holding the bytes
+	 * @param offset
+	 *            start of the bytes
+	 * @param length
+	 *            number of bytes
+	 * @return the buffer
+	 */
+	private byte[] copyTo(int slot, byte[] src, int offset, int length) {
+		if ((owned[slot] == null) || (owned[slot].length < length))
+			owned[slot] = new byte[Math.max(length, 256)];
+		System.arraycopy(src, offset, owned[slot], 0, length);
+		return owned[slot];
+	}
+
+	/**
+	 * @return a copy of this record not sharing any array with it
+	 */
+	public SequenceRecord copy() {
+		encode();
+		SequenceRecord copy = new SequenceRecord();
+		byte[] data = new byte[idLength + sequenceLength + qualityLength];
+		System.arraycopy(id, idOffset, data, 0, idLength);
+		System.arraycopy(sequence, sequenceOffset, data, idLength,
+				sequenceLength);
+		System.arraycopy(quality, qualityOffset, data, idLength
+				+ sequenceLength, qualityLength);
+		copy.setId(data, 0, idLength);
+		copy.setSequence(data, idLength, sequenceLength);
+		copy.setQuality(data, idLength + sequenceLength, qualityLength);
+		copy.idString = idString;
+		copy.sequenceString = sequenceString;
+		copy.qualityString = qualityString;
+		copy.tag = tag;
+		if (qualityValues != null)
+			copy.setQualityValues(
+					Arrays.copyOf(qualityValues, qualityValuesLength),
+					qualityValuesLength);
+		return copy;
+	}
+
+	/**
+	 * Encodes the strings the record has been set from
+	 */
+	private void encode() {
+		if (encoded)
+			return;
+		encoded = true;
+		byte[] bytes = (idString == null) ? EMPTY : idString
+				.getBytes(ID_CHARSET);
+		id = bytes;
+		idOffset = 0;
+		idLength = bytes.length;
+		sequence = encodeAscii(sequenceString, 1);
+		sequenceOffset = 0;
+		sequenceLength = (sequenceString == null) ? 0 : sequenceString
+				.length();
+		quality = encodeAscii(qualityString, 2);
+		qualityOffset = 0;
+		qualityLength = (qualityString == null) ? 0 : qualityString.length();
+	}
+
+	/**
+	 * Encodes a string in one of the buffers owned by this record
+	 *
+	 * @param s
+	 *            the string
+	 * @param slot
+	 *            index of the buffer
+	 * @return the buffer
+	 */
+	private byte[] encodeAscii(String s, int slot) {
+		int length = (s == null) ? 0 : s.length();
+		if ((owned[slot] == null) || (owned[slot].length < length))
+			owned[slot] = new byte[Math.max(length, 256)];
+		byte[] buffer = owned[slot];
+		for (int i = 0; i < length; i++)
+			buffer[i] = (byte) s.charAt(i);
+		return buffer;
+	}
+
+	/**
+	 * Tags the record, for instance with the index of the primer found in it.
+	 * Tags are kept by the views and the copies of the record, and by the
+	 * batches holding it.
+	 *
+	 * @param tag
+	 *            the tag, {@link #NO_TAG} to clear it
+	 */
+	public void setTag(int tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * @return the tag of the record, {@link #NO_TAG} if it has not been tagged
+	 */
+	public int getTag() {
+		return tag;
+	}
+
+	/**
+	 * @return the array holding the id
+	 */
+	public byte[] getId() {
+		encode();
+		return id;
+	}
+
+	/**
+	 * @return the start of the id
+	 */
+	public int getIdOffset() {
+		encode();
+		return idOffset;
+	}
+
+	/**
+	 * @return the length of the id
+	 */
+	public int getIdLength() {
+		encode();
+		return idLength;
+	}
+
+	/**
+	 * @return the array holding the sequence
+	 */
+	public byte[] getSequence() {
+		encode();
+		return sequence;
+	}
+
+	/**
+	 * @return the start of the sequence
+	 */
+	public int getSequenceOffset() {
+		encode();
+		return sequenceOffset;
+	}
+
+	/**
+	 * @return the length of the sequence
+	 */
+	public int getSequenceLength() {
+		encode();
+		return sequenceLength;
+	}
+
+	/**
+	 * @return the array holding the quality
+	 */
+	public byte[] getQuality() {
+		encode();
+		return quality;
+	}
+
+	/**
+	 * @return the start of the quality
+	 */
+	public int getQualityOffset() {
+		encode();
+		return qualityOffset;
+	}
+
+	/**
+	 * @return the length of the quality
+	 */
+	public int getQualityLength() {
+		encode();
+		return qualityLength;
+	}
+
+	/**
+	 * @return <code>true</code> if the record has decoded quality values
+	 */
+	public boolean hasQualityValues() {
+		return qualityValues != null;
+	}
+
+	/**
+	 * @return the array holding the decoded quality values or
+	 *         <code>null</code> if the quality has not been decoded
+	 */
+	public int[] getQualityValues() {
+		return qualityValues;
+	}
+
+	/**
+	 * @return the number of decoded quality values
+	 */
+	public int getQualityValuesLength() {
+		return qualityValuesLength;
+	}
+
+	/**
+	 * @return the id as a string
+	 */
+	public String getIdString() {
+		if ((idString == null) && encoded)
+			idString = new String(id, idOffset, idLength, ID_CHARSET);
+		return idString;
+	}
+
+	/**
+	 * @return the sequence as a string
+	 */
+	public String getSequenceString() {
+		if ((sequenceString == null) && encoded)
+			sequenceString = new String(sequence, sequenceOffset,
+					sequenceLength, ASCII);
+		return sequenceString;
+	}
+
+	/**
+	 * @return the quality as a string
+	 */
+	public String getQualityString() {
+		if ((qualityString == null) && encoded)
+			qualityString = new String(quality, qualityOffset, qualityLength,
+					ASCII);
+		return qualityString;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s %s", getIdString(), getSequenceString(),
+				getQualityString());
+	}
+
+}
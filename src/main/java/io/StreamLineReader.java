@@ -0,0 +1,86 @@
+package io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ByteLineReader} implementation reading from an {@link InputStream}.
+ * Bytes are read in a single reusable array which grows only if a line is
+ * longer than the array itself.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class StreamLineReader extends ByteLineReader {
+
+	/**
+	 * Default size of the byte window
+	 */
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * The input stream
+	 */
+	private InputStream in = null;
+
+	/**
+	 * The array backing the byte window
+	 */
+	private byte[] array = null;
+
+	/**
+	 * Creates a line reader
+	 *
+	 * @param in
+	 *            the input stream
+	 */
+	public StreamLineReader(InputStream in) {
+		this(in, BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a line reader with the specified window size
+	 *
+	 * @param in
+	 *            the input stream
+	 * @param bufferSize
+	 *            initial size of the byte window
+	 */
+	public StreamLineReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.array = new byte[bufferSize];
+		ByteBuffer window = ByteBuffer.wrap(array);
+		window.limit(0);
+		setWindow(window);
+	}
+
+	@Override
+	protected boolean fill(int keep) throws IOException {
+		int remaining = getWindow().limit() - keep;
+		if (remaining == array.length) {
+			// A single line fills the whole window
+			byte[] grown = new byte[array.length * 2];
+			System.arraycopy(array, keep, grown, 0, remaining);
+			array = grown;
+			setWindow(ByteBuffer.wrap(array));
+		} else if (keep > 0) {
+			System.arraycopy(array, keep, array, 0, remaining);
+		}
+		ByteBuffer window = getWindow();
+		int read = in.read(array, remaining, array.length - remaining);
+		if (read < 0) {
+			window.limit(remaining);
+			return false;
+		}
+		window.limit(remaining + read);
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
@@ -0,0 +1,863 @@
+package listeners;
+
+import io.SequenceRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import decoder.QualityDecoder;
+
+/**
+ * Adapter trimmer. The sequences are cut at the first occurrence of any of
+ * the adapters, allowing mismatches, insertions and deletions; an adapter
+ * running past the end of a sequence is found as well, as long as at least
+ * {@link #setMinOverlap(int) a few bases} of its beginning overlap the end of
+ * the sequence. The number of errors allowed is a fraction of the length of
+ * the match (of the overlap for partial matches).
+ * <p>
+ * Matches are found with the bit-parallel algorithm of Myers, which keeps a
+ * column of the edit distance matrix in two 64-bit words and updates it with
+ * a few logical operations per base. The sequence is scanned backwards
+ * against the reversed adapter, so that the end of a match is the first base
+ * of the adapter and the partial matches are the ones at the beginning of the
+ * scan. Adapters longer than 64 bases are cut to their first 64 bases.
+ * Short adapters are packed in the same word and matched together.
+ * <p>
+ * Most sequences are not scanned to the start: all the adapters are first
+ * looked for in a single pass for seeds, pieces of the adapters a match must
+ * hold without errors, and the scan stops where a match holding the first
+ * seed can start. Sequences without seeds are only scanned for the short
+ * partial matches at their end.
+ * <p>
+ * If a quality decoder is given, the bases left are trimmed by quality as
+ * {@link TrimmingListener} does, in the same pass: quality trimming then
+ * only analyzes the bases before the adapter. Other trimmers can be chained
+ * after this one in a {@link processes.StageGraph}.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class AdapterTrimmingListener extends TrimmingListener {
+
+	/**
+	 * The longest adapter matched
+	 */
+	public static final int MAX_ADAPTER_LENGTH = 64;
+
+	/**
+	 * The length of the parts of the seeds looked for at every sampled base
+	 */
+	private static final int GRAM_LENGTH = 5;
+
+	/**
+	 * The distance between the bases sampled
+	 */
+	private static final int STRIDE = 4;
+
+	/**
+	 * The longest seed looked for before matching an adapter: a part of
+	 * every seed of this length starts at one of the bases sampled
+	 */
+	private static final int MAX_SEED_LENGTH = GRAM_LENGTH + STRIDE - 1;
+
+	/**
+	 * The length of the blocks the end of a sequence is split into
+	 */
+	private static final int BLOCK_LENGTH = 5;
+
+	/**
+	 * The adapters
+	 */
+	private String[] adapters;
+
+	/**
+	 * The words the adapters are packed in
+	 */
+	private Word[] words;
+
+	/**
+	 * For each adapter, the errors allowed by the length of the match
+	 */
+	private int[][] maxErrors;
+
+	/**
+	 * For each adapter, the longest partial match possible in a sequence
+	 * without seeds
+	 */
+	private int[] unseeded;
+
+	/**
+	 * For each adapter, <code>true</code> if its matches may hold no seed
+	 */
+	private boolean[] wildcards;
+
+	/**
+	 * For each adapter, the longest partial match possible in a sequence
+	 * whose end holds no block of the adapters, or <code>-1</code> if the
+	 * adapter holds wildcards
+	 */
+	private int[] unblocked;
+
+	/**
+	 * The bits of the codes of the blocks of bases of all the adapters
+	 */
+	private long[] blocks;
+
+	/**
+	 * The longest end of a sequence looked at for blocks
+	 */
+	private int maxUnseeded;
+
+	/**
+	 * The length of the seeds, the same for all the adapters
+	 */
+	private int seedLength;
+
+	/**
+	 * The codes of the seeds of all the adapters, sorted
+	 */
+	private int[] seeds;
+
+	/**
+	 * For each seed, the most bases a match holding it can start before it
+	 */
+	private int[] reaches;
+
+	/**
+	 * For each code of a part of a seed, one more than the most bases a
+	 * match holding the seed can start before the part
+	 */
+	private byte[] grams;
+
+	/**
+	 * For each offset in the seeds and code of a part of a seed (of a whole
+	 * seed, if shorter than {@link #MAX_SEED_LENGTH}), one more than the most
+	 * bases a match holding the seed can start before it
+	 */
+	private byte[] gramReaches;
+
+	/**
+	 * The most bases a match can start before any seed
+	 */
+	private int maxReach;
+
+	/**
+	 * The bases after the first base a match holding a seed can start from
+	 * holding the whole match
+	 */
+	private int window;
+
+	/**
+	 * The distance of each adapter of a word while scanning a sequence
+	 */
+	private int[] scores;
+
+	/**
+	 * The lowest distance of the matches of each adapter of a word ending at
+	 * the last bases scanned, or -1
+	 */
+	private int[] bests;
+
+	/**
+	 * The first base of the first match of each adapter of a word
+	 */
+	private int[] starts;
+
+	/**
+	 * The last base a match of each adapter of a word can start from, in the
+	 * consecutive matches holding the first match, or -1
+	 */
+	private int[] runs;
+
+	/**
+	 * The first base a match of each adapter of a word can start from, or -1
+	 */
+	private int[] lasts;
+
+	/**
+	 * The fraction of errors allowed
+	 */
+	private double errorRate = 0.1;
+
+	/**
+	 * The shortest match allowed at the end of a sequence
+	 */
+	private int minOverlap = 3;
+
+	/**
+	 * Creates an adapter trimmer
+	 *
+	 * @param qdecoder
+	 *            the quality decoder or <code>null</code> to skip quality
+	 *            trimming
+	 * @param adapters
+	 *            the adapters, made of the letters A, C, G, T and N (which
+	 *            matches any base)
+	 * @throws IllegalArgumentException
+	 *             if no adapter is given or an adapter holds other letters
+	 */
+	public AdapterTrimmingListener(QualityDecoder qdecoder, String... adapters) {
+		super(qdecoder);
+		if (adapters.length == 0)
+			throw new IllegalArgumentException("No adapter");
+		this.adapters = adapters.clone();
+		// Adapters are packed in as few words as their order allows
+		List<Word> packed = new ArrayList<Word>();
+		Word word = null;
+		int lanes = 0;
+		for (int a = 0; a < adapters.length; a++) {
+			int m = Math.min(adapters[a].length(), MAX_ADAPTER_LENGTH);
+			if ((word == null) || (word.used + m > MAX_ADAPTER_LENGTH)) {
+				word = new Word();
+				packed.add(word);
+			}
+			word.add(a, adapters[a], m);
+			lanes = Math.max(lanes, word.adapters.length);
+		}
+		this.words = packed.toArray(new Word[packed.size()]);
+		this.scores = new int[lanes];
+		this.bests = new int[lanes];
+		this.starts = new int[lanes];
+		this.runs = new int[lanes];
+		this.lasts = new int[lanes];
+		updateErrors();
+	}
+
+	/**
+	 * Computes the errors allowed for every match length, the seeds and the
+	 * blocks
+	 */
+	private void updateErrors() {
+		maxErrors = new int[adapters.length][];
+		unseeded = new int[adapters.length];
+		wildcards = new boolean[adapters.length];
+		unblocked = new int[adapters.length];
+		seedLength = MAX_SEED_LENGTH;
+		for (int a = 0; a < adapters.length; a++) {
+			int m = Math.min(adapters[a].length(), MAX_ADAPTER_LENGTH);
+			maxErrors[a] = new int[m + 1];
+			for (int j = 0; j <= m; j++)
+				maxErrors[a][j] = (int) (errorRate * j);
+			seedLength = Math.min(seedLength, m / (maxErrors[a][m] + 1));
+		}
+		seeds = new int[0];
+		reaches = new int[0];
+		maxReach = 0;
+		window = 0;
+		blocks = new long[(1 << (2 * BLOCK_LENGTH)) / 64];
+		maxUnseeded = 0;
+		for (int a = 0; a < adapters.length; a++) {
+			encodeSeeds(a, maxErrors[a].length - 1);
+			encodeBlocks(a, maxErrors[a].length - 1);
+			maxUnseeded = Math.max(maxUnseeded, unseeded[a]);
+			// A match holding the seed with the lowest bound starts at most
+			// 2k bases after the bound and the next matches are k bases apart
+			int m = maxErrors[a].length - 1;
+			window = Math.max(window, m + 4 * maxErrors[a][m] + 2);
+		}
+		for (Word word : words) {
+			word.wildcards = false;
+			for (int a : word.adapters)
+				word.wildcards |= wildcards[a];
+		}
+		if (seedLength < MAX_SEED_LENGTH) {
+			// Short seeds are looked for at every base
+			gramReaches = new byte[1 << (2 * seedLength)];
+			for (int k = 0; k < seeds.length; k++)
+				gramReaches[seeds[k]] = (byte) (reaches[k] + 1);
+			return;
+		}
+		grams = new byte[1 << (2 * GRAM_LENGTH)];
+		gramReaches = new byte[STRIDE << (2 * GRAM_LENGTH)];
+		int mask = grams.length - 1;
+		for (int k = 0; k < seeds.length; k++) {
+			for (int o = 0; o < STRIDE; o++) {
+				int gram = (seeds[k] >>> (2 * (STRIDE - 1 - o))) & mask;
+				int index = (o << (2 * GRAM_LENGTH)) | gram;
+				grams[gram] = (byte) Math.max(grams[gram], reaches[k] + o + 1);
+				gramReaches[index] = (byte) Math.max(gramReaches[index],
+						reaches[k] + 1);
+			}
+		}
+	}
+
+	/**
+	 * Computes the seeds of an adapter: a match with <i>k</i> errors holds at
+	 * least one of <i>k</i>+1 disjoint pieces of the adapter without errors,
+	 * so a sequence holding none of them can only end with a short partial
+	 * match, holding too few pieces. The seeds are the bases at the start of
+	 * the pieces, and a match starts at most <i>o</i>+<i>k</i> bases before
+	 * its seed, <i>o</i> being the offset of the seed in the adapter.
+	 *
+	 * @param a
+	 *            the adapter
+	 * @param m
+	 *            the length of the adapter matched
+	 */
+	private void encodeSeeds(int a, int m) {
+		int[] errors = maxErrors[a];
+		int pieces = errors[m] + 1;
+		// Sequence bases of the partial matches, adapter bases of the pieces
+		for (int j = 1; j <= m + errors[m]; j++) {
+			int e = errors[Math.min(j, m)];
+			if (Math.min(pieces, (j - e) / (m / pieces)) <= e)
+				unseeded[a] = j;
+		}
+		if (seedLength == 0) {
+			// Pieces too short to be looked for
+			wildcards[a] = true;
+			return;
+		}
+		int[] codes = new int[pieces];
+		for (int p = 0; p < pieces; p++) {
+			for (int i = 0; i < seedLength; i++) {
+				char c = Character.toUpperCase(adapters[a].charAt(p
+						* (m / pieces) + i));
+				if (c == 'N') {
+					// Wildcards: the adapter is always matched
+					wildcards[a] = true;
+					return;
+				}
+				codes[p] = (codes[p] << 2) | code(c);
+			}
+		}
+		for (int p = 0; p < pieces; p++) {
+			int reach = p * (m / pieces) + errors[m];
+			int k = Arrays.binarySearch(seeds, codes[p]);
+			if (k < 0) {
+				k = -k - 1;
+				seeds = insert(seeds, k, codes[p]);
+				reaches = insert(reaches, k, reach);
+			}
+			reaches[k] = Math.max(reaches[k], reach);
+			maxReach = Math.max(maxReach, reach);
+		}
+	}
+
+	/**
+	 * @param values
+	 *            the values
+	 * @param index
+	 *            the index of the new value
+	 * @param value
+	 *            the new value
+	 * @return a copy of the values holding the new value at the given index
+	 */
+	private static int[] insert(int[] values, int index, int value) {
+		int[] copy = new int[values.length + 1];
+		System.arraycopy(values, 0, copy, 0, index);
+		copy[index] = value;
+		System.arraycopy(values, index, copy, index + 1, values.length - index);
+		return copy;
+	}
+
+	/**
+	 * Computes the blocks of an adapter, to rule out the partial matches
+	 * without seeds. The end of a sequence is split into blocks of
+	 * {@link #BLOCK_LENGTH} bases: a partial match with <i>e</i> errors
+	 * holding more than <i>e</i> blocks holds a block without errors, that
+	 * is a block of bases of the adapter. Only the shorter partial matches
+	 * are possible at the end of a sequence holding no such block.
+	 *
+	 * @param a
+	 *            the adapter
+	 * @param m
+	 *            the length of the adapter matched
+	 */
+	private void encodeBlocks(int a, int m) {
+		int[] errors = maxErrors[a];
+		if (adapters[a].substring(0, m).toUpperCase().indexOf('N') >= 0) {
+			unblocked[a] = -1;
+			return;
+		}
+		unblocked[a] = 0;
+		for (int j = 1; j <= unseeded[a]; j++)
+			if (j / BLOCK_LENGTH <= errors[Math.min(j, m)])
+				unblocked[a] = j;
+		for (int i = 0; i + BLOCK_LENGTH <= m; i++) {
+			int code = 0;
+			for (int b = i; b < i + BLOCK_LENGTH; b++)
+				code = (code << 2) | code(adapters[a].charAt(b));
+			blocks[code >>> 6] |= 1L << code;
+		}
+	}
+
+	/**
+	 * Two bit code of a base, taken from the bits of its letter: A is 0, C is
+	 * 1, T is 2 and G is 3, in either case. Other characters get one of the
+	 * codes: this may only find more seeds.
+	 *
+	 * @param base
+	 *            the letter of the base
+	 * @return the code of the base
+	 */
+	private static int code(int base) {
+		return (base >>> 1) & 3;
+	}
+
+	/**
+	 * Looks for the seeds of all the adapters in a single pass. Only the
+	 * bases every {@link #STRIDE} are sampled: the part of a seed starting at
+	 * a sampled base is looked for first, and the whole seed only when the
+	 * part is found and the seed can lower the bound. The scan stops as soon
+	 * as no further seed can lower the bound.
+	 *
+	 * @param sequence
+	 *            the bases
+	 * @param offset
+	 *            the first base
+	 * @param length
+	 *            the number of bases
+	 * @return the first base a match holding a seed can start from, or
+	 *         <code>length</code> if the bases hold no seed
+	 */
+	private int seedBound(byte[] sequence, int offset, int length) {
+		if ((seedLength == 0) || (length < seedLength))
+			return length;
+		if (seedLength < MAX_SEED_LENGTH)
+			return shortSeedBound(sequence, offset, length);
+		byte[] parts = grams;
+		int reach = maxReach + STRIDE - 1;
+		int bound = length;
+		int stop = length;
+		for (int i = offset; i <= offset + length - GRAM_LENGTH; i += STRIDE) {
+			int gram = (code(sequence[i]) << 8) | (code(sequence[i + 1]) << 6)
+					| (code(sequence[i + 2]) << 4)
+					| (code(sequence[i + 3]) << 2) | code(sequence[i + 4]);
+			int p = i - offset;
+			if ((parts[gram] != 0) && (p - parts[gram] + 1 < bound)) {
+				if (p > stop)
+					break;
+				int found = seedBound(sequence, offset, length, p, gram, bound);
+				if (found < bound) {
+					bound = found;
+					stop = bound + reach;
+				}
+			}
+		}
+		return Math.max(bound, 0);
+	}
+
+	/**
+	 * Looks for the seeds holding a part found at a sampled base
+	 *
+	 * @param sequence
+	 *            the bases
+	 * @param offset
+	 *            the first base
+	 * @param length
+	 *            the number of bases
+	 * @param p
+	 *            the sampled base
+	 * @param gram
+	 *            the code of the part starting at the sampled base
+	 * @param bound
+	 *            the first base a match holding the seeds found so far can
+	 *            start from
+	 * @return the first base a match holding any of the seeds found can start
+	 *         from
+	 */
+	private int seedBound(byte[] sequence, int offset, int length, int p,
+			int gram, int bound) {
+		for (int o = 0; o < STRIDE; o++) {
+			int start = p - o;
+			int reach = gramReaches[(o << (2 * GRAM_LENGTH)) | gram];
+			if ((reach == 0) || (start < 0)
+					|| (start + MAX_SEED_LENGTH > length)
+					|| (start - reach + 1 >= bound))
+				continue;
+			int seed = 0;
+			for (int i = offset + start; i < offset + start + MAX_SEED_LENGTH; i++)
+				seed = (seed << 2) | code(sequence[i]);
+			int k = Arrays.binarySearch(seeds, seed);
+			if (k >= 0)
+				bound = Math.min(bound, start - reaches[k]);
+		}
+		return bound;
+	}
+
+	/**
+	 * Looks for seeds shorter than {@link #MAX_SEED_LENGTH} at every base
+	 *
+	 * @param sequence
+	 *            the bases
+	 * @param offset
+	 *            the first base
+	 * @param length
+	 *            the number of bases
+	 * @return the first base a match holding a seed can start from, or
+	 *         <code>length</code> if the bases hold no seed
+	 */
+	private int shortSeedBound(byte[] sequence, int offset, int length) {
+		int mask = (1 << (2 * seedLength)) - 1;
+		int bound = length;
+		int last = length - seedLength;
+		int seed = 0;
+		for (int i = offset; i < offset + seedLength - 1; i++)
+			seed = (seed << 2) | code(sequence[i]);
+		for (int p = 0; p <= last; p++) {
+			seed = ((seed << 2) | code(sequence[offset + p + seedLength - 1]))
+					& mask;
+			if (gramReaches[seed] != 0) {
+				bound = Math.min(bound, p - gramReaches[seed] + 1);
+				last = Math.min(last, bound + maxReach);
+			}
+		}
+		return Math.max(bound, 0);
+	}
+
+	/**
+	 * Looks for the blocks of the adapters at the end of a sequence
+	 *
+	 * @param sequence
+	 *            the bases
+	 * @param offset
+	 *            the first base
+	 * @param length
+	 *            the number of bases
+	 * @return the length of the shortest end of the sequence holding a block
+	 *         of the adapters, or {@link Integer#MAX_VALUE} if there is none
+	 */
+	private int blockBound(byte[] sequence, int offset, int length) {
+		int end = offset + length;
+		int limit = Math.min(length, maxUnseeded);
+		for (int b = BLOCK_LENGTH; b <= limit; b += BLOCK_LENGTH) {
+			int code = 0;
+			for (int i = end - b; i < end - b + BLOCK_LENGTH; i++)
+				code = (code << 2) | code(sequence[i]);
+			if (((blocks[code >>> 6] >>> code) & 1) != 0)
+				return b;
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @param errorRate
+	 *            the fraction of errors allowed in a match (0.1 by default)
+	 */
+	public void setErrorRate(double errorRate) {
+		if ((errorRate < 0) || (errorRate >= 1))
+			throw new IllegalArgumentException(
+					"The error rate must be between 0 and 1");
+		this.errorRate = errorRate;
+		updateErrors();
+	}
+
+	/**
+	 * @param minOverlap
+	 *            the shortest part of an adapter removed from the end of a
+	 *            sequence (3 by default)
+	 */
+	public void setMinOverlap(int minOverlap) {
+		if (minOverlap < 1)
+			throw new IllegalArgumentException(
+					"The overlap must be positive");
+		this.minOverlap = minOverlap;
+	}
+
+	/**
+	 * @return the adapters
+	 */
+	public String[] getAdapters() {
+		return adapters.clone();
+	}
+
+	@Override
+	protected int sequenceCutIndex(SequenceRecord record) {
+		byte[] sequence = record.getSequence();
+		int offset = record.getSequenceOffset();
+		int length = record.getSequenceLength();
+		// Seeds and blocks of all the adapters are looked for once
+		int bound = seedBound(sequence, offset, length);
+		int block = (length - bound < maxUnseeded) ? blockBound(sequence,
+				offset, length) : Integer.MAX_VALUE;
+		int cutIndex = length;
+		for (Word word : words)
+			cutIndex = Math.min(cutIndex, adapterStart(word, sequence,
+					offset, length, bound, block));
+		return cutIndex;
+	}
+
+	/**
+	 * Finds the first base of the first match of the adapters of a word.
+	 * <p>
+	 * The scan stops at the first base a match holding a seed can start
+	 * from. Without seeds only short partial matches are possible, and only
+	 * the shortest ones without blocks. A match holding the first seed ends
+	 * within {@link #window} bases of the bound: the bases after the window
+	 * are scanned only if the matches found in the window could have been
+	 * changed by them.
+	 *
+	 * @param word
+	 *            the adapters
+	 * @param sequence
+	 *            the bases
+	 * @param offset
+	 *            the first base
+	 * @param length
+	 *            the number of bases
+	 * @param bound
+	 *            the first base a match holding a seed can start from,
+	 *            <code>length</code> if there are no seeds
+	 * @param block
+	 *            the length of the shortest end of the sequence holding a
+	 *            block, {@link Integer#MAX_VALUE} if there are no blocks
+	 * @return the first base of the first adapter or <code>length</code> if
+	 *         no adapter has been found
+	 */
+	private int adapterStart(Word word, byte[] sequence, int offset,
+			int length, int bound, int block) {
+		int[] lanes = word.adapters;
+		int end = bound + window;
+		if ((end < length) && !word.wildcards) {
+			int start = scan(word, sequence, offset, end, end - bound);
+			// Matches starting well before the window end are the same as in
+			// the whole sequence: the first one must be among them, and no
+			// other adapter may have a match before it
+			boolean exact = false;
+			boolean found = start < end;
+			for (int l = 0; found && (l < lanes.length); l++) {
+				int m = maxErrors[lanes[l]].length - 1;
+				int last = end - m - maxErrors[lanes[l]][m] - 1;
+				boolean same = (runs[l] >= 0) && (runs[l] < last);
+				exact |= same && (starts[l] == start);
+				found = (start <= last + 1)
+						&& ((lasts[l] < 0) || (lasts[l] >= start) || same);
+			}
+			if (found && exact)
+				return start;
+		}
+		int scanned = 0;
+		for (int l = 0; l < lanes.length; l++) {
+			int a = lanes[l];
+			int bases = length;
+			if (!wildcards[a]) {
+				int partial = unseeded[a];
+				if ((unblocked[a] >= 0) && (block > partial))
+					partial = unblocked[a];
+				bases = Math.max(Math.min(partial, length), length - bound);
+			}
+			scanned = Math.max(scanned, bases);
+		}
+		return scan(word, sequence, offset, length, scanned);
+	}
+
+	/**
+	 * Scans the last bases of a sequence for the adapters of a word. The
+	 * distance of each reversed adapter from the reversed sequence is
+	 * computed allowing the match to start anywhere in the sequence, as in
+	 * any search, and allowing the adapter to be cut at the start of the
+	 * reversed sequence: the first column of the matrix is 0. Since a match
+	 * can be extended by an error or two, the matches starting at consecutive
+	 * bases are taken as a single match, starting where the distance is the
+	 * lowest.
+	 *
+	 * @param word
+	 *            the adapters
+	 * @param sequence
+	 *            the bases
+	 * @param offset
+	 *            the first base
+	 * @param length
+	 *            the number of bases, ending where the adapters are cut
+	 * @param scanned
+	 *            the number of bases scanned
+	 * @return the first base of the first adapter or <code>length</code> if
+	 *         no adapter has been found
+	 */
+	private int scan(Word word, byte[] sequence, int offset, int length,
+			int scanned) {
+		int[] lanes = word.adapters;
+		int[] tops = word.tops;
+		for (int l = 0; l < lanes.length; l++) {
+			scores[l] = 0;
+			bests[l] = -1;
+			starts[l] = length;
+			runs[l] = -1;
+			lasts[l] = -1;
+		}
+		long[] eqs = word.peq;
+		long high = word.high;
+		long low = word.low;
+		long pv = 0;
+		long mv = 0;
+		int end = offset + length;
+		if (lanes.length == 1) {
+			int top = tops[0];
+			int[] errors = maxErrors[lanes[0]];
+			int m = errors.length - 1;
+			int score = 0;
+			int best = -1;
+			int start = length;
+			int run = -1;
+			int last = -1;
+			for (int j = 1; j <= scanned; j++) {
+				long eq = eqs[sequence[end - j] & 0xFF];
+				long xv = eq | mv;
+				long xh = (((eq & pv) + pv) ^ pv) | eq;
+				long ph = mv | ~(xh | pv);
+				long mh = pv & xh;
+				score += (int) ((ph >>> top) & 1) - (int) ((mh >>> top) & 1);
+				if ((j >= minOverlap) && (score <= errors[Math.min(j, m)])) {
+					if (best < 0)
+						run = length - j;
+					if ((best < 0) || (score <= best)) {
+						best = score;
+						start = length - j;
+					}
+					last = length - j;
+				} else {
+					best = -1;
+				}
+				ph <<= 1;
+				mh <<= 1;
+				pv = mh | ~(xv | ph);
+				mv = ph & xv;
+			}
+			starts[0] = start;
+			runs[0] = run;
+			lasts[0] = last;
+			return start;
+		}
+		for (int j = 1; j <= scanned; j++) {
+			long eq = eqs[sequence[end - j] & 0xFF];
+			long xv = eq | mv;
+			// Sum without carries from an adapter to the next
+			long x = eq & pv;
+			long sum = ((x & ~high) + (pv & ~high)) ^ ((x ^ pv) & high);
+			long xh = (sum ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+			for (int l = 0; l < lanes.length; l++) {
+				int top = tops[l];
+				int score = scores[l] + (int) ((ph >>> top) & 1)
+						- (int) ((mh >>> top) & 1);
+				scores[l] = score;
+				int[] errors = maxErrors[lanes[l]];
+				if ((j >= minOverlap)
+						&& (score <= errors[Math.min(j, errors.length - 1)])) {
+					if (bests[l] < 0)
+						runs[l] = length - j;
+					if ((bests[l] < 0) || (score <= bests[l])) {
+						bests[l] = score;
+						starts[l] = length - j;
+					}
+					lasts[l] = length - j;
+				} else {
+					bests[l] = -1;
+				}
+			}
+			ph = (ph << 1) & ~low;
+			mh = (mh << 1) & ~low;
+			pv = mh | ~(xv | ph);
+			mv = ph & xv;
+		}
+		int start = length;
+		for (int l = 0; l < lanes.length; l++)
+			start = Math.min(start, starts[l]);
+		return start;
+	}
+
+	@Override
+	public TrimmingListener copy() {
+		AdapterTrimmingListener copy = (AdapterTrimmingListener) super.copy();
+		copy.scores = new int[scores.length];
+		copy.bests = new int[bests.length];
+		copy.starts = new int[starts.length];
+		copy.runs = new int[runs.length];
+		copy.lasts = new int[lasts.length];
+		return copy;
+	}
+
+	@Override
+	protected int cutIndex(int[] qual, int length) {
+		return (qdecoder == null) ? length : super.cutIndex(qual, length);
+	}
+
+	/**
+	 * Adapters packed in a 64-bit word, each in its own bits: the columns of
+	 * all of them are updated by the same logical operations
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Word {
+
+		/**
+		 * For each character, the bits of the positions of the reversed
+		 * adapters matching the character
+		 */
+		private long[] peq = new long[256];
+
+		/**
+		 * The adapters in the word
+		 */
+		private int[] adapters = new int[0];
+
+		/**
+		 * The last bit of each adapter
+		 */
+		private int[] tops = new int[0];
+
+		/**
+		 * The last bits of the adapters
+		 */
+		private long high = 0;
+
+		/**
+		 * The first bits of the adapters
+		 */
+		private long low = 0;
+
+		/**
+		 * Number of bits used
+		 */
+		private int used = 0;
+
+		/**
+		 * <code>true</code> if the matches of an adapter may hold no seed
+		 */
+		private boolean wildcards = false;
+
+		/**
+		 * Adds an adapter after the ones in the word
+		 *
+		 * @param a
+		 *            the index of the adapter
+		 * @param adapter
+		 *            the adapter
+		 * @param m
+		 *            the length of the adapter matched
+		 */
+		private void add(int a, String adapter, int m) {
+			if (m == 0)
+				throw new IllegalArgumentException("Empty adapter");
+			String bases = "ACGT";
+			for (int i = 0; i < m; i++) {
+				char c = Character.toUpperCase(adapter.charAt(m - 1 - i));
+				long bit = 1L << (used + i);
+				if (c == 'N') {
+					for (int b = 0; b < 256; b++)
+						peq[b] |= bit;
+				} else if (bases.indexOf(c) >= 0) {
+					peq[c] |= bit;
+					peq[Character.toLowerCase(c)] |= bit;
+				} else {
+					throw new IllegalArgumentException(String.format(
+							"Not a base in adapter %s: %c", adapter, c));
+				}
+			}
+			adapters = Arrays.copyOf(adapters, adapters.length + 1);
+			adapters[adapters.length - 1] = a;
+			tops = Arrays.copyOf(tops, tops.length + 1);
+			tops[tops.length - 1] = used + m - 1;
+			high |= 1L << (used + m - 1);
+			low |= 1L << used;
+			used += m;
+		}
+	}
+
+}
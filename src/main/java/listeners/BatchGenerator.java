@@ -0,0 +1,58 @@
+package listeners;
+
+import io.RecordBatch;
+import io.SequenceRecord;
+
+/**
+ * Record generator able to notify blocks of records to {@link BatchListener}
+ * objects. Records are collected in batches as long as the generator has at
+ * least one batch listener; listeners added as {@link RecordListener} or
+ * {@link SequenceListener} receive the records of each batch one at a time.
+ * Since the last records are kept until a batch is full, generators receiving
+ * records from other generators must be flushed once their input is over.
+ * <p>
+ * Generators written for {@link RecordGenerator} get batch support from the
+ * default methods, which pass every record in a batch of its own.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface BatchGenerator extends RecordGenerator {
+	/**
+	 * Adds a batch listener to this generator. By default the listener is
+	 * added as a {@link RecordListener} through a
+	 * {@link BatchListenerAdapter}.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public default void addBatchListener(BatchListener listener) {
+		addRecordListener(new BatchListenerAdapter(listener));
+	}
+
+	/**
+	 * Removes a batch listener from this generator
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public default void removeBatchListener(BatchListener listener) {
+		removeRecordListener(new BatchListenerAdapter(listener));
+	}
+
+	/**
+	 * Notifies all listeners. By default the records are notified one at a
+	 * time.
+	 * 
+	 * @param batch
+	 *            the records
+	 */
+	public default void notifyListeners(RecordBatch batch) {
+		SequenceRecord record = new SequenceRecord();
+		for (int i = 0; i < batch.size(); i++) {
+			batch.view(i, record);
+			notifyListeners(record);
+		}
+	}
+}
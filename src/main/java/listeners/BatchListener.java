@@ -0,0 +1,28 @@
+package listeners;
+
+import io.RecordBatch;
+
+/**
+ * Listener receiving blocks of records in a {@link RecordBatch} instead of one
+ * record at a time, so that the cost of notifying a record is paid once per
+ * batch and the records can be analyzed with tight loops over the arrays of
+ * the batch. The batch passed to {@link #batch(RecordBatch)} is valid only for
+ * the duration of the call and must not be modified.
+ * <p>
+ * Generators notifying batches adapt the other listeners automatically
+ * through {@link RecordBatchAdapter}.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface BatchListener {
+	/**
+	 * Method called by a {@link BatchGenerator} object for each block of
+	 * records
+	 * 
+	 * @param batch
+	 *            the records
+	 */
+	public void batch(RecordBatch batch);
+}
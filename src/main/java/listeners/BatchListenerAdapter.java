@@ -0,0 +1,62 @@
+package listeners;
+
+import io.RecordBatch;
+import io.SequenceRecord;
+
+/**
+ * Adapter allowing a {@link BatchListener} to listen to a generator of single
+ * records: each record is passed in a batch of its own. The same batch is
+ * reused for every record. Two adapters are equal if they wrap the same
+ * listener.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class BatchListenerAdapter implements RecordListener {
+
+	/**
+	 * The adapted listener
+	 */
+	private BatchListener listener = null;
+
+	/**
+	 * The reused batch
+	 */
+	private RecordBatch batch = new RecordBatch(1);
+
+	/**
+	 * @param listener
+	 *            the listener to adapt
+	 */
+	public BatchListenerAdapter(BatchListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		batch.clear();
+		batch.add(record);
+		listener.batch(batch);
+	}
+
+	/**
+	 * @return the adapted listener
+	 */
+	public BatchListener getListener() {
+		return listener;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof BatchListenerAdapter))
+			return false;
+		return listener.equals(((BatchListenerAdapter) obj).listener);
+	}
+
+	@Override
+	public int hashCode() {
+		return listener.hashCode();
+	}
+
+}
@@ -0,0 +1,404 @@
+package listeners;
+
+import io.SequenceRecord;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import utils.Blocking;
+import utils.MemoryConsumer;
+import utils.RingBuffer;
+import utils.WaitStrategy;
+
+/**
+ * Group of listeners each running on its own consumer thread. The group
+ * copies the records it receives in the slots of a {@link RingBuffer} which
+ * are shared, read only, by all the consumers, so that the cost of the
+ * listeners overlaps instead of adding up. Each listener receives all records
+ * in the order they have been received by the group, always on the same
+ * thread, so listeners need not be thread safe; their results must be read
+ * only after {@link #flush()}.
+ * <p>
+ * Listeners implementing {@link RecordListener} receive records, the others
+ * receive strings created on their own thread. Listeners must be added before
+ * the first record is received.
+ * <p>
+ * Given a memory limit, the group uses a ring small enough for the limit and
+ * makes the thread notifying records wait as long as the records not yet
+ * processed by the slowest listener take more bytes than the limit.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class ConcurrentListenerGroup implements SequenceListener,
+		RecordListener, Flushable, Closeable, MemoryConsumer, Blocking {
+
+	/**
+	 * Default number of slots of the ring
+	 */
+	private static final int RING_SIZE = 4096;
+
+	/**
+	 * Estimated memory taken by a slot holding a short read
+	 */
+	private static final int SLOT_MEMORY = 1024;
+
+	/**
+	 * Least number of slots of the ring
+	 */
+	private static final int MIN_SLOTS = 64;
+
+	/**
+	 * The listeners
+	 */
+	private List<SequenceListener> listeners = new ArrayList<SequenceListener>();
+
+	/**
+	 * The consumers, one for each listener, created with the first record
+	 */
+	private List<Consumer> consumers = null;
+
+	/**
+	 * Number of slots of the ring
+	 */
+	private int ringSize;
+
+	/**
+	 * Strategy of the threads waiting on the ring
+	 */
+	private WaitStrategy wait;
+
+	/**
+	 * The ring shared by the consumers
+	 */
+	private RingBuffer<SequenceRecord> ring = null;
+
+	/**
+	 * Memory limit in bytes or -1 if the memory is not bounded
+	 */
+	private long memoryLimit = -1;
+
+	/**
+	 * Bytes published up to each slot, counted from the start of the ring
+	 */
+	private long[] publishedBytes = null;
+
+	/**
+	 * Bytes published so far
+	 */
+	private long published = 0;
+
+	/**
+	 * Time the thread notifying records has waited for memory, and for slots
+	 * of the rings already closed
+	 */
+	private long blockedNanos = 0;
+
+	/**
+	 * Record used for sequences notified as strings
+	 */
+	private SequenceRecord input = new SequenceRecord();
+
+	/**
+	 * First error thrown by a listener
+	 */
+	private volatile RuntimeException error = null;
+
+	/**
+	 * Creates a group with the default ring, whose threads park when there is
+	 * nothing to do
+	 */
+	public ConcurrentListenerGroup() {
+		this(RING_SIZE, new WaitStrategy.Park());
+	}
+
+	/**
+	 * Creates a group
+	 *
+	 * @param ringSize
+	 *            the number of slots of the ring (a power of 2), which limits
+	 *            how far the slowest listener can lag behind
+	 * @param wait
+	 *            the strategy of the threads waiting on the ring
+	 */
+	public ConcurrentListenerGroup(int ringSize, WaitStrategy wait) {
+		if ((ringSize < 1) || (Integer.bitCount(ringSize) != 1))
+			throw new IllegalArgumentException(
+					"The size of the ring must be a power of 2");
+		this.ringSize = ringSize;
+		this.wait = wait;
+	}
+
+	/**
+	 * Adds a listener to this group
+	 *
+	 * @param listener
+	 *            the listener
+	 * @throws IllegalStateException
+	 *             if the group has already received records
+	 */
+	public void addListener(SequenceListener listener) {
+		if (consumers != null)
+			throw new IllegalStateException("The group has already started");
+		int index = listeners.indexOf(listener);
+		if (index < 0) {
+			listeners.add(listener);
+		}
+	}
+
+	/**
+	 * Removes a listener from this group
+	 *
+	 * @param listener
+	 *            the listener
+	 * @throws IllegalStateException
+	 *             if the group has already received records
+	 */
+	public void removeListener(SequenceListener listener) {
+		if (consumers != null)
+			throw new IllegalStateException("The group has already started");
+		int index = listeners.indexOf(listener);
+		if (index >= 0) {
+			listeners.remove(index);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the group has no listener
+	 */
+	public boolean isEmpty() {
+		return listeners.isEmpty();
+	}
+
+	@Override
+	public void sequence(String id, String sequence, String quality) {
+		input.set(id, sequence, quality);
+		record(input);
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		if (listeners.isEmpty())
+			return;
+		int bytes = record.getIdLength() + record.getSequenceLength()
+				+ record.getQualityLength();
+		if (consumers == null)
+			start(bytes);
+		checkError();
+		long sequence = ring.next();
+		if (memoryLimit > 0)
+			awaitMemory(bytes);
+		ring.get(sequence).copyOf(record);
+		published += bytes;
+		if (publishedBytes != null)
+			publishedBytes[(int) sequence & (publishedBytes.length - 1)] = published;
+		ring.publish(sequence);
+	}
+
+	/**
+	 * Waits for the listeners to process enough records for a new record to
+	 * fit in the memory limit. A record is never kept waiting if all the
+	 * others have been processed.
+	 * 
+	 * @param bytes
+	 *            the size of the new record
+	 */
+	private void awaitMemory(int bytes) {
+		int attempts = 0;
+		long start = 0;
+		while (true) {
+			long released = ring.getMinimumSequence();
+			if (released == ring.getCursor())
+				break;
+			long done = (released < 0) ? 0
+					: publishedBytes[(int) released & (publishedBytes.length - 1)];
+			if (published - done + bytes <= memoryLimit)
+				break;
+			checkError();
+			if (attempts == 0)
+				start = System.nanoTime();
+			wait.idle(++attempts);
+		}
+		if (attempts > 0)
+			blockedNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * The time includes the time spent waiting for the slowest listener to
+	 * free a slot or to process enough records for the memory limit
+	 */
+	@Override
+	public long getBlockedNanos() {
+		return blockedNanos + ((ring == null) ? 0 : ring.getBlockedNanos());
+	}
+
+	@Override
+	public long getMinimumMemory() {
+		return (long) MIN_SLOTS * SLOT_MEMORY;
+	}
+
+	@Override
+	public void setMemoryLimit(long bytes) {
+		this.memoryLimit = bytes;
+	}
+
+	/**
+	 * Creates the ring and starts a consumer for each listener
+	 * 
+	 * @param bytes
+	 *            size of the first record, used for fitting the ring in the
+	 *            memory limit
+	 */
+	private void start(int bytes) {
+		int size = ringSize;
+		if (memoryLimit > 0) {
+			long slots = memoryLimit / Math.max(SLOT_MEMORY, 2L * bytes);
+			while ((size > MIN_SLOTS) && (size > slots))
+				size /= 2;
+			publishedBytes = new long[size];
+		}
+		published = 0;
+		ring = new RingBuffer<SequenceRecord>(size,
+				new RingBuffer.SlotFactory<SequenceRecord>() {
+					@Override
+					public SequenceRecord newSlot() {
+						return new SequenceRecord();
+					}
+				}, wait);
+		consumers = new ArrayList<Consumer>();
+		for (SequenceListener l : listeners)
+			consumers.add(new Consumer(l, ring.newReader()));
+		for (Consumer c : consumers)
+			c.start();
+	}
+
+	/**
+	 * Waits for all the records received so far to be processed by all the
+	 * listeners. Listeners implementing {@link Flushable} are then flushed on
+	 * this thread.
+	 *
+	 * @throws IOException
+	 *             if a listener fails to flush
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (consumers == null)
+			return;
+		ring.awaitReaders();
+		checkError();
+		for (SequenceListener l : listeners)
+			if (l instanceof Flushable)
+				((Flushable) l).flush();
+	}
+
+	/**
+	 * Rethrows the first error thrown by a listener
+	 */
+	private void checkError() {
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Processes the pending records and stops the consumer threads. The group
+	 * can be used again: new consumers are started with the next record.
+	 *
+	 * @throws IOException
+	 *             if a listener fails to flush
+	 */
+	@Override
+	public void close() throws IOException {
+		if (consumers == null)
+			return;
+		try {
+			flush();
+		} finally {
+			ring.close();
+			blockedNanos += ring.getBlockedNanos();
+			for (Consumer c : consumers) {
+				try {
+					c.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			consumers = null;
+			ring = null;
+		}
+	}
+
+	/**
+	 * Thread feeding a listener
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private class Consumer extends Thread {
+
+		/**
+		 * The listener
+		 */
+		private SequenceListener listener;
+
+		/**
+		 * The reader of the ring
+		 */
+		private RingBuffer<SequenceRecord>.Reader reader;
+
+		/**
+		 * Record passed to the listener (a view of the slot, so that strings
+		 * are cached by this thread only)
+		 */
+		private SequenceRecord record = new SequenceRecord();
+
+		/**
+		 * @param listener
+		 *            the listener
+		 * @param reader
+		 *            the reader of the ring
+		 */
+		private Consumer(SequenceListener listener,
+				RingBuffer<SequenceRecord>.Reader reader) {
+			super("listener-" + listener.getClass().getSimpleName());
+			setDaemon(true);
+			this.listener = listener;
+			this.reader = reader;
+		}
+
+		@Override
+		public void run() {
+			RecordListener records = (listener instanceof RecordListener) ? (RecordListener) listener
+					: null;
+			long next = reader.getSequence() + 1;
+			while (true) {
+				long available = reader.waitFor(next);
+				if (available < next)
+					return;
+				try {
+					for (long s = next; (s <= available) && (error == null); s++) {
+						record.set(reader.get(s));
+						if (records != null)
+							records.record(record);
+						else
+							listener.sequence(record.getIdString(),
+									record.getSequenceString(),
+									record.getQualityString());
+					}
+				} catch (RuntimeException e) {
+					if (error == null)
+						error = e;
+				} finally {
+					reader.release(available);
+				}
+				next = available + 1;
+			}
+		}
+	}
+
+}
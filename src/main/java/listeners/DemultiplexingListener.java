@@ -0,0 +1,476 @@
+package listeners;
+
+import io.FileSequenceIOFactory;
+import io.FileSequenceIOFastaQualityFactory;
+import io.FileSequenceWriter;
+import io.RecordBatch;
+import io.SequenceRecord;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import utils.BarcodeTable;
+import utils.StreamBuilder;
+
+/**
+ * Listener writing each record to the output of its sample, found from the
+ * barcode of the record, so that a run is demultiplexed in a single pass.
+ * The barcode is either the index at the end of the id (the
+ * {@link idparser.IdAttributes#INDEX_ID} of Illumina/Casava ids, read
+ * without parsing the id) or the first bases of the sequence (inline
+ * barcodes, removed from the records written). Barcodes are looked up in a
+ * {@link BarcodeTable} holding all the barcodes with a mismatch, unless
+ * {@link #setMismatches(int) mismatches} are not allowed. Records without a
+ * known barcode go to the {@value #UNDETERMINED} output.
+ * <p>
+ * Records are copied in a batch of their sample and written when the batch
+ * is full, so that the outputs are written in large blocks. Batches are
+ * recycled once written. At most a fixed number of outputs are open at the
+ * same time: when another output has to be written, the output written least
+ * recently is closed, and opened again later to append to it. Gzipped outputs
+ * closed and opened again are made of several gzip members. When the gzipped
+ * outputs take their deflaters from a pool (see
+ * {@link StreamBuilder#setCompressors(int)}), the pool must hold at least as
+ * many deflaters as the outputs open at the same time.
+ * <p>
+ * This listener must be used by a single thread. Records still in the
+ * batches are written by {@link #flush()}, and the outputs are closed by
+ * {@link #close()}.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class DemultiplexingListener implements SequenceListener,
+		RecordListener, BatchListener, Flushable, Closeable {
+
+	/**
+	 * Name of the output of the records without a known barcode
+	 */
+	public static final String UNDETERMINED = "undetermined";
+
+	/**
+	 * Records copied for a sample before writing them
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * The names of the samples, the undetermined output last
+	 */
+	private String[] samples;
+
+	/**
+	 * The barcodes of the samples
+	 */
+	private List<String> barcodes;
+
+	/**
+	 * Where barcodes are read from
+	 */
+	private IndexSource source;
+
+	/**
+	 * Length of inline barcodes
+	 */
+	private int barcodeLength = 0;
+
+	/**
+	 * The barcodes with their mismatches
+	 */
+	private BarcodeTable table;
+
+	/**
+	 * Opens the outputs
+	 */
+	private OutputOpener opener;
+
+	/**
+	 * Maximum number of outputs open at the same time
+	 */
+	private int maxOpen;
+
+	/**
+	 * Number of outputs open
+	 */
+	private int open = 0;
+
+	/**
+	 * The open writer of each sample or <code>null</code>
+	 */
+	private FileSequenceWriter[] writers;
+
+	/**
+	 * <code>true</code> for the samples whose output has already been
+	 * created
+	 */
+	private boolean[] created;
+
+	/**
+	 * Last write of each sample, for closing the output written least
+	 * recently
+	 */
+	private long[] lastWrite;
+
+	/**
+	 * Number of batches written
+	 */
+	private long writes = 0;
+
+	/**
+	 * Records waiting to be written, by sample
+	 */
+	private RecordBatch[] pending;
+
+	/**
+	 * Batches already written, to be reused
+	 */
+	private ArrayDeque<RecordBatch> free = new ArrayDeque<RecordBatch>();
+
+	/**
+	 * Records of each sample
+	 */
+	private long[] counts;
+
+	/**
+	 * Record receiving the records notified as strings or in batches
+	 */
+	private SequenceRecord input = new SequenceRecord();
+
+	/**
+	 * Record viewing the records written
+	 */
+	private SequenceRecord view = new SequenceRecord();
+
+	/**
+	 * Logger for the errors writing the outputs or <code>null</code>
+	 */
+	private Logger logger = null;
+
+	/**
+	 * Creates a demultiplexer allowing a mismatch in the barcodes
+	 *
+	 * @param barcodes
+	 *            the barcodes, by sample. Sample names are given to the
+	 *            opener of the outputs.
+	 * @param source
+	 *            where barcodes are read from
+	 * @param opener
+	 *            opens the outputs of the samples
+	 * @param maxOpen
+	 *            the maximum number of outputs open at the same time
+	 * @throws IllegalArgumentException
+	 *             if a barcode is repeated, if inline barcodes have different
+	 *             lengths, if a sample is named {@value #UNDETERMINED} or if
+	 *             no output can be open
+	 */
+	public DemultiplexingListener(Map<String, String> barcodes,
+			IndexSource source, OutputOpener opener, int maxOpen) {
+		if (maxOpen < 1)
+			throw new IllegalArgumentException(
+					"At least an output must be open");
+		int n = barcodes.size();
+		this.samples = new String[n + 1];
+		this.barcodes = new ArrayList<String>(n);
+		int s = 0;
+		for (Map.Entry<String, String> e : barcodes.entrySet()) {
+			if (UNDETERMINED.equals(e.getKey()))
+				throw new IllegalArgumentException(String.format(
+						"Sample name reserved to undetermined records: %s",
+						UNDETERMINED));
+			samples[s++] = e.getKey();
+			this.barcodes.add(e.getValue());
+		}
+		samples[n] = UNDETERMINED;
+		this.source = source;
+		if (source == IndexSource.INLINE) {
+			barcodeLength = (n > 0) ? this.barcodes.get(0).length() : 0;
+			for (String barcode : this.barcodes)
+				if (barcode.length() != barcodeLength)
+					throw new IllegalArgumentException(
+							"Inline barcodes must have the same length");
+		}
+		this.table = new BarcodeTable(this.barcodes, 1);
+		this.opener = opener;
+		this.maxOpen = maxOpen;
+		this.writers = new FileSequenceWriter[n + 1];
+		this.created = new boolean[n + 1];
+		this.lastWrite = new long[n + 1];
+		this.pending = new RecordBatch[n + 1];
+		this.counts = new long[n + 1];
+	}
+
+	/**
+	 * @param mismatches
+	 *            the mismatches allowed in the barcodes, 0 or 1 (the
+	 *            default)
+	 */
+	public void setMismatches(int mismatches) {
+		this.table = new BarcodeTable(barcodes, mismatches);
+	}
+
+	/**
+	 * @param logger
+	 *            the logger collecting the errors writing the outputs
+	 */
+	public void setLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+	/**
+	 * @return the number of records of each sample, the undetermined ones
+	 *         last
+	 */
+	public Map<String, Long> getCounts() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for (int s = 0; s < samples.length; s++)
+			map.put(samples[s], counts[s]);
+		return map;
+	}
+
+	@Override
+	public void sequence(String id, String sequence, String quality) {
+		input.set(id, sequence, quality);
+		record(input);
+	}
+
+	@Override
+	public void batch(RecordBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			batch.view(i, input);
+			record(input);
+		}
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		int sample = sample(record);
+		if (sample == BarcodeTable.NOT_FOUND)
+			sample = samples.length - 1;
+		counts[sample]++;
+		RecordBatch batch = pending[sample];
+		if (batch == null) {
+			batch = free.isEmpty() ? new RecordBatch(BATCH_SIZE) : free.pop();
+			pending[sample] = batch;
+		}
+		batch.add(record);
+		if ((source == IndexSource.INLINE) && (sample < samples.length - 1))
+			batch.clip(batch.size() - 1, barcodeLength,
+					record.getSequenceLength());
+		if (batch.isFull())
+			write(sample);
+	}
+
+	/**
+	 * @param record
+	 *            a record
+	 * @return the sample of the record or {@link BarcodeTable#NOT_FOUND}
+	 */
+	private int sample(SequenceRecord record) {
+		if (source == IndexSource.INLINE) {
+			if (record.getSequenceLength() < barcodeLength)
+				return BarcodeTable.NOT_FOUND;
+			return table.lookup(record.getSequence(),
+					record.getSequenceOffset(), barcodeLength);
+		}
+		// The index is the last field of the id
+		byte[] id = record.getId();
+		int start = record.getIdOffset();
+		int end = start + record.getIdLength();
+		int colon = end - 1;
+		while ((colon >= start) && (id[colon] != ':'))
+			colon--;
+		if (colon < start)
+			return BarcodeTable.NOT_FOUND;
+		return table.lookup(id, colon + 1, end - colon - 1);
+	}
+
+	/**
+	 * Writes the records of a sample waiting to be written
+	 *
+	 * @param sample
+	 *            the sample
+	 */
+	private void write(int sample) {
+		RecordBatch batch = pending[sample];
+		try {
+			FileSequenceWriter writer = writer(sample);
+			for (int i = 0; i < batch.size(); i++) {
+				batch.view(i, view);
+				writer.writeRecord(view);
+			}
+		} catch (IOException e) {
+			logError(e);
+		}
+		batch.clear();
+		pending[sample] = null;
+		free.push(batch);
+	}
+
+	/**
+	 * Returns the writer of a sample, opening its output if it is closed. If
+	 * too many outputs are open, the output written least recently is closed.
+	 *
+	 * @param sample
+	 *            the sample
+	 * @return the writer
+	 * @throws IOException
+	 *             if an I/O error occurs opening or closing an output
+	 */
+	private FileSequenceWriter writer(int sample) throws IOException {
+		lastWrite[sample] = ++writes;
+		if (writers[sample] != null)
+			return writers[sample];
+		if (open == maxOpen) {
+			int oldest = -1;
+			for (int s = 0; s < writers.length; s++)
+				if ((writers[s] != null)
+						&& ((oldest < 0) || (lastWrite[s] < lastWrite[oldest])))
+					oldest = s;
+			FileSequenceWriter writer = writers[oldest];
+			writers[oldest] = null;
+			open--;
+			writer.close();
+		}
+		writers[sample] = opener.open(samples[sample], created[sample]);
+		created[sample] = true;
+		open++;
+		return writers[sample];
+	}
+
+	/**
+	 * Writes the records waiting in the batches and flushes the open outputs
+	 */
+	@Override
+	public void flush() throws IOException {
+		for (int s = 0; s < pending.length; s++)
+			if (pending[s] != null)
+				write(s);
+		for (FileSequenceWriter writer : writers)
+			if (writer instanceof Flushable)
+				((Flushable) writer).flush();
+	}
+
+	/**
+	 * Writes the records waiting in the batches and closes all the outputs
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		IOException error = null;
+		for (int s = 0; s < writers.length; s++) {
+			if (writers[s] == null)
+				continue;
+			try {
+				writers[s].close();
+			} catch (IOException e) {
+				if (error == null)
+					error = e;
+			}
+			writers[s] = null;
+		}
+		open = 0;
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Reports an error occurred writing an output
+	 *
+	 * @param e
+	 *            the error
+	 */
+	private void logError(IOException e) {
+		if (logger != null) {
+			logger.log(Level.SEVERE, e.getMessage());
+		} else {
+			System.err.println("I/O error occurs writing output file.");
+		}
+	}
+
+	/**
+	 * Creates an opener writing the output of each sample next to an output
+	 * file, with the name of the sample as prefix. Fasta outputs are written
+	 * with a quality file with the <code>qual</code> extension.
+	 *
+	 * @param factory
+	 *            the factory of the writers
+	 * @param outputFile
+	 *            the path to the output file
+	 * @param gzipped
+	 *            <code>true</code> if the outputs are gzipped
+	 * @return the opener
+	 */
+	public static OutputOpener fileOpener(final FileSequenceIOFactory factory,
+			final String outputFile, final boolean gzipped) {
+		return new OutputOpener() {
+			@Override
+			public FileSequenceWriter open(String sample, boolean append)
+					throws IOException {
+				String name = StreamBuilder.formatOutputName(outputFile,
+						sample + "_", gzipped);
+				OutputStream out = StreamBuilder.buildOutputStream(name,
+						gzipped, append);
+				if (!(factory instanceof FileSequenceIOFastaQualityFactory))
+					return factory.createWriter(out);
+				OutputStream qual = StreamBuilder.buildOutputStream(
+						StreamBuilder.changeExtension(name, "qual", gzipped),
+						gzipped, append);
+				return factory.createWriter(out, qual);
+			}
+		};
+	}
+
+	/**
+	 * Where barcodes are read from
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public enum IndexSource {
+		/**
+		 * The index after the last colon of the id, as in Illumina/Casava ids
+		 */
+		ID,
+
+		/**
+		 * The first bases of the sequence
+		 */
+		INLINE;
+	}
+
+	/**
+	 * Opens the outputs of the samples
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public interface OutputOpener {
+
+		/**
+		 * Opens the output of a sample
+		 *
+		 * @param sample
+		 *            the name of the sample
+		 * @param append
+		 *            <code>true</code> if the output has already been written
+		 *            and closed, and records have to be appended to it
+		 * @return the writer of the output
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		public FileSequenceWriter open(String sample, boolean append)
+				throws IOException;
+	}
+
+}
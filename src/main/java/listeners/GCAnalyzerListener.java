@@ -1,5 +1,7 @@
 package listeners;
 
+import io.RecordBatch;
+
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,7 +15,13 @@ import stat.OrderedDistribution;
  *         Bacci</a>
  *
  */
-public class GCAnalyzerListener extends FrequencyAnalyzer<Double> implements SequenceListener {
+public class GCAnalyzerListener extends FrequencyAnalyzer<Double> implements SequenceListener,
+		BatchListener {
+
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
 
 	/**
 	 * GC recognition pattern (case insensitive)
@@ -48,6 +56,35 @@ public class GCAnalyzerListener extends FrequencyAnalyzer<Double> implements Seq
 		super.addValue(gc / sequence.length());
 	}
 
+	@Override
+	public void batch(RecordBatch batch) {
+		byte[] data = batch.getData();
+		for (int i = 0; i < batch.size(); i++) {
+			int from = batch.getSequenceOffset(i);
+			int length = batch.getSequenceLength(i);
+			int to = from + length;
+			int gc = 0;
+			for (int j = from; j < to; j++) {
+				// Upper case of G and C
+				int c = data[j] & 0xDF;
+				if ((c == 'G') || (c == 'C'))
+					gc++;
+			}
+			baseCount += length;
+			gcCount += gc;
+			super.addValue((double) gc / length);
+		}
+	}
+
+	@Override
+	public void merge(FrequencyAnalyzer<Double> other) {
+		super.merge(other);
+		if (other instanceof GCAnalyzerListener) {
+			baseCount += ((GCAnalyzerListener) other).baseCount;
+			gcCount += ((GCAnalyzerListener) other).gcCount;
+		}
+	}
+
 	/**
 	 * @return the GC content as the proportion between all bases and GC
 	 */
@@ -0,0 +1,159 @@
+package listeners;
+
+import io.RecordBatch;
+import io.SequenceRecord;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+import utils.StageMetrics;
+
+/**
+ * Listener counting the records and bases passed to another listener and the
+ * time the listener takes. Batches are timed one by one, while single records
+ * are timed one out of {@value #SAMPLING}, so that reading the clock does not
+ * cost more than the listeners it measures. Two instrumented listeners are
+ * equal if they wrap the same listener.
+ * <p>
+ * The adapter can be added as sequence, record or batch listener: it should be
+ * added as the wrapped listener would be, records and batches being passed as
+ * strings or one record at a time to listeners not able to receive them.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class InstrumentedListener implements SequenceListener, RecordListener,
+		BatchListener, Flushable {
+
+	/**
+	 * One record out of this number is timed
+	 */
+	public static final int SAMPLING = 16;
+
+	/**
+	 * The wrapped listener
+	 */
+	private SequenceListener listener;
+
+	/**
+	 * The metrics of the listener
+	 */
+	private StageMetrics metrics;
+
+	/**
+	 * Records received one at a time
+	 */
+	private long calls = 0;
+
+	/**
+	 * Record passed to listeners receiving batches one record at a time
+	 */
+	private SequenceRecord record = new SequenceRecord();
+
+	/**
+	 * @param listener
+	 *            the listener to wrap
+	 * @param metrics
+	 *            the metrics of the listener
+	 */
+	public InstrumentedListener(SequenceListener listener, StageMetrics metrics) {
+		this.listener = listener;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void sequence(String id, String sequence, String quality) {
+		metrics.count(1, (sequence == null) ? 0 : sequence.length());
+		if ((calls++ % SAMPLING) != 0) {
+			listener.sequence(id, sequence, quality);
+			return;
+		}
+		long start = System.nanoTime();
+		listener.sequence(id, sequence, quality);
+		metrics.time(System.nanoTime() - start, 1);
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		metrics.count(1, record.getSequenceLength());
+		if ((calls++ % SAMPLING) != 0) {
+			deliver(record);
+			return;
+		}
+		long start = System.nanoTime();
+		deliver(record);
+		metrics.time(System.nanoTime() - start, 1);
+	}
+
+	/**
+	 * Passes a record to the listener, as a string if needed
+	 *
+	 * @param r
+	 *            the record
+	 */
+	private void deliver(SequenceRecord r) {
+		if (listener instanceof RecordListener)
+			((RecordListener) listener).record(r);
+		else
+			listener.sequence(r.getIdString(), r.getSequenceString(),
+					r.getQualityString());
+	}
+
+	@Override
+	public void batch(RecordBatch batch) {
+		long bases = 0;
+		for (int i = 0; i < batch.size(); i++)
+			bases += batch.getSequenceLength(i);
+		metrics.count(batch.size(), bases);
+		long start = System.nanoTime();
+		if (listener instanceof BatchListener) {
+			((BatchListener) listener).batch(batch);
+		} else {
+			for (int i = 0; i < batch.size(); i++) {
+				batch.view(i, record);
+				deliver(record);
+			}
+		}
+		metrics.time(System.nanoTime() - start, batch.size());
+	}
+
+	/**
+	 * Flushes the listener if it implements {@link Flushable}
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!(listener instanceof Flushable))
+			return;
+		long start = System.nanoTime();
+		((Flushable) listener).flush();
+		metrics.flushed(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the wrapped listener
+	 */
+	public SequenceListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the metrics of the listener
+	 */
+	public StageMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof InstrumentedListener))
+			return false;
+		return listener.equals(((InstrumentedListener) obj).listener);
+	}
+
+	@Override
+	public int hashCode() {
+		return listener.hashCode();
+	}
+
+}
@@ -15,6 +15,11 @@ import stat.OrderedDistribution;
 public class KmerFrequencyListener extends CategoricalFrequencyAnalyzer<String>
 		implements SequenceListener {
 
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Kmer length
 	 */
@@ -0,0 +1,50 @@
+package listeners;
+
+import decoder.QualityDecoder;
+
+/**
+ * Sliding window trimmer cutting the beginning of the sequences. The window
+ * slides from the beginning of the sequence and the bases before the first
+ * window whose average quality is not lower than the cutoff are removed,
+ * together with the bases at the beginning of the window whose quality is
+ * lower than the cutoff.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public class LeadingWindowTrimmingListener extends WindowTrimmingListener {
+
+	/**
+	 * Creates a trimmer with the specified window length
+	 * 
+	 * @param qdecoder
+	 *            the quality decoder
+	 * @param windowLength
+	 *            the length of the analysis window
+	 */
+	public LeadingWindowTrimmingListener(QualityDecoder qdecoder,
+			int windowLength) {
+		super(qdecoder, windowLength);
+	}
+
+	/**
+	 * The end of the sequences is not cut
+	 */
+	@Override
+	protected int cutIndex(int[] qual, int length) {
+		return length;
+	}
+
+	@Override
+	protected int startIndex(int[] qual, int length) {
+		int start = findWindow(qual, length, false);
+		if (start < 0)
+			return length;
+		// A passing window holds at least a base not below the cutoff
+		while (qual[start] < cutoff)
+			start++;
+		return start;
+	}
+
+}
@@ -1,5 +1,6 @@
 package listeners;
 
+import io.RecordBatch;
 import stat.FrequencyAnalyzer;
 import stat.OrderedDistribution;
 
@@ -12,7 +13,12 @@ import stat.OrderedDistribution;
  *
  */
 public class LengthAnalyzerListener extends FrequencyAnalyzer<Integer>
-		implements SequenceListener {
+		implements SequenceListener, BatchListener {
+
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
 
 	public LengthAnalyzerListener() {
 		super(new OrderedDistribution<Integer>());
@@ -27,4 +33,13 @@ public class LengthAnalyzerListener extends FrequencyAnalyzer<Integer>
 		}
 		super.addValue(sequence.length());
 	}
+
+	@Override
+	public void batch(RecordBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			int length = batch.getSequenceLength(i);
+			if ((length > 0) && (batch.getQualityLength(i) > 0))
+				super.addValue(length);
+		}
+	}
 }
@@ -0,0 +1,32 @@
+package listeners;
+
+import io.SequenceRecord;
+
+/**
+ * Filter discarding the records shorter than a minimum length
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class LengthFilter implements RecordTransform {
+
+	/**
+	 * Minimum length of the records kept
+	 */
+	private int minLength;
+
+	/**
+	 * @param minLength
+	 *            the minimum length of the records kept
+	 */
+	public LengthFilter(int minLength) {
+		this.minLength = minLength;
+	}
+
+	@Override
+	public boolean transform(SequenceRecord record) {
+		return record.getSequenceLength() >= minLength;
+	}
+
+}
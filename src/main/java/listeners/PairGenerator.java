@@ -0,0 +1,38 @@
+package listeners;
+
+import io.SequenceRecord;
+
+/**
+ * Pair generator interface
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface PairGenerator {
+	/**
+	 * Adds a pair listener to this generator
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addPairListener(PairListener listener);
+
+	/**
+	 * Removes a pair listener from this generator
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removePairListener(PairListener listener);
+
+	/**
+	 * Notifies all pair listeners
+	 * 
+	 * @param first
+	 *            the first mate
+	 * @param second
+	 *            the second mate
+	 */
+	public void notifyListeners(SequenceRecord first, SequenceRecord second);
+}
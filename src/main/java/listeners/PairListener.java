@@ -0,0 +1,24 @@
+package listeners;
+
+import io.SequenceRecord;
+
+/**
+ * Listener receiving the two mates of a paired-end read together. Records are
+ * valid only for the duration of the call and must not be modified. A mate
+ * discarded by a previous step is passed as a record with an empty sequence.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public interface PairListener {
+	/**
+	 * Method called for each pair of mates
+	 * 
+	 * @param first
+	 *            the first mate
+	 * @param second
+	 *            the second mate
+	 */
+	public void pair(SequenceRecord first, SequenceRecord second);
+}
@@ -0,0 +1,115 @@
+package listeners;
+
+import io.FileSequenceWriter;
+import io.SequenceRecord;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pair listener writing paired-end reads. Pairs with both mates are written
+ * in the two mate files, keeping them in sync; pairs which lost one of the
+ * mates (a mate with an empty sequence) are written in the orphans file, if
+ * any, otherwise they are skipped. Pairs which lost both mates are always
+ * skipped.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public class PairedSequenceWriter implements PairListener {
+
+	/**
+	 * Writer of the first mates
+	 */
+	private FileSequenceWriter first = null;
+
+	/**
+	 * Writer of the second mates
+	 */
+	private FileSequenceWriter second = null;
+
+	/**
+	 * Writer of the orphan mates (can be <code>null</code>)
+	 */
+	private FileSequenceWriter orphans = null;
+
+	/**
+	 * Logger for this class
+	 */
+	private Logger logger = null;
+
+	/**
+	 * Creates a paired writer
+	 * 
+	 * @param first
+	 *            writer of the first mates
+	 * @param second
+	 *            writer of the second mates
+	 * @param orphans
+	 *            writer of the orphan mates or <code>null</code> if orphans
+	 *            have to be discarded
+	 */
+	public PairedSequenceWriter(FileSequenceWriter first,
+			FileSequenceWriter second, FileSequenceWriter orphans) {
+		this.first = first;
+		this.second = second;
+		this.orphans = orphans;
+	}
+
+	/**
+	 * Creates a paired writer with the specified logger for collecting
+	 * instances of {@link IOException}
+	 * 
+	 * @param first
+	 *            writer of the first mates
+	 * @param second
+	 *            writer of the second mates
+	 * @param orphans
+	 *            writer of the orphan mates or <code>null</code> if orphans
+	 *            have to be discarded
+	 * @param logger
+	 *            the logger
+	 */
+	public PairedSequenceWriter(FileSequenceWriter first,
+			FileSequenceWriter second, FileSequenceWriter orphans,
+			Logger logger) {
+		this(first, second, orphans);
+		this.logger = logger;
+	}
+
+	@Override
+	public void pair(SequenceRecord first, SequenceRecord second) {
+		boolean hasFirst = first.getSequenceLength() > 0;
+		boolean hasSecond = second.getSequenceLength() > 0;
+		try {
+			if (hasFirst && hasSecond) {
+				this.first.writeRecord(first);
+				this.second.writeRecord(second);
+			} else if (orphans != null) {
+				if (hasFirst)
+					orphans.writeRecord(first);
+				else if (hasSecond)
+					orphans.writeRecord(second);
+			}
+		} catch (IOException e) {
+			logError(e);
+		}
+	}
+
+	/**
+	 * Reports an error occurred writing the output files
+	 * 
+	 * @param e
+	 *            the error
+	 */
+	private void logError(IOException e) {
+		if (logger != null) {
+			logger.log(Level.SEVERE, e.getMessage());
+		} else {
+			System.err.println("I/O error occurs writing output file.");
+		}
+	}
+
+}
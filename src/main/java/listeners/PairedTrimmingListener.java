@@ -0,0 +1,83 @@
+package listeners;
+
+import io.SequenceRecord;
+
+import java.util.ArrayList;
+
+/**
+ * Trimmer for paired-end reads. The two mates of each pair are trimmed by two
+ * {@link TrimmingListener} objects, one for each file, and notified together
+ * so that a mate discarded by the trimmer (because shorter than the minimum
+ * length) does not break the pairing of the other one: the discarded mate is
+ * passed as a record with an empty sequence.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public class PairedTrimmingListener implements PairListener, PairGenerator {
+
+	/**
+	 * Trimmer of the first mates
+	 */
+	private TrimmingListener first = null;
+
+	/**
+	 * Trimmer of the second mates
+	 */
+	private TrimmingListener second = null;
+
+	/**
+	 * List of pair listener objects
+	 */
+	private ArrayList<PairListener> listeners = null;
+
+	/**
+	 * Creates a paired trimmer
+	 * 
+	 * @param first
+	 *            trimmer of the first mates
+	 * @param second
+	 *            trimmer of the second mates
+	 */
+	public PairedTrimmingListener(TrimmingListener first,
+			TrimmingListener second) {
+		if (first == second)
+			throw new IllegalArgumentException(
+					"Mates must be trimmed by two different trimmers");
+		this.first = first;
+		this.second = second;
+		this.listeners = new ArrayList<PairListener>();
+	}
+
+	@Override
+	public void pair(SequenceRecord first, SequenceRecord second) {
+		// Each trimmer returns its own view, so the two results do not
+		// overwrite each other
+		notifyListeners(this.first.trim(first), this.second.trim(second));
+	}
+
+	@Override
+	public void addPairListener(PairListener listener) {
+		int index = listeners.indexOf(listener);
+		if (index < 0) {
+			listeners.add(listener);
+		}
+	}
+
+	@Override
+	public void removePairListener(PairListener listener) {
+		int index = listeners.indexOf(listener);
+		if (index >= 0) {
+			listeners.remove(index);
+		}
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord first, SequenceRecord second) {
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).pair(first, second);
+		}
+	}
+
+}
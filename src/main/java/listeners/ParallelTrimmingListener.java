@@ -0,0 +1,499 @@
+package listeners;
+
+import io.RecordBatch;
+import io.SequenceRecord;
+
+import java.io.Closeable;
+import java.io.Flushable;
+
+import utils.Blocking;
+import utils.MemoryConsumer;
+import utils.RingBuffer;
+import utils.WaitStrategy;
+
+/**
+ * Trimmer computing the trimming points on a pool of worker threads. Records
+ * are copied in batches held by the slots of a {@link RingBuffer}, each slot
+ * with its own copy of a {@link TrimmingListener}. The workers share the ring
+ * and take the slots in turn; the trimmed records are notified on the thread
+ * of the generator, in the same order they have been received, and the slot
+ * is then filled again. Results are the same of the trimmer passed to the
+ * constructor.
+ * <p>
+ * Since records are notified some batches later, {@link #flush()} must be
+ * called once the generator has finished: {@link processes.SequenceProcess}
+ * does it after reading the whole file.
+ * <p>
+ * The ring holds twice as many batches as threads (rounded up to a power of
+ * 2): once they are all busy the thread notifying records waits for the
+ * oldest one. Given a memory limit, the ring is made small enough for the
+ * limit and the thread also waits as long as the batches take more memory
+ * than the limit.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class ParallelTrimmingListener implements SequenceListener,
+		RecordListener, BatchGenerator, Flushable, Closeable, MemoryConsumer,
+		Blocking {
+
+	/**
+	 * Default number of records in a batch
+	 */
+	private static final int BATCH_SIZE = 4096;
+
+	/**
+	 * Estimated memory taken by a short read in a batch
+	 */
+	private static final int RECORD_MEMORY = 512;
+
+	/**
+	 * The trimmer copied for each batch
+	 */
+	private TrimmingListener trimmer = null;
+
+	/**
+	 * Number of worker threads
+	 */
+	private int threads;
+
+	/**
+	 * Number of records in a batch
+	 */
+	private int batchSize = BATCH_SIZE;
+
+	/**
+	 * Strategy of the threads waiting on the ring
+	 */
+	private WaitStrategy wait = new WaitStrategy.Park();
+
+	/**
+	 * Memory limit in bytes or -1 if the memory is not bounded
+	 */
+	private long memoryLimit = -1;
+
+	/**
+	 * Memory taken by the batches published and not yet notified
+	 */
+	private long pendingMemory = 0;
+
+	/**
+	 * The ring of batches, created with the first record
+	 */
+	private RingBuffer<Batch> ring = null;
+
+	/**
+	 * The workers, created with the ring
+	 */
+	private Worker[] workers = null;
+
+	/**
+	 * Sequence of the batch being filled or -1
+	 */
+	private long current = -1;
+
+	/**
+	 * Sequence of the last batch published
+	 */
+	private long published = -1;
+
+	/**
+	 * Sequence of the last batch notified
+	 */
+	private long notified = -1;
+
+	/**
+	 * Time spent waiting for the workers
+	 */
+	private long blockedNanos = 0;
+
+	/**
+	 * First error thrown by a worker
+	 */
+	private volatile RuntimeException error = null;
+
+	/**
+	 * List of sequence listener objects
+	 */
+	private RecordListenerSupport listeners = new RecordListenerSupport();
+
+	/**
+	 * Record used for sequences notified as strings
+	 */
+	private SequenceRecord input = new SequenceRecord();
+
+	/**
+	 * Creates a parallel trimmer with the default batch size
+	 *
+	 * @param trimmer
+	 *            the trimmer, already set up. Its listeners are not used.
+	 * @param threads
+	 *            the number of worker threads
+	 */
+	public ParallelTrimmingListener(TrimmingListener trimmer, int threads) {
+		this(trimmer, threads, BATCH_SIZE);
+	}
+
+	/**
+	 * Creates a parallel trimmer
+	 *
+	 * @param trimmer
+	 *            the trimmer, already set up. Its listeners are not used.
+	 * @param threads
+	 *            the number of worker threads
+	 * @param batchSize
+	 *            the number of records in a batch
+	 */
+	public ParallelTrimmingListener(TrimmingListener trimmer, int threads,
+			int batchSize) {
+		if ((threads < 1) || (batchSize < 1))
+			throw new IllegalArgumentException(
+					"Threads and batch size must be positive");
+		this.trimmer = trimmer;
+		this.threads = threads;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void sequence(String id, String sequence, String quality) {
+		input.set(id, sequence, quality);
+		record(input);
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		if (ring == null)
+			start();
+		if (current < 0)
+			current = claim();
+		Batch batch = ring.get(current);
+		batch.add(record);
+		if (batch.isFull()) {
+			publish(batch);
+			notifyDone();
+		}
+	}
+
+	/**
+	 * Creates the ring and starts the workers
+	 */
+	private void start() {
+		int size = Integer.highestOneBit(2 * threads - 1) << 1;
+		if (memoryLimit > 0) {
+			long slots = memoryLimit / ((long) batchSize * RECORD_MEMORY);
+			while ((size > 1) && (size > slots))
+				size /= 2;
+		}
+		ring = new RingBuffer<Batch>(size, new RingBuffer.SlotFactory<Batch>() {
+			@Override
+			public Batch newSlot() {
+				return new Batch(trimmer.copy(), batchSize);
+			}
+		}, wait);
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++)
+			workers[i] = new Worker(i, ring.newReader());
+		for (Worker w : workers)
+			w.start();
+		current = -1;
+		published = ring.getCursor();
+		notified = published;
+	}
+
+	/**
+	 * Claims the next slot, notifying the batch it held
+	 *
+	 * @return the sequence of the slot
+	 */
+	private long claim() {
+		while (notified < published + 1 - ring.size())
+			notifyBatch(notified + 1);
+		return ring.next();
+	}
+
+	/**
+	 * Hands the batch being filled to the workers
+	 *
+	 * @param batch
+	 *            the batch
+	 */
+	private void publish(Batch batch) {
+		pendingMemory += batch.getMemory();
+		ring.publish(current);
+		published = current;
+		current = -1;
+	}
+
+	/**
+	 * Notifies the batches already trimmed and waits for the oldest ones if
+	 * the batches take more memory than the limit
+	 */
+	private void notifyDone() {
+		while ((notified < published)
+				&& (isTrimmed(notified + 1) || overLimit()))
+			notifyBatch(notified + 1);
+	}
+
+	/**
+	 * @return <code>true</code> if the batches take more memory than the limit
+	 */
+	private boolean overLimit() {
+		return (memoryLimit > 0) && (pendingMemory > memoryLimit);
+	}
+
+	/**
+	 * @param sequence
+	 *            the sequence of a published batch
+	 * @return <code>true</code> if the batch has been trimmed
+	 */
+	private boolean isTrimmed(long sequence) {
+		return workers[(int) (sequence % threads)].reader.getSequence() >= sequence;
+	}
+
+	/**
+	 * Notifies all the records received so far. This method blocks until all
+	 * the batches have been trimmed.
+	 */
+	@Override
+	public void flush() {
+		if (ring != null) {
+			if ((current >= 0) && (ring.get(current).size() > 0))
+				publish(ring.get(current));
+			while (notified < published)
+				notifyBatch(notified + 1);
+		}
+		listeners.flush();
+	}
+
+	/**
+	 * Notifies a batch of trimmed records, waiting for the worker trimming it,
+	 * and empties it
+	 *
+	 * @param sequence
+	 *            the sequence of the batch
+	 */
+	private void notifyBatch(long sequence) {
+		if (!isTrimmed(sequence)) {
+			long start = System.nanoTime();
+			int attempts = 0;
+			while (!isTrimmed(sequence) && (error == null))
+				wait.idle(++attempts);
+			blockedNanos += System.nanoTime() - start;
+		}
+		if (error != null)
+			throw error;
+		Batch batch = ring.get(sequence);
+		for (int i = 0; i < batch.size(); i++)
+			batch.clip(i, batch.trimmedStarts[i], batch.lengths[i]);
+		notifyListeners(batch);
+		pendingMemory -= batch.getMemory();
+		batch.clear();
+		notified = sequence;
+	}
+
+	/**
+	 * The time includes the time spent waiting for a slot of the ring
+	 */
+	@Override
+	public long getBlockedNanos() {
+		return blockedNanos + ((ring == null) ? 0 : ring.getBlockedNanos());
+	}
+
+	@Override
+	public long getMinimumMemory() {
+		return 2L * batchSize * RECORD_MEMORY;
+	}
+
+	@Override
+	public void setMemoryLimit(long bytes) {
+		this.memoryLimit = bytes;
+	}
+
+	/**
+	 * Notifies the pending records and stops the worker threads. The trimmer
+	 * can be used again: new workers are started with the next record.
+	 */
+	@Override
+	public void close() {
+		if (ring == null) {
+			listeners.flush();
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			ring.close();
+			blockedNanos += ring.getBlockedNanos();
+			for (Worker w : workers) {
+				try {
+					w.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			workers = null;
+			ring = null;
+		}
+	}
+
+	@Override
+	public void addListener(SequenceListener listener) {
+		listeners.addListener(listener);
+	}
+
+	@Override
+	public void removeListener(SequenceListener listener) {
+		listeners.removeListener(listener);
+	}
+
+	@Override
+	public void addRecordListener(RecordListener listener) {
+		listeners.addRecordListener(listener);
+	}
+
+	@Override
+	public void removeRecordListener(RecordListener listener) {
+		listeners.removeRecordListener(listener);
+	}
+
+	@Override
+	public void addBatchListener(BatchListener listener) {
+		listeners.addBatchListener(listener);
+	}
+
+	@Override
+	public void removeBatchListener(BatchListener listener) {
+		listeners.removeBatchListener(listener);
+	}
+
+	@Override
+	public void notifyListeners(String id, String sequence, String quality) {
+		listeners.notifyListeners(id, sequence, quality);
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord record) {
+		listeners.notifyListeners(record);
+	}
+
+	@Override
+	public void notifyListeners(RecordBatch batch) {
+		listeners.notifyListeners(batch);
+	}
+
+	/**
+	 * Batch of records with the trimmer computing their trimmed length
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Batch extends RecordBatch {
+
+		/**
+		 * The trimmer of this batch
+		 */
+		private TrimmingListener trimmer;
+
+		/**
+		 * Trimmed length of each record
+		 */
+		private int[] lengths;
+
+		/**
+		 * First base kept of each record
+		 */
+		private int[] trimmedStarts;
+
+		/**
+		 * Record used by the worker thread
+		 */
+		private SequenceRecord record = new SequenceRecord();
+
+		/**
+		 * @param trimmer
+		 *            the trimmer of this batch
+		 * @param size
+		 *            the number of records
+		 */
+		private Batch(TrimmingListener trimmer, int size) {
+			super(size);
+			this.trimmer = trimmer;
+			this.lengths = new int[size];
+			this.trimmedStarts = new int[size];
+		}
+
+		/**
+		 * Computes the trimming points of the records
+		 */
+		private void trim() {
+			for (int i = 0; i < size(); i++) {
+				view(i, record);
+				lengths[i] = trimmer.trimmedLength(record);
+				trimmedStarts[i] = trimmer.trimmedStart();
+				setTag(i, trimmer.trimmedTag());
+			}
+		}
+	}
+
+	/**
+	 * Worker thread trimming its share of the batches: the worker with index
+	 * <code>i</code> trims the batches whose sequence modulo the number of
+	 * workers is <code>i</code>. Releasing a slot the worker tells that all its
+	 * batches up to that slot have been trimmed.
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private class Worker extends Thread {
+
+		/**
+		 * Index of this worker
+		 */
+		private int index;
+
+		/**
+		 * The reader of the ring
+		 */
+		private RingBuffer<Batch>.Reader reader;
+
+		/**
+		 * @param index
+		 *            index of this worker
+		 * @param reader
+		 *            the reader of the ring
+		 */
+		private Worker(int index, RingBuffer<Batch>.Reader reader) {
+			super("trim-" + (index + 1));
+			setDaemon(true);
+			this.index = index;
+			this.reader = reader;
+		}
+
+		@Override
+		public void run() {
+			long next = reader.getSequence() + 1;
+			while (true) {
+				long available = reader.waitFor(next);
+				if (available < next)
+					return;
+				for (long s = next; s <= available; s++) {
+					if ((s % threads == index) && (error == null)) {
+						try {
+							reader.get(s).trim();
+						} catch (RuntimeException e) {
+							if (error == null)
+								error = e;
+						}
+					}
+					reader.release(s);
+				}
+				next = available + 1;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,345 @@
+package listeners;
+
+import io.SequenceRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import decoder.QualityDecoder;
+
+/**
+ * Primer trimmer for amplicon panels. The primer found at the start of a
+ * sequence is removed, together with the bases before it, and the trimmed
+ * record is tagged with the index of the primer in the panel (see
+ * {@link SequenceRecord#getTag()} and {@link #getPrimerName(int)}); records
+ * without primers are left as they are.
+ * <p>
+ * All the primers are compiled in a single Aho-Corasick automaton over the
+ * four bases, degenerate IUPAC bases being expanded to all the primers they
+ * stand for. Each base of the start of a sequence is a single step of the
+ * automaton, whose states know the longest primer ending there: the cost of
+ * a sequence depends on the length of the primers, not on their number.
+ * Primers must match without errors; a primer matching the same bases of an
+ * earlier primer is never reported.
+ * <p>
+ * If a quality decoder is given, the bases left are trimmed by quality as
+ * {@link TrimmingListener} does, in the same pass.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class PrimerTrimmingListener extends TrimmingListener {
+
+	/**
+	 * The largest number of sequences a degenerate primer can stand for
+	 */
+	public static final int MAX_EXPANSIONS = 4096;
+
+	/**
+	 * Codes of the bases, -1 for other characters
+	 */
+	private static final int[] CODES = new int[256];
+
+	/**
+	 * Bases matched by each IUPAC letter, by code
+	 */
+	private static final String[] IUPAC = new String[128];
+
+	static {
+		Arrays.fill(CODES, -1);
+		String bases = "ACGT";
+		for (int b = 0; b < 4; b++) {
+			CODES[bases.charAt(b)] = b;
+			CODES[Character.toLowerCase(bases.charAt(b))] = b;
+		}
+		String[] letters = { "A", "C", "G", "T", "U", "R", "Y", "S", "W",
+				"K", "M", "B", "D", "H", "V", "N" };
+		String[] codes = { "A", "C", "G", "T", "T", "AG", "CT", "CG", "AT",
+				"GT", "AC", "CGT", "AGT", "ACT", "ACG", "ACGT" };
+		for (int i = 0; i < letters.length; i++)
+			IUPAC[letters[i].charAt(0)] = codes[i];
+	}
+
+	/**
+	 * The names of the primers
+	 */
+	private String[] names;
+
+	/**
+	 * Transitions of the automaton, four for each state. State 0 is the
+	 * root.
+	 */
+	private int[] next;
+
+	/**
+	 * For each state, the primer of the longest primer sequence ending there
+	 * or -1
+	 */
+	private int[] hitPrimer;
+
+	/**
+	 * For each state, the length of the longest primer sequence ending there
+	 */
+	private int[] hitLength;
+
+	/**
+	 * Length of the longest primer
+	 */
+	private int maxLength = 0;
+
+	/**
+	 * Bases allowed before a primer
+	 */
+	private int maxOffset = 0;
+
+	/**
+	 * Primer found in the last record trimmed or -1
+	 */
+	private int hit = -1;
+
+	/**
+	 * Creates a primer trimmer
+	 *
+	 * @param qdecoder
+	 *            the quality decoder or <code>null</code> to skip quality
+	 *            trimming
+	 * @param primers
+	 *            the sequences of the primers, by name. The order of the map
+	 *            gives the tags of the primers.
+	 * @throws IllegalArgumentException
+	 *             if a primer holds letters other than IUPAC bases or stands
+	 *             for more than {@link #MAX_EXPANSIONS} sequences
+	 */
+	public PrimerTrimmingListener(QualityDecoder qdecoder,
+			Map<String, String> primers) {
+		super(qdecoder);
+		this.names = primers.keySet().toArray(new String[primers.size()]);
+		Trie trie = new Trie();
+		int p = 0;
+		for (String primer : primers.values()) {
+			for (String sequence : expand(primer))
+				trie.add(sequence, p);
+			maxLength = Math.max(maxLength, primer.length());
+			p++;
+		}
+		trie.compile();
+	}
+
+	/**
+	 * Expands the degenerate bases of a primer
+	 *
+	 * @param primer
+	 *            the primer
+	 * @return the sequences the primer stands for
+	 */
+	private static List<String> expand(String primer) {
+		List<String> sequences = new ArrayList<String>();
+		sequences.add("");
+		for (int i = 0; i < primer.length(); i++) {
+			char c = Character.toUpperCase(primer.charAt(i));
+			String bases = (c < IUPAC.length) ? IUPAC[c] : null;
+			if (bases == null)
+				throw new IllegalArgumentException(String.format(
+						"Not a base in primer %s: %c", primer, c));
+			if (sequences.size() * bases.length() > MAX_EXPANSIONS)
+				throw new IllegalArgumentException(String.format(
+						"Primer %s stands for too many sequences", primer));
+			List<String> longer = new ArrayList<String>(sequences.size()
+					* bases.length());
+			for (String s : sequences)
+				for (int b = 0; b < bases.length(); b++)
+					longer.add(s + bases.charAt(b));
+			sequences = longer;
+		}
+		return sequences;
+	}
+
+	/**
+	 * @param maxOffset
+	 *            the number of bases allowed before a primer (0 by default),
+	 *            removed with the primer
+	 */
+	public void setMaxOffset(int maxOffset) {
+		if (maxOffset < 0)
+			throw new IllegalArgumentException(
+					"The offset must not be negative");
+		this.maxOffset = maxOffset;
+	}
+
+	/**
+	 * @return the number of primers
+	 */
+	public int getPrimerCount() {
+		return names.length;
+	}
+
+	/**
+	 * @param tag
+	 *            the tag of a record
+	 * @return the name of the primer found in the record or <code>null</code>
+	 *         if the record has no primer
+	 */
+	public String getPrimerName(int tag) {
+		return ((tag < 0) || (tag >= names.length)) ? null : names[tag];
+	}
+
+	/**
+	 * @return the number of states of the automaton
+	 */
+	public int getStateCount() {
+		return hitPrimer.length;
+	}
+
+	@Override
+	protected int sequenceStartIndex(SequenceRecord record) {
+		byte[] sequence = record.getSequence();
+		int offset = record.getSequenceOffset();
+		int length = Math.min(record.getSequenceLength(), maxOffset
+				+ maxLength);
+		int state = 0;
+		int start = Integer.MAX_VALUE;
+		int end = 0;
+		hit = -1;
+		for (int i = 0; i < length; i++) {
+			int code = CODES[sequence[offset + i] & 0xFF];
+			state = (code < 0) ? 0 : next[(state << 2) | code];
+			int p = hitPrimer[state];
+			if (p < 0)
+				continue;
+			// The longest primer ending here is the one starting first
+			int s = i + 1 - hitLength[state];
+			if ((s <= maxOffset) && (s <= start)) {
+				start = s;
+				end = i + 1;
+				hit = p;
+			}
+		}
+		return end;
+	}
+
+	@Override
+	protected int tag(SequenceRecord record) {
+		return (hit < 0) ? record.getTag() : hit;
+	}
+
+	@Override
+	protected int cutIndex(int[] qual, int length) {
+		return (qdecoder == null) ? length : super.cutIndex(qual, length);
+	}
+
+	/**
+	 * Trie of the primer sequences, compiled into the automaton
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private class Trie {
+
+		/**
+		 * Children of each node, four for each node, -1 if missing
+		 */
+		private int[] children = new int[4 * 256];
+
+		/**
+		 * Primer ending at each node or -1
+		 */
+		private int[] primers = new int[256];
+
+		/**
+		 * Depth of each node
+		 */
+		private int[] depths = new int[256];
+
+		/**
+		 * Number of nodes
+		 */
+		private int size = 0;
+
+		private Trie() {
+			newNode(0);
+		}
+
+		/**
+		 * @param depth
+		 *            the depth of the node
+		 * @return a new node
+		 */
+		private int newNode(int depth) {
+			if (size == primers.length) {
+				children = Arrays.copyOf(children, children.length * 2);
+				primers = Arrays.copyOf(primers, primers.length * 2);
+				depths = Arrays.copyOf(depths, depths.length * 2);
+			}
+			Arrays.fill(children, size << 2, (size + 1) << 2, -1);
+			primers[size] = -1;
+			depths[size] = depth;
+			return size++;
+		}
+
+		/**
+		 * Adds a sequence
+		 *
+		 * @param sequence
+		 *            the sequence, made of A, C, G and T
+		 * @param primer
+		 *            the primer of the sequence
+		 */
+		private void add(String sequence, int primer) {
+			int node = 0;
+			for (int i = 0; i < sequence.length(); i++) {
+				int c = (node << 2) | CODES[sequence.charAt(i)];
+				if (children[c] < 0) {
+					int child = newNode(i + 1);
+					children[c] = child;
+				}
+				node = children[c];
+			}
+			if ((node != 0) && (primers[node] < 0))
+				primers[node] = primer;
+		}
+
+		/**
+		 * Computes the failure links breadth first and fills the transitions
+		 * and the outputs of the automaton
+		 */
+		private void compile() {
+			next = new int[size << 2];
+			hitPrimer = new int[size];
+			hitLength = new int[size];
+			int[] fail = new int[size];
+			int[] queue = new int[size];
+			int head = 0;
+			int tail = 0;
+			hitPrimer[0] = -1;
+			queue[tail++] = 0;
+			while (head < tail) {
+				int node = queue[head++];
+				for (int c = 0; c < 4; c++) {
+					int child = children[(node << 2) | c];
+					if (child < 0) {
+						next[(node << 2) | c] = (node == 0) ? 0
+								: next[(fail[node] << 2) | c];
+						continue;
+					}
+					next[(node << 2) | c] = child;
+					fail[child] = (node == 0) ? 0
+							: next[(fail[node] << 2) | c];
+					if (primers[child] >= 0) {
+						hitPrimer[child] = primers[child];
+						hitLength[child] = depths[child];
+					} else {
+						// Longest primer ending with this node
+						hitPrimer[child] = hitPrimer[fail[child]];
+						hitLength[child] = hitLength[fail[child]];
+					}
+					queue[tail++] = child;
+				}
+			}
+		}
+	}
+
+}
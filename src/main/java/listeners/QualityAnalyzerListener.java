@@ -22,16 +22,21 @@ public class QualityAnalyzerListener
 		MultipleFrequencyAnalyzer<Integer, OrderedDistribution<Integer>, Integer>
 		implements SequenceListener {
 
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Quality decoder
 	 */
-	private QualityDecoder decoder = null;
+	private transient QualityDecoder decoder = null;
 
 	/**
 	 * The logger. It can be <code>null</code>. In this case errors will be
 	 * printed using {@link System#err}
 	 */
-	private Logger logger = null;
+	private transient Logger logger = null;
 
 	/**
 	 * Creates an analyzer listener with the specified quality decoder
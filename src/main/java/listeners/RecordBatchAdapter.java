@@ -0,0 +1,61 @@
+package listeners;
+
+import io.RecordBatch;
+import io.SequenceRecord;
+
+/**
+ * Adapter passing the records of a batch to a {@link RecordListener} one at a
+ * time. Two adapters are equal if they wrap the same listener.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class RecordBatchAdapter implements BatchListener {
+
+	/**
+	 * The adapted listener
+	 */
+	private RecordListener listener = null;
+
+	/**
+	 * Record passed to the listener (a view of the batch)
+	 */
+	private SequenceRecord record = new SequenceRecord();
+
+	/**
+	 * @param listener
+	 *            the listener to adapt
+	 */
+	public RecordBatchAdapter(RecordListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void batch(RecordBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			batch.view(i, record);
+			listener.record(record);
+		}
+	}
+
+	/**
+	 * @return the adapted listener
+	 */
+	public RecordListener getListener() {
+		return listener;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof RecordBatchAdapter))
+			return false;
+		return listener.equals(((RecordBatchAdapter) obj).listener);
+	}
+
+	@Override
+	public int hashCode() {
+		return listener.hashCode();
+	}
+
+}
@@ -0,0 +1,49 @@
+package listeners;
+
+import io.SequenceRecord;
+
+/**
+ * Sequence generator able to notify {@link SequenceRecord} objects. Listeners
+ * added as {@link SequenceListener} receive the same records as strings.
+ * <p>
+ * Generators written for {@link SequenceGenerator} get record support from
+ * the default methods, which pass the records as strings.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface RecordGenerator extends SequenceGenerator {
+	/**
+	 * Adds a record listener to this generator. By default the listener is
+	 * added as a {@link SequenceListener} through a
+	 * {@link RecordListenerAdapter}.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public default void addRecordListener(RecordListener listener) {
+		addListener(new RecordListenerAdapter(listener));
+	}
+
+	/**
+	 * Removes a record listener from this generator
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public default void removeRecordListener(RecordListener listener) {
+		removeListener(new RecordListenerAdapter(listener));
+	}
+
+	/**
+	 * Notifies all listeners. By default the record is notified as strings.
+	 * 
+	 * @param record
+	 *            the record
+	 */
+	public default void notifyListeners(SequenceRecord record) {
+		notifyListeners(record.getIdString(), record.getSequenceString(),
+				record.getQualityString());
+	}
+}
@@ -0,0 +1,24 @@
+package listeners;
+
+import io.FileSequenceReader;
+import io.SequenceRecord;
+
+/**
+ * Listener receiving reusable {@link SequenceRecord} objects instead of
+ * strings. The record passed to {@link #record(SequenceRecord)} is valid only
+ * for the duration of the call and must not be modified.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public interface RecordListener {
+	/**
+	 * Method called by a {@link FileSequenceReader} object while reading from a
+	 * sequence file
+	 * 
+	 * @param record
+	 *            the record
+	 */
+	public void record(SequenceRecord record);
+}
@@ -0,0 +1,59 @@
+package listeners;
+
+import io.SequenceRecord;
+
+/**
+ * Adapter allowing a {@link RecordListener} to listen to a generator of
+ * strings. The same record is reused for every sequence. Two adapters are
+ * equal if they wrap the same listener.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class RecordListenerAdapter implements SequenceListener {
+
+	/**
+	 * The adapted listener
+	 */
+	private RecordListener listener = null;
+
+	/**
+	 * The reused record
+	 */
+	private SequenceRecord record = new SequenceRecord();
+
+	/**
+	 * @param listener
+	 *            the listener to adapt
+	 */
+	public RecordListenerAdapter(RecordListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void sequence(String id, String sequence, String quality) {
+		record.set(id, sequence, quality);
+		listener.record(record);
+	}
+
+	/**
+	 * @return the adapted listener
+	 */
+	public RecordListener getListener() {
+		return listener;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof RecordListenerAdapter))
+			return false;
+		return listener.equals(((RecordListenerAdapter) obj).listener);
+	}
+
+	@Override
+	public int hashCode() {
+		return listener.hashCode();
+	}
+
+}
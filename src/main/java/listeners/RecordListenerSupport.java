@@ -0,0 +1,212 @@
+package listeners;
+
+import io.RecordBatch;
+import io.SequenceRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listener list shared by {@link RecordGenerator} implementations. Sequence
+ * listeners are wrapped in a {@link SequenceListenerAdapter}, so that all
+ * listeners are notified in the order they have been added, whatever their
+ * type.
+ * <p>
+ * As long as there is at least one {@link BatchListener}, records are copied
+ * in a {@link RecordBatch} and notified a batch at a time: batch listeners
+ * receive the whole batch, the other listeners are wrapped in a
+ * {@link RecordBatchAdapter} looping over its records. Generators must call
+ * {@link #flush()} once the last record has been notified.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class RecordListenerSupport {
+
+	/**
+	 * Number of records in a batch
+	 */
+	private static final int BATCH_SIZE = 4096;
+
+	/**
+	 * List of record listeners
+	 */
+	private List<RecordListener> listeners = new ArrayList<RecordListener>();
+
+	/**
+	 * List of all listeners as batch listeners, in the order they have been
+	 * added
+	 */
+	private List<BatchListener> batchListeners = new ArrayList<BatchListener>();
+
+	/**
+	 * Number of listeners added as {@link BatchListener}
+	 */
+	private int batchCount = 0;
+
+	/**
+	 * Records notified one at a time waiting for the batch to be full
+	 */
+	private RecordBatch pending = null;
+
+	/**
+	 * Record used for notifying strings
+	 */
+	private SequenceRecord record = new SequenceRecord();
+
+	/**
+	 * Adds a sequence listener
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addListener(SequenceListener listener) {
+		addRecordListener(new SequenceListenerAdapter(listener));
+	}
+
+	/**
+	 * Removes a sequence listener
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeListener(SequenceListener listener) {
+		removeRecordListener(new SequenceListenerAdapter(listener));
+	}
+
+	/**
+	 * Adds a record listener
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addRecordListener(RecordListener listener) {
+		int index = listeners.indexOf(listener);
+		if (index < 0) {
+			listeners.add(listener);
+			batchListeners.add(new RecordBatchAdapter(listener));
+		}
+	}
+
+	/**
+	 * Removes a record listener
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeRecordListener(RecordListener listener) {
+		int index = listeners.indexOf(listener);
+		if (index >= 0) {
+			listeners.remove(index);
+			batchListeners.remove(new RecordBatchAdapter(listener));
+		}
+	}
+
+	/**
+	 * Adds a batch listener
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addBatchListener(BatchListener listener) {
+		int index = batchListeners.indexOf(listener);
+		if (index < 0) {
+			batchListeners.add(listener);
+			batchCount++;
+		}
+	}
+
+	/**
+	 * Removes a batch listener. Records waiting for the batch to be full are
+	 * notified first.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeBatchListener(BatchListener listener) {
+		int index = batchListeners.indexOf(listener);
+		if (index >= 0) {
+			flush();
+			batchListeners.remove(index);
+			batchCount--;
+		}
+	}
+
+	/**
+	 * Notifies a sequence to all listeners
+	 * 
+	 * @param id
+	 *            the sequence id
+	 * @param sequence
+	 *            the sequence
+	 * @param quality
+	 *            the quality
+	 */
+	public void notifyListeners(String id, String sequence, String quality) {
+		record.set(id, sequence, quality);
+		notifyListeners(record);
+	}
+
+	/**
+	 * Notifies a record to all listeners
+	 * 
+	 * @param record
+	 *            the record
+	 */
+	public void notifyListeners(SequenceRecord record) {
+		if (batchCount == 0) {
+			for (int i = 0; i < listeners.size(); i++) {
+				listeners.get(i).record(record);
+			}
+			return;
+		}
+		if (pending == null)
+			pending = new RecordBatch(BATCH_SIZE);
+		pending.add(record);
+		if (pending.isFull())
+			flush();
+	}
+
+	/**
+	 * Notifies a batch of records to all listeners. Records waiting for the
+	 * batch to be full are notified first.
+	 * 
+	 * @param batch
+	 *            the records
+	 */
+	public void notifyListeners(RecordBatch batch) {
+		flush();
+		dispatch(batch);
+	}
+
+	/**
+	 * Notifies the records waiting for the batch to be full
+	 */
+	public void flush() {
+		if ((pending != null) && (pending.size() > 0)) {
+			dispatch(pending);
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Passes a batch to each listener
+	 * 
+	 * @param batch
+	 *            the records
+	 */
+	private void dispatch(RecordBatch batch) {
+		for (int i = 0; i < batchListeners.size(); i++) {
+			batchListeners.get(i).batch(batch);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if there are no listeners
+	 */
+	public boolean isEmpty() {
+		return batchListeners.isEmpty();
+	}
+
+}
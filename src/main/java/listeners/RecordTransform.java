@@ -0,0 +1,28 @@
+package listeners;
+
+import io.SequenceRecord;
+
+/**
+ * Stateless stage changing or discarding a record, such as a trimmer or a
+ * filter. Transforms keep no state from one record to the next, so that a
+ * chain of transforms can be fused into a single loop over each record (see
+ * {@link processes.StageGraph}).
+ * <p>
+ * The record is a view of bytes shared with other stages: a transform can
+ * shorten it or make it a view of other bytes, but it must never write into
+ * its arrays.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface RecordTransform {
+	/**
+	 * Transforms a record
+	 * 
+	 * @param record
+	 *            the record, changed in place
+	 * @return <code>false</code> if the record has to be discarded
+	 */
+	public boolean transform(SequenceRecord record);
+}
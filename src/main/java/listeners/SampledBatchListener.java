@@ -0,0 +1,71 @@
+package listeners;
+
+import io.RecordBatch;
+
+/**
+ * {@link SampledListener} for batch listeners: the records sampled from a
+ * batch are passed as a view of the batch, without copying them.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class SampledBatchListener extends SampledListener implements
+		BatchListener {
+
+	/**
+	 * The wrapped listener
+	 */
+	private BatchListener listener;
+
+	/**
+	 * Indices of the records sampled from a batch
+	 */
+	private int[] indices = new int[0];
+
+	/**
+	 * View of the records sampled
+	 */
+	private RecordBatch sample = null;
+
+	/**
+	 * @param listener
+	 *            the listener to wrap, which must be a {@link BatchListener}
+	 * @param policy
+	 *            the sampling policy
+	 */
+	public SampledBatchListener(SequenceListener listener,
+			SamplingPolicy policy) {
+		super(listener, policy);
+		this.listener = (BatchListener) listener;
+	}
+
+	@Override
+	public void batch(RecordBatch batch) {
+		int size = batch.size();
+		if (isExhausted()) {
+			skip(size);
+			return;
+		}
+		if (indices.length < size)
+			indices = new int[size];
+		int n = 0;
+		byte[] data = batch.getData();
+		for (int i = 0; i < size; i++) {
+			if (accept(data, batch.getIdOffset(i), batch.getIdLength(i)))
+				indices[n++] = i;
+		}
+		if (n == 0)
+			return;
+		if (n == size) {
+			listener.batch(batch);
+			return;
+		}
+		if ((sample == null) || (sample.capacity() < size))
+			sample = new RecordBatch(batch.capacity());
+		sample.viewOf(batch, indices, n);
+		listener.batch(sample);
+		sample.clear();
+	}
+
+}
@@ -0,0 +1,197 @@
+package listeners;
+
+import io.SequenceRecord;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Listener passing to another listener only the records chosen by a
+ * {@link SamplingPolicy}. The listener keeps count of the records seen and of
+ * the records sampled, so that counts computed on the sample can be scaled to
+ * the whole stream with {@link #scale(long)}; statistics such as means and
+ * frequencies need no scaling. Records are passed to the wrapped listener as
+ * records if it is a {@link RecordListener}, as strings otherwise: strings
+ * are created for the records sampled only. Two sampled listeners are equal if
+ * they wrap the same listener.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ * @see SampledBatchListener
+ */
+public class SampledListener implements SequenceListener, RecordListener,
+		Flushable {
+
+	/**
+	 * The wrapped listener
+	 */
+	private SequenceListener listener;
+
+	/**
+	 * The sampling policy
+	 */
+	private SamplingPolicy policy;
+
+	/**
+	 * Records seen
+	 */
+	private long seen = 0;
+
+	/**
+	 * Records sampled
+	 */
+	private long sampled = 0;
+
+	/**
+	 * Record used for sequences notified as strings
+	 */
+	private SequenceRecord input = new SequenceRecord();
+
+	/**
+	 * @param listener
+	 *            the listener to wrap
+	 * @param policy
+	 *            the sampling policy
+	 */
+	public SampledListener(SequenceListener listener, SamplingPolicy policy) {
+		this.listener = listener;
+		this.policy = policy;
+	}
+
+	@Override
+	public void sequence(String id, String sequence, String quality) {
+		input.set(id, sequence, quality);
+		record(input);
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		if (!accept(record.getId(), record.getIdOffset(), record.getIdLength()))
+			return;
+		if (listener instanceof RecordListener)
+			((RecordListener) listener).record(record);
+		else
+			listener.sequence(record.getIdString(),
+					record.getSequenceString(), record.getQualityString());
+	}
+
+	/**
+	 * Counts a record and tells whether it belongs to the sample
+	 *
+	 * @param id
+	 *            the array holding the id of the record
+	 * @param offset
+	 *            the start of the id
+	 * @param length
+	 *            the length of the id
+	 * @return <code>true</code> if the record belongs to the sample
+	 */
+	protected boolean accept(byte[] id, int offset, int length) {
+		if (!policy.accept(seen++, id, offset, length))
+			return false;
+		sampled++;
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if no other record will be sampled
+	 */
+	protected boolean isExhausted() {
+		return policy.isExhausted(seen);
+	}
+
+	/**
+	 * Counts records not belonging to the sample
+	 *
+	 * @param n
+	 *            the number of records
+	 */
+	protected void skip(long n) {
+		seen += n;
+	}
+
+	/**
+	 * Flushes the listener if it implements {@link Flushable}
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (listener instanceof Flushable)
+			((Flushable) listener).flush();
+	}
+
+	/**
+	 * Sets the counters of a listener resuming the sampling of a stream
+	 * partially processed by another listener
+	 *
+	 * @param seen
+	 *            the number of records already seen
+	 * @param sampled
+	 *            the number of records already sampled
+	 */
+	public void resume(long seen, long sampled) {
+		this.seen = seen;
+		this.sampled = sampled;
+	}
+
+	/**
+	 * @return the number of records seen
+	 */
+	public long getSeen() {
+		return seen;
+	}
+
+	/**
+	 * @return the number of records passed to the listener
+	 */
+	public long getSampled() {
+		return sampled;
+	}
+
+	/**
+	 * @return the fraction of records passed to the listener, 1 if no record
+	 *         has been seen
+	 */
+	public double getFraction() {
+		return (seen == 0) ? 1 : (double) sampled / seen;
+	}
+
+	/**
+	 * Estimates a count on the whole stream from a count on the sample
+	 *
+	 * @param count
+	 *            the count computed by the listener
+	 * @return the count divided by the sampling fraction
+	 */
+	public long scale(long count) {
+		return (sampled == 0) ? 0 : Math.round((double) count * seen
+				/ sampled);
+	}
+
+	/**
+	 * @return the sampling policy
+	 */
+	public SamplingPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the wrapped listener
+	 */
+	public SequenceListener getListener() {
+		return listener;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SampledListener))
+			return false;
+		return listener.equals(((SampledListener) obj).listener);
+	}
+
+	@Override
+	public int hashCode() {
+		return listener.hashCode();
+	}
+
+}
@@ -0,0 +1,215 @@
+package listeners;
+
+/**
+ * Rule choosing the records passed to a listener which does not need all of
+ * them (an analyzer whose estimates are good enough on a sample). Policies
+ * only look at the position of a record in the stream and at its id, so the
+ * same policy can be shared by several listeners.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ * @see SampledListener
+ */
+public abstract class SamplingPolicy {
+
+	/**
+	 * Tells whether a record belongs to the sample
+	 *
+	 * @param index
+	 *            the position of the record in the stream, starting from 0
+	 * @param id
+	 *            the array holding the id of the record
+	 * @param offset
+	 *            the start of the id
+	 * @param length
+	 *            the length of the id
+	 * @return <code>true</code> if the record belongs to the sample
+	 */
+	public abstract boolean accept(long index, byte[] id, int offset,
+			int length);
+
+	/**
+	 * @param index
+	 *            the position of a record in the stream
+	 * @return <code>true</code> if no record from the specified position on
+	 *         belongs to the sample
+	 */
+	public boolean isExhausted(long index) {
+		return false;
+	}
+
+	/**
+	 * Samples one record every <code>k</code> records, starting from the first
+	 *
+	 * @param k
+	 *            the distance between two records of the sample
+	 * @return the policy
+	 */
+	public static SamplingPolicy every(int k) {
+		return new Every(k);
+	}
+
+	/**
+	 * Samples a fraction of the records chosen by hashing their ids, so that
+	 * the same reads are sampled in every run and in both files of a pair.
+	 * The hash ignores the description following the first blank and a
+	 * trailing <code>/1</code> or <code>/2</code>.
+	 *
+	 * @param fraction
+	 *            the fraction of records to sample, between 0 and 1
+	 * @return the policy
+	 */
+	public static SamplingPolicy byId(double fraction) {
+		return new ById(fraction);
+	}
+
+	/**
+	 * Samples the first <code>n</code> records
+	 *
+	 * @param n
+	 *            the number of records to sample
+	 * @return the policy
+	 */
+	public static SamplingPolicy first(long n) {
+		return new First(n);
+	}
+
+	/**
+	 * Policy sampling one record every <code>k</code>
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Every extends SamplingPolicy {
+
+		/**
+		 * Distance between two records of the sample
+		 */
+		private int k;
+
+		/**
+		 * @param k
+		 *            the distance between two records of the sample
+		 */
+		private Every(int k) {
+			if (k < 1)
+				throw new IllegalArgumentException(
+						"The sampling interval must be positive");
+			this.k = k;
+		}
+
+		@Override
+		public boolean accept(long index, byte[] id, int offset, int length) {
+			return (index % k) == 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("every %d records", k);
+		}
+	}
+
+	/**
+	 * Policy sampling the records whose id hash falls below a threshold
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class ById extends SamplingPolicy {
+
+		/**
+		 * The fraction of records sampled
+		 */
+		private double fraction;
+
+		/**
+		 * Hashes (as unsigned 53 bits values) below this value are sampled
+		 */
+		private long threshold;
+
+		/**
+		 * @param fraction
+		 *            the fraction of records to sample
+		 */
+		private ById(double fraction) {
+			if ((fraction < 0) || (fraction > 1))
+				throw new IllegalArgumentException(
+						"The sampling fraction must be between 0 and 1");
+			this.fraction = fraction;
+			this.threshold = (long) Math.ceil(fraction * (1L << 53));
+		}
+
+		@Override
+		public boolean accept(long index, byte[] id, int offset, int length) {
+			int end = offset;
+			while ((end < offset + length) && (id[end] != ' ')
+					&& (id[end] != '\t'))
+				end++;
+			if ((end - offset > 2) && (id[end - 2] == '/')
+					&& ((id[end - 1] == '1') || (id[end - 1] == '2')))
+				end -= 2;
+			// FNV-1a followed by the finalizer of MurmurHash3
+			long h = 0xcbf29ce484222325L;
+			for (int i = offset; i < end; i++) {
+				h ^= id[i] & 0xFF;
+				h *= 0x100000001b3L;
+			}
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return (h >>> 11) < threshold;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.4g%% of ids", fraction * 100);
+		}
+	}
+
+	/**
+	 * Policy sampling the first records
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class First extends SamplingPolicy {
+
+		/**
+		 * The number of records sampled
+		 */
+		private long n;
+
+		/**
+		 * @param n
+		 *            the number of records to sample
+		 */
+		private First(long n) {
+			if (n < 0)
+				throw new IllegalArgumentException(
+						"The number of records must not be negative");
+			this.n = n;
+		}
+
+		@Override
+		public boolean accept(long index, byte[] id, int offset, int length) {
+			return index < n;
+		}
+
+		@Override
+		public boolean isExhausted(long index) {
+			return index >= n;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("first %d records", n);
+		}
+	}
+
+}
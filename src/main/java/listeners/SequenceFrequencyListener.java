@@ -8,6 +8,11 @@ import stat.OrderedDistribution;
 public class SequenceFrequencyListener extends
 		CategoricalFrequencyAnalyzer<String> implements SequenceListener {
 
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
 	public SequenceFrequencyListener() {
 		super(new OrderedDistribution<Long>(), new HashMap<String, Long>());
 	}
@@ -0,0 +1,53 @@
+package listeners;
+
+import io.SequenceRecord;
+
+/**
+ * Adapter passing records to a {@link SequenceListener} as strings. Two
+ * adapters are equal if they wrap the same listener.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class SequenceListenerAdapter implements RecordListener {
+
+	/**
+	 * The adapted listener
+	 */
+	private SequenceListener listener = null;
+
+	/**
+	 * @param listener
+	 *            the listener to adapt
+	 */
+	public SequenceListenerAdapter(SequenceListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		listener.sequence(record.getIdString(), record.getSequenceString(),
+				record.getQualityString());
+	}
+
+	/**
+	 * @return the adapted listener
+	 */
+	public SequenceListener getListener() {
+		return listener;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SequenceListenerAdapter))
+			return false;
+		return listener.equals(((SequenceListenerAdapter) obj).listener);
+	}
+
+	@Override
+	public int hashCode() {
+		return listener.hashCode();
+	}
+
+}
@@ -1,7 +1,9 @@
 package listeners;
 
 import io.FileSequenceWriter;
+import io.SequenceRecord;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -13,7 +15,8 @@ import java.util.logging.Logger;
  *         Bacci</a>
  * 
  */
-public class SequenceWriter implements SequenceListener {
+public class SequenceWriter implements SequenceListener, RecordListener,
+		Flushable {
 
 	/**
 	 * The sequence writer
@@ -77,11 +80,43 @@ public class SequenceWriter implements SequenceListener {
 		try {
 			writer.writeSequence(id, sequence, quality);
 		} catch (IOException e) {
-			if (logger != null) {
-				logger.log(Level.SEVERE, e.getMessage());
-			} else {
-				System.err.println("I/O error occurs writing output file.");
-			}
+			logError(e);
+		}
+	}
+
+	@Override
+	public void record(SequenceRecord record) {
+		if ((record.getSequenceLength() == 0)
+				&& (behavior == EmptySequenceBehaviour.SKIP))
+			return;
+
+		try {
+			writer.writeRecord(record);
+		} catch (IOException e) {
+			logError(e);
+		}
+	}
+
+	/**
+	 * Flushes the file sequence writer, if it can be flushed
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (writer instanceof Flushable)
+			((Flushable) writer).flush();
+	}
+
+	/**
+	 * Reports an error occurred writing the output file
+	 * 
+	 * @param e
+	 *            the error
+	 */
+	private void logError(IOException e) {
+		if (logger != null) {
+			logger.log(Level.SEVERE, e.getMessage());
+		} else {
+			System.err.println("I/O error occurs writing output file.");
 		}
 	}
 
@@ -0,0 +1,41 @@
+package listeners;
+
+import decoder.QualityDecoder;
+
+/**
+ * Sliding window trimmer cutting the end of the sequences. The window slides
+ * from the beginning of the sequence and the sequence is cut at the first
+ * window whose average quality is lower than the cutoff, keeping the bases
+ * at the beginning of the window whose quality is not lower than the cutoff.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ */
+public class SlidingWindowTrimmingListener extends WindowTrimmingListener {
+
+	/**
+	 * Creates a trimmer with the specified window length
+	 * 
+	 * @param qdecoder
+	 *            the quality decoder
+	 * @param windowLength
+	 *            the length of the analysis window
+	 */
+	public SlidingWindowTrimmingListener(QualityDecoder qdecoder,
+			int windowLength) {
+		super(qdecoder, windowLength);
+	}
+
+	@Override
+	protected int cutIndex(int[] qual, int length) {
+		int end = findWindow(qual, length, true);
+		if (end < 0)
+			return length;
+		// A failing window holds at least a base below the cutoff
+		while (qual[end] >= cutoff)
+			end++;
+		return end;
+	}
+
+}
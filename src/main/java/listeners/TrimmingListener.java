@@ -1,22 +1,35 @@
 package listeners;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import io.FileSequenceWriter;
+import io.RecordBatch;
+import io.SequenceRecord;
+
+import java.io.Flushable;
+
+import utils.QualityKernel;
 import decoder.QualityDecoder;
 import exception.QualityFormatException;
 
 /**
  * Simple trimmer. The trimmer implements the {@link SequenceListener} interface
  * and the {@link SequenceGenerator} interface in order to be able to write out
- * and analyze trimmed sequences
+ * and analyze trimmed sequences. Records received as {@link SequenceRecord}
+ * are trimmed without copying: listeners receive a view of the same bytes.
+ * Batches are trimmed as a whole and passed on as batches; since the
+ * generator may keep records until a batch is full, the trimmer must be
+ * flushed once the input is over.
  * 
  * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
  *         Bacci</a>
  * 
  */
-public class TrimmingListener implements SequenceListener, SequenceGenerator {
+public class TrimmingListener implements SequenceListener, RecordListener,
+		BatchListener, BatchGenerator, RecordTransform, Flushable, Cloneable {
+
+	/**
+	 * The loops scanning the qualities
+	 */
+	private static final QualityKernel KERNEL = QualityKernel.getInstance();
 
 	/**
 	 * The cutoff
@@ -43,8 +56,43 @@ public class TrimmingListener implements SequenceListener, SequenceGenerator {
 	/**
 	 * List of sequence listener objects
 	 */
-	private List<SequenceListener> listeners = new ArrayList<SequenceListener>();
-	
+	private RecordListenerSupport listeners = new RecordListenerSupport();
+
+	/**
+	 * Record used for sequences notified as strings
+	 */
+	private SequenceRecord input = new SequenceRecord();
+
+	/**
+	 * The trimmed record (a view of the record received)
+	 */
+	private SequenceRecord trimmed = new SequenceRecord();
+
+	/**
+	 * Record used for reading batches
+	 */
+	private SequenceRecord view = new SequenceRecord();
+
+	/**
+	 * The trimmed batch (a view of the batch received)
+	 */
+	private RecordBatch output = null;
+
+	/**
+	 * Quality values buffer
+	 */
+	private int[] qual = new int[1024];
+
+	/**
+	 * First base kept of the last record passed to
+	 * {@link #trimmedLength(SequenceRecord)}
+	 */
+	private int trimmedStart = 0;
+
+	/**
+	 * Tag of the last record passed to {@link #trimmedLength(SequenceRecord)}
+	 */
+	private int trimmedTag = SequenceRecord.NO_TAG;
 
 	public TrimmingListener(QualityDecoder qdecoder) {
 		this.qdecoder = qdecoder;
@@ -68,41 +116,219 @@ public class TrimmingListener implements SequenceListener, SequenceGenerator {
 
 	@Override
 	public void sequence(String id, String sequence, String quality) {
-		int cutIndex = sequence.length();
-		if (qdecoder != null) {
-			int qual[] = null;
+		input.set(id, sequence, quality);
+		record(input);
+	}
 
+	@Override
+	public void record(SequenceRecord record) {
+		notifyListeners(trim(record));
+	}
+
+	@Override
+	public void batch(RecordBatch batch) {
+		if ((output == null) || (output.capacity() < batch.size()))
+			output = new RecordBatch(batch.capacity());
+		output.viewOf(batch);
+		for (int i = 0; i < batch.size(); i++) {
+			batch.view(i, view);
+			int length = trimmedLength(view);
+			output.clip(i, trimmedStart, length);
+			output.setTag(i, trimmedTag);
+		}
+		notifyListeners(output);
+		output.clear();
+	}
+
+	/**
+	 * Notifies the records kept by the listener list until a batch is full
+	 */
+	@Override
+	public void flush() {
+		listeners.flush();
+	}
+
+	/**
+	 * Trims a record without notifying it
+	 * 
+	 * @param record
+	 *            the record
+	 * @return a view of the record cut at the trimming points. The view is
+	 *         reused by the next call.
+	 */
+	public SequenceRecord trim(SequenceRecord record) {
+		int length = trimmedLength(record);
+		trimmed.set(record);
+		trimmed.clip(trimmedStart, length);
+		trimmed.setTag(trimmedTag);
+		return trimmed;
+	}
+
+	/**
+	 * Trims a record in place, as a stage of a {@link processes.StageGraph}.
+	 * Records are never discarded: records shorter than the minimum length
+	 * are cut to length 0, as they are when notified to the listeners.
+	 */
+	@Override
+	public boolean transform(SequenceRecord record) {
+		int length = trimmedLength(record);
+		record.clip(trimmedStart, length);
+		record.setTag(trimmedTag);
+		return true;
+	}
+
+	/**
+	 * Computes the length of a record after trimming, without changing it.
+	 * The first bases of the record may have to be removed as well: the first
+	 * base kept is returned by {@link #trimmedStart()}, the tag of the trimmed
+	 * record by {@link #trimmedTag()}.
+	 * 
+	 * @param record
+	 *            the record
+	 * @return the length the record has to be cut to (0 if the record has to
+	 *         be discarded)
+	 */
+	public int trimmedLength(SequenceRecord record) {
+		int sequenceStart = sequenceStartIndex(record);
+		int cutIndex = sequenceCutIndex(record);
+		int startIndex = 0;
+		if (record.hasQualityValues()) {
+			// Values already decoded by the reader
+			int[] values = record.getQualityValues();
+			cutIndex = cutIndex(values,
+					Math.min(cutIndex, record.getQualityValuesLength()));
+			startIndex = startIndex(values, cutIndex);
+		} else if (qdecoder != null) {
+			int length = record.getQualityLength();
+			if (qual.length < length)
+				qual = new int[Math.max(length, qual.length * 2)];
 			try {
-				qual = qdecoder.decodeQuality(quality);
+				int values = qdecoder.decodeQuality(record.getQuality(),
+						record.getQualityOffset(), length, qual);
+				cutIndex = cutIndex(qual, Math.min(cutIndex, values));
+				startIndex = startIndex(qual, cutIndex);
 			} catch (QualityFormatException e1) {
 				String error = String.format(
-						"Quality encoding is not correct: %s", quality);
+						"Quality encoding is not correct: %s",
+						record.getQualityString());
 				System.err.println(error);
 			}
+		}
 
-			cutIndex = qual.length;
-			int cumQuality = 0;
+		startIndex = Math.min(Math.max(startIndex, sequenceStart), cutIndex);
+		trimmedTag = tag(record);
+		trimmedStart = 0;
+		if ((minLength > -1) && (cutIndex - startIndex < minLength))
+			return 0;
+		trimmedStart = startIndex;
+		return cutIndex;
+	}
 
-			for (int i = (qual.length - 1); i >= 0; i--) {
-				int cumCutoff = cutoff * (cutIndex - i);
-				cumQuality += qual[i];
+	/**
+	 * @return the first base kept of the last record passed to
+	 *         {@link #trimmedLength(SequenceRecord)}, 0 if the record has to
+	 *         be discarded
+	 */
+	public int trimmedStart() {
+		return trimmedStart;
+	}
 
-				if ((cumQuality - cumCutoff) < 0) {
-					cutIndex = i;
-					cumQuality = 0;
-				}
-			}
+	/**
+	 * @return the tag of the last record passed to
+	 *         {@link #trimmedLength(SequenceRecord)}, to be given to the
+	 *         trimmed record
+	 */
+	public int trimmedTag() {
+		return trimmedTag;
+	}
 
+	/**
+	 * Creates a trimmer with the same settings of this trimmer (including the
+	 * settings of subclasses) but without listeners and buffers, so that the
+	 * copy can trim on a different thread
+	 * 
+	 * @return the copy
+	 */
+	public TrimmingListener copy() {
+		TrimmingListener copy;
+		try {
+			copy = (TrimmingListener) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
 		}
+		copy.listeners = new RecordListenerSupport();
+		copy.input = new SequenceRecord();
+		copy.trimmed = new SequenceRecord();
+		copy.view = new SequenceRecord();
+		copy.output = null;
+		copy.qual = new int[qual.length];
+		return copy;
+	}
 
-		if ((minLength > -1) && (cutIndex < minLength)) {
-			notifyListeners(id, "", "");
-		} else {
-			notifyListeners(id, sequence.substring(0, cutIndex),
-					quality.substring(0, cutIndex));
+	/**
+	 * Computes where a sequence has to be cut
+	 * 
+	 * @param qual
+	 *            the quality values
+	 * @param length
+	 *            number of quality values
+	 * @return the length of the trimmed sequence
+	 */
+	protected int cutIndex(int[] qual, int length) {
+		return KERNEL.cutIndex(qual, length, cutoff);
+	}
 
-		}
+	/**
+	 * Computes how many bases have to be removed from the start of a
+	 * sequence looking at its bases, before its qualities are analyzed. This
+	 * trimmer removes no base.
+	 * 
+	 * @param record
+	 *            the record
+	 * @return the first base kept
+	 */
+	protected int sequenceStartIndex(SequenceRecord record) {
+		return 0;
+	}
+
+	/**
+	 * Computes where a sequence has to be cut looking at its bases, before
+	 * its qualities are analyzed: {@link #cutIndex(int[], int)} only receives
+	 * the qualities of the bases kept. This trimmer keeps all the bases.
+	 * 
+	 * @param record
+	 *            the record
+	 * @return the number of bases kept
+	 */
+	protected int sequenceCutIndex(SequenceRecord record) {
+		return record.getSequenceLength();
+	}
+
+	/**
+	 * Computes the tag of a trimmed record, once its trimming points are
+	 * known. This trimmer keeps the tag of the record.
+	 * 
+	 * @param record
+	 *            the record
+	 * @return the tag
+	 */
+	protected int tag(SequenceRecord record) {
+		return record.getTag();
+	}
 
+	/**
+	 * Computes how many bases have to be removed from the start of a
+	 * sequence. This trimmer only cuts the end of the sequences.
+	 * 
+	 * @param qual
+	 *            the quality values
+	 * @param length
+	 *            number of quality values kept by
+	 *            {@link #cutIndex(int[], int)}
+	 * @return the first base kept, <code>length</code> if no base is kept
+	 */
+	protected int startIndex(int[] qual, int length) {
+		return 0;
 	}
 
 	/**
@@ -130,28 +356,47 @@ public class TrimmingListener implements SequenceListener, SequenceGenerator {
 
 	@Override
 	public void addListener(SequenceListener listener) {
-		int index = listeners.indexOf(listener);
-		if (index < 0) {
-			listeners.add(listener);
-		}
-
+		listeners.addListener(listener);
 	}
 
 	@Override
 	public void removeListener(SequenceListener listener) {
-		int index = listeners.indexOf(listener);
-		if (index >= 0) {
-			listeners.remove(listener);
-		}
+		listeners.removeListener(listener);
+	}
+
+	@Override
+	public void addRecordListener(RecordListener listener) {
+		listeners.addRecordListener(listener);
+	}
 
+	@Override
+	public void removeRecordListener(RecordListener listener) {
+		listeners.removeRecordListener(listener);
+	}
+
+	@Override
+	public void addBatchListener(BatchListener listener) {
+		listeners.addBatchListener(listener);
+	}
+
+	@Override
+	public void removeBatchListener(BatchListener listener) {
+		listeners.removeBatchListener(listener);
 	}
 
 	@Override
 	public void notifyListeners(String id, String sequence, String quality) {
-		for (int i = 0; i < listeners.size(); i++) {
-			listeners.get(i).sequence(id, sequence, quality);
-		}
+		listeners.notifyListeners(id, sequence, quality);
+	}
+
+	@Override
+	public void notifyListeners(SequenceRecord record) {
+		listeners.notifyListeners(record);
+	}
 
+	@Override
+	public void notifyListeners(RecordBatch batch) {
+		listeners.notifyListeners(batch);
 	}
 
 }
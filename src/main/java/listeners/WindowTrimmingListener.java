@@ -0,0 +1,92 @@
+package listeners;
+
+import decoder.QualityDecoder;
+
+/**
+ * Base class of the trimmers testing the average quality of an analysis
+ * window sliding along the sequence. The sum of the window is updated as the
+ * window moves by one base, adding the base entering the window and
+ * subtracting the one leaving it, so that a sequence is analyzed in time
+ * linear in its length whatever the length of the window. A window fails when
+ * its average quality is lower than the cutoff; sequences shorter than the
+ * window are analyzed as a single window.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ * 
+ * @see SlidingWindowTrimmingListener
+ * @see LeadingWindowTrimmingListener
+ * @see GlobalTrimmingListener
+ */
+public abstract class WindowTrimmingListener extends TrimmingListener {
+
+	/**
+	 * The length of the analysis window
+	 */
+	private int windowLength;
+
+	/**
+	 * Creates a trimmer with the specified window length
+	 * 
+	 * @param qdecoder
+	 *            the quality decoder
+	 * @param windowLength
+	 *            the length of the analysis window
+	 * @throws IllegalArgumentException
+	 *             if the window length is not positive
+	 */
+	public WindowTrimmingListener(QualityDecoder qdecoder, int windowLength) {
+		super(qdecoder);
+		if (windowLength < 1)
+			throw new IllegalArgumentException(
+					"The window length must be positive");
+		this.windowLength = windowLength;
+	}
+
+	/**
+	 * @return the length of the analysis window
+	 */
+	public int getWindowLength() {
+		return windowLength;
+	}
+
+	/**
+	 * @param length
+	 *            the length of a sequence
+	 * @return the length of the window used for the sequence
+	 */
+	protected int window(int length) {
+		return Math.min(windowLength, length);
+	}
+
+	/**
+	 * Finds the first window, starting from the beginning of a sequence,
+	 * which fails or passes the cutoff
+	 * 
+	 * @param qual
+	 *            the quality values
+	 * @param length
+	 *            the number of quality values
+	 * @param failing
+	 *            <code>true</code> to find a failing window,
+	 *            <code>false</code> to find a passing one
+	 * @return the start of the window or -1 if no window has been found
+	 */
+	protected int findWindow(int[] qual, int length, boolean failing) {
+		int w = window(length);
+		if (w == 0)
+			return -1;
+		int threshold = cutoff * w;
+		int sum = 0;
+		for (int i = 0; i < w; i++)
+			sum += qual[i];
+		for (int start = 0;; start++) {
+			if ((sum < threshold) == failing)
+				return start;
+			if (start + w >= length)
+				return -1;
+			sum += qual[start + w] - qual[start];
+		}
+	}
+
+}
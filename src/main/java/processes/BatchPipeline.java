@@ -0,0 +1,55 @@
+package processes;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Factory of the pipelines run by a {@link BatchProcess}. A pipeline is a
+ * {@link SequenceProcess} reading one input file and writing its own output
+ * files. Pipelines are created and finished on the worker threads of the
+ * batch, so implementations must not share listeners or writers among
+ * different files.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface BatchPipeline {
+
+	/**
+	 * Creates the process for an input file, with its readers, listeners and
+	 * writers
+	 * 
+	 * @param input
+	 *            the input file
+	 * @return the process
+	 * @throws IOException
+	 *             if the input or the output files cannot be opened
+	 */
+	public SequenceProcess createProcess(File input) throws IOException;
+
+	/**
+	 * Estimates the memory needed to process an input file, used to limit the
+	 * number of files processed at the same time
+	 * 
+	 * @param input
+	 *            the input file
+	 * @return the estimated memory in bytes
+	 */
+	public long estimateMemory(File input);
+
+	/**
+	 * Called once the process of an input file is over, even if it failed.
+	 * Readers and writers opened by {@link #createProcess(File)} should be
+	 * closed here.
+	 * 
+	 * @param input
+	 *            the input file
+	 * @param process
+	 *            the process
+	 * @throws IOException
+	 *             if an I/O error occurs closing the files
+	 */
+	public void finish(File input, SequenceProcess process) throws IOException;
+
+}
@@ -0,0 +1,304 @@
+package processes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import exception.FileFormatException;
+import utils.VirtualThreads;
+
+/**
+ * Batch of input files processed on a pool of worker threads. Each file gets
+ * its own {@link SequenceProcess} created by a {@link BatchPipeline}, so each
+ * file has its own outputs, while the statistics of all files are merged in a
+ * {@link BatchResult}.
+ * <p>
+ * The number of files processed at the same time is limited by three budgets:
+ * the number of worker threads, the number of files read at the same time (to
+ * avoid seeking back and forth on slow disks) and the memory, estimated by the
+ * pipeline for each file. Larger files are started first, so that a large file
+ * is not left alone at the end of the batch.
+ * <p>
+ * Batches of thousands of small files can run each file on its own virtual
+ * thread (see {@link #setVirtualThreads(boolean)}): the number of worker
+ * threads no longer matters and files are limited only by the I/O slots and
+ * the memory. Decoders and sample buffers are shared by all the files; the
+ * deflaters of gzipped outputs can be shared and limited with
+ * {@link utils.StreamBuilder#setCompressors(int)}.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class BatchProcess {
+
+	/**
+	 * Memory is accounted in blocks of this size
+	 */
+	private static final long MEMORY_UNIT = 1024 * 1024;
+
+	/**
+	 * The pipeline factory
+	 */
+	private BatchPipeline pipeline = null;
+
+	/**
+	 * The input files
+	 */
+	private List<File> inputs = new ArrayList<File>();
+
+	/**
+	 * Number of worker threads
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Number of files read at the same time
+	 */
+	private int ioSlots = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * <code>true</code> if each file runs on its own virtual thread
+	 */
+	private boolean virtualThreads = false;
+
+	/**
+	 * Memory available for the pipelines in bytes
+	 */
+	private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+
+	/**
+	 * Creates a batch
+	 * 
+	 * @param pipeline
+	 *            the factory of the pipelines
+	 */
+	public BatchProcess(BatchPipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * Adds an input file. If the file is a directory all the regular files in
+	 * it (not hidden) are added.
+	 * 
+	 * @param input
+	 *            the file or the directory
+	 * @throws IOException
+	 *             if the directory cannot be listed
+	 */
+	public void addInput(File input) throws IOException {
+		if (!input.isDirectory()) {
+			inputs.add(input);
+			return;
+		}
+		File[] files = input.listFiles();
+		if (files == null)
+			throw new IOException(String.format("Cannot list directory %s",
+					input));
+		Arrays.sort(files);
+		for (File f : files)
+			if (f.isFile() && !f.isHidden())
+				inputs.add(f);
+	}
+
+	/**
+	 * Adds a list of input files or directories
+	 * 
+	 * @param inputs
+	 *            the files
+	 * @throws IOException
+	 *             if a directory cannot be listed
+	 * @see #addInput(File)
+	 */
+	public void addInputs(List<File> inputs) throws IOException {
+		for (File f : inputs)
+			addInput(f);
+	}
+
+	/**
+	 * @param threads
+	 *            the number of worker threads
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+					"The number of threads must be positive");
+		this.threads = threads;
+	}
+
+	/**
+	 * @param ioSlots
+	 *            the number of files read at the same time
+	 */
+	public void setIoSlots(int ioSlots) {
+		if (ioSlots < 1)
+			throw new IllegalArgumentException(
+					"The number of I/O slots must be positive");
+		this.ioSlots = ioSlots;
+	}
+
+	/**
+	 * Runs each file on its own virtual thread instead of a pool of worker
+	 * threads, so that the files waiting for the disk do not hold operating
+	 * system threads. The number of files processed at the same time is then
+	 * limited only by the I/O slots and the memory budget. On virtual
+	 * machines without virtual threads (before Java 21) the batch falls back
+	 * to the pool of worker threads.
+	 * 
+	 * @param virtualThreads
+	 *            <code>true</code> to run each file on a virtual thread
+	 * @see VirtualThreads#isAvailable()
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * @param memoryBudget
+	 *            the memory available for the pipelines in bytes
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		if (memoryBudget < MEMORY_UNIT)
+			throw new IllegalArgumentException(
+					"The memory budget must be at least 1MB");
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Processes all the input files. Errors on a file do not stop the batch:
+	 * they are reported in the result.
+	 * 
+	 * @return the result of the batch
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the files
+	 */
+	public BatchResult run() throws InterruptedException {
+		final BatchResult result = new BatchResult();
+		List<File> files = new ArrayList<File>(inputs);
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long l1 = f1.length();
+				long l2 = f2.length();
+				return (l1 > l2) ? -1 : ((l1 < l2) ? 1 : 0);
+			}
+		});
+
+		final int memoryPermits = (int) Math.min(Integer.MAX_VALUE,
+				memoryBudget / MEMORY_UNIT);
+		final Semaphore memory = new Semaphore(memoryPermits);
+		ThreadFactory virtual = virtualThreads ? VirtualThreads
+				.newFactory("batch-") : null;
+		final Semaphore slots;
+		ExecutorService pool;
+		if (virtual != null) {
+			// A virtual thread for each file running
+			slots = new Semaphore(ioSlots);
+			pool = Executors.newCachedThreadPool(virtual);
+		} else {
+			// Workers are never more than the files read at the same time
+			slots = new Semaphore(Math.min(threads, ioSlots));
+			pool = Executors.newFixedThreadPool(threads, new WorkerFactory());
+		}
+		try {
+			for (final File input : files) {
+				// A file larger than the whole budget runs alone
+				final int needed = (int) Math.max(1, Math.min(memoryPermits,
+						(pipeline.estimateMemory(input) + MEMORY_UNIT - 1)
+								/ MEMORY_UNIT));
+				memory.acquire(needed);
+				try {
+					slots.acquire();
+				} catch (InterruptedException e) {
+					memory.release(needed);
+					throw e;
+				}
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							process(input, result);
+						} finally {
+							slots.release();
+							memory.release(needed);
+						}
+					}
+				});
+			}
+			pool.shutdown();
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+				;
+		} finally {
+			pool.shutdownNow();
+		}
+		return result;
+	}
+
+	/**
+	 * Processes a single file
+	 * 
+	 * @param input
+	 *            the file
+	 * @param result
+	 *            the result receiving the outcome of the file
+	 */
+	private void process(File input, BatchResult result) {
+		long start = System.currentTimeMillis();
+		SequenceProcess process = null;
+		Exception error = null;
+		try {
+			process = pipeline.createProcess(input);
+			process.startProcess();
+		} catch (IOException e) {
+			error = e;
+		} catch (FileFormatException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = e;
+		} finally {
+			if (process != null) {
+				try {
+					pipeline.finish(input, process);
+				} catch (IOException e) {
+					if (error == null)
+						error = e;
+				}
+			}
+		}
+		result.add(new BatchResult.FileResult(input,
+				System.currentTimeMillis() - start, error), process);
+	}
+
+	/**
+	 * Creates named daemon worker threads
+	 * 
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+
+		/**
+		 * Number of threads created
+		 */
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "batch-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package processes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import listeners.SequenceListener;
+import stat.Mergeable;
+
+/**
+ * Result of a {@link BatchProcess}: the outcome of each input file and the
+ * statistics of all files merged together. Listeners of the processes
+ * implementing {@link Mergeable} are merged by class and by position (before
+ * or after trimming): the merged listener of a class is the listener of the
+ * first file completed, with the values of the other files added.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class BatchResult {
+
+	/**
+	 * Outcome of each file, in order of completion
+	 */
+	private List<FileResult> files = new ArrayList<FileResult>();
+
+	/**
+	 * Merged listeners before trimming
+	 */
+	private Map<Class<? extends SequenceListener>, SequenceListener> pre = new HashMap<Class<? extends SequenceListener>, SequenceListener>();
+
+	/**
+	 * Merged listeners after trimming
+	 */
+	private Map<Class<? extends SequenceListener>, SequenceListener> post = new HashMap<Class<? extends SequenceListener>, SequenceListener>();
+
+	/**
+	 * Adds the outcome of a file and merges the statistics of its process
+	 * 
+	 * @param result
+	 *            the outcome of the file
+	 * @param process
+	 *            the process or <code>null</code> if the process could not be
+	 *            created
+	 */
+	synchronized void add(FileResult result, SequenceProcess process) {
+		files.add(result);
+		if ((process == null) || (result.getError() != null))
+			return;
+		merge(process, SequenceProcess.PRE, pre);
+		merge(process, SequenceProcess.POST, post);
+	}
+
+	/**
+	 * Merges the listeners of a process
+	 * 
+	 * @param process
+	 *            the process
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @param merged
+	 *            the merged listeners
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void merge(SequenceProcess process, int preOrPost,
+			Map<Class<? extends SequenceListener>, SequenceListener> merged) {
+		for (Class<? extends SequenceListener> c : process
+				.getListeners(preOrPost)) {
+			SequenceListener listener = process.getListener(c, preOrPost);
+			if (!(listener instanceof Mergeable))
+				continue;
+			SequenceListener sum = merged.get(c);
+			if (sum == null) {
+				merged.put(c, listener);
+			} else {
+				// Same class, so the cast is safe
+				((Mergeable) sum).merge(listener);
+			}
+		}
+	}
+
+	/**
+	 * @return the outcome of each file in order of completion
+	 */
+	public synchronized List<FileResult> getFiles() {
+		return Collections.unmodifiableList(new ArrayList<FileResult>(files));
+	}
+
+	/**
+	 * @return the number of files failed
+	 */
+	public synchronized int getErrors() {
+		int errors = 0;
+		for (FileResult f : files)
+			if (f.getError() != null)
+				errors++;
+		return errors;
+	}
+
+	/**
+	 * Returns the listener of the specified class with the statistics of all
+	 * files merged
+	 * 
+	 * @param listenerClass
+	 *            the class of the listener
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @return the merged listener or <code>null</code> if no file had a
+	 *         mergeable listener of the specified class
+	 */
+	public synchronized SequenceListener getMergedListener(
+			Class<? extends SequenceListener> listenerClass, int preOrPost) {
+		if (preOrPost == SequenceProcess.PRE)
+			return pre.get(listenerClass);
+		if (preOrPost == SequenceProcess.POST)
+			return post.get(listenerClass);
+		return null;
+	}
+
+	/**
+	 * Outcome of a single file
+	 * 
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public static class FileResult {
+
+		/**
+		 * The input file
+		 */
+		private File input;
+
+		/**
+		 * Processing time in milliseconds
+		 */
+		private long time;
+
+		/**
+		 * The error occurred or <code>null</code>
+		 */
+		private Exception error;
+
+		/**
+		 * @param input
+		 *            the input file
+		 * @param time
+		 *            processing time in milliseconds
+		 * @param error
+		 *            the error occurred or <code>null</code>
+		 */
+		FileResult(File input, long time, Exception error) {
+			this.input = input;
+			this.time = time;
+			this.error = error;
+		}
+
+		/**
+		 * @return the input file
+		 */
+		public File getInput() {
+			return input;
+		}
+
+		/**
+		 * @return the processing time in milliseconds
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the error occurred or <code>null</code> if the file has been
+		 *         processed successfully
+		 */
+		public Exception getError() {
+			return error;
+		}
+	}
+
+}
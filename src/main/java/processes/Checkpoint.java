@@ -0,0 +1,149 @@
+package processes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State of a process after a number of records: the position reached in the
+ * input, the length of the outputs and the state of the listeners collecting
+ * statistics.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ * @see Checkpointer
+ */
+public class Checkpoint implements Serializable {
+
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Records read
+	 */
+	long records;
+
+	/**
+	 * Lines read
+	 */
+	long lines;
+
+	/**
+	 * Bytes of uncompressed input read
+	 */
+	long position;
+
+	/**
+	 * Offset in the input file of the access point before the position
+	 */
+	long accessOffset;
+
+	/**
+	 * Offset in the uncompressed input of the access point
+	 */
+	long accessPosition;
+
+	/**
+	 * Lengths of the output files, in the order they have been opened
+	 */
+	long[] outputs = new long[0];
+
+	/**
+	 * State of the listeners, by stage and class name
+	 */
+	HashMap<String, Serializable> states = new HashMap<String, Serializable>();
+
+	/**
+	 * @return the number of records read
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return the number of lines read
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	/**
+	 * @return the number of bytes of uncompressed input read
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the state of the listeners, by stage and class name
+	 */
+	public Map<String, Serializable> getStates() {
+		return states;
+	}
+
+	/**
+	 * Writes this checkpoint to a file. The checkpoint is written to a
+	 * temporary file moved over the file once it is on the disk, so that the
+	 * file holds either the previous checkpoint or this one whenever the
+	 * process is killed.
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(fos);
+			oos.writeObject(this);
+			oos.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a checkpoint from a file
+	 *
+	 * @param file
+	 *            the file
+	 * @return the checkpoint or <code>null</code> if the file does not exist
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a
+	 *             checkpoint
+	 */
+	static Checkpoint load(File file) throws IOException {
+		if (!file.exists())
+			return null;
+		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(
+				file));
+		try {
+			return (Checkpoint) ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new InvalidObjectException(e.getMessage());
+		} catch (ClassCastException e) {
+			throw new InvalidObjectException(file + " is not a checkpoint");
+		} finally {
+			ois.close();
+		}
+	}
+
+}
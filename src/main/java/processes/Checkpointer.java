@@ -0,0 +1,205 @@
+package processes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import utils.ResumableInputStream;
+import utils.ResumableOutputStream;
+
+/**
+ * Takes the checkpoints of a {@link SequenceProcess} and resumes the process
+ * from the last one. The input and the outputs of the process must be opened
+ * through the checkpointer, which positions them at the last checkpoint found
+ * in its file: the input is reopened after the last record processed and the
+ * outputs are truncated to their length at the checkpoint. Outputs must be
+ * opened in the same order in every run.
+ * <p>
+ * Gzipped inputs are resumed from the start of the gzip member holding the
+ * checkpoint, as recorded by {@link ResumableInputStream}: files made of many
+ * members (BGZF files or files written by {@link ResumableOutputStream}) are
+ * resumed by inflating a single member, while the whole file before the
+ * checkpoint is inflated again, but not parsed, for files made of a single
+ * member.
+ * <p>
+ * Typical use:
+ *
+ * <pre>
+ * Checkpointer checkpointer = new Checkpointer(new File(&quot;run.ckp&quot;), 10000000);
+ * FileSequenceReader reader = new FastqByteSequenceReader(
+ * 		checkpointer.openInput(input));
+ * OutputStream out = checkpointer.openOutput(output, true);
+ * SequenceProcess process = new SequenceProcess(reader);
+ * process.setCheckpointer(checkpointer);
+ * // add the listeners, the writer on out
+ * process.startProcess();
+ * out.close();
+ * </pre>
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ * @see SequenceProcess#setCheckpointer(Checkpointer)
+ */
+public class Checkpointer {
+
+	/**
+	 * The checkpoint file
+	 */
+	private File file;
+
+	/**
+	 * Records between two checkpoints
+	 */
+	private long interval;
+
+	/**
+	 * The checkpoint resumed or <code>null</code>
+	 */
+	private Checkpoint resumed;
+
+	/**
+	 * The input or <code>null</code> if it has not been opened yet
+	 */
+	private ResumableInputStream input = null;
+
+	/**
+	 * The outputs, in the order they have been opened
+	 */
+	private List<ResumableOutputStream> outputs = new ArrayList<ResumableOutputStream>();
+
+	/**
+	 * Creates a checkpointer, reading the last checkpoint from its file if the
+	 * file exists
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @param interval
+	 *            the number of records between two checkpoints. Checkpoints
+	 *            are taken between two batches of records, so the actual
+	 *            distance may be slightly longer.
+	 * @throws IOException
+	 *             if the file exists but can not be read
+	 */
+	public Checkpointer(File file, long interval) throws IOException {
+		if (interval < 1)
+			throw new IllegalArgumentException(
+					"The checkpoint interval must be positive");
+		this.file = file;
+		this.interval = interval;
+		this.resumed = Checkpoint.load(file);
+	}
+
+	/**
+	 * Opens the input, positioned after the last record of the checkpoint
+	 *
+	 * @param in
+	 *            the input file, plain or gzipped
+	 * @return the input stream
+	 * @throws IOException
+	 *             if the file can not be opened or is shorter than at the
+	 *             checkpoint
+	 */
+	public InputStream openInput(File in) throws IOException {
+		if (input != null)
+			throw new IllegalStateException("The input has already been opened");
+		if (resumed == null)
+			input = new ResumableInputStream(in);
+		else
+			input = new ResumableInputStream(in, resumed.accessOffset,
+					resumed.accessPosition, resumed.position);
+		return input;
+	}
+
+	/**
+	 * Opens an output, truncated to its length at the checkpoint
+	 *
+	 * @param out
+	 *            the output file
+	 * @param gzip
+	 *            <code>true</code> to gzip the output
+	 * @return the output stream
+	 * @throws IOException
+	 *             if the file can not be opened or is shorter than at the
+	 *             checkpoint
+	 */
+	public OutputStream openOutput(File out, boolean gzip) throws IOException {
+		long resumeAt = 0;
+		if (resumed != null) {
+			if (outputs.size() >= resumed.outputs.length)
+				throw new IllegalStateException(
+						"The checkpoint has fewer outputs");
+			resumeAt = resumed.outputs[outputs.size()];
+		}
+		ResumableOutputStream stream = new ResumableOutputStream(out, gzip,
+				resumeAt);
+		outputs.add(stream);
+		return stream;
+	}
+
+	/**
+	 * @return the checkpoint resumed or <code>null</code> if the process
+	 *         starts from the beginning
+	 */
+	public Checkpoint getResumed() {
+		return resumed;
+	}
+
+	/**
+	 * @return the number of records between two checkpoints
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Takes a checkpoint. The listeners must have processed all the records
+	 * read so far.
+	 *
+	 * @param records
+	 *            the records read
+	 * @param lines
+	 *            the lines read
+	 * @param position
+	 *            the bytes of uncompressed input read
+	 * @param states
+	 *            the state of the listeners
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void checkpoint(long records, long lines, long position,
+			HashMap<String, Serializable> states) throws IOException {
+		if (input == null)
+			throw new IllegalStateException(
+					"The input must be opened through the checkpointer");
+		Checkpoint c = new Checkpoint();
+		c.records = records;
+		c.lines = lines;
+		c.position = position;
+		long[] point = input.getAccessPoint(position);
+		c.accessOffset = point[0];
+		c.accessPosition = point[1];
+		c.outputs = new long[outputs.size()];
+		for (int i = 0; i < c.outputs.length; i++)
+			c.outputs[i] = outputs.get(i).checkpoint();
+		c.states = states;
+		c.save(file);
+	}
+
+	/**
+	 * Deletes the checkpoint file once the process is over
+	 *
+	 * @throws IOException
+	 *             if the file can not be deleted
+	 */
+	void complete() throws IOException {
+		if (file.exists() && !file.delete())
+			throw new IOException("Cannot delete " + file);
+	}
+
+}
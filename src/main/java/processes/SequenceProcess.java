@@ -1,17 +1,43 @@
 package processes;
 
 import io.FileSequenceReader;
+import io.RecordBatch;
+import io.ResumableReader;
 
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.PrintStream;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import exception.FileFormatException;
+import exception.MemoryBudgetException;
+import listeners.BatchGenerator;
+import listeners.BatchListener;
+import listeners.ConcurrentListenerGroup;
+import listeners.InstrumentedListener;
+import listeners.ParallelTrimmingListener;
+import listeners.RecordGenerator;
+import listeners.RecordListener;
+import listeners.SampledBatchListener;
+import listeners.SampledListener;
+import listeners.SamplingPolicy;
 import listeners.SequenceGenerator;
 import listeners.SequenceListener;
 import listeners.TrimmingListener;
+import stat.Mergeable;
+import utils.Blocking;
+import utils.MemoryBudget;
+import utils.MemoryConsumer;
+import utils.PipelineMetrics;
+import utils.StageMetrics;
 
 /**
  * Trimmer class this class is the main class of the application
@@ -52,6 +78,60 @@ public class SequenceProcess implements Model {
 	 */
 	private FileSequenceReader mainReader;
 
+	/**
+	 * <code>true</code> if listeners run on their own threads
+	 */
+	private boolean concurrent = false;
+
+	/**
+	 * Groups of the listeners running on their own threads, before and after
+	 * trimming
+	 */
+	private ConcurrentListenerGroup[] groups = new ConcurrentListenerGroup[2];
+
+	/**
+	 * Memory available for the buffers and the tables of this process in
+	 * bytes or -1 if the memory is not bounded
+	 */
+	private long memoryBudget = -1;
+
+	/**
+	 * Number of processes instrumented so far, used for naming their metrics
+	 */
+	private static final AtomicInteger INSTRUMENTED = new AtomicInteger();
+
+	/**
+	 * Metrics of the stages or <code>null</code> if the process is not
+	 * instrumented
+	 */
+	private PipelineMetrics metrics = null;
+
+	/**
+	 * Metrics of the reader
+	 */
+	private StageMetrics readerStage = null;
+
+	/**
+	 * Stream receiving the summary of the metrics or <code>null</code>
+	 */
+	private PrintStream report = null;
+
+	/**
+	 * Listeners wrapped for collecting their metrics
+	 */
+	private Map<SequenceListener, InstrumentedListener> instruments = new HashMap<SequenceListener, InstrumentedListener>();
+
+	/**
+	 * Objects added to the generators in place of the listeners wrapped for
+	 * collecting metrics or for sampling
+	 */
+	private Map<SequenceListener, SequenceListener> targets = new HashMap<SequenceListener, SequenceListener>();
+
+	/**
+	 * The checkpointer or <code>null</code> if the process takes no checkpoint
+	 */
+	private Checkpointer checkpointer = null;
+
 	/**
 	 * Creates a new Trimmer
 	 * 
@@ -72,11 +152,36 @@ public class SequenceProcess implements Model {
 	 *            the listener
 	 */
 	public void addListener(SequenceListener listener, int preOrPost) {
+		addListener(listener, preOrPost, null);
+	}
+
+	/**
+	 * Adds a sequence listener receiving only a sample of the sequences.
+	 * Trimmers and the listeners added without a policy still receive all the
+	 * sequences. The counts of a sampled listener can be scaled to the whole
+	 * file through {@link #getSampling(Class, int)}.
+	 * 
+	 * @param listener
+	 *            the listener
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @param sampling
+	 *            the sampling policy or <code>null</code> for all the
+	 *            sequences
+	 * @throws IllegalArgumentException
+	 *             if a sampling policy is given for a trimmer
+	 */
+	public void addListener(SequenceListener listener, int preOrPost,
+			SamplingPolicy sampling) {
+		if ((sampling != null) && (listener instanceof SequenceGenerator))
+			throw new IllegalArgumentException(
+					"Trimmers must receive all the sequences");
 		List<SequenceListener> toAdd = null;
 		SequenceGenerator gen = null;
 		if (preOrPost == POST) {
 			toAdd = postTrimListeners;
-			gen = (TrimmingListener) getListener(TrimmingListener.class, PRE);
+			gen = getTrimmer();
 		}
 		if (preOrPost == PRE) {
 			toAdd = preTrimListeners;
@@ -85,11 +190,415 @@ public class SequenceProcess implements Model {
 		if ((toAdd == null) || (gen == null))
 			return;
 		if (!hasListener(listener.getClass(), preOrPost)) {
-			gen.addListener(listener);
+			if (isGrouped(listener)) {
+				ConcurrentListenerGroup group = getGroup(gen, preOrPost);
+				group.addListener(wrap(listener, stageOf(group), true,
+						preOrPost, sampling));
+			} else {
+				SequenceListener target = wrap(listener,
+						parentStage(preOrPost), false, preOrPost, sampling);
+				attach(gen, attachedAs(listener), target);
+			}
 			toAdd.add(listener);
 		}
 	}
 
+	/**
+	 * Wraps a listener for collecting its metrics, if the process is
+	 * instrumented, and for sampling the sequences it receives
+	 * 
+	 * @param listener
+	 *            the listener
+	 * @param parent
+	 *            the metrics of the stage notifying the listener
+	 * @param ownThread
+	 *            <code>true</code> if the listener runs on a thread of its own
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @param sampling
+	 *            the sampling policy or <code>null</code>
+	 * @return the object to add in place of the listener
+	 */
+	private SequenceListener wrap(SequenceListener listener,
+			StageMetrics parent, boolean ownThread, int preOrPost,
+			SamplingPolicy sampling) {
+		String stage = (preOrPost == PRE) ? "pre" : "post";
+		if (sampling != null)
+			stage += ", sampled " + sampling;
+		SequenceListener target = instrument(listener, parent, ownThread,
+				stage);
+		if (sampling != null) {
+			// The sample keeps the interfaces of the listener
+			if (listener instanceof BatchListener)
+				target = new SampledBatchListener(target, sampling);
+			else
+				target = new SampledListener(target, sampling);
+		}
+		if (target != listener)
+			targets.put(listener, target);
+		return target;
+	}
+
+	/**
+	 * Wraps a listener in an {@link InstrumentedListener} if the process is
+	 * instrumented
+	 * 
+	 * @param listener
+	 *            the listener
+	 * @param parent
+	 *            the wrapper of the stage notifying the listener
+	 * @param ownThread
+	 *            <code>true</code> if the listener runs on a thread of its own
+	 * @param stageName
+	 *            the stage of the listener, used in the name of its metrics
+	 * @return the wrapper or the listener itself if the process is not
+	 *         instrumented
+	 */
+	private SequenceListener instrument(SequenceListener listener,
+			StageMetrics parent, boolean ownThread, String stageName) {
+		if (metrics == null)
+			return listener;
+		StageMetrics stage = metrics.addStage(String.format("%s (%s)",
+				listener.getClass().getSimpleName(), stageName), parent,
+				ownThread);
+		if (listener instanceof Blocking)
+			stage.setBlocking((Blocking) listener);
+		InstrumentedListener wrapper = new InstrumentedListener(listener, stage);
+		instruments.put(listener, wrapper);
+		return wrapper;
+	}
+
+	/**
+	 * @param listener
+	 *            a listener or a group of concurrent listeners
+	 * @return the metrics of the listener or <code>null</code> if the process
+	 *         is not instrumented
+	 */
+	private StageMetrics stageOf(SequenceListener listener) {
+		InstrumentedListener wrapper = instruments.get(listener);
+		return (wrapper == null) ? null : wrapper.getMetrics();
+	}
+
+	/**
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @return the metrics of the stage notifying the listeners before or
+	 *         after trimming, <code>null</code> if the process is not
+	 *         instrumented
+	 */
+	private StageMetrics parentStage(int preOrPost) {
+		return (preOrPost == PRE) ? readerStage : stageOf((SequenceListener) getTrimmer());
+	}
+
+	/**
+	 * @param listener
+	 *            a listener
+	 * @return the object added in place of the listener, the listener itself
+	 *         if it has not been wrapped
+	 */
+	private SequenceListener target(SequenceListener listener) {
+		SequenceListener target = targets.get(listener);
+		return (target == null) ? listener : target;
+	}
+
+	/**
+	 * @param listener
+	 *            a listener
+	 * @return the object whose interfaces decide how the listener is added to
+	 *         its generator: sampled listeners not able to receive records are
+	 *         added as record listeners, so that strings are created for the
+	 *         sequences sampled only
+	 */
+	private SequenceListener attachedAs(SequenceListener listener) {
+		SequenceListener target = target(listener);
+		return (target instanceof SampledListener) ? target : listener;
+	}
+
+	/**
+	 * Returns the sampling of a listener, which tells the fraction of
+	 * sequences it has received and scales its counts to the whole file
+	 * 
+	 * @param listenerClass
+	 *            the class of the listener
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @return the sampling or <code>null</code> if the listener receives all
+	 *         the sequences
+	 */
+	public SampledListener getSampling(
+			Class<? extends SequenceListener> listenerClass, int preOrPost) {
+		SequenceListener target = targets.get(getListener(listenerClass,
+				preOrPost));
+		return (target instanceof SampledListener) ? (SampledListener) target
+				: null;
+	}
+
+	/**
+	 * Sets the execution mode of the listeners. In concurrent mode each
+	 * listener which is not a generator (analyzers and writers) runs on its own
+	 * thread reading batches of sequences shared with the other listeners, so
+	 * that the cost of the listeners overlaps instead of adding up. Trimmers
+	 * always run on the thread of the reader. This method must be called
+	 * before adding listeners.
+	 * 
+	 * @param concurrent
+	 *            <code>true</code> to run listeners on their own threads
+	 * @throws IllegalStateException
+	 *             if listeners have already been added
+	 * @see ConcurrentListenerGroup
+	 */
+	public void setConcurrentListeners(boolean concurrent) {
+		if (!preTrimListeners.isEmpty() || !postTrimListeners.isEmpty())
+			throw new IllegalStateException(
+					"The execution mode must be set before adding listeners");
+		this.concurrent = concurrent;
+	}
+
+	/**
+	 * Bounds the memory of this process. When the process starts, the budget
+	 * is split across the reader, the listeners and the groups of concurrent
+	 * listeners implementing {@link MemoryConsumer}: buffers between stages
+	 * make the stage filling them wait when they are full, so that a slow
+	 * writer or analyzer slows the reader down instead of filling the heap,
+	 * while analyzer tables fail with a {@link MemoryBudgetException} when
+	 * they outgrow their share.
+	 * 
+	 * @param memoryBudget
+	 *            the budget in bytes or -1 for no limit
+	 * @see MemoryBudget
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Collects the metrics of each stage of this process: records, bases and
+	 * time spent by the reader and by each listener, time spent flushing and
+	 * time spent waiting for other threads. While the process runs the stages
+	 * are published as MBeans (see {@link PipelineMetrics}); once it is over a
+	 * summary table is printed on {@link System#err}. This method must be
+	 * called before adding listeners.
+	 * 
+	 * @param instrumented
+	 *            <code>true</code> to collect metrics
+	 * @throws IllegalStateException
+	 *             if listeners have already been added
+	 * @see InstrumentedListener
+	 */
+	public void setInstrumented(boolean instrumented) {
+		setInstrumented(instrumented, System.err);
+	}
+
+	/**
+	 * Collects the metrics of each stage of this process, as
+	 * {@link #setInstrumented(boolean)} does, printing the summary on the
+	 * specified stream
+	 * 
+	 * @param instrumented
+	 *            <code>true</code> to collect metrics
+	 * @param report
+	 *            the stream receiving the summary or <code>null</code> for no
+	 *            summary
+	 * @throws IllegalStateException
+	 *             if listeners have already been added
+	 */
+	public void setInstrumented(boolean instrumented, PrintStream report) {
+		if (!preTrimListeners.isEmpty() || !postTrimListeners.isEmpty())
+			throw new IllegalStateException(
+					"Instrumentation must be set before adding listeners");
+		this.report = report;
+		if (!instrumented) {
+			metrics = null;
+			readerStage = null;
+			return;
+		}
+		metrics = new PipelineMetrics("process-"
+				+ INSTRUMENTED.incrementAndGet());
+		readerStage = metrics.addStage(mainReader.getClass().getSimpleName(),
+				null, false);
+		if (mainReader instanceof Blocking)
+			readerStage.setBlocking((Blocking) mainReader);
+	}
+
+	/**
+	 * @return the metrics of this process or <code>null</code> if the process
+	 *         is not instrumented
+	 */
+	public PipelineMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Takes a checkpoint every given number of records, so that the process
+	 * can be resumed after the last one if it is killed. A checkpoint holds
+	 * the position reached in the input, the length of the outputs and the
+	 * state of the listeners collecting statistics (the listeners both
+	 * {@link Mergeable} and {@link Serializable}); when the process starts
+	 * from a checkpoint, the state of each of these listeners is merged into
+	 * the listener at the same position, which must be of the same class. The
+	 * outputs are the same as those of a process never interrupted, as long
+	 * as the same listeners are added in the same order: a checkpoint taken
+	 * with different listeners is rejected when the process starts.
+	 * Outputs not opened through the checkpointer (as the file of an
+	 * {@link listeners.IdListener}) are not resumed.
+	 * 
+	 * @param checkpointer
+	 *            the checkpointer, which must have opened the input of the
+	 *            reader, or <code>null</code> for no checkpoint
+	 * @throws IllegalArgumentException
+	 *             if the reader can not be resumed
+	 * @see Checkpointer
+	 */
+	public void setCheckpointer(Checkpointer checkpointer) {
+		if ((checkpointer != null) && !(mainReader instanceof ResumableReader))
+			throw new IllegalArgumentException(String.format(
+					"%s can not be resumed", mainReader.getClass()
+							.getSimpleName()));
+		this.checkpointer = checkpointer;
+	}
+
+	/**
+	 * Splits the memory budget across the objects of this process
+	 * 
+	 * @throws MemoryBudgetException
+	 *             if the budget is too small
+	 */
+	private void allocateMemory() {
+		if (memoryBudget <= 0)
+			return;
+		MemoryBudget budget = new MemoryBudget(memoryBudget);
+		if (mainReader instanceof MemoryConsumer)
+			budget.add(mainReader.getClass().getSimpleName(),
+					(MemoryConsumer) mainReader);
+		addConsumers(budget, preTrimListeners, PRE, "pre");
+		addConsumers(budget, postTrimListeners, POST, "post");
+		budget.allocate();
+	}
+
+	/**
+	 * Adds the listeners consuming memory and their group to a budget
+	 * 
+	 * @param budget
+	 *            the budget
+	 * @param listeners
+	 *            the listeners
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @param stage
+	 *            the name of the stage, used in messages
+	 */
+	private void addConsumers(MemoryBudget budget,
+			List<SequenceListener> listeners, int preOrPost, String stage) {
+		for (SequenceListener l : listeners) {
+			if (l instanceof MemoryConsumer)
+				budget.add(String.format("%s (%s)", l.getClass()
+						.getSimpleName(), stage), (MemoryConsumer) l);
+		}
+		if (groups[preOrPost] != null)
+			budget.add(String.format("concurrent listeners (%s)", stage),
+					groups[preOrPost]);
+	}
+
+	/**
+	 * @param listener
+	 *            a listener
+	 * @return <code>true</code> if the listener runs in a
+	 *         {@link ConcurrentListenerGroup}
+	 */
+	private boolean isGrouped(SequenceListener listener) {
+		return concurrent && !(listener instanceof SequenceGenerator);
+	}
+
+	/**
+	 * Returns the group of concurrent listeners, creating it if needed
+	 * 
+	 * @param gen
+	 *            the generator feeding the group
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @return the group
+	 */
+	private ConcurrentListenerGroup getGroup(SequenceGenerator gen,
+			int preOrPost) {
+		if (groups[preOrPost] == null) {
+			groups[preOrPost] = new ConcurrentListenerGroup();
+			attach(gen, groups[preOrPost], wrap(groups[preOrPost],
+					parentStage(preOrPost), false, preOrPost, null));
+		}
+		return groups[preOrPost];
+	}
+
+	/**
+	 * Returns the listener generating the trimmed sequences: the first
+	 * listener of the original file which is also a generator (a
+	 * {@link TrimmingListener}, one of its subclasses or a
+	 * {@link ParallelTrimmingListener})
+	 * 
+	 * @return the trimmer or <code>null</code> if no trimmer has been added
+	 */
+	private SequenceGenerator getTrimmer() {
+		for (SequenceListener l : preTrimListeners) {
+			if (l instanceof SequenceGenerator)
+				return (SequenceGenerator) l;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a listener to a generator. Listeners able to receive batches are
+	 * added as {@link BatchListener}, so that records are notified a block at
+	 * a time; listeners able to receive records are added as
+	 * {@link RecordListener} so that no string is created for them.
+	 * 
+	 * @param gen
+	 *            the generator
+	 * @param listener
+	 *            the listener
+	 * @param target
+	 *            the listener itself or its {@link InstrumentedListener},
+	 *            added the same way as the listener
+	 */
+	private static void attach(SequenceGenerator gen,
+			SequenceListener listener, SequenceListener target) {
+		if ((gen instanceof BatchGenerator)
+				&& (listener instanceof BatchListener))
+			((BatchGenerator) gen).addBatchListener((BatchListener) target);
+		else if ((gen instanceof RecordGenerator)
+				&& (listener instanceof RecordListener))
+			((RecordGenerator) gen).addRecordListener((RecordListener) target);
+		else
+			gen.addListener(target);
+	}
+
+	/**
+	 * Removes a listener from a generator
+	 * 
+	 * @param gen
+	 *            the generator
+	 * @param listener
+	 *            the listener
+	 * @param target
+	 *            the listener itself or its {@link InstrumentedListener}
+	 * @see #attach(SequenceGenerator, SequenceListener, SequenceListener)
+	 */
+	private static void detach(SequenceGenerator gen,
+			SequenceListener listener, SequenceListener target) {
+		if ((gen instanceof BatchGenerator)
+				&& (listener instanceof BatchListener))
+			((BatchGenerator) gen).removeBatchListener((BatchListener) target);
+		else if ((gen instanceof RecordGenerator)
+				&& (listener instanceof RecordListener))
+			((RecordGenerator) gen)
+					.removeRecordListener((RecordListener) target);
+		else
+			gen.removeListener(target);
+	}
+
 	/**
 	 * Remove a sequence listener from this object if present
 	 * 
@@ -102,7 +611,7 @@ public class SequenceProcess implements Model {
 		SequenceGenerator gen = null;
 		if (preOrPost == POST) {
 			toRemove = postTrimListeners;
-			gen = (TrimmingListener) getListener(TrimmingListener.class, PRE);
+			gen = getTrimmer();
 		}
 		if (preOrPost == PRE) {
 			toRemove = preTrimListeners;
@@ -114,7 +623,12 @@ public class SequenceProcess implements Model {
 		for (SequenceListener l : toRemove) {
 			if (l.getClass().equals(listenerClass)) {
 				toRemove.remove(l);
-				gen.removeListener(l);
+				if (isGrouped(l))
+					groups[preOrPost].removeListener(target(l));
+				else
+					detach(gen, attachedAs(l), target(l));
+				instruments.remove(l);
+				targets.remove(l);
 				return;
 			}
 		}
@@ -185,15 +699,271 @@ public class SequenceProcess implements Model {
 	 * Starts all processes and notifies each view added to this model
 	 * 
 	 * @throws IOException
-	 *             if an I/O error occurs
+	 *             if an I/O error occurs or the checkpoint to resume has been
+	 *             taken with different listeners
 	 * @throws FileFormatException
 	 *             if the input file has a wrong format
+	 * @throws MemoryBudgetException
+	 *             if the memory budget can not be met
 	 */
 	public void startProcess() throws IOException, FileFormatException {
-		mainReader.readAllSequence();
+		allocateMemory();
+		CheckpointTrigger trigger = null;
+		if (checkpointer != null) {
+			trigger = new CheckpointTrigger(resume());
+			// Added last, so that the other listeners have received the
+			// records counted
+			mainReader.addBatchListener(trigger);
+		}
+		if (metrics != null)
+			metrics.register();
+		try {
+			long start = System.nanoTime();
+			mainReader.readAllSequence();
+			if (readerStage != null)
+				readerStage.time(System.nanoTime() - start);
+			if (trigger != null) {
+				mainReader.removeBatchListener(trigger);
+				if (trigger.error != null)
+					throw trigger.error;
+			}
+			// Listeners keeping sequences (parallel trimmers) must pass them
+			// on before the views are updated
+			flush(preTrimListeners, PRE, true);
+			flush(postTrimListeners, POST, true);
+			if (readerStage != null)
+				countRecordsRead();
+		} finally {
+			if (metrics != null)
+				metrics.unregister();
+			// Removing the trigger from a failed reader would notify the
+			// records pending again
+			if (trigger != null)
+				trigger.stopped = true;
+		}
+		if (checkpointer != null)
+			checkpointer.complete();
+		if ((metrics != null) && (report != null))
+			report.print(metrics.summary());
 		updateViews();
 	}
 
+	/**
+	 * Restores the state of the last checkpoint, if any
+	 * 
+	 * @return the number of records read before the checkpoint
+	 * @throws InvalidObjectException
+	 *             if the checkpoint has been taken by a process with different
+	 *             listeners
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private long resume() throws InvalidObjectException {
+		Checkpoint c = checkpointer.getResumed();
+		if (c == null)
+			return 0;
+		Map<String, Serializable> states = c.getStates();
+		if (!states.keySet().equals(states().keySet()))
+			throw new InvalidObjectException(
+					"The checkpoint has been taken with different listeners");
+		((ResumableReader) mainReader).setOrigin(c.getPosition(),
+				c.getLines());
+		for (int preOrPost = PRE; preOrPost <= POST; preOrPost++) {
+			List<SequenceListener> listeners = (preOrPost == PRE) ? preTrimListeners
+					: postTrimListeners;
+			for (int i = 0; i < listeners.size(); i++) {
+				SequenceListener l = listeners.get(i);
+				String key = stateKey(l, preOrPost, i);
+				Serializable state = states.get(key);
+				if ((state != null) && (l instanceof Mergeable))
+					((Mergeable) l).merge(state);
+				long[] sampling = (long[]) states.get(key + "#sampling");
+				if ((sampling != null)
+						&& (target(l) instanceof SampledListener))
+					((SampledListener) target(l)).resume(sampling[0],
+							sampling[1]);
+			}
+		}
+		return c.getRecords();
+	}
+
+	/**
+	 * Takes a checkpoint. The listeners are flushed, so that the outputs hold
+	 * all the records read and the statistics include them.
+	 * 
+	 * @param records
+	 *            the number of records read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void checkpoint(long records) throws IOException {
+		flush(preTrimListeners, PRE, false);
+		flush(postTrimListeners, POST, false);
+		ResumableReader reader = (ResumableReader) mainReader;
+		checkpointer.checkpoint(records, reader.getLineNumber(),
+				reader.getPosition(), states());
+	}
+
+	/**
+	 * @return the states saved in a checkpoint, for the listeners collecting
+	 *         statistics and the sampled ones
+	 */
+	private HashMap<String, Serializable> states() {
+		HashMap<String, Serializable> states = new HashMap<String, Serializable>();
+		for (int preOrPost = PRE; preOrPost <= POST; preOrPost++) {
+			List<SequenceListener> listeners = (preOrPost == PRE) ? preTrimListeners
+					: postTrimListeners;
+			for (int i = 0; i < listeners.size(); i++) {
+				SequenceListener l = listeners.get(i);
+				String key = stateKey(l, preOrPost, i);
+				if ((l instanceof Mergeable) && (l instanceof Serializable))
+					states.put(key, (Serializable) l);
+				if (target(l) instanceof SampledListener) {
+					SampledListener s = (SampledListener) target(l);
+					states.put(key + "#sampling",
+							new long[] { s.getSeen(), s.getSampled() });
+				}
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * @param listener
+	 *            a listener
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @param index
+	 *            the position of the listener in its list
+	 * @return the key of the state of the listener in a checkpoint
+	 */
+	private static String stateKey(SequenceListener listener, int preOrPost,
+			int index) {
+		return ((preOrPost == PRE) ? "pre:" : "post:") + index + ":"
+				+ listener.getClass().getName();
+	}
+
+	/**
+	 * Counts the records read as the records received by the first listener
+	 * of the reader
+	 */
+	private void countRecordsRead() {
+		for (StageMetrics s : metrics.getStages()) {
+			if (s.getParent() == readerStage) {
+				readerStage.count(s.getRecords(), s.getBases());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Flushes the listeners implementing {@link Flushable} and waits for the
+	 * concurrent listeners to process all sequences
+	 * 
+	 * @param listeners
+	 *            the listeners
+	 * @param preOrPost
+	 *            one of {@link SequenceProcess#POST} or
+	 *            {@link SequenceProcess#PRE}
+	 * @param close
+	 *            <code>true</code> to stop the threads of the concurrent
+	 *            listeners
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void flush(List<SequenceListener> listeners, int preOrPost,
+			boolean close) throws IOException {
+		for (SequenceListener l : listeners) {
+			if ((l instanceof Flushable) && !isGrouped(l))
+				((Flushable) target(l)).flush();
+		}
+		// Grouped listeners are flushed by the group, whose threads are no
+		// longer needed once the input is over
+		if (groups[preOrPost] != null) {
+			((Flushable) target(groups[preOrPost])).flush();
+			if (close)
+				groups[preOrPost].close();
+		}
+	}
+
+	/**
+	 * @return the reader of the original sequences
+	 */
+	public FileSequenceReader getMainReader() {
+		return mainReader;
+	}
+
+	/**
+	 * Listener added last to the reader, taking a checkpoint once the records
+	 * read reach the next multiple of the interval. Checkpoints are taken
+	 * after whole batches, and batches of a resumed process start at the
+	 * checkpoint, so that a resumed process takes its checkpoints after the
+	 * same records as a process never interrupted.
+	 * 
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private class CheckpointTrigger implements BatchListener {
+
+		/**
+		 * Records read
+		 */
+		private long records;
+
+		/**
+		 * Records read at the next checkpoint
+		 */
+		private long next;
+
+		/**
+		 * The error thrown by the last checkpoint or <code>null</code>
+		 */
+		private IOException error = null;
+
+		/**
+		 * <code>true</code> once the process is over
+		 */
+		private boolean stopped = false;
+
+		/**
+		 * @param records
+		 *            records read before the process started
+		 */
+		private CheckpointTrigger(long records) {
+			this.records = records;
+			this.next = nextCheckpoint(records);
+		}
+
+		/**
+		 * @param records
+		 *            records read
+		 * @return the records read at the next checkpoint
+		 */
+		private long nextCheckpoint(long records) {
+			long interval = checkpointer.getInterval();
+			return (records / interval + 1) * interval;
+		}
+
+		@Override
+		public void batch(RecordBatch batch) {
+			if (stopped)
+				return;
+			records += batch.size();
+			if ((records < next) || (error != null))
+				return;
+			try {
+				checkpoint(records);
+			} catch (IOException e) {
+				// The previous checkpoint is still valid: the error is
+				// reported once the input is over
+				error = e;
+			}
+			next = nextCheckpoint(records);
+		}
+
+	}
+
 	@Override
 	public void addView(View view) {
 		if (views.indexOf(view) < 0)
@@ -0,0 +1,407 @@
+package processes;
+
+import io.FileSequenceReader;
+import io.RecordBatch;
+import io.SequenceRecord;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import exception.FileFormatException;
+import listeners.BatchGenerator;
+import listeners.BatchListener;
+import listeners.RecordListener;
+import listeners.RecordListenerSupport;
+import listeners.RecordTransform;
+import listeners.SequenceListener;
+
+/**
+ * Process made of a graph of stages fed by a reader. Each {@link Node} of the
+ * graph applies a {@link RecordTransform} (a trimmer or a filter) to the
+ * records of its parent and passes the result to its listeners (analyzers and
+ * writers) and to its children. A node can have any number of children, so
+ * the graph can be a linear chain or branch into several chains.
+ * <p>
+ * When the process starts the graph is built: a chain of nodes where each
+ * node has a single child and no listener is fused into one stage, which
+ * applies all the transforms of the chain in a single loop over each record.
+ * Chaining three trimmers therefore costs one call per record, not three.
+ *
+ * <pre>
+ * StageGraph graph = new StageGraph(reader);
+ * graph.getSource().addListener(new LengthAnalyzerListener());
+ * graph.getSource().then(trimmer).then(new LengthFilter(20))
+ * 		.addListener(writer);
+ * graph.startProcess();
+ * </pre>
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class StageGraph implements Model {
+
+	/**
+	 * The reader
+	 */
+	private FileSequenceReader reader;
+
+	/**
+	 * The node of the records read
+	 */
+	private Node source;
+
+	/**
+	 * The fused stages, parents before children, or <code>null</code> if
+	 * the graph has not been built
+	 */
+	private List<FusedStage> stages = null;
+
+	/**
+	 * List of views
+	 */
+	private List<View> views = new ArrayList<View>();
+
+	/**
+	 * @param reader
+	 *            the reader feeding the graph
+	 */
+	public StageGraph(FileSequenceReader reader) {
+		this.reader = reader;
+		this.source = new Node(null);
+	}
+
+	/**
+	 * @return the node of the records read, root of the graph
+	 */
+	public Node getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the reader feeding the graph
+	 */
+	public FileSequenceReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * Builds the graph, fusing chains of nodes into stages and adding them
+	 * to the reader. The graph can not be changed once built.
+	 *
+	 * @throws IllegalStateException
+	 *             if the graph has already been built
+	 */
+	public void build() {
+		if (stages != null)
+			throw new IllegalStateException("The graph has already been built");
+		stages = new ArrayList<FusedStage>();
+		for (SequenceListener l : source.listeners)
+			attach(reader, l);
+		for (Node child : source.children)
+			reader.addRecordListener(fuse(child));
+	}
+
+	/**
+	 * Fuses a node with the following nodes having a single child and no
+	 * listener
+	 *
+	 * @param node
+	 *            the first node of the chain
+	 * @return the stage
+	 */
+	private FusedStage fuse(Node node) {
+		List<RecordTransform> transforms = new ArrayList<RecordTransform>();
+		transforms.add(node.transform);
+		while (node.listeners.isEmpty() && (node.children.size() == 1)) {
+			node = node.children.get(0);
+			transforms.add(node.transform);
+		}
+		FusedStage stage = new FusedStage(
+				transforms.toArray(new RecordTransform[transforms.size()]));
+		stages.add(stage);
+		for (SequenceListener l : node.listeners)
+			attach(stage, l);
+		for (Node child : node.children)
+			stage.addRecordListener(fuse(child));
+		return stage;
+	}
+
+	/**
+	 * Adds a listener to a generator as batch, record or sequence listener
+	 *
+	 * @param gen
+	 *            the generator
+	 * @param listener
+	 *            the listener
+	 */
+	private static void attach(BatchGenerator gen, SequenceListener listener) {
+		if (listener instanceof BatchListener)
+			gen.addBatchListener((BatchListener) listener);
+		else if (listener instanceof RecordListener)
+			gen.addRecordListener((RecordListener) listener);
+		else
+			gen.addListener(listener);
+	}
+
+	/**
+	 * @return the number of stages of the built graph, or -1 if the graph has
+	 *         not been built
+	 */
+	public int getStageCount() {
+		return (stages == null) ? -1 : stages.size();
+	}
+
+	/**
+	 * Builds the graph if needed, reads all the records and notifies the
+	 * views
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws FileFormatException
+	 *             if the input file has a wrong format
+	 */
+	public void startProcess() throws IOException, FileFormatException {
+		if (stages == null)
+			build();
+		reader.readAllSequence();
+		for (FusedStage s : stages)
+			s.flush();
+		flush(source);
+		updateViews();
+	}
+
+	/**
+	 * Flushes the listeners implementing {@link Flushable}, parents before
+	 * children
+	 *
+	 * @param node
+	 *            the first node
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void flush(Node node) throws IOException {
+		for (SequenceListener l : node.listeners)
+			if (l instanceof Flushable)
+				((Flushable) l).flush();
+		for (Node child : node.children)
+			flush(child);
+	}
+
+	@Override
+	public void addView(View view) {
+		if (views.indexOf(view) < 0)
+			views.add(view);
+	}
+
+	@Override
+	public void removeView(View view) {
+		if (views.indexOf(view) >= 0)
+			views.remove(view);
+	}
+
+	@Override
+	public void updateViews() {
+		for (View v : views)
+			v.update();
+	}
+
+	/**
+	 * Node of a stage graph
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public class Node {
+
+		/**
+		 * The transform of this node, <code>null</code> for the source
+		 */
+		private RecordTransform transform;
+
+		/**
+		 * The listeners of the records of this node
+		 */
+		private List<SequenceListener> listeners = new ArrayList<SequenceListener>();
+
+		/**
+		 * The children of this node
+		 */
+		private List<Node> children = new ArrayList<Node>();
+
+		/**
+		 * @param transform
+		 *            the transform of this node
+		 */
+		private Node(RecordTransform transform) {
+			this.transform = transform;
+		}
+
+		/**
+		 * Adds a child applying a transform to the records of this node. A
+		 * node can have several children, each receiving all its records.
+		 *
+		 * @param transform
+		 *            the transform
+		 * @return the child
+		 * @throws IllegalStateException
+		 *             if the graph has already been built
+		 */
+		public Node then(RecordTransform transform) {
+			checkNotBuilt();
+			Node child = new Node(transform);
+			children.add(child);
+			return child;
+		}
+
+		/**
+		 * Adds a listener of the records of this node. Listeners implementing
+		 * {@link BatchListener} or {@link RecordListener} receive batches or
+		 * records, the others receive strings.
+		 *
+		 * @param listener
+		 *            the listener
+		 * @return this node
+		 * @throws IllegalStateException
+		 *             if the graph has already been built
+		 */
+		public Node addListener(SequenceListener listener) {
+			checkNotBuilt();
+			if (listeners.indexOf(listener) < 0)
+				listeners.add(listener);
+			return this;
+		}
+
+		/**
+		 * Returns a listener based on its class
+		 *
+		 * @param listenerClass
+		 *            the class of the listener
+		 * @return the first listener of this node of the specified class (or
+		 *         of one of its subclasses) or <code>null</code>
+		 */
+		public <L extends SequenceListener> L getListener(
+				Class<L> listenerClass) {
+			for (SequenceListener l : listeners)
+				if (listenerClass.isInstance(l))
+					return listenerClass.cast(l);
+			return null;
+		}
+
+		/**
+		 * @return the transform of this node, <code>null</code> for the
+		 *         source
+		 */
+		public RecordTransform getTransform() {
+			return transform;
+		}
+
+		/**
+		 * @throws IllegalStateException
+		 *             if the graph has already been built
+		 */
+		private void checkNotBuilt() {
+			if (stages != null)
+				throw new IllegalStateException(
+						"The graph has already been built");
+		}
+	}
+
+	/**
+	 * Chain of transforms applied in a single loop
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class FusedStage implements RecordListener, BatchGenerator,
+			Flushable {
+
+		/**
+		 * The transforms, in order
+		 */
+		private RecordTransform[] transforms;
+
+		/**
+		 * The listeners of the transformed records
+		 */
+		private RecordListenerSupport listeners = new RecordListenerSupport();
+
+		/**
+		 * The transformed record (a view of the record received)
+		 */
+		private SequenceRecord view = new SequenceRecord();
+
+		/**
+		 * @param transforms
+		 *            the transforms
+		 */
+		private FusedStage(RecordTransform[] transforms) {
+			this.transforms = transforms;
+		}
+
+		@Override
+		public void record(SequenceRecord record) {
+			view.set(record);
+			for (int i = 0; i < transforms.length; i++) {
+				if (!transforms[i].transform(view))
+					return;
+			}
+			listeners.notifyListeners(view);
+		}
+
+		@Override
+		public void flush() {
+			listeners.flush();
+		}
+
+		@Override
+		public void addListener(SequenceListener listener) {
+			listeners.addListener(listener);
+		}
+
+		@Override
+		public void removeListener(SequenceListener listener) {
+			listeners.removeListener(listener);
+		}
+
+		@Override
+		public void addRecordListener(RecordListener listener) {
+			listeners.addRecordListener(listener);
+		}
+
+		@Override
+		public void removeRecordListener(RecordListener listener) {
+			listeners.removeRecordListener(listener);
+		}
+
+		@Override
+		public void addBatchListener(BatchListener listener) {
+			listeners.addBatchListener(listener);
+		}
+
+		@Override
+		public void removeBatchListener(BatchListener listener) {
+			listeners.removeBatchListener(listener);
+		}
+
+		@Override
+		public void notifyListeners(String id, String sequence, String quality) {
+			listeners.notifyListeners(id, sequence, quality);
+		}
+
+		@Override
+		public void notifyListeners(SequenceRecord record) {
+			listeners.notifyListeners(record);
+		}
+
+		@Override
+		public void notifyListeners(RecordBatch batch) {
+			listeners.notifyListeners(batch);
+		}
+	}
+
+}
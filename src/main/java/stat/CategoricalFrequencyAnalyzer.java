@@ -2,9 +2,44 @@ package stat;
 
 import java.util.Map;
 
-public abstract class CategoricalFrequencyAnalyzer<K> extends FrequencyAnalyzer<Long> {
+import utils.MemoryConsumer;
+import exception.MemoryBudgetException;
+
+/**
+ * Analyzer counting the occurrences of objects in a table. Given a memory
+ * limit, the analyzer throws a {@link MemoryBudgetException} as soon as the
+ * estimated size of the table exceeds it, instead of letting the table fill
+ * the heap.
+ */
+public abstract class CategoricalFrequencyAnalyzer<K> extends FrequencyAnalyzer<Long>
+		implements MemoryConsumer {
+
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Estimated memory taken by an entry of the table, key excluded
+	 */
+	private static final int ENTRY_MEMORY = 56;
+
+	/**
+	 * Least memory given to the table
+	 */
+	private static final long MIN_MEMORY = 1024 * 1024;
 
 	private Map<K, Long> freqMap;
+
+	/**
+	 * Estimated memory taken by the table
+	 */
+	private long memory = 0;
+
+	/**
+	 * Memory limit in bytes or -1 if the memory is not bounded
+	 */
+	private long memoryLimit = -1;
 	
 	public CategoricalFrequencyAnalyzer(Distribution<Long> dist, Map<K, Long> freqMap) {
 		super(dist);
@@ -13,12 +48,75 @@ public abstract class CategoricalFrequencyAnalyzer<K> extends FrequencyAnalyzer<
 	
 	public void addObject(K value) {
 		if (freqMap.get(value) == null) {
+			grow(value);
 			freqMap.put(value, 1L);
 		} else {
 			freqMap.put(value, freqMap.get(value) + 1);
 		}
 	}
 
+	/**
+	 * Merges the object counts of another categorical analyzer. Any other
+	 * analyzer is merged as a plain {@link FrequencyAnalyzer}.
+	 */
+	@Override
+	public void merge(FrequencyAnalyzer<Long> other) {
+		if (!(other instanceof CategoricalFrequencyAnalyzer)) {
+			super.merge(other);
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		Map<K, Long> otherMap = ((CategoricalFrequencyAnalyzer<K>) other).freqMap;
+		for (Map.Entry<K, Long> e : otherMap.entrySet()) {
+			Long count = freqMap.get(e.getKey());
+			if (count == null)
+				grow(e.getKey());
+			freqMap.put(e.getKey(), (count == null) ? e.getValue() : count
+					+ e.getValue());
+		}
+	}
+
+	/**
+	 * Accounts the memory of a new entry of the table
+	 * 
+	 * @param key
+	 *            the key of the entry
+	 * @throws MemoryBudgetException
+	 *             if the table exceeds the memory limit
+	 */
+	private void grow(K key) {
+		memory += ENTRY_MEMORY + keyMemory(key);
+		if ((memoryLimit > 0) && (memory > memoryLimit)) {
+			String error = String.format(
+					"The table of %s exceeds its share of the memory budget "
+							+ "(%.1f MB) after %d entries",
+					getClass().getSimpleName(),
+					memoryLimit / (1024.0 * 1024.0), freqMap.size());
+			throw new MemoryBudgetException(error, memory, memoryLimit);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            a key of the table
+	 * @return an estimate of the memory taken by the key
+	 */
+	protected long keyMemory(K key) {
+		if (key instanceof CharSequence)
+			return 40 + 2L * ((CharSequence) key).length();
+		return 16;
+	}
+
+	@Override
+	public long getMinimumMemory() {
+		return MIN_MEMORY;
+	}
+
+	@Override
+	public void setMemoryLimit(long bytes) {
+		this.memoryLimit = bytes;
+	}
+
 	/* (non-Javadoc)
 	 * @see stat.FrequencyAnalyzer#getDistribution()
 	 */
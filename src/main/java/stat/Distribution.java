@@ -1,5 +1,6 @@
 package stat;
 
+import java.io.Serializable;
 import java.util.Set;
 
 /**
@@ -10,7 +11,7 @@ import java.util.Set;
  *
  * @param <T>
  */
-public interface Distribution<T extends Number> {
+public interface Distribution<T extends Number> extends Serializable {
 
 	/**
 	 * Add an object to the distribution
@@ -20,6 +21,22 @@ public interface Distribution<T extends Number> {
 	 */
 	public void addValue(T value);
 
+	/**
+	 * Adds all the values of another distribution to this distribution. By
+	 * default each value is added with {@link #addValue(Number)} as many
+	 * times as it has been found in the other distribution; implementations
+	 * should merge their counts directly.
+	 * 
+	 * @param other
+	 *            the distribution to merge
+	 */
+	public default void merge(Distribution<T> other) {
+		for (T value : other.getValues()) {
+			for (long n = other.getCount(value); n > 0; n--)
+				addValue(value);
+		}
+	}
+
 	/**
 	 * @return the values stored in this distribution
 	 */
@@ -1,5 +1,7 @@
 package stat;
 
+import java.io.Serializable;
+
 /**
  * Frequency distribution analyzer
  * 
@@ -9,7 +11,13 @@ package stat;
  * @param <T>
  *            the type of object to analyze
  */
-public abstract class FrequencyAnalyzer<T extends Number> {
+public abstract class FrequencyAnalyzer<T extends Number> implements
+		Mergeable<FrequencyAnalyzer<T>>, Serializable {
+
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
 
 	/**
 	 * The distribution
@@ -41,4 +49,9 @@ public abstract class FrequencyAnalyzer<T extends Number> {
 		dist.addValue(value);
 	}
 
+	@Override
+	public void merge(FrequencyAnalyzer<T> other) {
+		dist.merge(other.dist);
+	}
+
 }
@@ -0,0 +1,26 @@
+package stat;
+
+/**
+ * Object collecting statistics which can be merged with another object of the
+ * same kind, for example to join the statistics of several files analyzed
+ * separately.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ * @param <M>
+ *            the type of objects this object can be merged with
+ */
+public interface Mergeable<M> {
+
+	/**
+	 * Adds all the values collected by another object to this object. The
+	 * other object may share data with this object after the call and must not
+	 * be used anymore.
+	 * 
+	 * @param other
+	 *            the object to merge
+	 */
+	public void merge(M other);
+
+}
@@ -1,5 +1,6 @@
 package stat;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -17,7 +18,14 @@ import java.util.Set;
  * @param <I>
  *            the type of objects stored in the distributions
  */
-public abstract class MultipleFrequencyAnalyzer<K, T extends Distribution<I>, I extends Number> {
+public abstract class MultipleFrequencyAnalyzer<K, T extends Distribution<I>, I extends Number>
+		implements Mergeable<MultipleFrequencyAnalyzer<K, T, I>>, Serializable {
+
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The list of distributions
 	 */
@@ -51,6 +59,23 @@ public abstract class MultipleFrequencyAnalyzer<K, T extends Distribution<I>, I
 		this.dist.put(index, dist);
 	}
 
+	/**
+	 * Merges the distributions of another analyzer with the distributions with
+	 * the same index of this analyzer. Distributions whose index is not found
+	 * in this analyzer are taken over.
+	 */
+	@Override
+	public void merge(MultipleFrequencyAnalyzer<K, T, I> other) {
+		for (K index : other.getIndices()) {
+			T mine = dist.get(index);
+			if (mine == null) {
+				dist.put(index, other.getDistribution(index));
+			} else {
+				mine.merge(other.getDistribution(index));
+			}
+		}
+	}
+
 	/**
 	 * @return the number of distributions stored
 	 */
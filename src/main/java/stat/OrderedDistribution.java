@@ -12,6 +12,12 @@ import java.util.TreeMap;
  * 
  */
 public class OrderedDistribution<T extends Number> implements Distribution<T> {
+
+	/**
+	 * Serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * A map of ordered values
 	 */
@@ -32,6 +38,15 @@ public class OrderedDistribution<T extends Number> implements Distribution<T> {
 		N++;
 	}
 
+	@Override
+	public void merge(Distribution<T> other) {
+		for (T value : other.getValues()) {
+			long count = other.getCount(value);
+			freqTable.put(value, getCount(value) + count);
+			N += count;
+		}
+	}
+
 	@Override
 	public Set<T> getValues() {
 		return freqTable.keySet();
@@ -0,0 +1,198 @@
+package utils;
+
+import java.util.List;
+
+/**
+ * Lookup table from barcodes to their index in a list, read straight from the
+ * bytes of a record. Besides the barcodes themselves, the table can hold all
+ * the sequences with a single mismatch from a barcode, computed when the
+ * table is built: looking a barcode up is then a single hash lookup, however
+ * many barcodes there are. A sequence one mismatch away from two barcodes is
+ * ambiguous and is not found; a barcode is always found as itself, even if it
+ * is one mismatch away from another barcode.
+ * <p>
+ * Mismatches are substitutions of the bases A, C, G and T with another base
+ * or N; other characters of a barcode (such as the <code>+</code> between
+ * dual indexes) must match exactly. Lookups are case sensitive and barcodes
+ * are turned to upper case.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class BarcodeTable {
+
+	/**
+	 * Returned by {@link #lookup(byte[], int, int)} for unknown or ambiguous
+	 * sequences
+	 */
+	public static final int NOT_FOUND = -1;
+
+	/**
+	 * Value of ambiguous sequences
+	 */
+	private static final int AMBIGUOUS = -2;
+
+	/**
+	 * Bases replaced by mismatches
+	 */
+	private static final String BASES = "ACGT";
+
+	/**
+	 * Bases replacing the bases of a barcode
+	 */
+	private static final byte[] SUBSTITUTES = "ACGTN".getBytes();
+
+	/**
+	 * The sequences of the slots or <code>null</code> for empty slots
+	 */
+	private byte[][] keys;
+
+	/**
+	 * The barcode of the slots, {@link #AMBIGUOUS} for ambiguous sequences
+	 */
+	private int[] values;
+
+	/**
+	 * Number of sequences
+	 */
+	private int size = 0;
+
+	/**
+	 * Creates the table
+	 *
+	 * @param barcodes
+	 *            the barcodes
+	 * @param mismatches
+	 *            the mismatches allowed, 0 or 1
+	 * @throws IllegalArgumentException
+	 *             if a barcode is empty or repeated, or if the mismatches are
+	 *             neither 0 nor 1
+	 */
+	public BarcodeTable(List<String> barcodes, int mismatches) {
+		if ((mismatches < 0) || (mismatches > 1))
+			throw new IllegalArgumentException(
+					"Only 0 or 1 mismatches are allowed");
+		int capacity = 16;
+		int expected = barcodes.size();
+		if (mismatches > 0) {
+			int length = 0;
+			for (String b : barcodes)
+				length = Math.max(length, b.length());
+			expected *= 1 + 4 * length;
+		}
+		while (capacity < 2 * expected)
+			capacity <<= 1;
+		keys = new byte[capacity][];
+		values = new int[capacity];
+		boolean[] exact = new boolean[capacity];
+		for (int i = 0; i < barcodes.size(); i++) {
+			byte[] barcode = barcodes.get(i).toUpperCase().getBytes();
+			if (barcode.length == 0)
+				throw new IllegalArgumentException("Empty barcode");
+			int slot = slot(barcode, 0, barcode.length);
+			if (keys[slot] != null)
+				throw new IllegalArgumentException("Repeated barcode: "
+						+ barcodes.get(i));
+			put(slot, barcode, i);
+			exact[slot] = true;
+		}
+		if (mismatches == 0)
+			return;
+		for (int i = 0; i < barcodes.size(); i++) {
+			byte[] barcode = barcodes.get(i).toUpperCase().getBytes();
+			for (int p = 0; p < barcode.length; p++) {
+				byte base = barcode[p];
+				if (BASES.indexOf(base) < 0)
+					continue;
+				for (byte s : SUBSTITUTES) {
+					if (s == base)
+						continue;
+					barcode[p] = s;
+					int slot = slot(barcode, 0, barcode.length);
+					if (keys[slot] == null)
+						put(slot, barcode.clone(), i);
+					else if (!exact[slot] && (values[slot] != i))
+						// Neighbour of another barcode
+						values[slot] = AMBIGUOUS;
+				}
+				barcode[p] = base;
+			}
+		}
+	}
+
+	/**
+	 * @param slot
+	 *            an empty slot
+	 * @param key
+	 *            the sequence
+	 * @param value
+	 *            the barcode
+	 */
+	private void put(int slot, byte[] key, int value) {
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+	}
+
+	/**
+	 * Finds the slot of a sequence
+	 *
+	 * @return the slot of the sequence or the empty slot where it would go
+	 */
+	private int slot(byte[] bytes, int offset, int length) {
+		int h = 0x811C9DC5;
+		for (int i = offset; i < offset + length; i++)
+			h = (h ^ bytes[i]) * 0x01000193;
+		int mask = keys.length - 1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (keys[slot] != null) {
+			byte[] key = keys[slot];
+			if ((key.length == length) && equal(key, bytes, offset))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return <code>true</code> if the key is equal to the bytes from the
+	 *         offset
+	 */
+	private static boolean equal(byte[] key, byte[] bytes, int offset) {
+		for (int i = 0; i < key.length; i++)
+			if (key[i] != bytes[offset + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Looks a sequence up
+	 *
+	 * @param bytes
+	 *            the bytes holding the sequence
+	 * @param offset
+	 *            the first byte of the sequence
+	 * @param length
+	 *            the length of the sequence
+	 * @return the index of the barcode or {@link #NOT_FOUND} if the sequence
+	 *         is not a barcode, nor a barcode with a mismatch, or if it is
+	 *         ambiguous
+	 */
+	public int lookup(byte[] bytes, int offset, int length) {
+		int slot = slot(bytes, offset, length);
+		if (keys[slot] == null)
+			return NOT_FOUND;
+		int value = values[slot];
+		return (value == AMBIGUOUS) ? NOT_FOUND : value;
+	}
+
+	/**
+	 * @return the number of sequences in the table, barcodes with mismatches
+	 *         included
+	 */
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,28 @@
+package utils;
+
+/**
+ * Object whose thread can be kept waiting for other threads (a stage handing
+ * work to a pool or to the threads of other stages). The time spent waiting
+ * is reported by {@link StageMetrics}.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface Blocking {
+
+	/**
+	 * @return the time in nanoseconds this object has kept its thread waiting
+	 *         for other threads so far
+	 */
+	public long getBlockedNanos();
+
+	/**
+	 * @return the number of times this object has kept its thread waiting
+	 *         so far, or 0 if it does not count them
+	 */
+	public default long getBlockedCount() {
+		return 0;
+	}
+
+}
@@ -0,0 +1,85 @@
+package utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of byte arrays of the same size shared by several threads, so that
+ * processing many small files does not allocate the same large buffers for
+ * each file. At most a fixed number of idle arrays are kept; arrays released
+ * beyond that number are left to the garbage collector.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class BufferPool {
+
+	/**
+	 * Size of the arrays
+	 */
+	private int bufferSize;
+
+	/**
+	 * Maximum number of idle arrays kept
+	 */
+	private int maxIdle;
+
+	/**
+	 * The idle arrays
+	 */
+	private ConcurrentLinkedQueue<byte[]> idle = new ConcurrentLinkedQueue<byte[]>();
+
+	/**
+	 * Number of idle arrays
+	 */
+	private AtomicInteger idleCount = new AtomicInteger();
+
+	/**
+	 * @param bufferSize
+	 *            the size of the arrays
+	 * @param maxIdle
+	 *            the maximum number of idle arrays kept
+	 */
+	public BufferPool(int bufferSize, int maxIdle) {
+		if ((bufferSize < 1) || (maxIdle < 0))
+			throw new IllegalArgumentException(
+					"Buffer size must be positive and idle arrays not negative");
+		this.bufferSize = bufferSize;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return an array of the size of this pool, with random content
+	 */
+	public byte[] acquire() {
+		byte[] buffer = idle.poll();
+		if (buffer == null)
+			return new byte[bufferSize];
+		idleCount.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Gives an array back to this pool. The array must not be used any more.
+	 * 
+	 * @param buffer
+	 *            an array returned by {@link #acquire()}
+	 */
+	public void release(byte[] buffer) {
+		if ((buffer == null) || (buffer.length != bufferSize))
+			return;
+		if (idleCount.incrementAndGet() <= maxIdle)
+			idle.offer(buffer);
+		else
+			idleCount.decrementAndGet();
+	}
+
+	/**
+	 * @return the size of the arrays
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+}
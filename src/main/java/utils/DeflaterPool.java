@@ -0,0 +1,108 @@
+package utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of {@link Deflater} objects shared by the compressed outputs
+ * of many files. Each deflater holds a few hundred kilobytes of native memory
+ * which are allocated once and reused, and no more than the size of the pool
+ * are in use at the same time: outputs opened when all the deflaters are busy
+ * wait for one to be released.
+ * <p>
+ * Since a file keeps its deflaters until its outputs are closed, the pool
+ * must have at least as many deflaters as the compressed outputs of a single
+ * file.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class DeflaterPool {
+
+	/**
+	 * Compression level of the deflaters
+	 */
+	private int level;
+
+	/**
+	 * Deflaters available
+	 */
+	private Semaphore permits;
+
+	/**
+	 * Deflaters created and released
+	 */
+	private ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<Deflater>();
+
+	/**
+	 * Creates a pool of deflaters producing raw deflate data (as needed by
+	 * gzip) with the default compression level
+	 * 
+	 * @param size
+	 *            the maximum number of deflaters in use at the same time
+	 */
+	public DeflaterPool(int size) {
+		this(size, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates a pool of deflaters producing raw deflate data (as needed by
+	 * gzip)
+	 * 
+	 * @param size
+	 *            the maximum number of deflaters in use at the same time
+	 * @param level
+	 *            the compression level
+	 */
+	public DeflaterPool(int size, int level) {
+		if (size < 1)
+			throw new IllegalArgumentException(
+					"The size of the pool must be positive");
+		this.permits = new Semaphore(size, true);
+		this.level = level;
+	}
+
+	/**
+	 * Takes a deflater, waiting for one if all of them are in use
+	 * 
+	 * @return the deflater
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting
+	 */
+	public Deflater acquire() throws InterruptedIOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for a compressor");
+		}
+		Deflater deflater = idle.poll();
+		return (deflater != null) ? deflater : new Deflater(level, true);
+	}
+
+	/**
+	 * Gives a deflater back to the pool
+	 * 
+	 * @param deflater
+	 *            a deflater returned by {@link #acquire()}
+	 */
+	public void release(Deflater deflater) {
+		deflater.reset();
+		idle.offer(deflater);
+		permits.release();
+	}
+
+	/**
+	 * Frees the native memory of the idle deflaters
+	 */
+	public void clear() {
+		Deflater deflater;
+		while ((deflater = idle.poll()) != null)
+			deflater.end();
+	}
+
+}
@@ -0,0 +1,124 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import exception.MemoryBudgetException;
+
+/**
+ * Memory budget split across the {@link MemoryConsumer} objects of a process.
+ * Each consumer receives its minimum memory plus an equal share of what is
+ * left; if the minimum memory of all consumers exceeds the budget
+ * {@link #allocate()} throws a {@link MemoryBudgetException} listing them.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class MemoryBudget {
+
+	/**
+	 * Bytes in a megabyte, used in messages
+	 */
+	private static final long MB = 1024 * 1024;
+
+	/**
+	 * The budget in bytes
+	 */
+	private long total;
+
+	/**
+	 * The consumers
+	 */
+	private List<MemoryConsumer> consumers = new ArrayList<MemoryConsumer>();
+
+	/**
+	 * Names of the consumers, used in messages
+	 */
+	private List<String> names = new ArrayList<String>();
+
+	/**
+	 * Limits assigned to the consumers
+	 */
+	private long[] limits = new long[0];
+
+	/**
+	 * @param total
+	 *            the budget in bytes
+	 */
+	public MemoryBudget(long total) {
+		if (total < 1)
+			throw new IllegalArgumentException(
+					"The memory budget must be positive");
+		this.total = total;
+	}
+
+	/**
+	 * Adds a consumer to this budget
+	 * 
+	 * @param name
+	 *            the name of the consumer, used in messages
+	 * @param consumer
+	 *            the consumer
+	 */
+	public void add(String name, MemoryConsumer consumer) {
+		int index = consumers.indexOf(consumer);
+		if (index < 0) {
+			consumers.add(consumer);
+			names.add(name);
+		}
+	}
+
+	/**
+	 * Splits the budget and sets the limit of each consumer
+	 * 
+	 * @throws MemoryBudgetException
+	 *             if the budget is smaller than the minimum memory of the
+	 *             consumers
+	 */
+	public void allocate() {
+		long needed = 0;
+		StringBuilder detail = new StringBuilder();
+		for (int i = 0; i < consumers.size(); i++) {
+			long min = consumers.get(i).getMinimumMemory();
+			needed += min;
+			detail.append(String.format("%n  %s: %.1f MB", names.get(i),
+					(double) min / MB));
+		}
+		if (needed > total) {
+			String error = String.format(
+					"Memory budget of %.1f MB is too small, at least %.1f MB "
+							+ "are needed:%s", (double) total / MB,
+					(double) needed / MB, detail);
+			throw new MemoryBudgetException(error, needed, total);
+		}
+		limits = new long[consumers.size()];
+		if (consumers.isEmpty())
+			return;
+		long share = (total - needed) / consumers.size();
+		for (int i = 0; i < consumers.size(); i++) {
+			limits[i] = consumers.get(i).getMinimumMemory() + share;
+			consumers.get(i).setMemoryLimit(limits[i]);
+		}
+	}
+
+	/**
+	 * @param consumer
+	 *            a consumer
+	 * @return the limit assigned to the consumer by the last
+	 *         {@link #allocate()} or -1 if the consumer has not been given a
+	 *         limit
+	 */
+	public long getLimit(MemoryConsumer consumer) {
+		int index = consumers.indexOf(consumer);
+		return ((index >= 0) && (index < limits.length)) ? limits[index] : -1;
+	}
+
+	/**
+	 * @return the budget in bytes
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+}
@@ -0,0 +1,30 @@
+package utils;
+
+/**
+ * Object holding a variable amount of memory (a buffer between two stages of
+ * a process or an analyzer table) which can be bounded by a
+ * {@link MemoryBudget}. Buffers given a limit make the thread filling them
+ * wait until there is room; tables throw a
+ * {@link exception.MemoryBudgetException} when they grow beyond their limit.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface MemoryConsumer {
+
+	/**
+	 * @return the least memory in bytes this object can work with
+	 */
+	public long getMinimumMemory();
+
+	/**
+	 * Sets the memory this object can use. This method must be called before
+	 * the object starts receiving data.
+	 * 
+	 * @param bytes
+	 *            the limit in bytes, at least {@link #getMinimumMemory()}
+	 */
+	public void setMemoryLimit(long bytes);
+
+}
@@ -0,0 +1,827 @@
+package utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Input stream inflating gzip files made of several independent members (BGZF
+ * files or concatenated gzip files) on a thread pool. The compressed input is
+ * cut in segments: in BGZF files segments end exactly at block boundaries,
+ * which are known from the block headers; in other files segments end right
+ * before a byte sequence that looks like a gzip member header. Segments
+ * starting with a header are inflated independently, while segments cut in
+ * the middle of a member continue the inflation state of the previous one.
+ * If a segment has been wrongly assumed to start with a header it is inflated
+ * again on the reading thread, so the decompressed data is always the same
+ * that {@link GZIPInputStream} would return. Decompressed data is returned
+ * in the original order.
+ * <p>
+ * Use {@link #open(InputStream, int)} to get this stream only when the input
+ * layout can take advantage of it.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+	/**
+	 * Default size of the compressed segments
+	 */
+	private static final int SEGMENT_SIZE = 1024 * 1024;
+
+	/**
+	 * Size of the decompressed chunks
+	 */
+	private static final int CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * Length of the fixed part of a gzip header
+	 */
+	private static final int HEADER_SIZE = 10;
+
+	/**
+	 * Length of a BGZF header
+	 */
+	private static final int BGZF_HEADER_SIZE = 18;
+
+	/**
+	 * The compressed input
+	 */
+	private InputStream in = null;
+
+	/**
+	 * Thread pool inflating segments
+	 */
+	private ExecutorService pool = null;
+
+	/**
+	 * Maximum number of segments inflated in advance
+	 */
+	private int maxPending = 0;
+
+	/**
+	 * Segments submitted to the pool, in order
+	 */
+	private ArrayDeque<Future<Segment>> pending = new ArrayDeque<Future<Segment>>();
+
+	/**
+	 * Last submitted segment
+	 */
+	private Future<Segment> last = null;
+
+	/**
+	 * Size of the compressed segments
+	 */
+	private int segmentSize = SEGMENT_SIZE;
+
+	/**
+	 * Compressed bytes read but not yet assigned to a segment
+	 */
+	private byte[] carry = new byte[0];
+
+	/**
+	 * <code>true</code> if the compressed input has been entirely read
+	 */
+	private boolean eof = false;
+
+	/**
+	 * <code>true</code> if the next segment starts with a member header
+	 */
+	private boolean nextIndependent = true;
+
+	/**
+	 * Inflation state after the last segment consumed
+	 */
+	private Inflation state = new Inflation();
+
+	/**
+	 * <code>true</code> if the last segment consumed has been inflated by the
+	 * pool (and not again by the reading thread)
+	 */
+	private boolean previousAccepted = true;
+
+	/**
+	 * Decompressed chunks of the current segment
+	 */
+	private Output output = null;
+
+	/**
+	 * Index of the next chunk in the current segment
+	 */
+	private int chunkIndex = 0;
+
+	/**
+	 * Current decompressed chunk
+	 */
+	private byte[] chunk = null;
+
+	/**
+	 * Position in the current chunk
+	 */
+	private int chunkPos = 0;
+
+	/**
+	 * Length of the current chunk
+	 */
+	private int chunkLength = 0;
+
+	/**
+	 * Creates the stream
+	 *
+	 * @param in
+	 *            the compressed input
+	 * @param threads
+	 *            number of inflating threads
+	 */
+	public ParallelGzipInputStream(InputStream in, int threads) {
+		this(in, threads, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Creates the stream with the specified segment size
+	 *
+	 * @param in
+	 *            the compressed input
+	 * @param threads
+	 *            number of inflating threads
+	 * @param segmentSize
+	 *            size of the compressed segments
+	 */
+	public ParallelGzipInputStream(InputStream in, int threads, int segmentSize) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+					"Number of threads must be positive");
+		if (segmentSize < BGZF_HEADER_SIZE)
+			throw new IllegalArgumentException("Segment size is too small");
+		this.in = in;
+		this.segmentSize = segmentSize;
+		this.maxPending = threads * 2;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "gzip-inflater");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Opens a gzipped stream. If the first bytes of the stream show a BGZF
+	 * block or more than one gzip member a {@link ParallelGzipInputStream} is
+	 * returned; otherwise the stream is inflated by a {@link GZIPInputStream}
+	 * exactly as a plain gzip file.
+	 *
+	 * @param in
+	 *            the compressed input
+	 * @param threads
+	 *            number of inflating threads
+	 * @return a stream of decompressed data
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static InputStream open(InputStream in, int threads)
+			throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(in,
+				SEGMENT_SIZE);
+		byte[] head = new byte[SEGMENT_SIZE];
+		int length = 0;
+		int read = 0;
+		while ((length < head.length)
+				&& ((read = pushback.read(head, length, head.length - length)) >= 0))
+			length += read;
+		pushback.unread(head, 0, length);
+		if ((threads > 1)
+				&& (isBgzfHeader(head, 0, length) || (lastHeader(head, length) > 0)))
+			return new ParallelGzipInputStream(pushback, threads);
+		return new GZIPInputStream(pushback);
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (chunkPos == chunkLength) {
+			if (!nextChunk())
+				return -1;
+		}
+		return chunk[chunkPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (chunkPos == chunkLength) {
+			if (!nextChunk())
+				return -1;
+		}
+		int read = Math.min(len, chunkLength - chunkPos);
+		System.arraycopy(chunk, chunkPos, b, off, read);
+		chunkPos += read;
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return chunkLength - chunkPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		pool.shutdownNow();
+		in.close();
+	}
+
+	/**
+	 * Moves to the next decompressed chunk
+	 *
+	 * @return <code>false</code> if there are no more chunks
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private boolean nextChunk() throws IOException {
+		while ((output == null) || (chunkIndex == output.chunks.size())) {
+			output = nextSegment();
+			chunkIndex = 0;
+			if (output == null) {
+				if (!state.isComplete())
+					throw new EOFException("Unexpected end of ZLIB input stream");
+				return false;
+			}
+		}
+		chunk = output.chunks.get(chunkIndex++);
+		chunkLength = (chunkIndex == output.chunks.size()) ? output.last
+				: chunk.length;
+		chunkPos = 0;
+		return true;
+	}
+
+	/**
+	 * Takes the next inflated segment, checking that the assumption made
+	 * about its first byte was right
+	 *
+	 * @return the decompressed data of the segment or <code>null</code> if
+	 *         there are no more segments
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private Output nextSegment() throws IOException {
+		submitSegments();
+		if (pending.isEmpty())
+			return null;
+		Segment segment = waitFor(pending.poll());
+		submitSegments();
+		boolean valid = segment.independent ? state.atBoundary()
+				: previousAccepted;
+		if (valid) {
+			if (segment.error != null)
+				throw segment.error;
+			state = segment.state;
+			previousAccepted = true;
+			return segment.output;
+		}
+		// The segment has been inflated from a wrong state
+		Output redo = new Output();
+		state.inflate(segment.data, segment.length, redo);
+		if (state.isComplete())
+			state.release();
+		previousAccepted = false;
+		return redo;
+	}
+
+	/**
+	 * Reads compressed segments and submits them to the pool until enough
+	 * segments are pending
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void submitSegments() throws IOException {
+		while ((pending.size() < maxPending) && !(eof && (carry.length == 0))) {
+			Segment segment = readSegment();
+			if (segment == null)
+				return;
+			last = pool.submit(segment);
+			pending.add(last);
+		}
+	}
+
+	/**
+	 * Reads the next compressed segment
+	 *
+	 * @return the segment or <code>null</code> if the input is over
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private Segment readSegment() throws IOException {
+		byte[] data = new byte[segmentSize];
+		int length = carry.length;
+		System.arraycopy(carry, 0, data, 0, length);
+		while ((length < data.length) && !eof) {
+			int read = in.read(data, length, data.length - length);
+			if (read < 0)
+				eof = true;
+			else
+				length += read;
+		}
+		if (length == 0) {
+			carry = new byte[0];
+			return null;
+		}
+		int cut = length;
+		boolean header = false;
+		if (!eof) {
+			cut = lastBgzfBlock(data, length);
+			if (cut <= 0)
+				cut = lastHeader(data, length);
+			header = (cut > 0);
+			if (!header)
+				cut = length;
+		}
+		carry = new byte[length - cut];
+		System.arraycopy(data, cut, carry, 0, carry.length);
+		Segment segment = new Segment(data, cut, nextIndependent,
+				nextIndependent ? null : last);
+		nextIndependent = header;
+		return segment;
+	}
+
+	/**
+	 * Waits for a segment to be inflated
+	 *
+	 * @param future
+	 *            the pending segment
+	 * @return the segment
+	 * @throws IOException
+	 *             if the thread is interrupted
+	 */
+	private static Segment waitFor(Future<Segment> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Walks the BGZF blocks starting at the beginning of the array
+	 *
+	 * @param data
+	 *            the compressed data
+	 * @param length
+	 *            number of valid bytes
+	 * @return the offset of the last complete block found or 0 if the data
+	 *         does not start with a BGZF block
+	 */
+	private static int lastBgzfBlock(byte[] data, int length) {
+		int pos = 0;
+		while (isBgzfHeader(data, pos, length)) {
+			int size = ((data[pos + 16] & 0xFF) | ((data[pos + 17] & 0xFF) << 8)) + 1;
+			if (pos + size >= length)
+				break;
+			pos += size;
+		}
+		return pos;
+	}
+
+	/**
+	 * Searches the last byte sequence looking like a gzip member header
+	 *
+	 * @param data
+	 *            the compressed data
+	 * @param length
+	 *            number of valid bytes
+	 * @return the offset of the last header found after the first byte or -1
+	 *         if no header has been found
+	 */
+	private static int lastHeader(byte[] data, int length) {
+		for (int i = length - HEADER_SIZE; i > 0; i--) {
+			if (isHeader(data, i))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if a gzip member header starts at the specified offset. This test
+	 * only decides how the input is cut in segments: a wrong answer makes the
+	 * inflation slower, never wrong.
+	 *
+	 * @param data
+	 *            the compressed data
+	 * @param pos
+	 *            the offset to test
+	 * @return <code>true</code> if the bytes look like a gzip header
+	 */
+	private static boolean isHeader(byte[] data, int pos) {
+		if ((data[pos] != 0x1f) || (data[pos + 1] != (byte) 0x8b)
+				|| (data[pos + 2] != 8) || ((data[pos + 3] & 0xE0) != 0))
+			return false;
+		int xfl = data[pos + 8] & 0xFF;
+		int os = data[pos + 9] & 0xFF;
+		return ((xfl == 0) || (xfl == 2) || (xfl == 4))
+				&& ((os <= 13) || (os == 255));
+	}
+
+	/**
+	 * @param data
+	 *            the compressed data
+	 * @param pos
+	 *            the offset to test
+	 * @param length
+	 *            number of valid bytes
+	 * @return <code>true</code> if a BGZF block header starts at the specified
+	 *         offset
+	 */
+	private static boolean isBgzfHeader(byte[] data, int pos, int length) {
+		return (pos + BGZF_HEADER_SIZE <= length) && isHeader(data, pos)
+				&& ((data[pos + 3] & 4) != 0) && (data[pos + 10] == 6)
+				&& (data[pos + 11] == 0) && (data[pos + 12] == 'B')
+				&& (data[pos + 13] == 'C') && (data[pos + 14] == 2)
+				&& (data[pos + 15] == 0);
+	}
+
+	/**
+	 * A compressed segment and the result of its inflation
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Segment implements Callable<Segment> {
+
+		/**
+		 * Compressed data
+		 */
+		private byte[] data;
+
+		/**
+		 * Number of compressed bytes
+		 */
+		private int length;
+
+		/**
+		 * <code>true</code> if the segment is assumed to start with a header
+		 */
+		private boolean independent;
+
+		/**
+		 * Previous segment (only for segments continuing a member)
+		 */
+		private Future<Segment> previous;
+
+		/**
+		 * Inflation state at the end of the segment
+		 */
+		private Inflation state = null;
+
+		/**
+		 * Decompressed data
+		 */
+		private Output output = new Output();
+
+		/**
+		 * Error occurred during inflation
+		 */
+		private IOException error = null;
+
+		/**
+		 * @param data
+		 *            compressed data
+		 * @param length
+		 *            number of compressed bytes
+		 * @param independent
+		 *            <code>true</code> if the segment starts with a header
+		 * @param previous
+		 *            the previous segment
+		 */
+		private Segment(byte[] data, int length, boolean independent,
+				Future<Segment> previous) {
+			this.data = data;
+			this.length = length;
+			this.independent = independent;
+			this.previous = previous;
+		}
+
+		@Override
+		public Segment call() throws Exception {
+			if (independent) {
+				state = new Inflation();
+			} else {
+				// Segments run in submission order, so the previous one is
+				// already running or done
+				Segment prev = previous.get();
+				if (prev.error != null) {
+					error = prev.error;
+					return this;
+				}
+				state = prev.state;
+			}
+			try {
+				state.inflate(data, length, output);
+			} catch (IOException e) {
+				error = e;
+			}
+			// Segments cut at a member boundary leave nothing to inflate
+			if (state.isComplete())
+				state.release();
+			return this;
+		}
+	}
+
+	/**
+	 * Decompressed data split in chunks. All chunks are full but the last one
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Output {
+
+		/**
+		 * The chunks
+		 */
+		private List<byte[]> chunks = new ArrayList<byte[]>();
+
+		/**
+		 * Number of bytes in the last chunk
+		 */
+		private int last = 0;
+
+		/**
+		 * @return the last chunk, adding a new one if it is full
+		 */
+		private byte[] current() {
+			if (chunks.isEmpty() || (last == CHUNK_SIZE)) {
+				chunks.add(new byte[CHUNK_SIZE]);
+				last = 0;
+			}
+			return chunks.get(chunks.size() - 1);
+		}
+	}
+
+	/**
+	 * Resumable gzip decoder. Its state can be carried from a segment to the
+	 * next one at any byte: in the middle of a header, of the deflated data or
+	 * of a trailer.
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Inflation {
+
+		private static final int BOUNDARY = 0;
+		private static final int HEADER = 1;
+		private static final int DATA = 2;
+		private static final int TRAILER = 3;
+		private static final int GARBAGE = 4;
+
+		/**
+		 * Current phase
+		 */
+		private volatile int phase = BOUNDARY;
+
+		/**
+		 * Number of members decoded
+		 */
+		private long members = 0;
+
+		/**
+		 * Header bytes read so far
+		 */
+		private byte[] header = new byte[64];
+
+		/**
+		 * Number of header bytes read so far
+		 */
+		private int headerLength = 0;
+
+		/**
+		 * The inflater, created when a member starts and freed by
+		 * {@link #release()}
+		 */
+		private Inflater inflater = null;
+
+		/**
+		 * Checksum of the current member
+		 */
+		private CRC32 crc = new CRC32();
+
+		/**
+		 * Decompressed size of the current member
+		 */
+		private long size = 0;
+
+		/**
+		 * Trailer bytes read so far
+		 */
+		private byte[] trailer = new byte[8];
+
+		/**
+		 * Number of trailer bytes read so far
+		 */
+		private int trailerLength = 0;
+
+		/**
+		 * @return <code>true</code> if the decoder is between two members
+		 */
+		private boolean atBoundary() {
+			return phase == BOUNDARY;
+		}
+
+		/**
+		 * @return <code>true</code> if the data decoded so far is a complete
+		 *         gzip file
+		 */
+		private boolean isComplete() {
+			return (phase == BOUNDARY) || (phase == GARBAGE);
+		}
+
+		/**
+		 * Frees the native memory of the inflater, which is created again if
+		 * another member is decoded. It can only be called between members.
+		 */
+		private void release() {
+			if (inflater != null) {
+				inflater.end();
+				inflater = null;
+			}
+		}
+
+		/**
+		 * Decodes compressed data
+		 *
+		 * @param data
+		 *            the compressed data
+		 * @param length
+		 *            number of compressed bytes
+		 * @param out
+		 *            the decompressed data
+		 * @throws IOException
+		 *             if the data is not in gzip format
+		 */
+		private void inflate(byte[] data, int length, Output out)
+				throws IOException {
+			int pos = 0;
+			while (pos < length) {
+				switch (phase) {
+				case BOUNDARY:
+					headerLength = 0;
+					phase = HEADER;
+					break;
+				case HEADER:
+					if (headerLength == header.length) {
+						byte[] grown = new byte[header.length * 2];
+						System.arraycopy(header, 0, grown, 0, headerLength);
+						header = grown;
+					}
+					header[headerLength++] = data[pos++];
+					int end;
+					try {
+						end = headerEnd(header, headerLength);
+					} catch (ZipException e) {
+						if (members == 0)
+							throw e;
+						// Trailing garbage is ignored as GZIPInputStream does
+						phase = GARBAGE;
+						break;
+					}
+					if (end > 0) {
+						if (inflater == null)
+							inflater = new Inflater(true);
+						else
+							inflater.reset();
+						crc.reset();
+						size = 0;
+						phase = DATA;
+					}
+					break;
+				case DATA:
+					inflater.setInput(data, pos, length - pos);
+					while (!inflater.finished() && !inflater.needsInput()) {
+						byte[] chunk = out.current();
+						int n;
+						try {
+							n = inflater.inflate(chunk, out.last, CHUNK_SIZE
+									- out.last);
+						} catch (DataFormatException e) {
+							throw new ZipException(e.getMessage());
+						}
+						if ((n == 0) && inflater.needsDictionary())
+							throw new ZipException("Unexpected dictionary");
+						crc.update(chunk, out.last, n);
+						out.last += n;
+						size += n;
+					}
+					pos = length - inflater.getRemaining();
+					if (inflater.finished()) {
+						trailerLength = 0;
+						phase = TRAILER;
+					}
+					break;
+				case TRAILER:
+					trailer[trailerLength++] = data[pos++];
+					if (trailerLength == trailer.length) {
+						if ((readInt(trailer, 0) != crc.getValue())
+								|| (readInt(trailer, 4) != (size & 0xFFFFFFFFL)))
+							throw new ZipException("Corrupt GZIP trailer");
+						members++;
+						phase = BOUNDARY;
+					}
+					break;
+				default:
+					pos = length;
+				}
+			}
+		}
+
+		/**
+		 * @param data
+		 *            the bytes
+		 * @param pos
+		 *            offset of the integer
+		 * @return the unsigned little endian integer at the specified offset
+		 */
+		private static long readInt(byte[] data, int pos) {
+			return ((data[pos] & 0xFFL) | ((data[pos + 1] & 0xFFL) << 8)
+					| ((data[pos + 2] & 0xFFL) << 16) | ((data[pos + 3] & 0xFFL) << 24));
+		}
+
+		/**
+		 * Computes the length of a gzip header
+		 *
+		 * @param h
+		 *            the header bytes read so far
+		 * @param length
+		 *            number of header bytes read so far
+		 * @return the length of the header or -1 if the header is not complete
+		 * @throws ZipException
+		 *             if the bytes are not a gzip header
+		 */
+		private static int headerEnd(byte[] h, int length) throws ZipException {
+			if ((length >= 1) && (h[0] != 0x1f))
+				throw new ZipException("Not in GZIP format");
+			if ((length >= 2) && (h[1] != (byte) 0x8b))
+				throw new ZipException("Not in GZIP format");
+			if ((length >= 3) && (h[2] != 8))
+				throw new ZipException("Unsupported compression method");
+			if (length < HEADER_SIZE)
+				return -1;
+			int flags = h[3] & 0xFF;
+			int pos = HEADER_SIZE;
+			if ((flags & 4) != 0) {
+				if (length < pos + 2)
+					return -1;
+				pos += 2 + ((h[pos] & 0xFF) | ((h[pos + 1] & 0xFF) << 8));
+			}
+			if ((flags & 8) != 0)
+				pos = skipZeroTerminated(h, pos, length);
+			if ((pos > 0) && ((flags & 16) != 0))
+				pos = skipZeroTerminated(h, pos, length);
+			if ((pos > 0) && ((flags & 2) != 0))
+				pos += 2;
+			return ((pos > 0) && (pos <= length)) ? pos : -1;
+		}
+
+		/**
+		 * @param h
+		 *            header bytes
+		 * @param pos
+		 *            start of a zero terminated field
+		 * @param length
+		 *            number of header bytes read so far
+		 * @return the offset following the field or -1 if the field is not
+		 *         complete
+		 */
+		private static int skipZeroTerminated(byte[] h, int pos, int length) {
+			for (int i = pos; i < length; i++) {
+				if (h[i] == 0)
+					return i + 1;
+			}
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the stages of a process. Stages can be published as MBeans
+ * (domain <code>streamingtrim</code>, type <code>Stage</code>) for watching a
+ * running process with a JMX console, and summarized in a table once the
+ * process is over.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class PipelineMetrics {
+
+	/**
+	 * JMX domain of the stages
+	 */
+	public static final String DOMAIN = "streamingtrim";
+
+	/**
+	 * Logger for registration errors
+	 */
+	private static final Logger LOGGER = Logger.getLogger(PipelineMetrics.class
+			.getName());
+
+	/**
+	 * The name of the process
+	 */
+	private String name;
+
+	/**
+	 * The stages, parents before children
+	 */
+	private List<StageMetrics> stages = new ArrayList<StageMetrics>();
+
+	/**
+	 * Names of the MBeans registered
+	 */
+	private List<ObjectName> registered = new ArrayList<ObjectName>();
+
+	/**
+	 * @param name
+	 *            the name of the process, used in the names of the MBeans
+	 */
+	public PipelineMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds a stage
+	 *
+	 * @param stageName
+	 *            the name of the stage
+	 * @param parent
+	 *            the stage notifying the new stage or <code>null</code>
+	 * @param ownThread
+	 *            <code>true</code> if the new stage runs on a thread other
+	 *            than the thread of its parent
+	 * @return the metrics of the new stage
+	 */
+	public StageMetrics addStage(String stageName, StageMetrics parent,
+			boolean ownThread) {
+		StageMetrics stage = new StageMetrics(stageName, parent, ownThread);
+		stages.add(stage);
+		return stage;
+	}
+
+	/**
+	 * @return the stages, parents before children
+	 */
+	public List<StageMetrics> getStages() {
+		return Collections.unmodifiableList(stages);
+	}
+
+	/**
+	 * Returns a stage based on its name
+	 *
+	 * @param stageName
+	 *            the name of the stage
+	 * @return the stage or <code>null</code>
+	 */
+	public StageMetrics getStage(String stageName) {
+		for (StageMetrics s : stages) {
+			if (s.getName().equals(stageName))
+				return s;
+		}
+		return null;
+	}
+
+	/**
+	 * Registers the stages in the platform MBean server. Stages that can not
+	 * be registered are logged and skipped.
+	 */
+	public void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (StageMetrics s : stages) {
+			try {
+				Hashtable<String, String> keys = new Hashtable<String, String>();
+				keys.put("type", "Stage");
+				keys.put("process", ObjectName.quote(name));
+				keys.put("name", ObjectName.quote(s.getName()));
+				ObjectName objectName = new ObjectName(DOMAIN, keys);
+				server.registerMBean(s, objectName);
+				registered.add(objectName);
+			} catch (JMException e) {
+				LOGGER.log(Level.WARNING, "Cannot register stage " + s.getName(),
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the stages from the platform MBean server
+	 */
+	public void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName n : registered) {
+			try {
+				server.unregisterMBean(n);
+			} catch (JMException e) {
+				LOGGER.log(Level.WARNING, "Cannot unregister stage " + n, e);
+			}
+		}
+		registered.clear();
+	}
+
+	/**
+	 * @return a table with a row for each stage, children indented below
+	 *         their parent. Times are in seconds; the time of a stage does
+	 *         not include the stages it notifies on its own thread. Stages
+	 *         running on threads of their own are marked with an asterisk.
+	 */
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-40s %12s %14s %10s %10s %8s %10s %12s%n",
+				"stage", "records", "bases", "time (s)", "blocked", "waits",
+				"flush", "records/s"));
+		for (StageMetrics s : stages) {
+			if (s.getParent() == null)
+				appendRow(sb, s, "");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the row of a stage and of its children
+	 *
+	 * @param sb
+	 *            the table
+	 * @param stage
+	 *            the stage
+	 * @param indent
+	 *            the indentation of the stage
+	 */
+	private void appendRow(StringBuilder sb, StageMetrics stage, String indent) {
+		String label = indent + stage.getName()
+				+ (stage.hasOwnThread() ? " *" : "");
+		sb.append(String.format(
+				"%-40s %12d %14d %10.3f %10.3f %8d %10.3f %12.0f%n", label,
+				stage.getRecords(), stage.getBases(),
+				stage.getSelfNanos() / 1e9, stage.getBlockedNanos() / 1e9,
+				stage.getBlockedCount(), stage.getFlushNanos() / 1e9,
+				stage.getRecordsPerSecond()));
+		for (StageMetrics s : stages) {
+			if (s.getParent() == stage)
+				appendRow(sb, s, indent + "  ");
+		}
+	}
+
+}
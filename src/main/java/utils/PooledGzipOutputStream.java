@@ -0,0 +1,125 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Gzip output stream (as written by {@link java.util.zip.GZIPOutputStream})
+ * compressing with a deflater borrowed from a {@link DeflaterPool}. The
+ * deflater is given back to the pool when the stream is closed.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class PooledGzipOutputStream extends DeflaterOutputStream {
+
+	/**
+	 * Size of the output buffer
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Gzip header: magic, deflate method, no flags, no time, no extra flags,
+	 * unknown OS
+	 */
+	private static final byte[] HEADER = new byte[] { 0x1f, (byte) 0x8b, 8, 0,
+			0, 0, 0, 0, 0, (byte) 0xff };
+
+	/**
+	 * The pool of the deflater
+	 */
+	private DeflaterPool pool;
+
+	/**
+	 * Checksum of the uncompressed data
+	 */
+	private CRC32 crc = new CRC32();
+
+	/**
+	 * <code>true</code> once the trailer has been written
+	 */
+	private boolean finished = false;
+
+	/**
+	 * <code>true</code> once the stream has been closed
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Creates the stream, waiting for a deflater if all the deflaters of the
+	 * pool are in use
+	 * 
+	 * @param out
+	 *            the underlying stream
+	 * @param pool
+	 *            the pool of deflaters
+	 * @throws IOException
+	 *             if an I/O error occurs writing the header
+	 */
+	public PooledGzipOutputStream(OutputStream out, DeflaterPool pool)
+			throws IOException {
+		super(out, pool.acquire(), BUFFER_SIZE);
+		this.pool = pool;
+		try {
+			out.write(HEADER);
+		} catch (IOException e) {
+			pool.release(def);
+			closed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		super.write(b, off, len);
+		crc.update(b, off, len);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (finished)
+			return;
+		super.finish();
+		long size = def.getBytesRead();
+		writeInt((int) crc.getValue());
+		writeInt((int) size);
+		finished = true;
+	}
+
+	/**
+	 * Writes an integer in little endian order
+	 * 
+	 * @param value
+	 *            the integer
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void writeInt(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+
+	/**
+	 * Writes the trailer, closes the underlying stream and gives the
+	 * deflater back to the pool
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			finish();
+		} finally {
+			pool.release(def);
+			out.close();
+		}
+	}
+
+}
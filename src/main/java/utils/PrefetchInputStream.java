@@ -0,0 +1,304 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream reading its source on a dedicated thread. Data is read in
+ * advance into a fixed pool of buffers which are handed to the reading thread
+ * through a bounded queue and recycled once consumed, so that reading (and
+ * inflating, if the source is a compressed stream) overlaps with the parsing
+ * of the data already read. The number of times the reading thread had to
+ * wait for data is recorded and can be used to tell whether the parser or the
+ * source is the bottleneck: as a {@link Blocking} object, the stream reports
+ * it to the {@link StageMetrics} of the reader reading it.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class PrefetchInputStream extends InputStream implements Blocking {
+
+	/**
+	 * Default size of the buffers
+	 */
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * Default number of buffers
+	 */
+	private static final int BUFFERS = 4;
+
+	/**
+	 * The source stream
+	 */
+	private InputStream in = null;
+
+	/**
+	 * Buffers filled and waiting to be consumed
+	 */
+	private BlockingQueue<Chunk> filled = null;
+
+	/**
+	 * Buffers consumed and ready to be filled again
+	 */
+	private BlockingQueue<Chunk> free = null;
+
+	/**
+	 * Thread reading from the source
+	 */
+	private Thread prefetcher = null;
+
+	/**
+	 * <code>true</code> once the stream has been closed
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Buffer being consumed
+	 */
+	private Chunk current = null;
+
+	/**
+	 * Position in the buffer being consumed
+	 */
+	private int pos = 0;
+
+	/**
+	 * Number of times the reader waited for a buffer
+	 */
+	private volatile long stalls = 0;
+
+	/**
+	 * Time spent waiting for buffers in nanoseconds
+	 */
+	private volatile long stallTime = 0;
+
+	/**
+	 * Number of buffers consumed
+	 */
+	private long chunks = 0;
+
+	/**
+	 * Creates the stream with the default buffers
+	 *
+	 * @param in
+	 *            the source stream
+	 */
+	public PrefetchInputStream(InputStream in) {
+		this(in, BUFFER_SIZE, BUFFERS);
+	}
+
+	/**
+	 * Creates the stream
+	 *
+	 * @param in
+	 *            the source stream
+	 * @param bufferSize
+	 *            size of each buffer
+	 * @param buffers
+	 *            number of buffers read in advance
+	 */
+	public PrefetchInputStream(InputStream in, int bufferSize, int buffers) {
+		if ((bufferSize < 1) || (buffers < 1))
+			throw new IllegalArgumentException(
+					"Buffer size and number of buffers must be positive");
+		this.in = in;
+		// One more slot for the end of stream marker
+		this.filled = new ArrayBlockingQueue<Chunk>(buffers + 1);
+		this.free = new ArrayBlockingQueue<Chunk>(buffers);
+		for (int i = 0; i < buffers; i++)
+			free.add(new Chunk(new byte[bufferSize]));
+		this.prefetcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				prefetch();
+			}
+		}, "prefetch");
+		prefetcher.setDaemon(true);
+		prefetcher.start();
+	}
+
+	/**
+	 * Body of the prefetching thread
+	 */
+	private void prefetch() {
+		Chunk end = new Chunk(null);
+		try {
+			while (true) {
+				Chunk chunk = free.take();
+				chunk.length = 0;
+				int read = 0;
+				while ((chunk.length < chunk.data.length)
+						&& ((read = in.read(chunk.data, chunk.length,
+								chunk.data.length - chunk.length)) >= 0))
+					chunk.length += read;
+				if (chunk.length > 0)
+					filled.put(chunk);
+				if (read < 0)
+					break;
+			}
+		} catch (InterruptedException e) {
+			return;
+		} catch (IOException e) {
+			end.error = e;
+		} catch (RuntimeException e) {
+			// The source may fail in any way when closed while reading
+			if (closed)
+				return;
+			end.error = new IOException(e);
+		}
+		try {
+			filled.put(end);
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!available(true))
+			return -1;
+		return current.data[pos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!available(true))
+			return -1;
+		int read = Math.min(len, current.length - pos);
+		System.arraycopy(current.data, pos, b, off, read);
+		pos += read;
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (!available(false))
+			return 0;
+		return current.length - pos;
+	}
+
+	/**
+	 * Makes sure there are bytes to consume in the current buffer
+	 *
+	 * @param wait
+	 *            if <code>true</code> waits for the next buffer
+	 * @return <code>false</code> if there are no bytes to consume
+	 * @throws IOException
+	 *             if the source stream failed
+	 */
+	private boolean available(boolean wait) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if ((current != null) && (pos < current.length))
+			return true;
+		if ((current != null) && (current.data == null)) {
+			// End of stream
+			if (current.error != null)
+				throw current.error;
+			return false;
+		}
+		Chunk next = filled.poll();
+		if (next == null) {
+			if (!wait)
+				return false;
+			stalls++;
+			long start = System.nanoTime();
+			try {
+				next = filled.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for data", e);
+			}
+			stallTime += System.nanoTime() - start;
+		}
+		if (current != null)
+			free.add(current);
+		current = next;
+		pos = 0;
+		if (current.data == null)
+			return available(wait);
+		chunks++;
+		return true;
+	}
+
+	/**
+	 * @return the number of times the reader had to wait for data
+	 */
+	public long getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * @return the time in nanoseconds the reader spent waiting for data
+	 */
+	public long getStallTime() {
+		return stallTime;
+	}
+
+	@Override
+	public long getBlockedNanos() {
+		return stallTime;
+	}
+
+	@Override
+	public long getBlockedCount() {
+		return stalls;
+	}
+
+	/**
+	 * @return the number of buffers consumed so far
+	 */
+	public long getChunks() {
+		return chunks;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		prefetcher.interrupt();
+		in.close();
+	}
+
+	/**
+	 * A buffer and the number of valid bytes in it. A chunk without data marks
+	 * the end of the stream.
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	private static class Chunk {
+
+		/**
+		 * The data
+		 */
+		private byte[] data;
+
+		/**
+		 * Number of valid bytes
+		 */
+		private int length = 0;
+
+		/**
+		 * Error occurred reading the source
+		 */
+		private IOException error = null;
+
+		/**
+		 * @param data
+		 *            the buffer
+		 */
+		private Chunk(byte[] data) {
+			this.data = data;
+		}
+	}
+
+}
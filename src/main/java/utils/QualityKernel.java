@@ -0,0 +1,141 @@
+package utils;
+
+/**
+ * Loops over quality values run for every read: decoding the quality
+ * characters and finding where the cumulative quality of a read falls below
+ * the cutoff. This class runs them one value at a time; on Java 17 and later
+ * the build also compiles a version processing many values at a time with the
+ * SIMD instructions of the processor (through the
+ * <code>jdk.incubator.vector</code> module), returned by
+ * {@link #getInstance()} when the module is available, i.e. when the virtual
+ * machine is started with <code>--add-modules jdk.incubator.vector</code>.
+ * Both versions return the same results.
+ * <p>
+ * Setting the system property <code>streamingtrim.vector</code> to
+ * <code>false</code> disables the SIMD version.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class QualityKernel {
+
+	/**
+	 * The class of the SIMD version, compiled from <code>src/main/java17</code>
+	 */
+	private static final String VECTOR_KERNEL = "utils.VectorQualityKernel";
+
+	/**
+	 * The version running one value at a time
+	 */
+	private static final QualityKernel SCALAR = new QualityKernel();
+
+	/**
+	 * The fastest version available
+	 */
+	private static final QualityKernel INSTANCE;
+
+	static {
+		QualityKernel kernel = SCALAR;
+		if (!"false".equals(System.getProperty("streamingtrim.vector"))) {
+			try {
+				kernel = (QualityKernel) Class.forName(VECTOR_KERNEL)
+						.getConstructor().newInstance();
+			} catch (Exception e) {
+				// Not compiled (Java 8 build)
+			} catch (LinkageError e) {
+				// Older virtual machine or module not added
+			}
+		}
+		INSTANCE = kernel;
+	}
+
+	protected QualityKernel() {
+	}
+
+	/**
+	 * @return the fastest version available
+	 */
+	public static QualityKernel getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the version running one value at a time
+	 */
+	public static QualityKernel getScalar() {
+		return SCALAR;
+	}
+
+	/**
+	 * @return <code>true</code> if this version uses SIMD instructions
+	 */
+	public boolean isVectorized() {
+		return false;
+	}
+
+	/**
+	 * Decodes quality characters, subtracting the encoding offset
+	 *
+	 * @param quality
+	 *            the quality characters
+	 * @param offset
+	 *            the first character
+	 * @param length
+	 *            the number of characters
+	 * @param qualityOffset
+	 *            the offset of the encoding
+	 * @param lowerBound
+	 *            the lowest quality value allowed
+	 * @param upperBound
+	 *            the highest quality value allowed
+	 * @param values
+	 *            array receiving the values, at least <code>length</code>
+	 *            long
+	 * @return <code>false</code> if a value is out of bounds, in which case
+	 *         the content of <code>values</code> is undefined
+	 */
+	public boolean decode(byte[] quality, int offset, int length,
+			int qualityOffset, int lowerBound, int upperBound, int[] values) {
+		for (int i = 0; i < length; i++) {
+			int q = (quality[offset + i] & 0xFF) - qualityOffset;
+			if ((q < lowerBound) || (q > upperBound))
+				return false;
+			values[i] = q;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds where a read has to be cut so that the quality of any suffix of
+	 * the bases kept is, on average, at least the cutoff. The read is scanned
+	 * from its end, summing the difference between the quality and the cutoff
+	 * and cutting wherever the sum becomes negative. This amounts to cutting
+	 * at the last maximum of the prefix sums of the differences, which is how
+	 * the SIMD version finds it.
+	 *
+	 * @param qual
+	 *            the quality values
+	 * @param length
+	 *            the number of quality values
+	 * @param cutoff
+	 *            the cutoff
+	 * @return the number of bases kept
+	 */
+	public int cutIndex(int[] qual, int length, int cutoff) {
+		int cutIndex = length;
+		int cumQuality = 0;
+
+		for (int i = (length - 1); i >= 0; i--) {
+			int cumCutoff = cutoff * (cutIndex - i);
+			cumQuality += qual[i];
+
+			if ((cumQuality - cumCutoff) < 0) {
+				cutIndex = i;
+				cumQuality = 0;
+			}
+		}
+		return cutIndex;
+	}
+
+}
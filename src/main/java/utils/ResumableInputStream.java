@@ -0,0 +1,362 @@
+package utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Stream reading a plain or gzipped file which can be reopened at any
+ * position. Positions are offsets in the uncompressed data.
+ * <p>
+ * Plain files are reopened seeking to the position. Gzipped files are
+ * inflated one member at a time, remembering where each member starts in the
+ * file and in the uncompressed data: these access points let the stream be
+ * reopened inflating from the start of the member holding the position, so
+ * that files made of many members (as those written by <code>bgzip</code> or
+ * by {@link ResumableOutputStream}) are resumed at little cost. A file made of
+ * a single member has a single access point and is inflated again from its
+ * start, without the cost of processing the data skipped.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class ResumableInputStream extends InputStream {
+
+	/**
+	 * Size of the buffer of compressed data
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The file
+	 */
+	private FileInputStream in;
+
+	/**
+	 * <code>true</code> if the file is gzipped
+	 */
+	private boolean gzip;
+
+	/**
+	 * Buffer of compressed data
+	 */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Buffer of the single byte reads
+	 */
+	private byte[] single = new byte[1];
+
+	/**
+	 * Offset in the file of the first byte of the buffer
+	 */
+	private long bufferOffset;
+
+	/**
+	 * Next byte of the buffer to read
+	 */
+	private int bufferPos = 0;
+
+	/**
+	 * Bytes in the buffer
+	 */
+	private int bufferLength = 0;
+
+	/**
+	 * The inflater
+	 */
+	private Inflater inflater = null;
+
+	/**
+	 * Checksum of the current member
+	 */
+	private CRC32 crc = new CRC32();
+
+	/**
+	 * Uncompressed size of the current member
+	 */
+	private long memberSize = 0;
+
+	/**
+	 * <code>true</code> while a member is being inflated
+	 */
+	private boolean inMember = false;
+
+	/**
+	 * <code>true</code> once the end of the file has been reached
+	 */
+	private boolean eof = false;
+
+	/**
+	 * Offset in the uncompressed data of the next byte returned
+	 */
+	private long position;
+
+	/**
+	 * Offsets in the file of the members, by offset in the uncompressed data
+	 */
+	private TreeMap<Long, Long> accessPoints = new TreeMap<Long, Long>();
+
+	/**
+	 * Opens a file from its start
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public ResumableInputStream(File file) throws IOException {
+		this(file, 0, 0, 0);
+	}
+
+	/**
+	 * Opens a file at a position
+	 *
+	 * @param file
+	 *            the file
+	 * @param accessOffset
+	 *            the offset in the file of an access point before the
+	 *            position, as returned by {@link #getAccessPoint(long)}
+	 * @param accessPosition
+	 *            the offset in the uncompressed data of the access point
+	 * @param position
+	 *            the position
+	 * @throws IOException
+	 *             if an I/O error occurs or the file ends before the
+	 *             position
+	 */
+	public ResumableInputStream(File file, long accessOffset,
+			long accessPosition, long position) throws IOException {
+		this.gzip = isGzip(file);
+		this.in = new FileInputStream(file);
+		if (!gzip) {
+			in.getChannel().position(position);
+			this.position = position;
+			return;
+		}
+		this.inflater = new Inflater(true);
+		in.getChannel().position(accessOffset);
+		this.bufferOffset = accessOffset;
+		this.position = accessPosition;
+		byte[] skipped = new byte[BUFFER_SIZE];
+		while (this.position < position) {
+			int read = read(skipped, 0,
+					(int) Math.min(skipped.length, position - this.position));
+			if (read < 0)
+				throw new EOFException("The file ends before the checkpoint");
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a file
+	 * @return <code>true</code> if the file starts with the gzip magic number
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static boolean isGzip(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return (raf.length() >= 2) && (raf.read() == 0x1f)
+					&& (raf.read() == 0x8b);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		int read = read(single, 0, 1);
+		return (read < 0) ? -1 : (single[0] & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!gzip) {
+			int read = in.read(b, off, len);
+			if (read > 0)
+				position += read;
+			return read;
+		}
+		while (true) {
+			if (!inMember && !startMember())
+				return -1;
+			int n;
+			try {
+				n = inflater.inflate(b, off, len);
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+			if (n > 0) {
+				crc.update(b, off, n);
+				memberSize += n;
+				position += n;
+				return n;
+			}
+			if (inflater.finished()) {
+				bufferPos = bufferLength - inflater.getRemaining();
+				endMember();
+			} else if (inflater.needsDictionary()) {
+				throw new ZipException("Unexpected dictionary");
+			} else if (inflater.needsInput()) {
+				bufferPos = bufferLength;
+				if (!fill())
+					throw new EOFException(
+							"Unexpected end of ZLIB input stream");
+				inflater.setInput(buffer, bufferPos, bufferLength - bufferPos);
+			}
+		}
+	}
+
+	/**
+	 * Reads the header of the next member and records its access point
+	 *
+	 * @return <code>false</code> if there are no other members
+	 * @throws IOException
+	 *             if the header is not valid
+	 */
+	private boolean startMember() throws IOException {
+		if (eof || ((bufferPos == bufferLength) && !fill()))
+			return false;
+		long offset = bufferOffset + bufferPos;
+		int first = readByte();
+		int second = readByte();
+		if ((first != 0x1f) || (second != 0x8b)) {
+			if (accessPoints.isEmpty() && (offset == 0))
+				throw new ZipException("Not in GZIP format");
+			// Trailing garbage is ignored as GZIPInputStream does
+			eof = true;
+			return false;
+		}
+		if (readByte() != 8)
+			throw new ZipException("Unsupported compression method");
+		int flags = readByte();
+		for (int i = 0; i < 6; i++)
+			readByte();
+		if ((flags & 4) != 0) {
+			int length = readByte() | (readByte() << 8);
+			for (int i = 0; i < length; i++)
+				readByte();
+		}
+		if ((flags & 8) != 0)
+			while (readByte() != 0)
+				;
+		if ((flags & 16) != 0)
+			while (readByte() != 0)
+				;
+		if ((flags & 2) != 0) {
+			readByte();
+			readByte();
+		}
+		accessPoints.put(position, offset);
+		inflater.reset();
+		inflater.setInput(buffer, bufferPos, bufferLength - bufferPos);
+		crc.reset();
+		memberSize = 0;
+		inMember = true;
+		return true;
+	}
+
+	/**
+	 * Reads and checks the trailer of the current member
+	 *
+	 * @throws IOException
+	 *             if the trailer does not match the data
+	 */
+	private void endMember() throws IOException {
+		long expectedCrc = readInt();
+		long expectedSize = readInt();
+		if (expectedCrc != crc.getValue())
+			throw new ZipException("Corrupt GZIP trailer");
+		if (expectedSize != (memberSize & 0xFFFFFFFFL))
+			throw new ZipException("Corrupt GZIP trailer");
+		inMember = false;
+	}
+
+	/**
+	 * @return the next byte of compressed data
+	 * @throws IOException
+	 *             if the file ends
+	 */
+	private int readByte() throws IOException {
+		if ((bufferPos == bufferLength) && !fill())
+			throw new EOFException("Unexpected end of GZIP stream");
+		return buffer[bufferPos++] & 0xFF;
+	}
+
+	/**
+	 * @return the next little endian integer of compressed data
+	 * @throws IOException
+	 *             if the file ends
+	 */
+	private long readInt() throws IOException {
+		return readByte() | (readByte() << 8) | (readByte() << 16)
+				| ((long) readByte() << 24);
+	}
+
+	/**
+	 * Reads the next block of compressed data
+	 *
+	 * @return <code>false</code> if the file has ended
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private boolean fill() throws IOException {
+		bufferOffset += bufferLength;
+		bufferPos = 0;
+		bufferLength = 0;
+		int read = in.read(buffer);
+		if (read <= 0)
+			return false;
+		bufferLength = read;
+		return true;
+	}
+
+	/**
+	 * @return the offset in the uncompressed data of the next byte returned
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the last access point before a position, forgetting the access
+	 * points before it: the position must not be lower than the positions
+	 * already passed to this method.
+	 *
+	 * @param position
+	 *            a position already read
+	 * @return the offset in the file and in the uncompressed data of the
+	 *         access point
+	 */
+	public long[] getAccessPoint(long position) {
+		if (!gzip)
+			return new long[] { position, position };
+		Map.Entry<Long, Long> e = accessPoints.floorEntry(position);
+		if (e == null)
+			throw new IllegalArgumentException(
+					"The position has not been read yet");
+		accessPoints.headMap(e.getKey()).clear();
+		return new long[] { e.getValue(), e.getKey() };
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (inflater != null)
+			inflater.end();
+		in.close();
+	}
+
+}
@@ -0,0 +1,264 @@
+package utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Stream writing a plain or gzipped file which can be truncated at a
+ * checkpoint and written again from there. Gzipped files are written as a
+ * sequence of members, a member ending at each checkpoint, so that the file
+ * is valid at every checkpoint and a run resumed from a checkpoint appends
+ * new members to it.
+ * <p>
+ * Data is deflated in blocks of fixed size, whatever the way it is written
+ * and flushed: the compressed bytes only depend on the data written since the
+ * last checkpoint, so that a resumed run writes the same file as a run never
+ * interrupted, provided that it takes its checkpoints after the same records.
+ * For the same reason {@link #flush()} does not flush the deflater: only
+ * {@link #checkpoint()} and {@link #close()} do.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class ResumableOutputStream extends OutputStream {
+
+	/**
+	 * Size of the blocks deflated at a time
+	 */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Gzip header: magic, deflate method, no flags, no time, no extra flags,
+	 * unknown OS
+	 */
+	private static final byte[] HEADER = new byte[] { 0x1f, (byte) 0x8b, 8, 0,
+			0, 0, 0, 0, 0, (byte) 0xff };
+
+	/**
+	 * The file
+	 */
+	private FileOutputStream out;
+
+	/**
+	 * The deflater or <code>null</code> if the file is not gzipped
+	 */
+	private Deflater deflater = null;
+
+	/**
+	 * Uncompressed data waiting to be deflated
+	 */
+	private byte[] block;
+
+	/**
+	 * Bytes in the block
+	 */
+	private int blockLength = 0;
+
+	/**
+	 * Compressed data
+	 */
+	private byte[] compressed;
+
+	/**
+	 * Checksum of the current member
+	 */
+	private CRC32 crc = new CRC32();
+
+	/**
+	 * Uncompressed size of the current member
+	 */
+	private long memberSize = 0;
+
+	/**
+	 * <code>true</code> while a member is being written
+	 */
+	private boolean inMember = false;
+
+	/**
+	 * Bytes written to the file
+	 */
+	private long position;
+
+	/**
+	 * <code>true</code> once the stream has been closed
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Creates the stream
+	 *
+	 * @param file
+	 *            the file
+	 * @param gzip
+	 *            <code>true</code> to gzip the data
+	 * @param resumeAt
+	 *            the length of the file at the checkpoint resumed or 0 to
+	 *            write a new file
+	 * @throws IOException
+	 *             if the file can not be opened or is shorter than
+	 *             <code>resumeAt</code>
+	 */
+	public ResumableOutputStream(File file, boolean gzip, long resumeAt)
+			throws IOException {
+		if (resumeAt > 0) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				if (raf.length() < resumeAt)
+					throw new IOException(String.format(
+							"%s is shorter than at the checkpoint", file));
+				raf.setLength(resumeAt);
+			} finally {
+				raf.close();
+			}
+		}
+		this.out = new FileOutputStream(file, resumeAt > 0);
+		this.position = resumeAt;
+		if (gzip) {
+			this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			this.block = new byte[BLOCK_SIZE];
+			this.compressed = new byte[BLOCK_SIZE];
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (deflater == null) {
+			out.write(b, off, len);
+			position += len;
+			return;
+		}
+		if (!inMember)
+			startMember();
+		crc.update(b, off, len);
+		memberSize += len;
+		while (len > 0) {
+			int n = Math.min(len, block.length - blockLength);
+			System.arraycopy(b, off, block, blockLength, n);
+			blockLength += n;
+			off += n;
+			len -= n;
+			if (blockLength == block.length)
+				deflateBlock();
+		}
+	}
+
+	/**
+	 * Writes the header of a new member
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void startMember() throws IOException {
+		writeOut(HEADER, HEADER.length);
+		deflater.reset();
+		crc.reset();
+		memberSize = 0;
+		inMember = true;
+	}
+
+	/**
+	 * Deflates the block
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void deflateBlock() throws IOException {
+		deflater.setInput(block, 0, blockLength);
+		while (!deflater.needsInput())
+			writeOut(compressed, deflater.deflate(compressed));
+		blockLength = 0;
+	}
+
+	/**
+	 * Deflates the block, ends the deflate stream and writes the trailer of
+	 * the current member
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void endMember() throws IOException {
+		deflateBlock();
+		deflater.finish();
+		while (!deflater.finished())
+			writeOut(compressed, deflater.deflate(compressed));
+		long value = crc.getValue();
+		byte[] trailer = new byte[8];
+		for (int i = 0; i < 4; i++) {
+			trailer[i] = (byte) (value >>> (8 * i));
+			trailer[i + 4] = (byte) (memberSize >>> (8 * i));
+		}
+		writeOut(trailer, trailer.length);
+		inMember = false;
+	}
+
+	/**
+	 * Writes bytes to the file
+	 *
+	 * @param b
+	 *            the bytes
+	 * @param len
+	 *            the number of bytes
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void writeOut(byte[] b, int len) throws IOException {
+		out.write(b, 0, len);
+		position += len;
+	}
+
+	/**
+	 * Ends the current gzip member and forces the data to the disk
+	 *
+	 * @return the length of the file, to be passed to the stream resuming
+	 *         this one
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public long checkpoint() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (inMember)
+			endMember();
+		out.getFD().sync();
+		return position;
+	}
+
+	/**
+	 * @return the number of bytes written to the file
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			// An empty file is still a valid gzip file
+			if ((deflater != null) && (position == 0))
+				startMember();
+			if (inMember)
+				endMember();
+		} finally {
+			if (deflater != null)
+				deflater.end();
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,326 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single producer, multiple consumer ring buffer of reusable slots. Slots are
+ * created once and recycled, so that handing objects over from a thread to
+ * others does not allocate anything and does not take any lock: the producer
+ * claims a slot with {@link #next()}, fills it and makes it visible with
+ * {@link #publish(long)}; each {@link Reader} keeps its own sequence number
+ * and reads all the slots published so far at once. The producer waits
+ * (following the {@link WaitStrategy}) only if the slowest reader is a whole
+ * ring behind.
+ * <p>
+ * Readers must be created before the first slot is published and each of
+ * them must be used by a single thread, as well as the producer methods.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ * @param <E>
+ *            the type of slots
+ */
+public class RingBuffer<E> {
+
+	/**
+	 * The slots
+	 */
+	private Object[] slots;
+
+	/**
+	 * Mask to map a sequence to its slot
+	 */
+	private int mask;
+
+	/**
+	 * Last sequence published
+	 */
+	private Sequence cursor = new Sequence(-1);
+
+	/**
+	 * Sequences of the readers
+	 */
+	private volatile Sequence[] readers = new Sequence[0];
+
+	/**
+	 * Last sequence claimed by the producer
+	 */
+	private long claimed = -1;
+
+	/**
+	 * Lowest reader sequence seen by the producer
+	 */
+	private long cachedGate = -1;
+
+	/**
+	 * Strategy of the waiting threads
+	 */
+	private WaitStrategy wait;
+
+	/**
+	 * Time the producer has waited for the readers
+	 */
+	private long blockedNanos = 0;
+
+	/**
+	 * <code>true</code> once the producer has closed the ring
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a ring buffer
+	 *
+	 * @param size
+	 *            the number of slots, a power of 2
+	 * @param factory
+	 *            the factory of the slots
+	 * @param wait
+	 *            the strategy of the waiting threads
+	 */
+	public RingBuffer(int size, SlotFactory<E> factory, WaitStrategy wait) {
+		if ((size < 1) || (Integer.bitCount(size) != 1))
+			throw new IllegalArgumentException(
+					"The size of the ring must be a power of 2");
+		this.slots = new Object[size];
+		for (int i = 0; i < size; i++)
+			slots[i] = factory.newSlot();
+		this.mask = size - 1;
+		this.wait = wait;
+	}
+
+	/**
+	 * Adds a reader to this ring. The reader starts from the next slot to be
+	 * published.
+	 *
+	 * @return the reader
+	 */
+	public synchronized Reader newReader() {
+		Sequence sequence = new Sequence(cursor.get());
+		Sequence[] bigger = new Sequence[readers.length + 1];
+		System.arraycopy(readers, 0, bigger, 0, readers.length);
+		bigger[readers.length] = sequence;
+		readers = bigger;
+		return new Reader(sequence);
+	}
+
+	/**
+	 * Claims the next slot, waiting for the readers if the ring is full
+	 *
+	 * @return the sequence of the slot
+	 */
+	public long next() {
+		long next = claimed + 1;
+		long wrap = next - slots.length;
+		if (wrap > cachedGate) {
+			long gate = minimumReader(next - 1);
+			if (wrap > gate) {
+				long start = System.nanoTime();
+				int attempts = 0;
+				while (wrap > (gate = minimumReader(next - 1)))
+					wait.idle(++attempts);
+				blockedNanos += System.nanoTime() - start;
+			}
+			cachedGate = gate;
+		}
+		claimed = next;
+		return next;
+	}
+
+	/**
+	 * @param value
+	 *            the value returned if there are no readers
+	 * @return the lowest sequence of the readers
+	 */
+	private long minimumReader(long value) {
+		Sequence[] r = readers;
+		long min = value;
+		for (int i = 0; i < r.length; i++)
+			min = Math.min(min, r[i].get());
+		return min;
+	}
+
+	/**
+	 * @param sequence
+	 *            the sequence of a slot
+	 * @return the slot
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(long sequence) {
+		return (E) slots[(int) sequence & mask];
+	}
+
+	/**
+	 * Makes a slot (and all the slots before it) visible to the readers
+	 *
+	 * @param sequence
+	 *            the sequence of the slot
+	 */
+	public void publish(long sequence) {
+		cursor.lazySet(sequence);
+	}
+
+	/**
+	 * @return the last sequence published
+	 */
+	public long getCursor() {
+		return cursor.get();
+	}
+
+	/**
+	 * @return the lowest sequence released by the readers (the last sequence
+	 *         published if there are no readers)
+	 */
+	public long getMinimumSequence() {
+		return minimumReader(cursor.get());
+	}
+
+	/**
+	 * Waits for all the readers to release all the slots published
+	 */
+	public void awaitReaders() {
+		long last = cursor.get();
+		int attempts = 0;
+		while (minimumReader(last) < last)
+			wait.idle(++attempts);
+	}
+
+	/**
+	 * Tells the readers that no other slot will be published. Readers waiting
+	 * for new slots return.
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	/**
+	 * @return the time in nanoseconds the producer has waited for the readers
+	 *         in {@link #next()}
+	 */
+	public long getBlockedNanos() {
+		return blockedNanos;
+	}
+
+	/**
+	 * @return the number of slots
+	 */
+	public int size() {
+		return slots.length;
+	}
+
+	/**
+	 * Factory creating the slots of a ring buffer
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 * @param <E>
+	 *            the type of slots
+	 */
+	public interface SlotFactory<E> {
+		/**
+		 * @return a new slot
+		 */
+		public E newSlot();
+	}
+
+	/**
+	 * Reader of a ring buffer
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public class Reader {
+
+		/**
+		 * Last sequence released by this reader
+		 */
+		private Sequence sequence;
+
+		/**
+		 * @param sequence
+		 *            the sequence of this reader
+		 */
+		private Reader(Sequence sequence) {
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Waits for a slot to be published
+		 *
+		 * @param next
+		 *            the sequence of the slot
+		 * @return the last sequence published, at least <code>next</code>,
+		 *         or a lower value if the ring has been closed and all the
+		 *         slots have been published
+		 */
+		public long waitFor(long next) {
+			long available;
+			int attempts = 0;
+			while ((available = cursor.get()) < next) {
+				if (closed) {
+					// Slots published before closing must not be lost
+					return cursor.get();
+				}
+				wait.idle(++attempts);
+			}
+			return available;
+		}
+
+		/**
+		 * @param sequence
+		 *            the sequence of a slot
+		 * @return the slot
+		 */
+		public E get(long sequence) {
+			return RingBuffer.this.get(sequence);
+		}
+
+		/**
+		 * Releases all the slots up to the specified one, which can then be
+		 * reused by the producer
+		 *
+		 * @param sequence
+		 *            the sequence of the last slot read
+		 */
+		public void release(long sequence) {
+			this.sequence.lazySet(sequence);
+		}
+
+		/**
+		 * @return the last sequence released
+		 */
+		public long getSequence() {
+			return sequence.get();
+		}
+	}
+
+	/**
+	 * Sequence number padded to sit alone in its cache line, so that the
+	 * producer and the readers do not slow each other down updating their
+	 * sequences
+	 *
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private static class Sequence extends AtomicLong {
+
+		/**
+		 * Padding
+		 */
+		@SuppressWarnings("unused")
+		private long p1, p2, p3, p4, p5, p6, p7;
+
+		/**
+		 * @param value
+		 *            the initial value
+		 */
+		private Sequence(long value) {
+			super(value);
+		}
+	}
+
+}
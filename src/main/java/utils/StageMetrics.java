@@ -0,0 +1,222 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counters of a stage of a process (the reader, a listener or a group of
+ * concurrent listeners): records and bases received, time spent and time
+ * spent waiting for other threads. Counters are updated by the thread running
+ * the stage without any synchronization, so values read by other threads
+ * while the stage runs are approximate.
+ * <p>
+ * The time may be measured on a sample of the records only: the total time
+ * is then estimated from the time of the records measured. The time of a
+ * stage includes the time of the stages it notifies on its own thread, which
+ * is subtracted by {@link #getSelfNanos()}.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class StageMetrics implements StageMetricsMBean {
+
+	/**
+	 * The name of the stage
+	 */
+	private String name;
+
+	/**
+	 * The stage notifying this stage or <code>null</code>
+	 */
+	private StageMetrics parent;
+
+	/**
+	 * <code>true</code> if this stage runs on a thread other than the thread
+	 * of its parent
+	 */
+	private boolean ownThread;
+
+	/**
+	 * The stages notified by this stage
+	 */
+	private List<StageMetrics> children = new ArrayList<StageMetrics>();
+
+	/**
+	 * The object reporting the time this stage waits, or <code>null</code>
+	 */
+	private Blocking blocking = null;
+
+	/**
+	 * Records received
+	 */
+	private long records = 0;
+
+	/**
+	 * Bases received
+	 */
+	private long bases = 0;
+
+	/**
+	 * Time measured
+	 */
+	private long nanos = 0;
+
+	/**
+	 * Records whose time has been measured, 0 if the time has been measured
+	 * for all records at once
+	 */
+	private long timedRecords = 0;
+
+	/**
+	 * Time spent flushing
+	 */
+	private long flushNanos = 0;
+
+	/**
+	 * @param name
+	 *            the name of the stage
+	 * @param parent
+	 *            the stage notifying this stage or <code>null</code>
+	 * @param ownThread
+	 *            <code>true</code> if this stage runs on a thread other than
+	 *            the thread of its parent
+	 */
+	StageMetrics(String name, StageMetrics parent, boolean ownThread) {
+		this.name = name;
+		this.parent = parent;
+		this.ownThread = ownThread;
+		if (parent != null)
+			parent.children.add(this);
+	}
+
+	/**
+	 * Counts records received by this stage
+	 *
+	 * @param records
+	 *            the number of records
+	 * @param bases
+	 *            the number of bases of the records
+	 */
+	public void count(long records, long bases) {
+		this.records += records;
+		this.bases += bases;
+	}
+
+	/**
+	 * Adds the time measured for some records
+	 *
+	 * @param nanos
+	 *            the time in nanoseconds
+	 * @param timedRecords
+	 *            the number of records measured
+	 */
+	public void time(long nanos, long timedRecords) {
+		this.nanos += nanos;
+		this.timedRecords += timedRecords;
+	}
+
+	/**
+	 * Adds the time measured for all the records at once
+	 *
+	 * @param nanos
+	 *            the time in nanoseconds
+	 */
+	public void time(long nanos) {
+		this.nanos += nanos;
+	}
+
+	/**
+	 * Adds time spent flushing
+	 *
+	 * @param nanos
+	 *            the time in nanoseconds
+	 */
+	public void flushed(long nanos) {
+		this.flushNanos += nanos;
+	}
+
+	/**
+	 * @param blocking
+	 *            the object reporting the time this stage waits
+	 */
+	public void setBlocking(Blocking blocking) {
+		this.blocking = blocking;
+	}
+
+	/**
+	 * @return the stage notifying this stage or <code>null</code>
+	 */
+	public StageMetrics getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return <code>true</code> if this stage runs on a thread other than the
+	 *         thread of its parent
+	 */
+	public boolean hasOwnThread() {
+		return ownThread;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getRecords() {
+		return records;
+	}
+
+	@Override
+	public long getBases() {
+		return bases;
+	}
+
+	/**
+	 * The time includes the time spent flushing
+	 */
+	@Override
+	public long getNanos() {
+		long n = nanos;
+		long timed = timedRecords;
+		if ((timed > 0) && (timed < records))
+			n = (long) ((double) n * records / timed);
+		return n + flushNanos;
+	}
+
+	@Override
+	public long getSelfNanos() {
+		long self = getNanos();
+		// Children are flushed by the process, not by their parent
+		for (StageMetrics c : children) {
+			if (!c.ownThread)
+				self -= c.getNanos() - c.flushNanos;
+		}
+		// Estimates of sampled stages may exceed the time of their parent
+		return Math.max(0, self);
+	}
+
+	@Override
+	public long getBlockedNanos() {
+		return (blocking == null) ? 0 : blocking.getBlockedNanos();
+	}
+
+	@Override
+	public long getBlockedCount() {
+		return (blocking == null) ? 0 : blocking.getBlockedCount();
+	}
+
+	@Override
+	public long getFlushNanos() {
+		return flushNanos;
+	}
+
+	@Override
+	public double getRecordsPerSecond() {
+		long self = getSelfNanos();
+		return (self == 0) ? 0 : records * 1e9 / self;
+	}
+
+}
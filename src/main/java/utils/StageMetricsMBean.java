@@ -0,0 +1,60 @@
+package utils;
+
+/**
+ * Management interface of a {@link StageMetrics}
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface StageMetricsMBean {
+
+	/**
+	 * @return the name of the stage
+	 */
+	public String getName();
+
+	/**
+	 * @return the number of records received by the stage
+	 */
+	public long getRecords();
+
+	/**
+	 * @return the number of bases received by the stage
+	 */
+	public long getBases();
+
+	/**
+	 * @return the time in nanoseconds spent in the stage, including the
+	 *         stages it notifies on the same thread
+	 */
+	public long getNanos();
+
+	/**
+	 * @return the time in nanoseconds spent in the stage only
+	 */
+	public long getSelfNanos();
+
+	/**
+	 * @return the time in nanoseconds the stage has waited for other threads
+	 */
+	public long getBlockedNanos();
+
+	/**
+	 * @return the number of times the stage has waited for other threads, 0
+	 *         if they are not counted
+	 */
+	public long getBlockedCount();
+
+	/**
+	 * @return the time in nanoseconds spent flushing the stage
+	 */
+	public long getFlushNanos();
+
+	/**
+	 * @return the number of records processed per second of time spent in
+	 *         the stage only
+	 */
+	public double getRecordsPerSecond();
+
+}
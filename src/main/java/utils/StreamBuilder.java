@@ -25,7 +25,76 @@ public class StreamBuilder {
 	private static final String GZIP_EXT = ".gz";
 
 	/**
-	 * Returns an {@link InputStream}
+	 * Number of threads used for inflating BGZF and multi-member gzip files
+	 */
+	private static int decompressionThreads = Runtime.getRuntime()
+			.availableProcessors();
+
+	/**
+	 * <code>true</code> if plain gzip files are inflated on a separate thread
+	 */
+	private static boolean prefetch = true;
+
+	/**
+	 * Pool of the deflaters of gzipped outputs or <code>null</code> if each
+	 * output has its own deflater
+	 */
+	private static volatile DeflaterPool compressors = null;
+
+	/**
+	 * Sets the number of threads used for inflating gzipped input files made
+	 * of several members (BGZF or concatenated gzip files). With a single
+	 * thread every gzipped file is read by a {@link GZIPInputStream}.
+	 * 
+	 * @param threads
+	 *            number of threads
+	 */
+	public static void setDecompressionThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+					"Number of threads must be positive");
+		decompressionThreads = threads;
+	}
+
+	/**
+	 * Enables or disables the read-ahead of gzipped input files. When enabled,
+	 * single-member gzip files are inflated on a separate thread by a
+	 * {@link PrefetchInputStream}, so that inflating and parsing overlap.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to enable the read-ahead
+	 */
+	public static void setPrefetch(boolean enabled) {
+		prefetch = enabled;
+	}
+
+	/**
+	 * Limits the number of gzipped outputs open at the same time. Their
+	 * deflaters are taken from a shared {@link DeflaterPool}: opening an
+	 * output waits when all of them are in use, and deflaters are reused
+	 * instead of being allocated for each file.
+	 * 
+	 * @param max
+	 *            the maximum number of gzipped outputs open at the same time,
+	 *            or 0 to give each output its own deflater
+	 */
+	public static void setCompressors(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException(
+					"Number of compressors must not be negative");
+		DeflaterPool old = compressors;
+		compressors = (max == 0) ? null : new DeflaterPool(max);
+		if (old != null)
+			old.clear();
+	}
+
+	/**
+	 * Returns an {@link InputStream}. Gzipped BGZF and multi-member files are
+	 * inflated on several threads by a {@link ParallelGzipInputStream}, other
+	 * gzipped files are inflated in advance by a {@link PrefetchInputStream}
+	 * if read-ahead is enabled (see {@link #setPrefetch(boolean)}). Readers
+	 * created on a {@link PrefetchInputStream} report the time they waited
+	 * for it (see {@link Blocking}).
 	 * 
 	 * @param inputFile
 	 *            the path to the input file
@@ -53,7 +122,9 @@ public class StreamBuilder {
 		}
 
 		if (gzipped) {
-			in = new GZIPInputStream(dummyInput);
+			in = ParallelGzipInputStream.open(dummyInput, decompressionThreads);
+			if (prefetch && (in instanceof GZIPInputStream))
+				in = new PrefetchInputStream(in);
 		} else {
 			in = dummyInput;
 		}
@@ -62,7 +133,8 @@ public class StreamBuilder {
 	}
 
 	/**
-	 * Returns an output stream
+	 * Returns an output stream. Gzipped outputs share the deflaters set by
+	 * {@link #setCompressors(int)}, if any.
 	 * 
 	 * @param outputFile
 	 *            the path to the output file
@@ -74,9 +146,34 @@ public class StreamBuilder {
 	 */
 	public static OutputStream buildOutputStream(String outputFile,
 			boolean gzipped) throws IOException {
+		return buildOutputStream(outputFile, gzipped, false);
+	}
+
+	/**
+	 * Returns an output stream, optionally appending to the file. A gzipped
+	 * output appended to a file adds a new member to it: concatenated gzip
+	 * members are read as a single stream (see
+	 * {@link #buildInputStream(String, boolean, ProgressDisplay)}).
+	 * 
+	 * @param outputFile
+	 *            the path to the output file
+	 * @param gzipped
+	 *            if <code>true</code> the output will be gzipped
+	 * @param append
+	 *            if <code>true</code> bytes are written after the end of the
+	 *            file
+	 * @return an {@link OutputStream}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static OutputStream buildOutputStream(String outputFile,
+			boolean gzipped, boolean append) throws IOException {
 		OutputStream out = null;
-		FileOutputStream fos = new FileOutputStream(outputFile);
-		if (gzipped) {
+		FileOutputStream fos = new FileOutputStream(outputFile, append);
+		DeflaterPool pool = compressors;
+		if (gzipped && (pool != null)) {
+			out = new PooledGzipOutputStream(fos, pool);
+		} else if (gzipped) {
 			out = new GZIPOutputStream(fos);
 		} else {
 			out = fos;
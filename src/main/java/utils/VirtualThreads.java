@@ -0,0 +1,86 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and later, looked up by reflection
+ * so that the application still runs on older virtual machines. Virtual
+ * threads are cheap to create and block without holding an operating system
+ * thread, so thousands of them can wait on files or semaphores at the same
+ * time.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class VirtualThreads {
+
+	/**
+	 * <code>Thread.ofVirtual()</code> or <code>null</code> if virtual threads
+	 * are not available
+	 */
+	private static final Method OF_VIRTUAL;
+
+	/**
+	 * <code>Thread.Builder.name(String, long)</code>
+	 */
+	private static final Method NAME;
+
+	/**
+	 * <code>Thread.Builder.factory()</code>
+	 */
+	private static final Method FACTORY;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			// Preview releases throw here
+			factory.invoke(ofVirtual.invoke(null));
+		} catch (Exception e) {
+			ofVirtual = null;
+		} catch (LinkageError e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return <code>true</code> if the virtual machine supports virtual
+	 *         threads
+	 */
+	public static boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates a factory of virtual threads
+	 * 
+	 * @param prefix
+	 *            prefix of the thread names, followed by a counter
+	 * @return the factory or <code>null</code> if virtual threads are not
+	 *         available
+	 */
+	public static ThreadFactory newFactory(String prefix) {
+		if (OF_VIRTUAL == null)
+			return null;
+		try {
+			Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 1L);
+			return (ThreadFactory) FACTORY.invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
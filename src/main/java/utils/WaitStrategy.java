@@ -0,0 +1,111 @@
+package utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategy followed by a thread waiting for another thread without locks,
+ * for example a {@link RingBuffer} reader waiting for new slots. The waiting
+ * thread calls {@link #idle(int)} each time the condition it is waiting for
+ * is still false, so strategies can go from spinning to cheaper ways of
+ * waiting as the wait gets longer.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public interface WaitStrategy {
+
+	/**
+	 * Waits a little
+	 * 
+	 * @param attempts
+	 *            number of times the condition has been checked so far
+	 */
+	public void idle(int attempts);
+
+	/**
+	 * Keeps the thread running: lowest latency, but a whole core is used while
+	 * waiting. To be used only if each thread has its own core.
+	 * 
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public static class BusySpin implements WaitStrategy {
+		@Override
+		public void idle(int attempts) {
+			// spin
+		}
+	}
+
+	/**
+	 * Spins for a while, then yields the core to other threads
+	 * 
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public static class Yield implements WaitStrategy {
+
+		/**
+		 * Number of attempts spent spinning
+		 */
+		private static final int SPINS = 100;
+
+		@Override
+		public void idle(int attempts) {
+			if (attempts > SPINS)
+				Thread.yield();
+		}
+	}
+
+	/**
+	 * Spins, yields and then parks the thread for a short time: the cheapest
+	 * strategy when threads are more than cores or waits are long
+	 * 
+	 * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+	 *         Bacci</a>
+	 *
+	 */
+	public static class Park implements WaitStrategy {
+
+		/**
+		 * Number of attempts spent spinning
+		 */
+		private static final int SPINS = 100;
+
+		/**
+		 * Number of attempts spent spinning or yielding
+		 */
+		private static final int YIELDS = 200;
+
+		/**
+		 * Parking time in nanoseconds
+		 */
+		private long parkNanos;
+
+		/**
+		 * Creates a strategy parking for 50 microseconds
+		 */
+		public Park() {
+			this(50000);
+		}
+
+		/**
+		 * @param parkNanos
+		 *            parking time in nanoseconds
+		 */
+		public Park(long parkNanos) {
+			this.parkNanos = parkNanos;
+		}
+
+		@Override
+		public void idle(int attempts) {
+			if (attempts > YIELDS)
+				LockSupport.parkNanos(parkNanos);
+			else if (attempts > SPINS)
+				Thread.yield();
+		}
+	}
+
+}
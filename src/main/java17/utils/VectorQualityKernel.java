@@ -0,0 +1,125 @@
+package utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD version of the {@link QualityKernel}, compiled for Java 17 and loaded
+ * only when the <code>jdk.incubator.vector</code> module is available.
+ * Quality characters are checked 32 or 64 at a time (with 256 or 512 bit
+ * registers) and widened to integers a register at a time; prefix sums are
+ * computed a register at a time with a logarithmic number of shifted
+ * additions. The values left after the last full register are processed one
+ * at a time.
+ *
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+public class VectorQualityKernel extends QualityKernel {
+
+	/**
+	 * Integer lanes
+	 */
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	/**
+	 * Byte lanes filling a register, four times the integer lanes
+	 */
+	private static final VectorSpecies<Byte> WIDE_BYTES = ByteVector.SPECIES_PREFERRED;
+
+	/**
+	 * Byte lanes, as many as the integer lanes
+	 */
+	private static final VectorSpecies<Byte> NARROW_BYTES = VectorSpecies.of(
+			byte.class, VectorShape.forBitSize(Math.max(64, INTS.vectorBitSize() / 4)));
+
+	/**
+	 * Indices of the integer lanes
+	 */
+	private static final IntVector IOTA = IntVector.zero(INTS).addIndex(1);
+
+	/**
+	 * Creates the kernel
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the registers are narrower than 256 bits, in which case
+	 *             the scalar kernel is used
+	 */
+	public VectorQualityKernel() {
+		if (INTS.vectorBitSize() < 256)
+			throw new UnsupportedOperationException("Registers too narrow");
+	}
+
+	@Override
+	public boolean isVectorized() {
+		return true;
+	}
+
+	@Override
+	public boolean decode(byte[] quality, int offset, int length,
+			int qualityOffset, int lowerBound, int upperBound, int[] values) {
+		int lanes = WIDE_BYTES.length();
+		int i = 0;
+		// Characters above 127 are negative bytes and always out of bounds
+		for (; i + lanes <= length; i += lanes) {
+			ByteVector c = ByteVector.fromArray(WIDE_BYTES, quality, offset + i);
+			ByteVector q = c.sub((byte) qualityOffset);
+			VectorMask<Byte> bad = c.compare(VectorOperators.LT, (byte) 0)
+					.or(q.compare(VectorOperators.LT, (byte) lowerBound))
+					.or(q.compare(VectorOperators.GT, (byte) upperBound));
+			if (bad.anyTrue())
+				return false;
+			for (int p = 0; p < lanes; p += INTS.length())
+				ByteVector.fromArray(NARROW_BYTES, quality, offset + i + p)
+						.sub((byte) qualityOffset)
+						.castShape(INTS, 0).reinterpretAsInts()
+						.intoArray(values, i + p);
+		}
+		for (; i < length; i++) {
+			int q = (quality[offset + i] & 0xFF) - qualityOffset;
+			if ((q < lowerBound) || (q > upperBound))
+				return false;
+			values[i] = q;
+		}
+		return true;
+	}
+
+	@Override
+	public int cutIndex(int[] qual, int length, int cutoff) {
+		int lanes = INTS.length();
+		IntVector zero = IntVector.zero(INTS);
+		// Last maximum of the prefix sums seen by each lane, starting from
+		// the empty prefix
+		IntVector max = zero;
+		IntVector index = zero;
+		int carry = 0;
+		int i = 0;
+		for (; i + lanes <= length; i += lanes) {
+			IntVector v = IntVector.fromArray(INTS, qual, i).sub(cutoff);
+			for (int shift = 1; shift < lanes; shift <<= 1)
+				v = v.add(zero.slice(lanes - shift, v));
+			v = v.add(carry);
+			VectorMask<Integer> higher = v.compare(VectorOperators.GE, max);
+			max = max.blend(v, higher);
+			index = index.blend(IOTA.add(i + 1), higher);
+			carry = v.lane(lanes - 1);
+		}
+		int best = max.reduceLanes(VectorOperators.MAX);
+		int cutIndex = index.reduceLanes(VectorOperators.MAX,
+				max.compare(VectorOperators.EQ, best));
+		for (; i < length; i++) {
+			carry += qual[i] - cutoff;
+			if (carry >= best) {
+				best = carry;
+				cutIndex = i + 1;
+			}
+		}
+		return cutIndex;
+	}
+
+}
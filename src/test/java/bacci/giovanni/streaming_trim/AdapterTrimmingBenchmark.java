@@ -0,0 +1,86 @@
+package bacci.giovanni.streaming_trim;
+
+import io.FastqByteSequenceReader;
+import io.RecordBatch;
+import io.SequenceRecord;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import listeners.AdapterTrimmingListener;
+import listeners.BatchListener;
+
+/**
+ * Throughput of the parser alone, of the parser notifying an
+ * {@link AdapterTrimmingListener} and of the trimmer alone, on 150 bp reads.
+ * The trimmer is timed on the batches just parsed, so that the reads are in
+ * the cache as they would be in a pipeline. A read holds the adapter
+ * from a random position of an insert: run with the largest insert as first
+ * argument (default 500, so that about 30% of the reads hold the adapter) and
+ * the number of reads as second argument (default 1'000'000).
+ */
+public class AdapterTrimmingBenchmark {
+
+	private static final String ADAPTER = "AGATCGGAAGAGCACACGTCTGAACTCCAGTCA";
+
+	public static void main(String[] args) throws Exception {
+		int inserts = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+		int n = (args.length > 1) ? Integer.parseInt(args[1]) : 1000000;
+		Random random = new Random(1);
+		StringBuilder fastq = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			int insert = random.nextInt(inserts);
+			fastq.append("@read").append(i).append('\n');
+			for (int k = 0; k < 150; k++)
+				fastq.append((k < insert) ? "ACGT".charAt(random.nextInt(4))
+						: ADAPTER.charAt((k - insert) % ADAPTER.length()));
+			fastq.append("\n+\n");
+			for (int k = 0; k < 150; k++)
+				fastq.append('I');
+			fastq.append('\n');
+		}
+		byte[] data = fastq.toString().getBytes(SequenceRecord.ASCII);
+		for (int run = 0; run < 3; run++) {
+			double[] parse = run(data, n, null);
+			double[] trim = run(data, n, new AdapterTrimmingListener(null,
+					ADAPTER));
+			System.out.println(String.format("parse: %5.2fM reads/s   "
+					+ "parse and trim: %5.2fM reads/s   "
+					+ "trim: %5.2fM reads/s", parse[0] / 1e6, trim[0] / 1e6,
+					trim[1] / 1e6));
+		}
+	}
+
+	/**
+	 * @return reads per second of the whole run and of the trimmer alone
+	 */
+	private static double[] run(byte[] data, int n,
+			final AdapterTrimmingListener trimmer) throws Exception {
+		final long[] bases = new long[1];
+		final long[] trimming = new long[1];
+		final SequenceRecord record = new SequenceRecord();
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new ByteArrayInputStream(data));
+		reader.addBatchListener(new BatchListener() {
+			@Override
+			public void batch(RecordBatch batch) {
+				long start = System.nanoTime();
+				for (int i = 0; i < batch.size(); i++) {
+					batch.view(i, record);
+					bases[0] += (trimmer == null) ? record
+							.getSequenceLength() : trimmer
+							.trimmedLength(record);
+				}
+				trimming[0] += System.nanoTime() - start;
+			}
+		});
+		long start = System.nanoTime();
+		reader.readAllSequence();
+		long time = System.nanoTime() - start;
+		reader.close();
+		if (bases[0] == 0)
+			throw new IllegalStateException();
+		return new double[] { n * 1e9 / time, n * 1e9 / trimming[0] };
+	}
+
+}
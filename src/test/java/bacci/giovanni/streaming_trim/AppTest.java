@@ -9,7 +9,8 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 // JUnit Suite Test
 @RunWith(Suite.class)
-@SuiteClasses({TestStats.class, IOTests.class})
+@SuiteClasses({TestStats.class, IOTests.class, UtilsTests.class,
+		ListenerTests.class, ProcessTests.class})
 public class AppTest {
 
 }
@@ -1,15 +1,29 @@
 package bacci.giovanni.streaming_trim;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import io.FastqByteSequenceReader;
+import io.FastqSequenceReader;
 import io.FileSequenceIOFactory;
+import io.MappedLineReader;
+import io.ParallelFastqSequenceReader;
+import io.RecordBatch;
+import io.SequenceRecord;
 import io.FileSequenceIOFastaQualityFactory;
 import io.FileSequenceIOFastqFactory;
 import io.FileSequenceReader;
+import io.FileSequenceWriter;
+import io.PairedSequenceReader;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -18,8 +32,20 @@ import org.junit.runner.RunWith;
 import org.junit.runners.BlockJUnit4ClassRunner;
 
 import exception.FileFormatException;
+import exception.QualityFormatException;
 import junit.framework.TestCase;
+import listeners.BatchListener;
+import listeners.PairListener;
+import listeners.RecordListener;
 import listeners.SequenceListener;
+import decoder.FastaQualityDecoder;
+import decoder.FastqQualityDecoder;
+import decoder.FastqQualityDecoder.QualityEncoding;
+import decoder.GuessingQualityDecoder;
+import decoder.QualityDecoder;
+import decoder.QualityHistogram;
+
+import static bacci.giovanni.streaming_trim.TestData.*;
 
 // TODO debug FastaQualitySequenceReader
 @RunWith(BlockJUnit4ClassRunner.class)
@@ -159,6 +185,461 @@ public class IOTests extends TestCase {
 		}
 	}
 
+	@Test
+	public void testFastqByteReader() throws IOException, FileFormatException {
+		File res = testFile(name + ".fastq");
+
+		SequenceCollector expected = new SequenceCollector();
+		FastqSequenceReader regexReader = new FastqSequenceReader(
+				new FileInputStream(res));
+		regexReader.addListener(expected);
+		regexReader.readAllSequence();
+		regexReader.close();
+
+		SequenceCollector found = new SequenceCollector();
+		FastqByteSequenceReader byteReader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		byteReader.addListener(found);
+		byteReader.readAllSequence();
+		byteReader.close();
+
+		assertEquals(expected.records, found.records);
+	}
+
+	@Test
+	public void testFastqByteReaderMultiLine() throws IOException,
+			FileFormatException {
+		String fastq = "@seq1\r\nACGT\r\nAC\r\n+seq1\r\nIIII\r\nII\r\n\r\n"
+				+ "@seq2\nNNA\n+\n@II";
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new ByteArrayInputStream(fastq.getBytes()));
+		SequenceCollector found = new SequenceCollector();
+		reader.addListener(found);
+		reader.readAllSequence();
+
+		assertEquals(2, found.records.size());
+		assertEquals("@seq1 ACGTAC IIIIII", found.records.get(0));
+		assertEquals("@seq2 NNA @II", found.records.get(1));
+	}
+
+	@Test
+	public void testWrongFastqByteReaderLine() throws IOException {
+		File res = testFile(wrong_name + ".fastq");
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		try {
+			reader.readAllSequence();
+			fail("FileFormatException expected");
+		} catch (FileFormatException e) {
+			assertEquals(21, e.getLine());
+			assertEquals("Wrong formatted sequence at line: 21",
+					e.getMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testMappedFastqReader() throws IOException, FileFormatException {
+		File res = testFile(name + ".fastq");
+
+		SequenceCollector expected = new SequenceCollector();
+		FastqByteSequenceReader streamReader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		streamReader.addListener(expected);
+		streamReader.readAllSequence();
+		streamReader.close();
+
+		// Tiny windows force lines to cross the mapped regions
+		SequenceCollector found = new SequenceCollector();
+		FileInputStream in = new FileInputStream(res);
+		FastqByteSequenceReader mappedReader = new FastqByteSequenceReader(
+				new MappedLineReader(in.getChannel(), 0, res.length(), 64));
+		mappedReader.addListener(found);
+		mappedReader.readAllSequence();
+		mappedReader.close();
+
+		assertEquals(10, found.records.size());
+		assertEquals(expected.records, found.records);
+	}
+
+	@Test
+	public void testParallelFastqReader() throws IOException,
+			FileFormatException {
+		// Quality lines starting with '@' must not be taken for ids
+		File tmp = File.createTempFile("parallel", ".fastq");
+		tmp.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(tmp);
+		for (int i = 0; i < 500; i++) {
+			String rec = String.format("@read%d%nACGTN%s%n+%n@IIII%s%n", i,
+					(i % 2 == 0) ? "A" : "", (i % 2 == 0) ? "@" : "");
+			out.write(rec.getBytes());
+		}
+		out.close();
+
+		SequenceCollector expected = new SequenceCollector();
+		FastqByteSequenceReader sequential = new FastqByteSequenceReader(
+				new FileInputStream(tmp));
+		sequential.addListener(expected);
+		sequential.readAllSequence();
+		sequential.close();
+
+		SequenceCollector found = new SequenceCollector();
+		ParallelFastqSequenceReader parallel = new ParallelFastqSequenceReader(
+				new FileInputStream(tmp).getChannel(), 4);
+		parallel.setRangeSize(37);
+		parallel.addListener(found);
+		parallel.readAllSequence();
+		parallel.close();
+
+		assertEquals(500, found.records.size());
+		assertEquals(expected.records, found.records);
+	}
+
+	@Test
+	public void testParallelFastqReaderMultiLine() throws IOException,
+			FileFormatException {
+		// Wrapped records can't be split in ranges
+		File tmp = File.createTempFile("multiline", ".fastq");
+		tmp.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(tmp);
+		out.write(("@seq1\r\nACGT\r\nAC\r\n+seq1\r\nIIII\r\nII\r\n\r\n"
+				+ "@seq2\nNNA\n+\n@II").getBytes());
+		out.close();
+
+		FileSequenceIOFastqFactory fact = (FileSequenceIOFastqFactory) FileSequenceIOFactory
+				.getFactory(new FileInputStream(tmp));
+		FileSequenceReader reader = fact.createReader(4);
+		assertFalse(reader instanceof ParallelFastqSequenceReader);
+		SequenceCollector found = new SequenceCollector();
+		reader.addListener(found);
+		reader.readAllSequence();
+		reader.close();
+
+		assertEquals(2, found.records.size());
+		assertEquals("@seq1 ACGTAC IIIIII", found.records.get(0));
+		assertEquals("@seq2 NNA @II", found.records.get(1));
+
+		// Four lines records are still parsed on several threads
+		fact = (FileSequenceIOFastqFactory) FileSequenceIOFactory
+				.getFactory(new FileInputStream(testFile(name + ".fastq")));
+		reader = fact.createReader(4);
+		assertTrue(reader instanceof ParallelFastqSequenceReader);
+		reader.close();
+	}
+
+	@Test
+	public void testWrongParallelFastqReaderLine() throws IOException {
+		File res = testFile(wrong_name + ".fastq");
+		ParallelFastqSequenceReader reader = new ParallelFastqSequenceReader(
+				new FileInputStream(res).getChannel(), 3);
+		reader.setRangeSize(200);
+		SequenceCounter count = new SequenceCounter();
+		reader.addListener(count);
+		try {
+			reader.readAllSequence();
+			fail("FileFormatException expected");
+		} catch (FileFormatException e) {
+			assertEquals(21, e.getLine());
+			assertEquals(5, count.numSeq);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testStringOnlyReaderAndWriter() throws IOException,
+			FileFormatException {
+		// Reader and writer implementing only the string methods
+		final List<SequenceListener> listeners = new ArrayList<SequenceListener>();
+		FileSequenceReader reader = new FileSequenceReader() {
+			@Override
+			public void addListener(SequenceListener listener) {
+				listeners.add(listener);
+			}
+
+			@Override
+			public void removeListener(SequenceListener listener) {
+				listeners.remove(listener);
+			}
+
+			@Override
+			public void notifyListeners(String id, String sequence,
+					String quality) {
+				for (SequenceListener l : listeners)
+					l.sequence(id, sequence, quality);
+			}
+
+			@Override
+			public void readAllSequence() {
+				notifyListeners("@r1", "ACGT", "IIII");
+				notifyListeners("@r2", "TTGCA", "IIIII");
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final FileSequenceWriter writer = new FileSequenceWriter() {
+			@Override
+			public void writeSequence(String id, String sequence,
+					String quality) {
+				byte[] line = String.format("%s %s %s;", id, sequence,
+						quality).getBytes();
+				out.write(line, 0, line.length);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final int[] batches = new int[1];
+		RecordListener records = new RecordListener() {
+			@Override
+			public void record(SequenceRecord record) {
+				try {
+					writer.writeRecord(record);
+				} catch (IOException e) {
+					fail();
+				}
+			}
+		};
+		BatchListener batch = new BatchListener() {
+			@Override
+			public void batch(RecordBatch b) {
+				batches[0] += b.size();
+			}
+		};
+		reader.addRecordListener(records);
+		reader.addBatchListener(batch);
+		reader.readAllSequence();
+		assertEquals("@r1 ACGT IIII;@r2 TTGCA IIIII;", out.toString());
+		assertEquals(2, batches[0]);
+		reader.removeRecordListener(records);
+		reader.removeBatchListener(batch);
+		assertTrue(listeners.isEmpty());
+	}
+
+	@Test
+	public void testStringOnlyQualityDecoder() throws QualityFormatException {
+		// Decoder implementing only the string method
+		final QualityDecoder fastq = new FastqQualityDecoder(
+				QualityEncoding.PHRED33);
+		QualityDecoder decoder = new QualityDecoder() {
+			@Override
+			public int[] decodeQuality(String quality)
+					throws QualityFormatException {
+				return fastq.decodeQuality(quality);
+			}
+		};
+		byte[] quality = "@@!+5?I@@".getBytes();
+		int[] expected = new int[7];
+		int[] found = new int[9];
+		assertEquals(7, fastq.decodeQuality(quality, 1, 7, expected));
+		assertEquals(7, decoder.decodeQuality(quality, 1, 7, found));
+		assertTrue(Arrays.equals(expected, Arrays.copyOf(found, 7)));
+	}
+
+	@Test
+	public void testRecordListener() throws IOException, FileFormatException {
+		File res = testFile(name + ".fastq");
+		final SequenceCollector records = new SequenceCollector();
+		SequenceCollector strings = new SequenceCollector();
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		reader.addRecordListener(new RecordListener() {
+			@Override
+			public void record(SequenceRecord record) {
+				records.sequence(record.getIdString(),
+						record.getSequenceString(), record.getQualityString());
+			}
+		});
+		reader.addListener(strings);
+		reader.readAllSequence();
+		reader.close();
+
+		assertEquals(10, records.records.size());
+		assertEquals(strings.records, records.records);
+	}
+
+	@Test
+	public void testFastaQualityValues() throws IOException,
+			FileFormatException {
+		FileSequenceReader reader = FileSequenceIOFactory.getFactory(
+				new FileInputStream(testFile(name + ".fasta")),
+				new FileInputStream(testFile(name + ".qual"))).createReader();
+		final FastaQualityDecoder decoder = new FastaQualityDecoder();
+		final List<String> errors = new ArrayList<String>();
+		reader.addRecordListener(new RecordListener() {
+			@Override
+			public void record(SequenceRecord record) {
+				int[] expected = decoder.decodeQuality(record
+						.getQualityString());
+				int[] found = Arrays.copyOf(record.getQualityValues(),
+						record.getQualityValuesLength());
+				if (!Arrays.equals(expected, found))
+					errors.add(record.getIdString());
+				SequenceRecord trimmed = new SequenceRecord();
+				trimmed.set(record);
+				trimmed.truncate(3);
+				if (!trimmed.getQualityString().equals(
+						String.format("%d %d %d ", expected[0], expected[1],
+								expected[2])))
+					errors.add(trimmed.getQualityString());
+			}
+		});
+		reader.readAllSequence();
+		reader.close();
+		assertTrue(errors.toString(), errors.isEmpty());
+	}
+
+	@Test
+	public void testPairedReader() throws IOException, FileFormatException {
+		String mates1 = "@r1/1\nACGT\n+\nIIII\n"
+				+ "@M:1:FC:2:3:4:5 1:N:0:ACG\nAC\n+\nII\n";
+		String mates2 = "@r1/2\nTTTT\n+\nIIII\n"
+				+ "@M:1:FC:2:3:4:5 2:N:0:ACG\nGG\n+\nII\n";
+		PairedSequenceReader reader = new PairedSequenceReader(
+				new FastqByteSequenceReader(new ByteArrayInputStream(
+						mates1.getBytes())), new FastqByteSequenceReader(
+						new ByteArrayInputStream(mates2.getBytes())));
+		final List<String> pairs = new ArrayList<String>();
+		reader.addPairListener(new PairListener() {
+			@Override
+			public void pair(SequenceRecord first, SequenceRecord second) {
+				pairs.add(first.getSequenceString() + " "
+						+ second.getSequenceString());
+			}
+		});
+		SequenceCollector found = new SequenceCollector();
+		reader.addListener(found);
+		reader.readAllSequence();
+		reader.close();
+
+		assertEquals(Arrays.asList("ACGT TTTT", "AC GG"), pairs);
+		assertEquals(4, found.records.size());
+		assertEquals("@r1/2 TTTT IIII", found.records.get(1));
+	}
+
+	@Test
+	public void testWrongPairedReader() throws IOException {
+		String mates1 = "@r1/1\nACGT\n+\nIIII\n@r2/1\nAC\n+\nII\n";
+		String mates2 = "@r1/2\nTTTT\n+\nIIII\n@r3/2\nGG\n+\nII\n";
+		PairedSequenceReader reader = new PairedSequenceReader(
+				new FastqByteSequenceReader(new ByteArrayInputStream(
+						mates1.getBytes())), new FastqByteSequenceReader(
+						new ByteArrayInputStream(mates2.getBytes())));
+		try {
+			reader.readAllSequence();
+			fail("FileFormatException expected");
+		} catch (FileFormatException e) {
+			assertEquals(5, e.getLine());
+			assertEquals("Mates are not paired at line 5: @r2/1 - @r3/2",
+					e.getMessage());
+		} finally {
+			reader.close();
+		}
+
+		// One file shorter than the other
+		reader = new PairedSequenceReader(new FastqByteSequenceReader(
+				new ByteArrayInputStream(mates1.getBytes())),
+				new FastqByteSequenceReader(new ByteArrayInputStream(
+						"@r1/2\nTTTT\n+\nIIII\n".getBytes())));
+		try {
+			reader.readAllSequence();
+			fail("FileFormatException expected");
+		} catch (FileFormatException e) {
+			assertEquals("Second mate file is shorter than first mate file",
+					e.getMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testQualityEncodingGuess() throws IOException {
+		File res = testFile(name + ".fastq");
+		FileSequenceIOFactory fact = FileSequenceIOFactory
+				.getFactory(new FileInputStream(res));
+		QualityDecoder decoder = fact.createQualityDecoder();
+		assertTrue(decoder instanceof GuessingQualityDecoder);
+		GuessingQualityDecoder guess = (GuessingQualityDecoder) decoder;
+		assertTrue(guess.isBound());
+		assertEquals(QualityEncoding.PHRED64, guess.getEncoding());
+
+		// The sample must not be consumed
+		SequenceCounter count = new SequenceCounter();
+		FileSequenceReader reader = fact.createReader();
+		reader.addListener(count);
+		try {
+			reader.readAllSequence();
+		} catch (FileFormatException e) {
+			fail("FileFormatException in test file");
+		}
+		reader.close();
+		assertEquals(10, count.numSeq);
+	}
+
+	@Test
+	public void testLazyQualityDecoder() throws QualityFormatException {
+		GuessingQualityDecoder decoder = new GuessingQualityDecoder();
+		int[] values = new int[4];
+		// Valid both as Phred+33 and as Phred+64
+		decoder.decodeQuality("FFFF".getBytes(), 0, 4, values);
+		assertFalse(decoder.isBound());
+		assertEquals(QualityEncoding.PHRED33, decoder.getEncoding());
+		assertEquals(37, values[0]);
+
+		// Only valid as Phred+33
+		decoder.decodeQuality("#FFJ".getBytes(), 0, 4, values);
+		assertTrue(decoder.isBound());
+		assertEquals(2, values[0]);
+		assertEquals(QualityEncoding.ILLUMINA18, decoder.getEncoding());
+
+		QualityHistogram histogram = new QualityHistogram();
+		histogram.add("hhhB");
+		histogram.add("hgBB");
+		assertEquals(64, histogram.getOffset());
+		assertEquals(QualityEncoding.ILLUMINA15, histogram.guess());
+		assertEquals(3, histogram.getCount('B'));
+
+		// A sample not telling the offset decides the most likely one
+		histogram = new QualityHistogram();
+		histogram.add("JJIB");
+		histogram.add("GGBB");
+		assertFalse(histogram.isCertain());
+		decoder = new GuessingQualityDecoder(histogram);
+		assertTrue(decoder.isBound());
+		assertEquals(QualityEncoding.ILLUMINA15, decoder.getEncoding());
+		decoder.decodeQuality("JB".getBytes(), 0, 2, values);
+		assertEquals(10, values[0]);
+		assertEquals(2, values[1]);
+		decoder = new GuessingQualityDecoder(new QualityHistogram());
+		assertFalse(decoder.isBound());
+		assertNull(decoder.getEncoding());
+	}
+
+	private class RecordCollector implements FileSequenceWriter {
+
+		public List<String> ids = new ArrayList<String>();
+
+		@Override
+		public void writeSequence(String id, String sequence, String quality) {
+			ids.add(id);
+		}
+
+		@Override
+		public void writeRecord(SequenceRecord record) {
+			ids.add(record.getIdString());
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
 	private class SequenceCounter implements SequenceListener {
 
 		public int numSeq = 0;
@@ -0,0 +1,895 @@
+package bacci.giovanni.streaming_trim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.FastqByteSequenceReader;
+import io.FileSequenceIOFactory;
+import io.RecordBatch;
+import io.SequenceRecord;
+import io.FileSequenceWriter;
+import io.PairedSequenceReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import exception.FileFormatException;
+import junit.framework.TestCase;
+import listeners.AdapterTrimmingListener;
+import listeners.BatchListener;
+import listeners.ConcurrentListenerGroup;
+import listeners.DemultiplexingListener;
+import listeners.DemultiplexingListener.IndexSource;
+import listeners.GCAnalyzerListener;
+import listeners.GlobalTrimmingListener;
+import listeners.LeadingWindowTrimmingListener;
+import listeners.LengthAnalyzerListener;
+import listeners.ParallelTrimmingListener;
+import listeners.PairedSequenceWriter;
+import listeners.PairedTrimmingListener;
+import listeners.PrimerTrimmingListener;
+import listeners.RecordListener;
+import listeners.SampledListener;
+import listeners.SamplingPolicy;
+import listeners.SequenceListener;
+import listeners.SlidingWindowTrimmingListener;
+import listeners.TrimmingListener;
+import decoder.FastqQualityDecoder;
+import decoder.FastqQualityDecoder.QualityEncoding;
+import decoder.QualityDecoder;
+import processes.SequenceProcess;
+import utils.BarcodeTable;
+import utils.StreamBuilder;
+import utils.WaitStrategy;
+
+import static bacci.giovanni.streaming_trim.TestData.*;
+
+/**
+ * Test cases for the listeners.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ListenerTests extends TestCase {
+
+	private final static String name = "sample";
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	public File testFile(String fileName) {
+		File res = null;
+
+		try {
+			res = new File(this.getClass().getResource("/" + fileName).toURI());
+			assertNotNull("Missing test file", res);
+		} catch (URISyntaxException e1) {
+			fail();
+		}
+		return res;
+	}
+
+	@Test
+	public void testRecordTrimming() throws IOException, FileFormatException {
+		File res = testFile(name + ".fastq");
+		TrimmingListener byString = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED64));
+		TrimmingListener byRecord = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED64));
+		byString.setCutoff(30);
+		byRecord.setCutoff(30);
+		SequenceCollector expected = new SequenceCollector();
+		SequenceCollector found = new SequenceCollector();
+		byString.addListener(expected);
+		byRecord.addListener(found);
+
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		reader.addListener(byString);
+		reader.addRecordListener(byRecord);
+		reader.readAllSequence();
+		reader.close();
+
+		assertEquals(10, found.records.size());
+		assertEquals(expected.records, found.records);
+	}
+
+	@Test
+	public void testPairedTrimming() throws IOException, FileFormatException {
+		// Second pair: the second mate is trimmed away, third pair: both
+		String mates1 = "@a/1\nACGT\n+\nIIII\n@b/1\nACGT\n+\nIIII\n"
+				+ "@c/1\nACGT\n+\n####\n";
+		String mates2 = "@a/2\nTTTT\n+\nIIII\n@b/2\nTTTT\n+\n####\n"
+				+ "@c/2\nTTTT\n+\n####\n";
+		PairedSequenceReader reader = new PairedSequenceReader(
+				new FastqByteSequenceReader(new ByteArrayInputStream(
+						mates1.getBytes())), new FastqByteSequenceReader(
+						new ByteArrayInputStream(mates2.getBytes())));
+		TrimmingListener trimmer1 = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.SANGER));
+		TrimmingListener trimmer2 = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.SANGER));
+		trimmer1.setMinLength(2);
+		trimmer2.setMinLength(2);
+		PairedTrimmingListener trimmer = new PairedTrimmingListener(trimmer1,
+				trimmer2);
+		RecordCollector out1 = new RecordCollector();
+		RecordCollector out2 = new RecordCollector();
+		RecordCollector orphans = new RecordCollector();
+		trimmer.addPairListener(new PairedSequenceWriter(out1, out2, orphans));
+		reader.addPairListener(trimmer);
+		reader.readAllSequence();
+		reader.close();
+
+		assertEquals(Arrays.asList("@a/1"), out1.ids);
+		assertEquals(Arrays.asList("@a/2"), out2.ids);
+		assertEquals(Arrays.asList("@b/1"), orphans.ids);
+	}
+
+	@Test
+	public void testParallelTrimming() throws IOException, FileFormatException {
+		List<String> serial = trimWithProcess(false);
+		List<String> parallel = trimWithProcess(true);
+		assertEquals(10, serial.size());
+		assertEquals(serial, parallel);
+	}
+
+	@Test
+	public void testConcurrentListeners() throws IOException,
+			FileFormatException {
+		for (int run = 0; run < 2; run++) {
+			File res = testFile(name + ".fastq");
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(
+					new FileInputStream(res));
+			SequenceProcess process = new SequenceProcess(reader);
+			process.setConcurrentListeners(run == 1);
+			process.addListener(new LengthAnalyzerListener(),
+					SequenceProcess.PRE);
+			process.addListener(new GCAnalyzerListener(), SequenceProcess.PRE);
+			TrimmingListener trimmer = new TrimmingListener(
+					new FastqQualityDecoder(QualityEncoding.PHRED64));
+			trimmer.setCutoff(35);
+			trimmer.setMinLength(20);
+			process.addListener(trimmer, SequenceProcess.PRE);
+			process.addListener(new SequenceCollector(), SequenceProcess.POST);
+			process.startProcess();
+			reader.close();
+
+			LengthAnalyzerListener lengths = (LengthAnalyzerListener) process
+					.getListener(LengthAnalyzerListener.class,
+							SequenceProcess.PRE);
+			GCAnalyzerListener gc = (GCAnalyzerListener) process.getListener(
+					GCAnalyzerListener.class, SequenceProcess.PRE);
+			SequenceCollector found = (SequenceCollector) process.getListener(
+					SequenceCollector.class, SequenceProcess.POST);
+			assertEquals(10, lengths.getDistribution().N());
+			assertEquals(10, gc.getDistribution().N());
+			assertEquals(10, found.records.size());
+			assertEquals(trimWithProcess(false), found.records);
+		}
+	}
+
+	@Test
+	public void testBatchListener() throws IOException, FileFormatException {
+		File res = testFile(name + ".fastq");
+		final SequenceCollector batches = new SequenceCollector();
+		final int[] calls = new int[1];
+		SequenceCollector strings = new SequenceCollector();
+		TrimmingListener byBatch = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED64));
+		byBatch.setCutoff(30);
+		SequenceCollector trimmed = new SequenceCollector();
+		byBatch.addListener(trimmed);
+		GCAnalyzerListener gc = new GCAnalyzerListener();
+		LengthAnalyzerListener lengths = new LengthAnalyzerListener();
+
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		reader.addBatchListener(new BatchListener() {
+			private SequenceRecord record = new SequenceRecord();
+
+			@Override
+			public void batch(RecordBatch batch) {
+				calls[0]++;
+				for (int i = 0; i < batch.size(); i++) {
+					batch.view(i, record);
+					batches.sequence(record.getIdString(),
+							record.getSequenceString(),
+							record.getQualityString());
+				}
+			}
+		});
+		reader.addListener(strings);
+		reader.addBatchListener(byBatch);
+		reader.addBatchListener(gc);
+		reader.addBatchListener(lengths);
+		reader.readAllSequence();
+		reader.close();
+
+		// Same results notifying one record at a time
+		TrimmingListener byString = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED64));
+		byString.setCutoff(30);
+		SequenceCollector expected = new SequenceCollector();
+		byString.addListener(expected);
+		GCAnalyzerListener gcExpected = new GCAnalyzerListener();
+		LengthAnalyzerListener lengthsExpected = new LengthAnalyzerListener();
+		reader = new FastqByteSequenceReader(new FileInputStream(res));
+		reader.addListener(byString);
+		reader.addListener(gcExpected);
+		reader.addListener(lengthsExpected);
+		reader.readAllSequence();
+		reader.close();
+
+		assertEquals(1, calls[0]);
+		assertEquals(10, batches.records.size());
+		assertEquals(strings.records, batches.records);
+		assertEquals(expected.records, trimmed.records);
+		assertEquals(gcExpected.getGCcontent(), gc.getGCcontent(), 1e-12);
+		assertEquals(gcExpected.getDistribution().mean(), gc
+				.getDistribution().mean(), 1e-12);
+		assertEquals(lengthsExpected.getDistribution().N(), lengths
+				.getDistribution().N());
+		assertEquals(lengthsExpected.getDistribution().mean(), lengths
+				.getDistribution().mean(), 1e-12);
+	}
+
+	@Test
+	public void testBoundedListenerGroup() throws IOException {
+		// A slow listener makes the producer wait instead of buffering
+		final int n = 2000;
+		final List<String> ids = new ArrayList<String>();
+		ConcurrentListenerGroup group = new ConcurrentListenerGroup(1024,
+				new WaitStrategy.Yield());
+		group.setMemoryLimit(64 * 1024);
+		group.addListener(new SequenceListener() {
+			@Override
+			public void sequence(String id, String sequence, String quality) {
+				if (ids.size() % 100 == 0)
+					Thread.yield();
+				ids.add(id);
+			}
+		});
+		char[] bases = new char[300];
+		Arrays.fill(bases, 'A');
+		String sequence = new String(bases);
+		for (int i = 0; i < n; i++)
+			group.sequence("read" + i, sequence, sequence);
+		group.close();
+		assertEquals(n, ids.size());
+		for (int i = 0; i < n; i++)
+			assertEquals("read" + i, ids.get(i));
+	}
+
+	@Test
+	public void testSampledListeners() throws IOException,
+			FileFormatException {
+		for (int run = 0; run < 2; run++) {
+			File res = testFile(name + ".fastq");
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(
+					new FileInputStream(res));
+			SequenceProcess process = new SequenceProcess(reader);
+			process.setConcurrentListeners(run == 1);
+			process.addListener(new LengthAnalyzerListener(),
+					SequenceProcess.PRE, SamplingPolicy.every(3));
+			process.addListener(new GCAnalyzerListener(), SequenceProcess.PRE,
+					SamplingPolicy.first(4));
+			TrimmingListener trimmer = new TrimmingListener(
+					new FastqQualityDecoder(QualityEncoding.PHRED64));
+			trimmer.setCutoff(35);
+			trimmer.setMinLength(20);
+			process.addListener(trimmer, SequenceProcess.PRE);
+			process.addListener(new SequenceCounter(), SequenceProcess.POST);
+			process.addListener(new SequenceCollector(), SequenceProcess.POST,
+					SamplingPolicy.byId(0.5));
+			process.startProcess();
+			reader.close();
+
+			LengthAnalyzerListener lengths = (LengthAnalyzerListener) process
+					.getListener(LengthAnalyzerListener.class,
+							SequenceProcess.PRE);
+			SampledListener sampling = process.getSampling(
+					LengthAnalyzerListener.class, SequenceProcess.PRE);
+			assertEquals(4, lengths.getDistribution().N());
+			assertEquals(10, sampling.getSeen());
+			assertEquals(0.4, sampling.getFraction(), 1e-12);
+			assertEquals(10, sampling.scale(lengths.getDistribution().N()));
+			GCAnalyzerListener gc = (GCAnalyzerListener) process.getListener(
+					GCAnalyzerListener.class, SequenceProcess.PRE);
+			assertEquals(4, gc.getDistribution().N());
+			assertNull(process.getSampling(TrimmingListener.class,
+					SequenceProcess.PRE));
+
+			// Trimming and unsampled listeners still see every sequence
+			SequenceCounter counter = (SequenceCounter) process.getListener(
+					SequenceCounter.class, SequenceProcess.POST);
+			assertEquals(10, counter.numSeq);
+			SequenceCollector sampled = (SequenceCollector) process
+					.getListener(SequenceCollector.class, SequenceProcess.POST);
+			SamplingPolicy byId = SamplingPolicy.byId(0.5);
+			List<String> expected = new ArrayList<String>();
+			for (String r : trimWithProcess(false)) {
+				byte[] id = r.split(" ")[0].getBytes();
+				if (byId.accept(0, id, 0, id.length))
+					expected.add(r);
+			}
+			assertEquals(expected, sampled.records);
+		}
+
+		// Hashing ids samples both reads of a pair and about the fraction
+		SamplingPolicy byId = SamplingPolicy.byId(0.25);
+		int accepted = 0;
+		for (int i = 0; i < 10000; i++) {
+			byte[] first = ("@read" + i + "/1").getBytes();
+			byte[] second = ("@read" + i + "/2 extra").getBytes();
+			boolean a = byId.accept(i, first, 0, first.length);
+			assertEquals(a, byId.accept(i, second, 0, second.length));
+			if (a)
+				accepted++;
+		}
+		assertEquals(2500, accepted, 200);
+
+		thrown.expect(IllegalArgumentException.class);
+		new SequenceProcess(null).addListener(new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED64)),
+				SequenceProcess.PRE, SamplingPolicy.every(2));
+	}
+
+	@Test
+	public void testWindowTrimming() throws IOException, FileFormatException {
+		QualityDecoder decoder = new FastqQualityDecoder(
+				QualityEncoding.PHRED33);
+		TrimmingListener[] trimmers = {
+				new SlidingWindowTrimmingListener(decoder, 8),
+				new LeadingWindowTrimmingListener(decoder, 8),
+				new GlobalTrimmingListener(decoder, 8),
+				new GlobalTrimmingListener(decoder) };
+		Random random = new Random(7);
+		SequenceRecord record = new SequenceRecord();
+		for (int n = 0; n < 2000; n++) {
+			int length = random.nextInt(120);
+			int[] q = new int[length];
+			char[] seq = new char[length];
+			char[] qual = new char[length];
+			for (int i = 0; i < length; i++) {
+				q[i] = random.nextInt(41);
+				seq[i] = 'A';
+				qual[i] = (char) ('!' + q[i]);
+			}
+			for (int t = 0; t < trimmers.length; t++) {
+				trimmers[t].setCutoff(20);
+				int w = (t == 3) ? length : Math.min(8, length);
+				// The first failing and passing windows, summed from scratch
+				int failing = -1;
+				int passing = -1;
+				for (int start = 0; (w > 0) && (start + w <= length); start++) {
+					int sum = 0;
+					for (int i = start; i < start + w; i++)
+						sum += q[i];
+					if ((sum < 20 * w) && (failing < 0))
+						failing = start;
+					if ((sum >= 20 * w) && (passing < 0))
+						passing = start;
+				}
+				int start = 0;
+				int end = length;
+				if (t == 0 && failing >= 0) {
+					end = failing;
+					while (q[end] >= 20)
+						end++;
+				} else if (t == 1) {
+					start = length;
+					if (passing >= 0) {
+						start = passing;
+						while (q[start] < 20)
+							start++;
+					}
+				} else if ((t >= 2) && (failing >= 0)) {
+					end = 0;
+				}
+				record.set("@r" + n, new String(seq), new String(qual));
+				assertEquals(end, trimmers[t].trimmedLength(record));
+				assertEquals(start, trimmers[t].trimmedStart());
+				SequenceRecord trimmed = trimmers[t].trim(record);
+				assertEquals(new String(qual).substring(Math.min(start, end),
+						end), trimmed.getQualityString());
+			}
+		}
+
+		// Batches and records are clipped the same way
+		byte[] reads = randomReads(5000);
+		List<List<String>> found = new ArrayList<List<String>>();
+		for (int run = 0; run < 3; run++) {
+			LeadingWindowTrimmingListener trimmer = new LeadingWindowTrimmingListener(
+					decoder, 5);
+			trimmer.setCutoff(25);
+			trimmer.setMinLength(10);
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(
+					new ByteArrayInputStream(reads));
+			SequenceProcess process = new SequenceProcess(reader);
+			if (run == 2)
+				process.addListener(new ParallelTrimmingListener(trimmer, 2),
+						SequenceProcess.PRE);
+			else
+				process.addListener(trimmer, SequenceProcess.PRE);
+			if (run > 0)
+				process.addListener(new LengthAnalyzerListener(),
+						SequenceProcess.PRE);
+			SequenceCollector collector = new SequenceCollector();
+			process.addListener(collector, SequenceProcess.POST);
+			process.startProcess();
+			reader.close();
+			found.add(collector.records);
+		}
+		assertEquals(5000, found.get(0).size());
+		assertEquals(found.get(0), found.get(1));
+		assertEquals(found.get(0), found.get(2));
+
+		// Numeric qualities keep their decoded values
+		record.set("@r", "ACGTA", "40 30 10 20 40");
+		record.setQualityValues(new int[] { 40, 30, 10, 20, 40 }, 5);
+		record.clip(2, 4);
+		assertEquals("GT", record.getSequenceString());
+		assertEquals("10 20 ", record.getQualityString());
+		assertEquals(2, record.getQualityValuesLength());
+		assertEquals(20, record.getQualityValues()[1]);
+	}
+
+	@Test
+	public void testAdapterTrimming() throws IOException,
+			FileFormatException {
+		String adapter = "AGATCGGAAGAGCACACGTCTGAACTCCAGTCA";
+		AdapterTrimmingListener trimmer = new AdapterTrimmingListener(null,
+				adapter);
+		SequenceRecord record = new SequenceRecord();
+		String insert = "TTGCAGGCTTACCGATTAGCCATGGCAAT";
+		// Whole adapter with a mismatch and a deletion
+		String read = insert + "AGATCGGTAGAGCACACGTCTAACTCCAGTCATTTTT";
+		record.set("@r", read, null);
+		assertEquals(insert.length(), trimmer.trimmedLength(record));
+		// Partial adapter
+		record.set("@r", insert + "AGATCG", null);
+		assertEquals(insert.length(), trimmer.trimmedLength(record));
+		record.set("@r", insert + "AG", null);
+		assertEquals(insert.length() + 2, trimmer.trimmedLength(record));
+		// Quality trimming of the bases left
+		AdapterTrimmingListener both = new AdapterTrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED33), adapter);
+		record.set("@r", "ACGTACGTAGATCGGAAGAG", "IIII####IIIIIIIIIIII");
+		assertEquals(4, both.trimmedLength(record));
+		// Trimmed on other threads
+		byte[] reads = randomReads(3000);
+		List<List<String>> found = new ArrayList<List<String>>();
+		for (int run = 0; run < 2; run++) {
+			AdapterTrimmingListener t = new AdapterTrimmingListener(null,
+					"ACG", adapter);
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(
+					new ByteArrayInputStream(reads));
+			SequenceProcess process = new SequenceProcess(reader);
+			process.addListener((run == 0) ? t : new ParallelTrimmingListener(
+					t, 2), SequenceProcess.PRE);
+			SequenceCollector collector = new SequenceCollector();
+			process.addListener(collector, SequenceProcess.POST);
+			process.startProcess();
+			reader.close();
+			found.add(collector.records);
+		}
+		assertEquals(found.get(0), found.get(1));
+
+		// Same cut as the dynamic programming matrix, adapters in one word
+		Random random = new Random(3);
+		String bases = "ACGTN";
+		for (int n = 0; n < 5000; n++) {
+			String[] adapters = new String[(n % 4 == 3) ? 2 + random
+					.nextInt(2) : 1];
+			for (int k = 0; k < adapters.length; k++) {
+				StringBuilder a = new StringBuilder();
+				int m = 1 + random.nextInt(30 / adapters.length);
+				for (int i = 0; i < m; i++)
+					a.append(bases.charAt(random.nextInt(4)));
+				adapters[k] = a.toString();
+			}
+			String a = adapters[random.nextInt(adapters.length)];
+			int m = a.length();
+			StringBuilder s = new StringBuilder();
+			int length = random.nextInt((n % 2 == 0) ? 80 : 200);
+			int start = random.nextInt(length + 1);
+			int shift = random.nextInt(m);
+			for (int i = 0; i < length; i++)
+				if ((i < start) && (n % 2 == 1))
+					s.append(bases.charAt(random.nextInt(4)));
+				else
+					s.append((random.nextInt(4) > 0) ? a.charAt((i + shift)
+							% m) : bases.charAt(random.nextInt(5)));
+			double rate = random.nextInt(4) / 10.0;
+			trimmer = new AdapterTrimmingListener(null, adapters);
+			trimmer.setErrorRate(rate);
+			int minOverlap = (n % 3) + 1;
+			trimmer.setMinOverlap(minOverlap);
+			int expected = length;
+			for (String adapterSequence : adapters)
+				expected = Math.min(expected, dynamicCut(adapterSequence,
+						s.toString(), rate, minOverlap));
+			record.set("@r", s.toString(), null);
+			assertEquals(expected, trimmer.trimmedLength(record));
+		}
+	}
+
+	/**
+	 * @return the first base of the first match of the adapter, computed on
+	 *         the whole dynamic programming matrix
+	 */
+	private static int dynamicCut(String adapter, String read, double rate,
+			int minOverlap) {
+		int m = adapter.length();
+		int length = read.length();
+		String ra = new StringBuilder(adapter).reverse().toString();
+		String rs = new StringBuilder(read).reverse().toString();
+		int[] column = new int[m + 1];
+		int expected = length;
+		int best = -1;
+		for (int j = 1; j <= length; j++) {
+			int diagonal = column[0];
+			for (int i = 1; i <= m; i++) {
+				int up = column[i];
+				int match = (ra.charAt(i - 1) == rs.charAt(j - 1)) ? 0 : 1;
+				column[i] = Math.min(diagonal + match,
+						Math.min(up, column[i - 1]) + 1);
+				diagonal = up;
+			}
+			if ((j >= minOverlap)
+					&& (column[m] <= (int) (rate * Math.min(j, m)))) {
+				if ((best < 0) || (column[m] <= best)) {
+					best = column[m];
+					expected = length - j;
+				}
+			} else {
+				best = -1;
+			}
+		}
+		return expected;
+	}
+
+	@Test
+	public void testPrimerTrimming() throws IOException, FileFormatException {
+		Map<String, String> panel = new LinkedHashMap<String, String>();
+		panel.put("16S-F", "GTGYCAGCMGCCGCGGTAA");
+		panel.put("ITS1", "CTTGGTCATTTAGAGGAAGTAA");
+		panel.put("short", "GCCGC");
+		PrimerTrimmingListener trimmer = new PrimerTrimmingListener(null,
+				panel);
+		assertEquals(3, trimmer.getPrimerCount());
+		SequenceRecord record = new SequenceRecord();
+		String insert = "TTGCAGGCTTACCGATTAGCC";
+		// Degenerate bases, tag in the record
+		record.set("@r", "GTGCCAGCAGCCGCGGTAA" + insert, null);
+		assertTrue(trimmer.transform(record));
+		assertEquals(insert, record.getSequenceString());
+		assertEquals("16S-F", trimmer.getPrimerName(record.getTag()));
+		// Primer not at the start, shorter primer inside a longer one
+		record.set("@r", "ACGTGTGCCAGCAGCCGCGGTAA" + insert, null);
+		assertTrue(trimmer.transform(record));
+		assertEquals(SequenceRecord.NO_TAG, record.getTag());
+		assertNull(trimmer.getPrimerName(record.getTag()));
+		trimmer.setMaxOffset(4);
+		record.set("@r", "ACGTGTGCCAGCAGCCGCGGTAA" + insert, null);
+		assertTrue(trimmer.transform(record));
+		assertEquals(insert, record.getSequenceString());
+		assertEquals(0, record.getTag());
+		record.set("@r", "ACGCCGCAA" + insert, null);
+		assertTrue(trimmer.transform(record));
+		assertEquals("AA" + insert, record.getSequenceString());
+		assertEquals("short", trimmer.getPrimerName(record.getTag()));
+		// Too many expansions
+		panel.put("wide", "NNNNNNNNNNNNNNNN");
+		try {
+			new PrimerTrimmingListener(null, panel);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		panel.remove("wide");
+
+		// Tags of the batches, trimmed on this thread and on other threads
+		byte[] reads = randomReads(3000);
+		List<List<String>> found = new ArrayList<List<String>>();
+		for (int run = 0; run < 2; run++) {
+			PrimerTrimmingListener t = new PrimerTrimmingListener(
+					new FastqQualityDecoder(QualityEncoding.PHRED33), panel);
+			t.setMaxOffset(30);
+			final List<String> tags = new ArrayList<String>();
+			BatchListener collector = new BatchListener() {
+				private SequenceRecord view = new SequenceRecord();
+
+				@Override
+				public void batch(RecordBatch batch) {
+					for (int i = 0; i < batch.size(); i++) {
+						batch.view(i, view);
+						tags.add(view.getSequenceString() + " "
+								+ batch.getTag(i));
+					}
+				}
+			};
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(
+					new ByteArrayInputStream(reads));
+			if (run == 0) {
+				t.addBatchListener(collector);
+				reader.addBatchListener(t);
+				reader.readAllSequence();
+				t.flush();
+			} else {
+				ParallelTrimmingListener parallel = new ParallelTrimmingListener(
+						t, 2);
+				parallel.addBatchListener(collector);
+				reader.addRecordListener(parallel);
+				reader.readAllSequence();
+				parallel.flush();
+				parallel.close();
+			}
+			reader.close();
+			found.add(tags);
+		}
+		assertEquals(3000, found.get(0).size());
+		assertEquals(found.get(0), found.get(1));
+
+		// Same primer as checking every primer at every offset
+		Random random = new Random(5);
+		String bases = "ACGTN";
+		String iupac = "ACGTRYSWKMBDHVN";
+		for (int n = 0; n < 200; n++) {
+			panel = new LinkedHashMap<String, String>();
+			int primers = 1 + random.nextInt(20);
+			for (int p = 0; p < primers; p++) {
+				StringBuilder primer = new StringBuilder();
+				int length = 1 + random.nextInt(6);
+				for (int i = 0; i < length; i++)
+					primer.append((random.nextInt(4) > 0) ? bases
+							.charAt(random.nextInt(4)) : iupac.charAt(random
+							.nextInt(iupac.length())));
+				panel.put("p" + p, primer.toString());
+			}
+			List<String> sequences = new ArrayList<String>(panel.values());
+			int maxOffset = random.nextInt(4);
+			trimmer = new PrimerTrimmingListener(null, panel);
+			trimmer.setMaxOffset(maxOffset);
+			for (int k = 0; k < 50; k++) {
+				StringBuilder s = new StringBuilder();
+				int length = random.nextInt(12);
+				for (int i = 0; i < length; i++)
+					s.append(bases.charAt(random.nextInt((i % 7 == 6) ? 5 : 4)));
+				int tag = SequenceRecord.NO_TAG;
+				int start = 0;
+				for (int o = 0; (o <= maxOffset) && (tag < 0); o++) {
+					for (int p = 0; p < primers; p++) {
+						String primer = sequences.get(p);
+						// Longest primer, first primer among equal ones
+						if ((o + primer.length() > length)
+								|| ((tag >= 0) && (primer.length() <= sequences
+										.get(tag).length())))
+							continue;
+						boolean match = true;
+						for (int i = 0; (i < primer.length()) && match; i++)
+							match = iupacBases(primer.charAt(i)).indexOf(
+									s.charAt(o + i)) >= 0;
+						if (match) {
+							tag = p;
+							start = o + primer.length();
+						}
+					}
+				}
+				record.set("@r", s.toString(), null);
+				assertTrue(trimmer.transform(record));
+				assertEquals(s.substring(start), record.getSequenceString());
+				assertEquals(tag, record.getTag());
+			}
+		}
+	}
+
+	private static String iupacBases(char c) {
+		String letters = "ACGTRYSWKMBDHVN";
+		String[] codes = { "A", "C", "G", "T", "AG", "CT", "CG", "AT", "GT",
+				"AC", "CGT", "AGT", "ACT", "ACG", "ACGT" };
+		return codes[letters.indexOf(c)];
+	}
+
+	@Test
+	public void testDemultiplexing() throws IOException, FileFormatException {
+		BarcodeTable table = new BarcodeTable(Arrays.asList("ACGTAC",
+				"ACGTAA", "TTTTGG+CCAA"), 1);
+		assertEquals(0, table.lookup("ACGTAC".getBytes(), 0, 6));
+		assertEquals(1, table.lookup("xACGTAAx".getBytes(), 1, 6));
+		// One mismatch from both barcodes
+		assertEquals(BarcodeTable.NOT_FOUND,
+				table.lookup("ACGTAG".getBytes(), 0, 6));
+		assertEquals(0, table.lookup("ACNTAC".getBytes(), 0, 6));
+		assertEquals(2, table.lookup("TTTTGG+CCTA".getBytes(), 0, 11));
+		assertEquals(BarcodeTable.NOT_FOUND,
+				table.lookup("TTTTGG-CCAA".getBytes(), 0, 11));
+		assertEquals(BarcodeTable.NOT_FOUND,
+				table.lookup("ACGTTT".getBytes(), 0, 6));
+
+		// Random barcodes, indexes with at most two mismatches
+		Random random = new Random(11);
+		String bases = "ACGT";
+		Map<String, String> barcodes = new LinkedHashMap<String, String>();
+		List<String> list = new ArrayList<String>();
+		while (list.size() < 40) {
+			StringBuilder b = new StringBuilder();
+			for (int i = 0; i < 6; i++)
+				b.append(bases.charAt(random.nextInt(4)));
+			if (list.contains(b.toString()))
+				continue;
+			list.add(b.toString());
+			barcodes.put("S" + list.size(), b.toString());
+		}
+		StringBuilder fastq = new StringBuilder();
+		Map<String, List<String>> expected = new LinkedHashMap<String, List<String>>();
+		for (String sample : barcodes.keySet())
+			expected.put(sample, new ArrayList<String>());
+		expected.put(DemultiplexingListener.UNDETERMINED,
+				new ArrayList<String>());
+		for (int r = 0; r < 5000; r++) {
+			char[] index = list.get(random.nextInt(list.size()))
+					.toCharArray();
+			for (int e = random.nextInt(3); e > 0; e--)
+				index[random.nextInt(index.length)] = "ACGTN".charAt(random
+						.nextInt(5));
+			String id = String.format("@M1:7:FC1:1:1101:%d:%d 1:N:0:%s",
+					r, r, new String(index));
+			StringBuilder sequence = new StringBuilder(new String(index));
+			for (int i = 0; i < 20; i++)
+				sequence.append(bases.charAt(random.nextInt(4)));
+			fastq.append(String.format("%s%n%s%n+%n%s%n", id, sequence,
+					sequence.toString().replaceAll(".", "I")));
+			// Exact barcode or single barcode with a mismatch
+			String sample = DemultiplexingListener.UNDETERMINED;
+			int close = 0;
+			for (int b = 0; b < list.size(); b++) {
+				int d = 0;
+				for (int i = 0; i < index.length; i++)
+					if (index[i] != list.get(b).charAt(i))
+						d++;
+				if (d == 0) {
+					sample = "S" + (b + 1);
+					close = 1;
+					break;
+				} else if (d == 1) {
+					sample = (close++ == 0) ? "S" + (b + 1)
+							: DemultiplexingListener.UNDETERMINED;
+				}
+			}
+			expected.get(sample).add(id);
+		}
+		byte[] reads = fastq.toString().getBytes();
+
+		// Index of the ids, gzipped files, a few outputs open
+		File dir = File.createTempFile("demultiplex", "");
+		dir.delete();
+		dir.mkdir();
+		String output = new File(dir, "run.fastq").getPath();
+		FileSequenceIOFactory factory = FileSequenceIOFactory
+				.getFactory(new ByteArrayInputStream(reads));
+		DemultiplexingListener demultiplexer = new DemultiplexingListener(
+				barcodes, IndexSource.ID, DemultiplexingListener.fileOpener(
+						factory, output, true), 4);
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new ByteArrayInputStream(reads));
+		reader.addBatchListener(demultiplexer);
+		reader.readAllSequence();
+		reader.close();
+		demultiplexer.close();
+		for (Map.Entry<String, List<String>> e : expected.entrySet()) {
+			assertEquals(e.getValue().size(), demultiplexer.getCounts()
+					.get(e.getKey()).longValue());
+			String name = StreamBuilder.formatOutputName(output, e.getKey()
+					+ "_", true);
+			final List<String> ids = new ArrayList<String>();
+			if (!e.getValue().isEmpty()) {
+				reader = new FastqByteSequenceReader(
+						StreamBuilder.buildInputStream(name, true, null));
+				reader.addRecordListener(new RecordListener() {
+					@Override
+					public void record(SequenceRecord record) {
+						ids.add(record.getIdString());
+					}
+				});
+				reader.readAllSequence();
+				reader.close();
+			}
+			assertEquals(e.getValue(), ids);
+			new File(name).delete();
+		}
+		dir.delete();
+
+		// Inline barcodes, removed from the records
+		final Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<String, ByteArrayOutputStream>();
+		final FileSequenceIOFactory memory = factory;
+		final int[] open = new int[2];
+		demultiplexer = new DemultiplexingListener(barcodes,
+				IndexSource.INLINE, new DemultiplexingListener.OutputOpener() {
+					@Override
+					public FileSequenceWriter open(String sample,
+							boolean append) {
+						assertEquals(append, outputs.containsKey(sample));
+						if (!append)
+							outputs.put(sample, new ByteArrayOutputStream());
+						open[0]++;
+						open[1] = Math.max(open[1], open[0]);
+						return memory.createWriter(new FilterOutputStream(
+								outputs.get(sample)) {
+							@Override
+							public void close() throws IOException {
+								open[0]--;
+								super.close();
+							}
+						});
+					}
+				}, 3);
+		reader = new FastqByteSequenceReader(new ByteArrayInputStream(reads));
+		reader.addRecordListener(demultiplexer);
+		reader.readAllSequence();
+		reader.close();
+		demultiplexer.close();
+		assertEquals(0, open[0]);
+		assertEquals(3, open[1]);
+		for (Map.Entry<String, List<String>> e : expected.entrySet()) {
+			String[] lines = (e.getValue().isEmpty()) ? new String[0]
+					: outputs.get(e.getKey()).toString().split("\\r?\\n");
+			assertEquals(4 * e.getValue().size(), lines.length);
+			for (int i = 0; i < lines.length; i += 4) {
+				assertEquals(e.getValue().get(i / 4), lines[i]);
+				int length = e.getKey().equals(
+						DemultiplexingListener.UNDETERMINED) ? 26 : 20;
+				assertEquals(length, lines[i + 1].length());
+				assertEquals(length, lines[i + 3].length());
+			}
+		}
+	}
+
+	private class SequenceCounter implements SequenceListener {
+
+		public int numSeq = 0;
+
+		@Override
+		public void sequence(String id, String sequence, String quality) {
+			numSeq++;
+		}
+
+	}
+
+	private class RecordCollector implements FileSequenceWriter {
+
+		public List<String> ids = new ArrayList<String>();
+
+		@Override
+		public void writeSequence(String id, String sequence, String quality) {
+			ids.add(id);
+		}
+
+		@Override
+		public void writeRecord(SequenceRecord record) {
+			ids.add(record.getIdString());
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
@@ -0,0 +1,460 @@
+package bacci.giovanni.streaming_trim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import io.FastqByteSequenceReader;
+import io.FileSequenceIOFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import exception.FileFormatException;
+import exception.MemoryBudgetException;
+import junit.framework.TestCase;
+import listeners.GCAnalyzerListener;
+import listeners.KmerFrequencyListener;
+import listeners.LengthFilter;
+import listeners.LengthAnalyzerListener;
+import listeners.ParallelTrimmingListener;
+import listeners.SampledListener;
+import listeners.SamplingPolicy;
+import listeners.SequenceGenerator;
+import listeners.SequenceListener;
+import listeners.SequenceWriter;
+import listeners.SequenceWriter.EmptySequenceBehaviour;
+import listeners.TrimmingListener;
+import decoder.FastqQualityDecoder;
+import decoder.FastqQualityDecoder.QualityEncoding;
+import processes.BatchPipeline;
+import processes.BatchProcess;
+import processes.BatchResult;
+import processes.Checkpointer;
+import processes.SequenceProcess;
+import processes.StageGraph;
+import utils.PipelineMetrics;
+import utils.ResumableInputStream;
+import utils.StageMetrics;
+
+import static bacci.giovanni.streaming_trim.TestData.*;
+
+/**
+ * Test cases for the processes.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ProcessTests extends TestCase {
+
+	private final static String name = "sample";
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	public File testFile(String fileName) {
+		File res = null;
+
+		try {
+			res = new File(this.getClass().getResource("/" + fileName).toURI());
+			assertNotNull("Missing test file", res);
+		} catch (URISyntaxException e1) {
+			fail();
+		}
+		return res;
+	}
+
+	@Test
+	public void testBatchProcess() throws IOException, InterruptedException {
+		final File dir = File.createTempFile("batch", "");
+		dir.delete();
+		dir.mkdir();
+		byte[] sample = readAll(new FileInputStream(testFile(name + ".fastq")));
+		for (int i = 0; i < 3; i++) {
+			FileOutputStream out = new FileOutputStream(new File(dir, i
+					+ ".fastq"));
+			out.write(sample);
+			out.close();
+		}
+		// Worker threads and virtual threads (worker threads if not available)
+		for (int mode = 0; mode < 2; mode++) {
+			BatchProcess batch = new BatchProcess(new BatchPipeline() {
+				@Override
+				public SequenceProcess createProcess(File input)
+						throws IOException {
+					FileSequenceIOFactory fact = FileSequenceIOFactory
+							.getFactory(new FileInputStream(input));
+					SequenceProcess process = new SequenceProcess(fact
+							.createReader());
+					process.addListener(new LengthAnalyzerListener(),
+							SequenceProcess.PRE);
+					return process;
+				}
+
+				@Override
+				public long estimateMemory(File input) {
+					return 2 * input.length();
+				}
+
+				@Override
+				public void finish(File input, SequenceProcess process)
+						throws IOException {
+					process.getMainReader().close();
+				}
+			});
+			batch.addInput(dir);
+			batch.addInput(new File(dir, "missing.fastq"));
+			batch.setThreads(2);
+			batch.setIoSlots(2);
+			batch.setMemoryBudget(1024 * 1024);
+			batch.setVirtualThreads(mode == 1);
+			BatchResult result = batch.run();
+
+			assertEquals(4, result.getFiles().size());
+			assertEquals(1, result.getErrors());
+			LengthAnalyzerListener lengths = (LengthAnalyzerListener) result
+					.getMergedListener(LengthAnalyzerListener.class,
+							SequenceProcess.PRE);
+			assertEquals(30, lengths.getDistribution().N());
+		}
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testMemoryBudget() throws IOException, FileFormatException {
+		// Buffers fitting the budget give the same results
+		File res = testFile(name + ".fastq");
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		TrimmingListener trimmer = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED64));
+		trimmer.setCutoff(35);
+		trimmer.setMinLength(20);
+		SequenceProcess process = new SequenceProcess(reader);
+		process.setConcurrentListeners(true);
+		process.setMemoryBudget(8 * 1024 * 1024);
+		process.addListener(new ParallelTrimmingListener(trimmer, 2, 3),
+				SequenceProcess.PRE);
+		SequenceCollector found = new SequenceCollector();
+		process.addListener(found, SequenceProcess.POST);
+		process.startProcess();
+		reader.close();
+		assertEquals(trimWithProcess(false), found.records);
+
+		// A budget smaller than the buffers
+		reader = new FastqByteSequenceReader(new FileInputStream(res));
+		process = new SequenceProcess(reader);
+		process.setMemoryBudget(1024 * 1024);
+		process.addListener(new ParallelTrimmingListener(trimmer, 2),
+				SequenceProcess.PRE);
+		process.addListener(new KmerFrequencyListener(4), SequenceProcess.PRE);
+		try {
+			process.startProcess();
+			fail("MemoryBudgetException expected");
+		} catch (MemoryBudgetException e) {
+			assertTrue(e.getNeeded() > e.getAvailable());
+		} finally {
+			reader.close();
+		}
+
+		// A table outgrowing its share
+		KmerFrequencyListener kmers = new KmerFrequencyListener(8);
+		kmers.setMemoryLimit(1024);
+		reader = new FastqByteSequenceReader(new FileInputStream(res));
+		reader.addListener(kmers);
+		try {
+			reader.readAllSequence();
+			fail("MemoryBudgetException expected");
+		} catch (MemoryBudgetException e) {
+			assertEquals(1024, e.getAvailable());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testStageGraph() throws IOException, FileFormatException {
+		File res = testFile(name + ".fastq");
+		int[] cutoffs = { 20, 30, 35 };
+
+		// Trimmers chained as listeners
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				new FileInputStream(res));
+		SequenceGenerator last = reader;
+		for (int cutoff : cutoffs) {
+			TrimmingListener trimmer = new TrimmingListener(
+					new FastqQualityDecoder(QualityEncoding.PHRED64));
+			trimmer.setCutoff(cutoff);
+			last.addListener(trimmer);
+			last = trimmer;
+		}
+		SequenceCollector expected = new SequenceCollector();
+		last.addListener(expected);
+		reader.readAllSequence();
+		reader.close();
+
+		// The same trimmers fused in a single stage, with a filtered branch
+		reader = new FastqByteSequenceReader(new FileInputStream(res));
+		StageGraph graph = new StageGraph(reader);
+		StageGraph.Node node = graph.getSource();
+		for (int cutoff : cutoffs) {
+			TrimmingListener trimmer = new TrimmingListener(
+					new FastqQualityDecoder(QualityEncoding.PHRED64));
+			trimmer.setCutoff(cutoff);
+			node = node.then(trimmer);
+		}
+		SequenceCollector found = new SequenceCollector();
+		SequenceCollector filtered = new SequenceCollector();
+		node.addListener(found);
+		node.then(new LengthFilter(50)).addListener(filtered);
+		LengthAnalyzerListener lengths = new LengthAnalyzerListener();
+		graph.getSource().addListener(lengths);
+		graph.startProcess();
+		reader.close();
+
+		assertEquals(2, graph.getStageCount());
+		assertEquals(10, lengths.getDistribution().N());
+		assertEquals(10, found.records.size());
+		assertEquals(expected.records, found.records);
+		List<String> longer = new ArrayList<String>();
+		for (String r : expected.records)
+			if (r.split(" ")[1].length() >= 50)
+				longer.add(r);
+		assertEquals(longer, filtered.records);
+
+		thrown.expect(IllegalStateException.class);
+		node.then(new LengthFilter(1));
+	}
+
+	@Test
+	public void testInstrumentedProcess() throws IOException,
+			FileFormatException, JMException {
+		for (int run = 0; run < 2; run++) {
+			File res = testFile(name + ".fastq");
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(
+					new FileInputStream(res));
+			SequenceProcess process = new SequenceProcess(reader);
+			ByteArrayOutputStream report = new ByteArrayOutputStream();
+			process.setInstrumented(true, new PrintStream(report));
+			process.setConcurrentListeners(run == 1);
+			process.addListener(new GCAnalyzerListener(), SequenceProcess.PRE);
+			TrimmingListener trimmer = new TrimmingListener(
+					new FastqQualityDecoder(QualityEncoding.PHRED64));
+			trimmer.setCutoff(35);
+			trimmer.setMinLength(20);
+			process.addListener(trimmer, SequenceProcess.PRE);
+			process.addListener(new SequenceCollector(), SequenceProcess.POST);
+			process.startProcess();
+			reader.close();
+
+			SequenceCollector found = (SequenceCollector) process.getListener(
+					SequenceCollector.class, SequenceProcess.POST);
+			assertEquals(trimWithProcess(false), found.records);
+			PipelineMetrics metrics = process.getMetrics();
+			StageMetrics read = metrics.getStage("FastqByteSequenceReader");
+			StageMetrics trimmed = metrics.getStage("TrimmingListener (pre)");
+			StageMetrics written = metrics
+					.getStage("SequenceCollector (post)");
+			assertEquals(10, read.getRecords());
+			assertEquals(1000, read.getBases());
+			assertEquals(10, metrics.getStage("GCAnalyzerListener (pre)")
+					.getRecords());
+			assertEquals(10, trimmed.getRecords());
+			assertEquals(10, written.getRecords());
+			assertTrue(written.getBases() < trimmed.getBases());
+			assertEquals(run == 1, written.hasOwnThread());
+			assertTrue(read.getNanos() > 0);
+			assertTrue(trimmed.getSelfNanos() <= trimmed.getNanos());
+			assertTrue(report.toString().contains("TrimmingListener (pre)"));
+		}
+
+		// Stages are published only while the process runs
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName query = new ObjectName(PipelineMetrics.DOMAIN + ":*");
+		assertTrue(server.queryNames(query, null).isEmpty());
+		PipelineMetrics metrics = new PipelineMetrics("test");
+		StageMetrics stage = metrics.addStage("stage", null, false);
+		stage.count(3, 300);
+		metrics.register();
+		ObjectName stageName = server.queryNames(query, null).iterator().next();
+		assertEquals(300L, server.getAttribute(stageName, "Bases"));
+		metrics.unregister();
+		assertTrue(server.queryNames(query, null).isEmpty());
+	}
+
+	@Test
+	public void testCheckpointResume() throws IOException,
+			FileFormatException {
+		// Members boundaries do not match record boundaries
+		byte[] reads = randomReads(20000);
+		ByteArrayOutputStream members = new ByteArrayOutputStream();
+		for (int off = 0; off < reads.length; off += 100000) {
+			byte[] member = gzip(reads, off,
+					Math.min(100000, reads.length - off));
+			members.write(member, 0, member.length);
+		}
+		File input = File.createTempFile("checkpoint", ".fastq.gz");
+		FileOutputStream fos = new FileOutputStream(input);
+		members.writeTo(fos);
+		fos.close();
+		File[] outputs = new File[2];
+		LengthAnalyzerListener[] lengths = new LengthAnalyzerListener[2];
+		SampledListener[] samplings = new SampledListener[2];
+		for (int run = 0; run < 3; run++) {
+			int out = (run == 0) ? 0 : 1;
+			File checkpoint = new File(input.getPath() + out + ".ckp");
+			if (run != 2)
+				outputs[out] = File.createTempFile("checkpoint", ".fastq.gz");
+			Checkpointer checkpointer = new Checkpointer(checkpoint, 5000);
+			if (run == 2)
+				assertEquals(8192, checkpointer.getResumed().getRecords());
+			InputStream is = checkpointer.openInput(input);
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(is);
+			OutputStream os = checkpointer.openOutput(outputs[out], true);
+			SequenceProcess process = new SequenceProcess(reader);
+			process.setCheckpointer(checkpointer);
+			process.addListener(new LengthAnalyzerListener(),
+					SequenceProcess.PRE);
+			process.addListener(new GCAnalyzerListener(), SequenceProcess.PRE,
+					SamplingPolicy.every(3));
+			TrimmingListener trimmer = new TrimmingListener(
+					new FastqQualityDecoder(QualityEncoding.PHRED33));
+			trimmer.setCutoff(20);
+			trimmer.setMinLength(20);
+			process.addListener(trimmer, SequenceProcess.PRE);
+			process.addListener(new SequenceWriter(FileSequenceIOFactory
+					.getFactory(is).createWriter(os),
+					EmptySequenceBehaviour.SKIP), SequenceProcess.POST);
+			if (run == 1) {
+				// The process is killed after the checkpoint at 8192 records
+				process.addListener(new SequenceListener() {
+					private int count = 0;
+
+					@Override
+					public void sequence(String id, String sequence,
+							String quality) {
+						if (++count == 11000)
+							throw new IllegalStateException("killed");
+					}
+				}, SequenceProcess.PRE);
+				try {
+					process.startProcess();
+					fail();
+				} catch (IllegalStateException e) {
+					assertEquals("killed", e.getMessage());
+				}
+				reader.close();
+				os.close();
+				assertTrue(checkpoint.exists());
+				continue;
+			}
+			process.startProcess();
+			reader.close();
+			os.close();
+			assertFalse(checkpoint.exists());
+			lengths[out] = (LengthAnalyzerListener) process.getListener(
+					LengthAnalyzerListener.class, SequenceProcess.PRE);
+			samplings[out] = process.getSampling(GCAnalyzerListener.class,
+					SequenceProcess.PRE);
+		}
+
+		// The resumed run writes the same bytes and the same statistics
+		byte[] expected = readAll(new FileInputStream(outputs[0]));
+		assertTrue(Arrays.equals(expected,
+				readAll(new FileInputStream(outputs[1]))));
+		assertTrue(readAll(new GZIPInputStream(new FileInputStream(
+				outputs[1]))).length > 0);
+		assertEquals(20000, lengths[1].getDistribution().N());
+		assertEquals(20000, lengths[1].getDistribution().getCount(50));
+		assertEquals(20000, samplings[1].getSeen());
+		assertEquals(samplings[0].getSampled(), samplings[1].getSampled());
+
+		// A single member is inflated again up to the position
+		File single = File.createTempFile("checkpoint", ".fastq.gz");
+		fos = new FileOutputStream(single);
+		fos.write(gzip(reads, 0, reads.length));
+		fos.close();
+		byte[] tail = readAll(new ResumableInputStream(single, 0, 0, 123457));
+		assertTrue(Arrays.equals(
+				Arrays.copyOfRange(reads, 123457, reads.length), tail));
+		for (File f : new File[] { input, single, outputs[0], outputs[1] })
+			f.delete();
+	}
+
+	@Test
+	public void testCheckpointLayout() throws IOException,
+			FileFormatException {
+		File input = File.createTempFile("layout", ".fastq");
+		FileOutputStream fos = new FileOutputStream(input);
+		fos.write(randomReads(20000));
+		fos.close();
+		File checkpoint = new File(input.getPath() + ".ckp");
+		for (int run = 0; run < 3; run++) {
+			Checkpointer checkpointer = new Checkpointer(checkpoint, 5000);
+			FastqByteSequenceReader reader = new FastqByteSequenceReader(
+					checkpointer.openInput(input));
+			SequenceProcess process = new SequenceProcess(reader);
+			process.setCheckpointer(checkpointer);
+			LengthAnalyzerListener lengths = new LengthAnalyzerListener();
+			// The resumed process adds the listeners in another order
+			if (run != 1)
+				process.addListener(lengths, SequenceProcess.PRE);
+			process.addListener(new GCAnalyzerListener(), SequenceProcess.PRE,
+					SamplingPolicy.every(3));
+			if (run == 1)
+				process.addListener(lengths, SequenceProcess.PRE);
+			if (run == 0) {
+				// The process is killed after the checkpoint at 8192 records
+				process.addListener(new SequenceListener() {
+					private int count = 0;
+
+					@Override
+					public void sequence(String id, String sequence,
+							String quality) {
+						if (++count == 11000)
+							throw new IllegalStateException("killed");
+					}
+				}, SequenceProcess.PRE);
+			}
+			try {
+				process.startProcess();
+				if (run != 2)
+					fail();
+				assertEquals(20000, lengths.getDistribution().N());
+			} catch (IllegalStateException e) {
+				assertEquals(0, run);
+				assertEquals("killed", e.getMessage());
+			} catch (InvalidObjectException e) {
+				assertEquals(1, run);
+				assertEquals(0, lengths.getDistribution().N());
+			}
+			reader.close();
+			assertEquals(run != 2, checkpoint.exists());
+		}
+		input.delete();
+	}
+
+}
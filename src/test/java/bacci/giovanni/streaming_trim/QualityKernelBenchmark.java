@@ -0,0 +1,65 @@
+package bacci.giovanni.streaming_trim;
+
+import java.util.Random;
+
+import utils.QualityKernel;
+
+/**
+ * Throughput of the scalar and of the SIMD {@link QualityKernel}, decoding the
+ * qualities of 150 bp reads and finding their cut index. The SIMD kernel is
+ * only measured when the virtual machine has been started with
+ * <code>--add-modules jdk.incubator.vector</code>. Run with the number of
+ * reads as first argument (default 20'000'000).
+ */
+public class QualityKernelBenchmark {
+
+	public static void main(String[] args) {
+		long n = (args.length > 0) ? Long.parseLong(args[0]) : 20000000L;
+		int reads = 1024;
+		int length = 150;
+		byte[] quality = new byte[reads * length];
+		Random random = new Random(1);
+		for (int i = 0; i < quality.length; i++)
+			quality[i] = (byte) ('!' + 20 + random.nextInt(21) - (i % length)
+					/ 10);
+		QualityKernel[] kernels = QualityKernel.getInstance().isVectorized() ? new QualityKernel[] {
+				QualityKernel.getScalar(), QualityKernel.getInstance() }
+				: new QualityKernel[] { QualityKernel.getScalar() };
+		if (kernels.length == 1)
+			System.out.println("Vector module not added: SIMD kernel skipped");
+		for (QualityKernel kernel : kernels) {
+			// Warm up
+			run(kernel, quality, reads, length, n / 10);
+			double[] rates = run(kernel, quality, reads, length, n);
+			System.out.println(String.format(
+					"%-20s decode: %6.1fM reads/s   cut: %6.1fM reads/s",
+					kernel.getClass().getSimpleName(), rates[0] / 1e6,
+					rates[1] / 1e6));
+		}
+	}
+
+	/**
+	 * @return reads per second decoded and cut
+	 */
+	private static double[] run(QualityKernel kernel, byte[] quality,
+			int reads, int length, long n) {
+		int[] values = new int[length];
+		long start = System.nanoTime();
+		for (long i = 0; i < n; i++)
+			if (!kernel.decode(quality, (int) (i % reads) * length, length,
+					33, 0, 41, values))
+				throw new IllegalStateException();
+		long decode = System.nanoTime() - start;
+		long sum = 0;
+		start = System.nanoTime();
+		for (long i = 0; i < n; i++) {
+			values[(int) (i % length)] = (int) (i & 31);
+			sum += kernel.cutIndex(values, length, 20);
+		}
+		long cut = System.nanoTime() - start;
+		if (sum < 0)
+			throw new IllegalStateException();
+		return new double[] { n * 1e9 / decode, n * 1e9 / cut };
+	}
+
+}
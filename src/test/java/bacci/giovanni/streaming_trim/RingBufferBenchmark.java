@@ -0,0 +1,95 @@
+package bacci.giovanni.streaming_trim;
+
+import io.SequenceRecord;
+import utils.RingBuffer;
+import utils.WaitStrategy;
+
+/**
+ * Throughput of a {@link RingBuffer} of {@link SequenceRecord} slots between
+ * two threads. The producer either points the slot to a shared read (as the
+ * readers do with their buffers) or copies the read in the slot (as
+ * {@link listeners.ConcurrentListenerGroup} does); the consumer reads the
+ * sequence length of each record. Run with the number of records as first
+ * argument (default 50'000'000).
+ */
+public class RingBufferBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		long n = (args.length > 0) ? Long.parseLong(args[0]) : 50000000L;
+		boolean multicore = Runtime.getRuntime().availableProcessors() > 1;
+		if (!multicore)
+			System.out.println("Single core: busy spin skipped");
+		WaitStrategy[] strategies = multicore ? new WaitStrategy[] {
+				new WaitStrategy.BusySpin(), new WaitStrategy.Yield(),
+				new WaitStrategy.Park() } : new WaitStrategy[] {
+				new WaitStrategy.Yield(), new WaitStrategy.Park() };
+		for (WaitStrategy wait : strategies) {
+			// Warm up
+			run(wait, n / 10, false);
+			double view = run(wait, n, false);
+			double copy = run(wait, n / 10, true);
+			System.out.println(String.format(
+					"%-10s view: %6.1fM records/s   copy: %6.1fM records/s",
+					wait.getClass().getSimpleName(), view / 1e6, copy / 1e6));
+		}
+	}
+
+	/**
+	 * @return records per second
+	 */
+	private static double run(WaitStrategy wait, final long n, boolean copy)
+			throws InterruptedException {
+		final RingBuffer<SequenceRecord> ring = new RingBuffer<SequenceRecord>(
+				4096, new RingBuffer.SlotFactory<SequenceRecord>() {
+					@Override
+					public SequenceRecord newSlot() {
+						return new SequenceRecord();
+					}
+				}, wait);
+		final RingBuffer<SequenceRecord>.Reader reader = ring.newReader();
+		final long[] total = new long[1];
+		Thread consumer = new Thread() {
+			@Override
+			public void run() {
+				long next = 0;
+				long sum = 0;
+				while (true) {
+					long available = reader.waitFor(next);
+					if (available < next)
+						break;
+					for (long s = next; s <= available; s++)
+						sum += reader.get(s).getSequenceLength();
+					reader.release(available);
+					next = available + 1;
+				}
+				total[0] = sum;
+			}
+		};
+		consumer.start();
+
+		byte[] read = "@read\nACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT\n+\nIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII"
+				.getBytes();
+		SequenceRecord record = new SequenceRecord();
+		record.setId(read, 0, 5);
+		record.setSequence(read, 6, 40);
+		record.setQuality(read, 49, 40);
+		long start = System.nanoTime();
+		for (long i = 0; i < n; i++) {
+			long sequence = ring.next();
+			SequenceRecord slot = ring.get(sequence);
+			if (copy) {
+				slot.copyOf(record);
+			} else {
+				slot.setSequence(read, 6, (int) (i & 31) + 1);
+			}
+			ring.publish(sequence);
+		}
+		ring.close();
+		consumer.join();
+		long time = System.nanoTime() - start;
+		if (total[0] == 0)
+			throw new IllegalStateException();
+		return n * 1e9 / time;
+	}
+
+}
@@ -0,0 +1,128 @@
+package bacci.giovanni.streaming_trim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import io.FastqByteSequenceReader;
+
+import exception.FileFormatException;
+import listeners.ParallelTrimmingListener;
+import listeners.SequenceListener;
+import listeners.TrimmingListener;
+import decoder.FastqQualityDecoder;
+import decoder.FastqQualityDecoder.QualityEncoding;
+import processes.SequenceProcess;
+
+/**
+ * Sequences and listeners shared by the test cases.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+final class TestData {
+
+	private TestData() {
+	}
+
+	static byte[] randomReads(int reads) {
+		Random random = new Random(42);
+		StringBuilder builder = new StringBuilder();
+		String bases = "ACGT";
+		for (int i = 0; i < reads; i++) {
+			builder.append("@read").append(i).append('\n');
+			for (int j = 0; j < 50; j++)
+				builder.append(bases.charAt(random.nextInt(4)));
+			builder.append("\n+\n");
+			for (int j = 0; j < 50; j++)
+				builder.append((char) ('!' + random.nextInt(40)));
+			builder.append('\n');
+		}
+		return builder.toString().getBytes();
+	}
+
+	static byte[] gzip(byte[] data, int off, int len)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(data, off, len);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static byte[] bgzf(byte[] data, int off, int len) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data, off, len);
+		deflater.finish();
+		byte[] deflated = new byte[len + 1024];
+		int size = deflater.deflate(deflated);
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(data, off, len);
+		int blockSize = 18 + size + 8;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] header = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff,
+				6, 0, 'B', 'C', 2, 0, (byte) (blockSize - 1),
+				(byte) ((blockSize - 1) >> 8) };
+		out.write(header, 0, header.length);
+		out.write(deflated, 0, size);
+		writeInt(out, crc.getValue());
+		writeInt(out, len);
+		return out.toByteArray();
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, long value) {
+		for (int i = 0; i < 4; i++)
+			out.write((int) (value >> (8 * i)) & 0xFF);
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			out.write(buffer, 0, read);
+		in.close();
+		return out.toByteArray();
+	}
+
+	static class SequenceCollector implements SequenceListener {
+
+		public List<String> records = new ArrayList<String>();
+
+		@Override
+		public void sequence(String id, String sequence, String quality) {
+			records.add(String.format("%s %s %s", id, sequence, quality));
+		}
+
+	}
+
+	static List<String> trimWithProcess(boolean parallel) throws IOException,
+			FileFormatException {
+		FastqByteSequenceReader reader = new FastqByteSequenceReader(
+				TestData.class.getResourceAsStream("/sample.fastq"));
+		TrimmingListener trimmer = new TrimmingListener(
+				new FastqQualityDecoder(QualityEncoding.PHRED64));
+		trimmer.setCutoff(35);
+		trimmer.setMinLength(20);
+		SequenceProcess process = new SequenceProcess(reader);
+		if (parallel)
+			process.addListener(new ParallelTrimmingListener(trimmer, 3, 3),
+					SequenceProcess.PRE);
+		else
+			process.addListener(trimmer, SequenceProcess.PRE);
+		SequenceCollector found = new SequenceCollector();
+		process.addListener(found, SequenceProcess.POST);
+		process.startProcess();
+		reader.close();
+		return found.records;
+	}
+
+}
@@ -1,5 +1,7 @@
 package bacci.giovanni.streaming_trim;
 
+import java.util.Set;
+
 import org.junit.Test;
 
 import stat.Distribution;
@@ -64,4 +66,110 @@ public class TestStats extends TestCase {
 		assertEquals(dist.getUpperFence(), (double) Math.max(first, second));
 	}
 
+	@Test
+	public void testMerge() {
+		Distribution<Integer> other = new OrderedDistribution<Integer>();
+		other.addValue(second);
+		other.addValue(5);
+		Distribution<Integer> merged = new OrderedDistribution<Integer>();
+		merged.addValue(first);
+		merged.addValue(second);
+		merged.merge(other);
+		assertEquals(4, merged.N());
+		assertEquals(2, merged.getCount(second));
+		assertEquals(1, merged.getCount(5));
+		assertEquals(5, merged.getMaxValue().intValue());
+		assertEquals((first + second + second + 5) / 4.0, merged.mean());
+	}
+
+	@Test
+	public void testDefaultMerge() {
+		Distribution<Integer> merged = new ExternalDistribution();
+		merged.addValue(first);
+		merged.merge(dist);
+		assertEquals(3, merged.N());
+		assertEquals(2, merged.getCount(first));
+		assertEquals(1, merged.getCount(second));
+	}
+
+	/**
+	 * Distribution without its own merge method
+	 */
+	@SuppressWarnings("serial")
+	private static class ExternalDistribution implements Distribution<Integer> {
+
+		private Distribution<Integer> values = new OrderedDistribution<Integer>();
+
+		@Override
+		public void addValue(Integer value) {
+			values.addValue(value);
+		}
+
+		@Override
+		public Set<Integer> getValues() {
+			return values.getValues();
+		}
+
+		@Override
+		public long getCount(Integer value) {
+			return values.getCount(value);
+		}
+
+		@Override
+		public double mean() {
+			return values.mean();
+		}
+
+		@Override
+		public Integer mode() {
+			return values.mode();
+		}
+
+		@Override
+		public double variance() {
+			return values.variance();
+		}
+
+		@Override
+		public double sd() {
+			return values.sd();
+		}
+
+		@Override
+		public double percentile(double percentile) {
+			return values.percentile(percentile);
+		}
+
+		@Override
+		public Integer getMaxValue() {
+			return values.getMaxValue();
+		}
+
+		@Override
+		public Integer getMinValue() {
+			return values.getMinValue();
+		}
+
+		@Override
+		public double getUpperFence() {
+			return values.getUpperFence();
+		}
+
+		@Override
+		public double getLowerFence() {
+			return values.getLowerFence();
+		}
+
+		@Override
+		public long[] getBinnedDistribution(long min, long max, int numBins) {
+			return values.getBinnedDistribution(min, max, numBins);
+		}
+
+		@Override
+		public long N() {
+			return values.N();
+		}
+
+	}
+
 }
@@ -0,0 +1,324 @@
+package bacci.giovanni.streaming_trim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import io.FastqByteSequenceReader;
+import io.FileSequenceIOFactory;
+import io.FileSequenceReader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import exception.FileFormatException;
+import junit.framework.TestCase;
+import listeners.SequenceListener;
+import decoder.FastqQualityDecoder;
+import decoder.FastqQualityDecoder.QualityEncoding;
+import processes.SequenceProcess;
+import utils.DeflaterPool;
+import utils.ParallelGzipInputStream;
+import utils.QualityKernel;
+import utils.PooledGzipOutputStream;
+import utils.PrefetchInputStream;
+import utils.RingBuffer;
+import utils.StageMetrics;
+import utils.WaitStrategy;
+
+import static bacci.giovanni.streaming_trim.TestData.*;
+
+/**
+ * Test cases for the utilities.
+ * 
+ * @author <a href="http://www.unifi.it/dblage/CMpro-v-p-65.html">Giovanni
+ *         Bacci</a>
+ *
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class UtilsTests extends TestCase {
+
+	private final static String name = "sample";
+
+	public File testFile(String fileName) {
+		File res = null;
+
+		try {
+			res = new File(this.getClass().getResource("/" + fileName).toURI());
+			assertNotNull("Missing test file", res);
+		} catch (URISyntaxException e1) {
+			fail();
+		}
+		return res;
+	}
+
+	@Test
+	public void testParallelGzipMultiMember() throws IOException {
+		byte[] plain = randomReads(3000);
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		for (int i = 0; i < plain.length; i += 7000)
+			gz.write(gzip(plain, i, Math.min(7000, plain.length - i)));
+		byte[] compressed = gz.toByteArray();
+
+		InputStream in = ParallelGzipInputStream.open(new ByteArrayInputStream(
+				compressed), 4);
+		assertTrue(in instanceof ParallelGzipInputStream);
+		assertTrue(Arrays.equals(plain, readAll(in)));
+		assertTrue(Arrays.equals(plain,
+				readAll(new ParallelGzipInputStream(new ByteArrayInputStream(
+						compressed), 3, 1000))));
+	}
+
+	@Test
+	public void testParallelGzipBgzf() throws IOException {
+		byte[] plain = randomReads(3000);
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		for (int i = 0; i < plain.length; i += 6000)
+			gz.write(bgzf(plain, i, Math.min(6000, plain.length - i)));
+		// BGZF end of file marker
+		gz.write(bgzf(plain, 0, 0));
+		byte[] compressed = gz.toByteArray();
+
+		InputStream in = ParallelGzipInputStream.open(new ByteArrayInputStream(
+				compressed), 2);
+		assertTrue(in instanceof ParallelGzipInputStream);
+		assertTrue(Arrays.equals(plain, readAll(in)));
+		assertTrue(Arrays.equals(plain,
+				readAll(new ParallelGzipInputStream(new ByteArrayInputStream(
+						compressed), 4, 4096))));
+		// Single byte reads
+		in = new ParallelGzipInputStream(new ByteArrayInputStream(compressed),
+				2, 4096);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0)
+			bytes.write(b);
+		in.close();
+		assertTrue(Arrays.equals(plain, bytes.toByteArray()));
+	}
+
+	@Test
+	public void testParallelGzipSingleMember() throws IOException {
+		byte[] plain = randomReads(3000);
+		byte[] compressed = gzip(plain, 0, plain.length);
+
+		InputStream in = ParallelGzipInputStream.open(new ByteArrayInputStream(
+				compressed), 4);
+		assertTrue(in instanceof GZIPInputStream);
+		assertTrue(Arrays.equals(plain, readAll(in)));
+		// Segments cut in the middle of the member
+		assertTrue(Arrays.equals(plain,
+				readAll(new ParallelGzipInputStream(new ByteArrayInputStream(
+						compressed), 4, 333))));
+	}
+
+	@Test
+	public void testTruncatedParallelGzip() throws IOException {
+		byte[] plain = randomReads(500);
+		byte[] member = gzip(plain, 0, plain.length);
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		gz.write(member);
+		gz.write(member, 0, member.length / 2);
+		try {
+			readAll(new ParallelGzipInputStream(new ByteArrayInputStream(
+					gz.toByteArray()), 2, 512));
+			fail("EOFException expected");
+		} catch (java.io.EOFException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPrefetchInputStream() throws IOException {
+		byte[] plain = randomReads(1000);
+		byte[] compressed = gzip(plain, 0, plain.length);
+		PrefetchInputStream in = new PrefetchInputStream(new GZIPInputStream(
+				new ByteArrayInputStream(compressed)), 1000, 3);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		// Mixing single byte and bulk reads
+		while ((b = in.read()) >= 0) {
+			out.write(b);
+			byte[] buffer = new byte[777];
+			int read = in.read(buffer);
+			if (read > 0)
+				out.write(buffer, 0, read);
+		}
+		in.close();
+		assertTrue(Arrays.equals(plain, out.toByteArray()));
+		assertTrue(in.getChunks() >= plain.length / 1000);
+		assertTrue(in.getStalls() <= in.getChunks() + 1);
+	}
+
+	@Test
+	public void testPrefetchStalls() throws IOException, FileFormatException {
+		final byte[] reads = randomReads(200);
+		// Source slower than the parser
+		InputStream slow = new InputStream() {
+			private int pos = 0;
+
+			@Override
+			public int read() {
+				return (pos < reads.length) ? reads[pos++] & 0xFF : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (pos == reads.length)
+					return -1;
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				int n = Math.min(Math.min(len, 512), reads.length - pos);
+				System.arraycopy(reads, pos, b, off, n);
+				pos += n;
+				return n;
+			}
+		};
+		PrefetchInputStream in = new PrefetchInputStream(slow, 512, 2);
+		FileSequenceReader reader = FileSequenceIOFactory.getFactory(in)
+				.createReader();
+		SequenceProcess process = new SequenceProcess(reader);
+		process.setInstrumented(true, null);
+		SequenceCounter counter = new SequenceCounter();
+		process.addListener(counter, SequenceProcess.PRE);
+		process.startProcess();
+		reader.close();
+		assertEquals(200, counter.numSeq);
+		StageMetrics read = process.getMetrics().getStage(
+				"FastqByteSequenceReader");
+		assertTrue(in.getStalls() > 0);
+		assertEquals(in.getStalls(), read.getBlockedCount());
+		assertEquals(in.getStallTime(), read.getBlockedNanos());
+		assertTrue(read.getBlockedNanos() > 0);
+	}
+
+	@Test
+	public void testRingBuffer() throws InterruptedException {
+		WaitStrategy[] strategies = new WaitStrategy[] {
+				new WaitStrategy.Yield(), new WaitStrategy.Park(1000) };
+		for (WaitStrategy wait : strategies) {
+			final RingBuffer<long[]> ring = new RingBuffer<long[]>(16,
+					new RingBuffer.SlotFactory<long[]>() {
+						@Override
+						public long[] newSlot() {
+							return new long[1];
+						}
+					}, wait);
+			final int n = 100000;
+			final long[] sums = new long[2];
+			final boolean[] ordered = new boolean[] { true, true };
+			Thread[] readers = new Thread[2];
+			for (int r = 0; r < readers.length; r++) {
+				final int index = r;
+				final RingBuffer<long[]>.Reader reader = ring.newReader();
+				readers[r] = new Thread() {
+					@Override
+					public void run() {
+						long next = 0;
+						while (true) {
+							long available = reader.waitFor(next);
+							if (available < next)
+								return;
+							for (long s = next; s <= available; s++) {
+								long value = reader.get(s)[0];
+								ordered[index] &= (value == s);
+								sums[index] += value;
+							}
+							reader.release(available);
+							next = available + 1;
+						}
+					}
+				};
+				readers[r].start();
+			}
+			for (int i = 0; i < n; i++) {
+				long sequence = ring.next();
+				ring.get(sequence)[0] = i;
+				ring.publish(sequence);
+			}
+			ring.awaitReaders();
+			ring.close();
+			for (Thread t : readers)
+				t.join();
+			long expected = (long) n * (n - 1) / 2;
+			for (int r = 0; r < readers.length; r++) {
+				assertTrue(ordered[r]);
+				assertEquals(expected, sums[r]);
+			}
+		}
+	}
+
+	@Test
+	public void testPooledGzip() throws IOException {
+		DeflaterPool pool = new DeflaterPool(1);
+		byte[] sample = readAll(new FileInputStream(testFile(name + ".fastq")));
+		// The same deflater compresses both outputs
+		for (int i = 0; i < 2; i++) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			OutputStream out = new PooledGzipOutputStream(bytes, pool);
+			out.write(sample, 0, 100);
+			out.write(sample, 100, sample.length - 100);
+			out.close();
+			byte[] inflated = readAll(new GZIPInputStream(
+					new ByteArrayInputStream(bytes.toByteArray())));
+			assertTrue(Arrays.equals(sample, inflated));
+		}
+		pool.clear();
+		assertSame(FastqQualityDecoder.getShared(QualityEncoding.PHRED64),
+				FastqQualityDecoder.getShared(QualityEncoding.PHRED64));
+	}
+
+	@Test
+	public void testQualityKernels() {
+		QualityKernel scalar = QualityKernel.getScalar();
+		QualityKernel kernel = QualityKernel.getInstance();
+		Random random = new Random(11);
+		byte[] quality = new byte[400];
+		int[] expected = new int[400];
+		int[] found = new int[400];
+		for (int n = 0; n < 5000; n++) {
+			int length = random.nextInt(300);
+			int offset = random.nextInt(100);
+			for (int i = 0; i < quality.length; i++)
+				quality[i] = (byte) ('!' + random.nextInt(42));
+			if (random.nextInt(4) == 0)
+				quality[offset + random.nextInt(length + 1)] = (byte) (random
+						.nextBoolean() ? ' ' : 200);
+			boolean valid = scalar.decode(quality, offset, length, 33, 0, 41,
+					expected);
+			assertEquals(valid,
+					kernel.decode(quality, offset, length, 33, 0, 41, found));
+			if (!valid)
+				continue;
+			for (int i = 0; i < length; i++)
+				assertEquals(expected[i], found[i]);
+			int cutoff = random.nextInt(41);
+			assertEquals(scalar.cutIndex(expected, length, cutoff),
+					kernel.cutIndex(expected, length, cutoff));
+		}
+	}
+
+	private class SequenceCounter implements SequenceListener {
+
+		public int numSeq = 0;
+
+		@Override
+		public void sequence(String id, String sequence, String quality) {
+			numSeq++;
+		}
+
+	}
+
+}